@@ -0,0 +1,145 @@
+package admission;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import protocols.ThreadProtocol;
+
+import communications.FullMessage;
+
+import dsl.Actor;
+import dsl.Part;
+import dsl.Play;
+import dsl.Server;
+import dsl.Server.Overload;
+
+
+/**
+ * Overloads a {@link Server} whose rounds hold a thread each and take a few
+ * milliseconds of work, with many more clients than actors, and shows how
+ * many rounds end well under different admission policies. The clients run
+ * asynchronously and start a new round as soon as the last one ends.
+ * 
+ * <p>
+ * Usage: <code>AdmissionBenchmark [clients] [seconds]</code>, 64 clients
+ * during 3 seconds by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class AdmissionBenchmark {
+	
+	/**
+	 * A request that takes some work to answer.
+	 */
+	private static class Work extends Play<String> {
+		public static final String CLIENT = "client";
+		public static final String SERVER = "server";
+		
+		private StatelessCharacter client, server;
+		
+		public Work() {
+			this.protocolName = "work";
+		}
+		
+		@Override public void dramatisPersonae() {
+			client = new StatelessCharacter(CLIENT);
+			server = new StatelessCharacter(SERVER);
+		}
+		
+		@Override public void scene() {
+			client.send(server, "request", 100);
+			server.run(me -> {
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			server.send(client, "response", 100);
+		}
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%12s %8s %8s %10s %10s %10s %8s\n", "overload",
+				"actors", "pending", "ended", "timeouts", "shed", "built");
+		
+		run(Overload.REJECT_NEW, 2, 8, 0, clients, seconds);
+		run(Overload.REJECT_NEW, 2, 8, 16, clients, seconds);
+		run(Overload.SHED_OLDEST, 2, 8, 16, clients, seconds);
+		run(Overload.REJECT_NEW, 2, 8, 1024, clients, seconds);
+		
+		System.exit(0); // Servers linger.
+	}
+	
+	private static void run(Overload overload, int minSize, int size,
+			int maxPending, int clients, int seconds)
+			throws InterruptedException {
+		Map<String, BlockingQueue<FullMessage<String>>> queues =
+				new ConcurrentHashMap<String, BlockingQueue<FullMessage<String>>>();
+		
+		Server<String> server = new Server<String>(new Work()
+				.interpretAs(Work.SERVER), new ThreadProtocol<String>(queues,
+				"server"), Actor::new, minSize, size, maxPending, overload);
+		server.start();
+		
+		ThreadProtocol<String> clientResource = new ThreadProtocol<String>(
+				queues, "client");
+		Part part = new Work().interpretAs(Work.CLIENT);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		
+		LongAdder ended = new LongAdder(), timeouts = new LongAdder();
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		CountDownLatch done = new CountDownLatch(clients);
+		int built = 0;
+		
+		for (int i = 0; i < clients; i++) {
+			Actor<String> client = new Actor<String>(part, clientResource);
+			client.setInitialAddress(Work.SERVER, "server");
+			loop(client, executor, deadline, ended, timeouts, done);
+		}
+		
+		// Watch the Server grow:
+		while (!done.await(10, TimeUnit.MILLISECONDS)) {
+			built = Math.max(built, server.getNumberOfActors());
+		}
+		
+		System.out.printf("%12s %8s %8d %10d %10d %10d %8d\n", overload,
+				minSize + "-" + size, maxPending, ended.sum(), timeouts.sum(),
+				server.getNumberOfShedRuns(), built);
+		
+		server.abort();
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Performs rounds until the deadline.
+	 */
+	private static void loop(Actor<String> client, ExecutorService executor,
+			long deadline, LongAdder ended, LongAdder timeouts,
+			CountDownLatch done) {
+		client.performAsync(executor).whenComplete((nothing, failure) -> {
+			if (failure == null) {
+				ended.increment();
+			} else {
+				timeouts.increment();
+			}
+			
+			if (System.nanoTime() < deadline) {
+				loop(client, executor, deadline, ended, timeouts, done);
+			} else {
+				done.countDown();
+			}
+		});
+	}
+}
@@ -0,0 +1,135 @@
+package async;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import protocols.ThreadProtocol;
+
+import communications.FullMessage;
+
+import dsl.Actor;
+import dsl.Part;
+import dsl.Play;
+import dsl.Server;
+
+
+/**
+ * Shows how many protocol rounds can be held at once when actors run
+ * asynchronously. A large number of clients start a query round each and are
+ * left waiting while the server is away; then the server arrives and answers
+ * them all. Both sides share a small executor.
+ * 
+ * <p>
+ * Usage: <code>AsyncBenchmark [rounds] [threads]</code>, 100,000 rounds on 4
+ * threads by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class AsyncBenchmark {
+	
+	/**
+	 * A simple query and response.
+	 */
+	private static class EchoPlay extends Play<Integer> {
+		public static final String CLIENT = "client";
+		public static final String SERVER = "server";
+		
+		private StatelessCharacter client, server;
+		
+		@Override public void dramatisPersonae() {
+			client = new StatelessCharacter(CLIENT);
+			server = new StatelessCharacter(SERVER);
+		}
+		
+		@Override public void scene() {
+			client.query(server, (me, msg) -> msg + 1, "echo");
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		
+		ExecutorService executor = Executors
+				.newFixedThreadPool(threads);
+		Map<String, BlockingQueue<FullMessage<Integer>>> blockingQueues =
+				new ConcurrentHashMap<String, BlockingQueue<FullMessage<Integer>>>();
+		
+		// Hold the server mail while it is away:
+		BlockingQueue<FullMessage<Integer>> serverMail =
+				new LinkedBlockingQueue<FullMessage<Integer>>();
+		blockingQueues.put("server", serverMail);
+		
+		ThreadProtocol<Integer> clientResource = new ThreadProtocol<Integer>(
+				blockingQueues, "client");
+		Part clientPart = new EchoPlay().interpretAs(EchoPlay.CLIENT);
+		
+		int threadsBefore = Thread.activeCount();
+		AtomicInteger answered = new AtomicInteger();
+		@SuppressWarnings("unchecked") CompletableFuture<Void>[] done =
+				(CompletableFuture<Void>[]) new CompletableFuture<?>[rounds];
+		
+		// Do stuff:
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < rounds; i++) {
+			Actor<Integer> client = new Actor<Integer>(clientPart,
+					clientResource);
+			client.setInitialAddress(EchoPlay.SERVER, "server");
+			client.setMessage("echoQuery", i);
+			
+			int query = i;
+			
+			done[i] = client.performAsync(executor).thenRun(() -> {
+				if (client.getMessage("echoResponse") == query + 1) {
+					answered.incrementAndGet();
+				}
+			});
+		}
+		
+		long toc = System.nanoTime();
+		
+		// Wait until every query is in the server mail:
+		while (serverMail.size() < rounds) {
+			Thread.sleep(10);
+		}
+		
+		int threadsWaiting = Thread.activeCount();
+		
+		// Here comes the server:
+		ThreadProtocol<Integer> serverResource = new ThreadProtocol<Integer>(
+				blockingQueues, "server");
+		Server<Integer> server = new Server<Integer>(
+				new EchoPlay().interpretAs(EchoPlay.SERVER), serverResource,
+				Actor::new, rounds, executor);
+		server.start();
+		
+		long tac = System.nanoTime();
+		serverMail.drainTo(blockingQueues.get("server"));
+		CompletableFuture.allOf(done).join();
+		long tuc = System.nanoTime();
+		
+		// Statistics:
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("rounds:                 %d\n", rounds);
+		System.out.printf("executor threads:       %d\n", threads);
+		System.out.printf("live threads, idle:     %d\n", threadsBefore);
+		System.out.printf("live threads, waiting:  %d\n", threadsWaiting);
+		System.out.printf("start all rounds:       %dms\n",
+				(toc - tic) / 1_000_000);
+		System.out.printf("answer all rounds:      %dms\n",
+				(tuc - tac) / 1_000_000);
+		System.out.printf("rounds per second:      %.0f\n", rounds
+				/ ((tuc - tac) * 1e-9));
+		System.out.printf("correct answers:        %d\n", answered.get());
+		
+		System.exit(0);
+	}
+}
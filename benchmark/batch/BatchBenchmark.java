@@ -0,0 +1,194 @@
+package batch;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocols.SelectorTCPCommunication;
+import protocols.TCPCommunication;
+import protocols.ThreadProtocol;
+import protocols.UDPCommunication;
+
+import communications.CommunicationResource;
+import communications.FullMessage;
+import communications.ReceiveEvent;
+import communications.RxException;
+import communications.ShortMessage;
+import communications.Subscription;
+
+import dsl.Actor;
+import dsl.Part;
+import dsl.Play;
+import dsl.Server;
+
+
+/**
+ * Measures a Play that fans out: a client sends a row of messages to a server,
+ * which then answers once. The Actor sends each row as a batch; hiding the
+ * batch methods of the resource behind a plain decorator makes it send the
+ * messages one by one instead, for comparison.
+ * 
+ * <p>
+ * Usage: <code>BatchBenchmark [rounds] [fan out]</code>, 2000 rounds of 16
+ * messages by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class BatchBenchmark {
+	
+	/**
+	 * A row of messages and an acknowledgment.
+	 */
+	private static class FanOut extends Play<String> {
+		public static final String CLIENT = "client";
+		public static final String SERVER = "server";
+		
+		private final int fanOut;
+		private StatelessCharacter client, server;
+		
+		public FanOut(int fanOut) {
+			this.protocolName = "fan";
+			this.fanOut = fanOut;
+		}
+		
+		@Override public void dramatisPersonae() {
+			client = new StatelessCharacter(CLIENT);
+			server = new StatelessCharacter(SERVER);
+		}
+		
+		@Override public void scene() {
+			for (int i = 0; i < fanOut; i++) {
+				client.send(server, "part" + i, 1000);
+			}
+			
+			server.send(client, "ack", 1000);
+		}
+	}
+	
+	/**
+	 * Hides the batch methods of a resource, so that the default ones, which
+	 * send messages one by one, are used.
+	 */
+	private static class Unbatched<P> implements CommunicationResource<P> {
+		private final CommunicationResource<P> resource;
+		
+		Unbatched(CommunicationResource<P> resource) {
+			this.resource = resource;
+		}
+		
+		@Override public Subscription addReceiveEvent(
+				ReceiveEvent<P> receiveEvent) {
+			return resource.addReceiveEvent(receiveEvent);
+		}
+		
+		@Override public Subscription addRunEvent(String protocol,
+				long runId, ReceiveEvent<P> receiveEvent) {
+			return resource.addRunEvent(protocol, runId, receiveEvent);
+		}
+		
+		@Override public void sendMessage(ShortMessage<P> msg, String to) {
+			resource.sendMessage(msg, to);
+		}
+		
+		@Override public String getLocalAddress() {
+			return resource.getLocalAddress();
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+		int fanOut = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		
+		Part clientPart = new FanOut(fanOut).interpretAs(FanOut.CLIENT);
+		Part serverPart = new FanOut(fanOut).interpretAs(FanOut.SERVER);
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %10s %8s %10s %12s %14s\n", "resource",
+				"sends", "rounds", "timeouts", "rounds/s", "us/message");
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			for (boolean batched : new boolean[] { false, true }) {
+				// Threads:
+				Map<String, BlockingQueue<FullMessage<String>>> queues =
+						new ConcurrentHashMap<String, BlockingQueue<FullMessage<String>>>();
+				run("thread", batched, new ThreadProtocol<String>(queues,
+						"server"), new ThreadProtocol<String>(queues,
+						"client"), "server", clientPart, serverPart, rounds,
+						fanOut, warmUp > 0);
+				
+				// TCP:
+				TCPCommunication tcpServer = new TCPCommunication(0);
+				TCPCommunication tcpClient = new TCPCommunication(0);
+				run("tcp", batched, tcpServer, tcpClient, "127.0.0.1:"
+						+ tcpServer.getPort(), clientPart, serverPart, rounds,
+						fanOut, warmUp > 0);
+				tcpServer.disconnect();
+				tcpClient.disconnect();
+				
+				// TCP, on selectors:
+				SelectorTCPCommunication selectorServer =
+						new SelectorTCPCommunication(0);
+				SelectorTCPCommunication selectorClient =
+						new SelectorTCPCommunication(0);
+				run("selector", batched, selectorServer, selectorClient,
+						"127.0.0.1:" + selectorServer.getPort(), clientPart,
+						serverPart, rounds, fanOut, warmUp > 0);
+				selectorServer.disconnect();
+				selectorClient.disconnect();
+				
+				// UDP:
+				UDPCommunication udpServer = new UDPCommunication(0, 65507);
+				UDPCommunication udpClient = new UDPCommunication(0, 65507);
+				run("udp", batched, udpServer, udpClient, "127.0.0.1:"
+						+ udpServer.getPort(), clientPart, serverPart, rounds,
+						fanOut, warmUp > 0);
+				udpServer.disconnect();
+				udpClient.disconnect();
+			}
+		}
+		
+		System.exit(0); // Servers linger.
+	}
+	
+	private static void run(String name, boolean batched,
+			CommunicationResource<String> serverResource,
+			CommunicationResource<String> clientResource, String address,
+			Part clientPart, Part serverPart, int rounds, int fanOut,
+			boolean print) {
+		if (!batched) {
+			serverResource = new Unbatched<String>(serverResource);
+			clientResource = new Unbatched<String>(clientResource);
+		}
+		
+		new Server<String>(serverPart, serverResource, Actor::new, 2).start();
+		
+		Actor<String> client = new Actor<String>(clientPart, clientResource);
+		client.setInitialAddress(FanOut.SERVER, address);
+		
+		for (int i = 0; i < fanOut; i++) {
+			client.setMessage("part" + i, "payload " + i);
+		}
+		
+		int timeouts = 0;
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < rounds; i++) {
+			try {
+				client.perform();
+			} catch (RxException e) {
+				timeouts++;
+			}
+		}
+		
+		long elapsed = System.nanoTime() - tic;
+		
+		if (print) {
+			System.out.printf("%10s %10s %8d %10d %12.0f %14.2f\n", name,
+					batched ? "batched" : "one by one", rounds, timeouts,
+					rounds * 1e9 / elapsed, elapsed * 1e-3 / rounds
+							/ (fanOut + 1));
+		}
+	}
+}
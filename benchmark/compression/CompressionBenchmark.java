@@ -0,0 +1,188 @@
+package compression;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import protocols.TCPCommunication;
+import protocols.ThreadProtocol;
+
+import communications.CommunicationResource;
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.Subscription;
+import communications.util.WrappedTypeProtocol;
+
+import compose.BinaryScheme;
+import compose.CompressingScheme;
+import compose.MessageEncodingScheme;
+import compose.PayloadCodec;
+
+
+/**
+ * Measures what compressing messages buys in a bulk transfer: chunks are
+ * encoded, sent, received and decoded, with and without a
+ * {@link CompressingScheme} over the {@link BinaryScheme}, over threads and
+ * over TCP. Chunks are either redundant, like the text of a log, or random,
+ * which no compression shrinks.
+ * 
+ * <p>
+ * Usage: <code>CompressionBenchmark [chunks] [chunk size]</code>, 4000 chunks
+ * of 4096 bytes by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class CompressionBenchmark {
+	
+	public static void main(String[] args) throws IOException,
+			InterruptedException, ParseException {
+		int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 4_000;
+		int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+		
+		byte[] redundant = redundant(chunkSize);
+		byte[] random = new byte[chunkSize];
+		new Random(42).nextBytes(random);
+		
+		MessageEncodingScheme<byte[], byte[]> binary =
+				new BinaryScheme<byte[]>(PayloadCodec.bytes());
+		MessageEncodingScheme<byte[], byte[]> compressing =
+				new CompressingScheme<byte[]>(binary);
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %10s %12s %14s %12s\n", "transport",
+				"chunks", "scheme", "bytes/chunk", "MB/s");
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			boolean print = warmUp > 0;
+			
+			for (String transport : new String[] { "thread", "tcp" }) {
+				for (boolean isRandom : new boolean[] { false, true }) {
+					byte[] chunk = isRandom ? random : redundant;
+					String kind = isRandom ? "random" : "redundant";
+					
+					run(transport, kind, "binary", binary, chunk, chunks,
+							print);
+					run(transport, kind, "deflate", compressing, chunk,
+							chunks, print);
+				}
+			}
+		}
+		
+		System.exit(0); // Listeners linger.
+	}
+	
+	/**
+	 * Makes a chunk that looks like the text of a log.
+	 */
+	private static byte[] redundant(int size) {
+		StringBuilder text = new StringBuilder(size + 64);
+		Random random = new Random(42);
+		
+		for (int line = 0; text.length() < size; line++) {
+			text.append(String.format("%08d INFO  [worker-%d] round %d "
+					+ "ended in %d us\n", line, random.nextInt(8),
+					random.nextInt(100_000), random.nextInt(1000)));
+		}
+		
+		return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	/**
+	 * Sends the chunks from one resource to another, encoding them on one side
+	 * and decoding them on the other.
+	 */
+	private static void run(String transport, String kind, String schemeName,
+			MessageEncodingScheme<byte[], byte[]> scheme, byte[] chunk,
+			int chunks, boolean print) throws IOException,
+			InterruptedException, ParseException {
+		CommunicationResource<byte[]> sender, receiver;
+		String address;
+		TCPCommunication tcpSender = null, tcpReceiver = null;
+		
+		// Threads carry the bytes as they are, TCP carries strings:
+		if (transport.equals("thread")) {
+			Map<String, BlockingQueue<FullMessage<byte[]>>> queues =
+					new ConcurrentHashMap<String, BlockingQueue<FullMessage<byte[]>>>();
+			sender = new ThreadProtocol<byte[]>(queues, "sender");
+			receiver = new ThreadProtocol<byte[]>(queues, "receiver");
+			address = "receiver";
+		} else {
+			tcpSender = new TCPCommunication(0);
+			tcpReceiver = new TCPCommunication(0);
+			sender = base64(tcpSender);
+			receiver = base64(tcpReceiver);
+			address = "127.0.0.1:" + tcpReceiver.getPort();
+		}
+		
+		CountDownLatch received = new CountDownLatch(chunks);
+		LongAdder wireBytes = new LongAdder();
+		LongAdder garbled = new LongAdder();
+		
+		Subscription subscription = receiver.addReceiveEvent(msg -> {
+			try {
+				ShortMessage<byte[]> decoded = scheme.decode(msg.getPayload());
+				
+				if (decoded.getPayload().length != chunk.length) {
+					garbled.increment();
+				}
+			} catch (ParseException e) {
+				garbled.increment();
+			}
+			
+			wireBytes.add(msg.getPayload().length);
+			received.countDown();
+			
+			return true;
+		});
+		
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < chunks; i++) {
+			ShortMessage<byte[]> msg = new ShortMessage<byte[]>(i,
+					"segmentation.SimpleTransfer", "chunk", chunk);
+			sender.sendMessage(new ShortMessage<byte[]>(i, "bulk", "wire",
+					scheme.encode(msg)), address);
+		}
+		
+		boolean done = received.await(60, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - tic;
+		
+		subscription.cancel();
+		
+		if (tcpSender != null) {
+			tcpSender.disconnect();
+			tcpReceiver.disconnect();
+		}
+		
+		if (!done || garbled.sum() > 0) {
+			throw new AssertionError(String.format(
+					"%s over %s: %d chunks lost, %d garbled.", schemeName,
+					transport, received.getCount(), garbled.sum()));
+		}
+		
+		if (print) {
+			System.out.printf("%10s %10s %12s %14d %12.1f\n", transport, kind,
+					schemeName, wireBytes.sum() / chunks, (double) chunk.length
+							* chunks * 1e3 / elapsed);
+		}
+	}
+	
+	/**
+	 * Carries bytes over a resource of strings, as Base64.
+	 */
+	private static CommunicationResource<byte[]> base64(
+			CommunicationResource<String> resource) {
+		return new WrappedTypeProtocol<String, byte[]>(resource,
+				Base64.getDecoder()::decode,
+				Base64.getEncoder()::encodeToString);
+	}
+}
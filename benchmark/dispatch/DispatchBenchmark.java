@@ -0,0 +1,137 @@
+package dispatch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.util.QueueResource;
+
+
+/**
+ * Measures how long a {@link QueueResource} takes to deliver a message to the
+ * receive event of its round as the number of rounds in flight grows. Each
+ * round is modeled after an Actor waiting for messages: a general receive event
+ * filtering by protocol and run id and, in the indexed case, an entry in the
+ * round index as well.
+ * 
+ * @author tokahuke
+ *
+ */
+public class DispatchBenchmark {
+	
+	/**
+	 * A resource that delivers whatever is put in its queue.
+	 */
+	private static class LoopbackResource extends QueueResource<Integer> {
+		private final BlockingQueue<FullMessage<Integer>> queue =
+				new LinkedBlockingQueue<FullMessage<Integer>>();
+		
+		public LoopbackResource() {
+			start();
+		}
+		
+		public void deliver(FullMessage<Integer> msg)
+				throws InterruptedException {
+			queue.put(msg);
+		}
+		
+		public void disconnect() {
+			stop();
+		}
+		
+		@Override public void sendMessage(ShortMessage<Integer> msg,
+				String to) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override public FullMessage<Integer> take()
+				throws InterruptedException {
+			return queue.take();
+		}
+	}
+	
+	private static final String PROTOCOL = "bench";
+	
+	public static void main(String[] args) throws InterruptedException {
+		int[] poolSizes = { 4, 16, 64, 256, 1024, 4096, 10_000 };
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%8s %16s %16s\n", "actors", "linear (ns/msg)",
+				"indexed (ns/msg)");
+		
+		for (int poolSize : poolSizes) {
+			// Keep the linear case within a few seconds:
+			int messages = Math.max(20_000, 4_000_000 / poolSize);
+			
+			// Warm up both paths first:
+			run(poolSize, messages, false);
+			run(poolSize, messages, true);
+			
+			System.out.printf("%8d %16.1f %16.1f\n", poolSize,
+					run(poolSize, messages, false),
+					run(poolSize, messages, true));
+		}
+	}
+	
+	/**
+	 * Delivers a number of messages spread over a pool of rounds.
+	 * 
+	 * @param poolSize
+	 *            the number of rounds in flight.
+	 * @param messages
+	 *            the number of messages to deliver.
+	 * @param indexed
+	 *            whether rounds are put in the round index.
+	 * @return the mean delivery time per message, in nanoseconds.
+	 */
+	private static double run(int poolSize, int messages, boolean indexed)
+			throws InterruptedException {
+		LoopbackResource resource = new LoopbackResource();
+		CountDownLatch done = new CountDownLatch(messages);
+		
+		for (int i = 0; i < poolSize; i++) {
+			long runId = i;
+			
+			resource.addReceiveEvent(msg -> {
+				if (PROTOCOL.equals(msg.getProtocol())
+						&& msg.getId() == runId) {
+					done.countDown();
+					return true;
+				} else {
+					return false;
+				}
+			});
+			
+			if (indexed) {
+				resource.addRunEvent(PROTOCOL, runId, msg -> {
+					done.countDown();
+					return true;
+				});
+			}
+		}
+		
+		// Build the messages beforehand so only delivery is measured:
+		@SuppressWarnings("unchecked") FullMessage<Integer>[] inbox =
+				(FullMessage<Integer>[]) new FullMessage<?>[messages];
+		
+		for (int i = 0; i < messages; i++) {
+			inbox[i] = new FullMessage<Integer>((i * 7919L) % poolSize,
+					PROTOCOL, "msg", "somewhere", i);
+		}
+		
+		long tic = System.nanoTime();
+		
+		for (FullMessage<Integer> msg : inbox) {
+			resource.deliver(msg);
+		}
+		
+		done.await();
+		long toc = System.nanoTime();
+		
+		resource.disconnect();
+		
+		return (double) (toc - tic) / messages;
+	}
+}
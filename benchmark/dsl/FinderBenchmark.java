@@ -0,0 +1,158 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Measures how long the {@link TransitionFinder} takes to handle each incoming
+ * message on large Parts. Two shapes of Part are used: a chain, in which one
+ * character sends many messages in a row, and a ladder, in which it chooses
+ * between two messages at each step. In both, the messages of a round arrive
+ * in random order and the transition is only found with the last one.
+ * 
+ * <p>
+ * Usage: <code>FinderBenchmark [steps...]</code>.
+ * 
+ * @author tokahuke
+ *
+ */
+public class FinderBenchmark {
+	
+	/**
+	 * A sender sends many messages in a row.
+	 */
+	private static class Chain extends Play<Integer> {
+		private final int steps;
+		private StatelessCharacter sender, receiver;
+		
+		public Chain(int steps) {
+			this.steps = steps;
+		}
+		
+		@Override public void dramatisPersonae() {
+			sender = new StatelessCharacter("sender");
+			receiver = new StatelessCharacter("receiver");
+		}
+		
+		@Override public void scene() {
+			for (int i = 0; i < steps; i++) {
+				sender.send(receiver, "a" + i);
+			}
+		}
+	}
+	
+	/**
+	 * A sender sends one of two messages at each step.
+	 */
+	private static class Ladder extends Play<Integer> {
+		private final int steps;
+		private StatelessCharacter sender, receiver;
+		
+		public Ladder(int steps) {
+			this.steps = steps;
+		}
+		
+		@Override public void dramatisPersonae() {
+			sender = new StatelessCharacter("sender");
+			receiver = new StatelessCharacter("receiver");
+		}
+		
+		@Override public void scene() {
+			for (int i = 0; i < steps; i++) {
+				if (sender.test(sender -> true, "step" + i)) {
+					sender.send(receiver, "a" + i);
+				} else {
+					sender.send(receiver, "b" + i);
+				}
+			}
+		}
+	}
+	
+	public static void main(String[] args) {
+		int[] sizes = { 8, 16, 32, 64, 128, 256 };
+		
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%8s %10s %16s %16s\n", "shape", "messages",
+				"us/message", "us/round");
+		
+		for (int steps : sizes) {
+			run("chain", new Chain(steps).interpretAs("receiver"), steps,
+					false);
+		}
+		
+		for (int steps : sizes) {
+			run("ladder", new Ladder(steps).interpretAs("receiver"), steps,
+					true);
+		}
+	}
+	
+	/**
+	 * Plays rounds of a Part until enough time has been spent, then prints
+	 * the mean times.
+	 * 
+	 * @param shape
+	 *            the name of the shape of the Part.
+	 * @param part
+	 *            the Part.
+	 * @param steps
+	 *            the number of steps in the Part.
+	 * @param ladder
+	 *            whether the Part has two messages per step.
+	 */
+	private static void run(String shape, Part part, int steps, boolean ladder) {
+		Random random = new Random(42);
+		BitSet initials = (BitSet) part.rootNode.getNext().getNextAction();
+		TransitionFinder finder = new TransitionFinder(part);
+		
+		long elapsed = 0;
+		int rounds = 0;
+		
+		// Measure for about two seconds, leaving the first rounds out:
+		for (long budget = 2_000_000_000L; elapsed < budget; rounds++) {
+			if (rounds == 10) {
+				budget -= elapsed;
+				elapsed = 0;
+				rounds = 0;
+			}
+			
+			// Choose one message per step and shuffle:
+			List<Short> arrivals = new ArrayList<Short>();
+			
+			for (int i = 0; i < steps; i++) {
+				String name = (ladder && random.nextBoolean() ? "b" : "a") + i;
+				arrivals.add(part.inMessageIds.get(name));
+			}
+			
+			Collections.shuffle(arrivals, random);
+			
+			long tic = System.nanoTime();
+			finder.reset(initials);
+			Transition transition = null;
+			
+			for (short messageId : arrivals) {
+				transition = finder.markReceived(messageId);
+			}
+			
+			elapsed += System.nanoTime() - tic;
+			
+			if (transition == null || transition.length != steps) {
+				throw new IllegalStateException("Wrong transition found.");
+			}
+		}
+		
+		System.out.printf("%8s %10d %16.3f %16.3f\n", shape, steps,
+				elapsed * 1e-3 / rounds / steps, elapsed * 1e-3 / rounds);
+	}
+}
@@ -0,0 +1,137 @@
+package dsl;
+
+import java.lang.management.ManagementFactory;
+import java.util.BitSet;
+
+import segmentation.SimpleTransfer;
+
+import com.sun.management.ThreadMXBean;
+import composition.AcknowledgeChannel;
+
+
+/**
+ * Measures how much memory the {@link TransitionFinder} allocates for each
+ * incoming message once warmed up, which should be nothing at all, and how
+ * long it takes. The Parts of both characters of the
+ * {@link AcknowledgeChannel} and of the {@link SimpleTransfer} are used. At
+ * each receiving step, the messages of one path arrive in order and all the
+ * others time out, until a transition is found.
+ * 
+ * <p>
+ * Needs the behavior sources in the classpath. Only runs on JVMs whose
+ * ThreadMXBean counts allocated bytes (e.g. HotSpot).
+ * 
+ * @author tokahuke
+ *
+ */
+public class ReceiveBenchmark {
+	
+	private static final ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+	
+	public static void main(String[] args) {
+		int rounds = 1_000_000;
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%20s %10s %16s %16s\n", "part", "messages",
+				"bytes/message", "ns/message");
+		
+		run("ackCh/sender", new AcknowledgeChannel<String>()
+				.interpretAs(AcknowledgeChannel.SENDER), rounds);
+		run("ackCh/receiver", new AcknowledgeChannel<String>()
+				.interpretAs(AcknowledgeChannel.RECEIVER), rounds);
+		run("muST/sender", new SimpleTransfer().interpretAs("sender"), rounds);
+		run("muST/receiver", new SimpleTransfer().interpretAs("receiver"),
+				rounds);
+	}
+	
+	/**
+	 * Plays receiving steps of a Part, then prints the allocations and time
+	 * per message.
+	 * 
+	 * @param name
+	 *            the name of the Part.
+	 * @param part
+	 *            the Part.
+	 * @param rounds
+	 *            the number of receiving steps to measure.
+	 */
+	private static void run(String name, Part part, int rounds) {
+		int size = part.inMessageIds.size();
+		
+		if (size == 0) {
+			System.out.printf("%20s %10d %16s %16s\n", name, 0, "-", "-");
+			return;
+		}
+		
+		// Start from every message nothing comes before:
+		BitSet initials = new BitSet(size);
+		
+		for (short in = 0; in < size; in++) {
+			if (part.nextMessagesReverse[in].length == 0) {
+				initials.set(in);
+			}
+		}
+		
+		// Arrive through the first successors, from the first initial on:
+		short[] arrivals = new short[size];
+		int length = 0;
+		
+		short id = (short) initials.nextSetBit(0);
+		arrivals[length++] = id;
+		
+		while (part.nextActions[id] instanceof short[]) {
+			id = ((short[]) part.nextActions[id])[0];
+			arrivals[length++] = id;
+		}
+		
+		TransitionFinder finder = new TransitionFinder(part);
+		
+		// Warm up, then measure:
+		play(finder, part, initials, arrivals, length, rounds);
+		
+		long thread = Thread.currentThread().getId();
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long tic = System.nanoTime();
+		
+		long messages = play(finder, part, initials, arrivals, length, rounds);
+		
+		long elapsed = System.nanoTime() - tic;
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+		
+		System.out.printf("%20s %10d %16.3f %16.1f\n", name, size,
+				(double) bytes / messages, (double) elapsed / messages);
+	}
+	
+	/**
+	 * Plays receiving steps of a Part.
+	 * 
+	 * @return the number of messages handled.
+	 */
+	private static long play(TransitionFinder finder, Part part,
+			BitSet initials, short[] arrivals, int length, int rounds) {
+		long messages = 0;
+		
+		for (int round = 0; round < rounds; round++) {
+			finder.reset(initials);
+			Transition transition = null;
+			
+			for (int i = 0; i < length && transition == null; i++) {
+				transition = finder.markReceived(arrivals[i]);
+				messages++;
+			}
+			
+			for (int position = 0; position < part.topSort.length
+					&& transition == null; position++) {
+				transition = finder.markTimeout(part.topSort[position]);
+				messages++;
+				
+				if (transition == null && !finder.hasConnectivityProof()) {
+					break; // The Actor would give up here.
+				}
+			}
+		}
+		
+		return messages;
+	}
+}
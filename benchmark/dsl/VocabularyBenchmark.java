@@ -0,0 +1,135 @@
+package dsl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import protocols.Frame;
+
+import segmentation.SimpleTransfer;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.Vocabulary;
+import composition.AcknowledgeChannel;
+
+
+/**
+ * Measures what sending message names as words of a {@link Vocabulary} buys:
+ * the incoming messages of a few Parts are put in frames of a stream, taken
+ * out again and dispatched to their ids in the Part. Words go first; then
+ * another vocabulary is registered for each protocol, which leaves both out
+ * of look-ups, and the same messages go by (interned) name.
+ * 
+ * <p>
+ * Usage: <code>VocabularyBenchmark [rounds]</code>, 200,000 by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class VocabularyBenchmark {
+	
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		
+		Part ackCh = new AcknowledgeChannel<String>()
+				.interpretAs(AcknowledgeChannel.RECEIVER);
+		Part muST = new SimpleTransfer().interpretAs("receiver");
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%16s %8s %10s %16s %16s\n", "part", "names",
+				"messages", "bytes/message", "ns/message");
+		
+		run("ackCh/receiver", ackCh, true, rounds);
+		run("muST/receiver", muST, true, rounds);
+		
+		// Make the protocols ambiguous, so that names go as strings:
+		for (Part part : new Part[] { ackCh, muST }) {
+			List<String> names = new ArrayList<String>();
+			names.add("not in the Play");
+			names.addAll(part.inMessageIds.keySet());
+			Vocabulary.register(new Vocabulary(part.protocolName, names));
+		}
+		
+		run("ackCh/receiver", ackCh, false, rounds);
+		run("muST/receiver", muST, false, rounds);
+	}
+	
+	/**
+	 * Round trips the incoming messages of a Part, then prints the size and
+	 * time per message.
+	 */
+	private static void run(String name, Part part, boolean isWords,
+			int rounds) {
+		List<ShortMessage<String>> msgs = new ArrayList<ShortMessage<String>>();
+		List<Short> ids = new ArrayList<Short>();
+		
+		for (Entry<String, Short> entry : part.inMessageIds.entrySet()) {
+			Vocabulary.Word word = part.vocabulary.getWord(entry.getKey());
+			
+			msgs.add(isWords ? new ShortMessage<String>(42, word, "payload")
+					: new ShortMessage<String>(42, part.protocolName, entry
+							.getKey(), "payload"));
+			ids.add(entry.getValue());
+		}
+		
+		int size = 0;
+		
+		for (ShortMessage<String> msg : msgs) {
+			size += Frame.maxSize(msg);
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		
+		// One dictionary per end of the stream:
+		Frame.Dictionary sent = new Frame.Dictionary();
+		Frame.Dictionary received = new Frame.Dictionary();
+		
+		// Warm up, then measure:
+		roundTrip(part, msgs, ids, sent, received, buffer, rounds);
+		
+		long tic = System.nanoTime();
+		int bytes = roundTrip(part, msgs, ids, sent, received, buffer, rounds);
+		long elapsed = System.nanoTime() - tic;
+		
+		System.out.printf("%16s %8s %10d %16.1f %16.1f\n", name, isWords
+				? "words" : "strings", msgs.size(), (double) bytes
+				/ msgs.size(), (double) elapsed / rounds / msgs.size());
+	}
+	
+	/**
+	 * Encodes, decodes and dispatches messages.
+	 * 
+	 * @return the number of bytes the messages take on the wire.
+	 */
+	private static int roundTrip(Part part, List<ShortMessage<String>> msgs,
+			List<Short> ids, Frame.Dictionary sent, Frame.Dictionary received,
+			ByteBuffer buffer, int rounds) {
+		int bytes = 0;
+		
+		for (int round = 0; round < rounds; round++) {
+			buffer.clear();
+			
+			for (ShortMessage<String> msg : msgs) {
+				Frame.encode(msg, sent, buffer);
+			}
+			
+			bytes = buffer.position();
+			buffer.flip();
+			
+			for (int i = 0; i < msgs.size(); i++) {
+				FullMessage<String> decoded = Frame.decode(buffer, received,
+						"peer");
+				
+				if (!part.isOwn(decoded)
+						|| part.inMessageId(decoded) != ids.get(i)) {
+					throw new AssertionError("Message " + decoded
+							+ " went astray.");
+				}
+			}
+		}
+		
+		return bytes;
+	}
+}
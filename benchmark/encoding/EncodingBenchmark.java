@@ -0,0 +1,108 @@
+package encoding;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+import communications.ShortMessage;
+import compose.BinaryScheme;
+import compose.MessageEncodingScheme;
+import compose.PayloadCodec;
+
+
+/**
+ * Compares the encoding schemes for messages: how many bytes each takes per
+ * message and how long it takes to encode and decode one, for a few kinds of
+ * payload.
+ * 
+ * <p>
+ * Usage: <code>EncodingBenchmark [messages]</code>, 200,000 by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class EncodingBenchmark {
+	
+	public static void main(String[] args) throws ParseException {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		
+		byte[] junk = new byte[256];
+		new Random(42).nextBytes(junk);
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %14s %10s %12s %12s\n", "payload", "scheme",
+				"bytes", "encode (ns)", "decode (ns)");
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			boolean print = warmUp > 0;
+			
+			compare("Integer", 42, PayloadCodec.integer(), messages, print);
+			compare("String", "Elementary, my dear Watson.",
+					PayloadCodec.string(), messages, print);
+			compare("byte[256]", junk, PayloadCodec.bytes(), messages, print);
+			compare("List", Arrays.asList("to", "be", "or", "not"),
+					PayloadCodec.list(PayloadCodec.string()), messages, print);
+		}
+	}
+	
+	private static <P> void compare(String payloadName, P payload,
+			PayloadCodec<P> codec, int messages, boolean print)
+			throws ParseException {
+		ShortMessage<P> msg = new ShortMessage<P>(0x1234_5678_9abc_def0L,
+				"protocols.SimpleTransfer", "bulk", payload);
+		
+		measure(payloadName, "serialization",
+				MessageEncodingScheme.<P> getSerializationScheme(), msg,
+				messages, print, m -> ((byte[]) m).length);
+		measure(payloadName, "base64",
+				MessageEncodingScheme.<P> getBase64Scheme(), msg, messages,
+				print, m -> ((String) m).length());
+		measure(payloadName, "binary", new BinaryScheme<P>(codec), msg,
+				messages, print, m -> ((byte[]) m).length);
+	}
+	
+	private static <P, M> void measure(String payloadName, String schemeName,
+			MessageEncodingScheme<P, M> scheme, ShortMessage<P> msg,
+			int messages, boolean print,
+			ToIntFunction<Object> sizeOf)
+			throws ParseException {
+		M encoded = null;
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < messages; i++) {
+			encoded = scheme.encode(msg);
+		}
+		
+		long encodeNanos = System.nanoTime() - tic;
+		ShortMessage<P> decoded = null;
+		tic = System.nanoTime();
+		
+		for (int i = 0; i < messages; i++) {
+			decoded = scheme.decode(encoded);
+		}
+		
+		long decodeNanos = System.nanoTime() - tic;
+		
+		// Make sure nothing got lost on the way:
+		if (decoded.getId() != msg.getId()
+				|| !decoded.getName().equals(msg.getName())
+				|| !equal(decoded.getPayload(), msg.getPayload())) {
+			throw new AssertionError(schemeName + " garbled the message.");
+		}
+		
+		if (print) {
+			System.out.printf("%10s %14s %10d %12.0f %12.0f\n", payloadName,
+					schemeName, sizeOf.applyAsInt(encoded), (double) encodeNanos
+							/ messages, (double) decodeNanos / messages);
+		}
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		if (a instanceof byte[]) {
+			return Arrays.equals((byte[]) a, (byte[]) b);
+		}
+		
+		return a.equals(b);
+	}
+}
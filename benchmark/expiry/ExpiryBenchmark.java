@@ -0,0 +1,159 @@
+package expiry;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import protocols.ThreadProtocol;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+
+import dsl.Actor;
+import dsl.Part;
+import dsl.Play;
+import dsl.Server;
+import dsl.Server.Overload;
+
+
+/**
+ * Shows what rounds abandoned halfway do to a {@link Server}: a stream of
+ * clients says hello and vanishes, leaving the Server waiting for a goodbye
+ * that never comes, while a few well behaved clients perform whole rounds.
+ * Without a timeout in the {@link Play}, the abandoned rounds pile up until
+ * they take all actors; with one, they are reclaimed and the Server stays
+ * bounded.
+ * 
+ * <p>
+ * Usage: <code>ExpiryBenchmark [abandoned rounds/s] [seconds]</code>, 5000
+ * rounds per second during 3 seconds by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class ExpiryBenchmark {
+	
+	/**
+	 * A round in which the server waits for the client to say goodbye.
+	 */
+	private static class Chat extends Play<String> {
+		public static final String CLIENT = "client";
+		public static final String SERVER = "server";
+		
+		private StatelessCharacter client, server;
+		
+		public Chat(int timeout) {
+			this.protocolName = "chat";
+			this.timeout = timeout;
+		}
+		
+		@Override public void dramatisPersonae() {
+			client = new StatelessCharacter(CLIENT);
+			server = new StatelessCharacter(SERVER);
+		}
+		
+		@Override public void scene() {
+			client.send(server, "hello");
+			client.send(server, "goodbye");
+			server.send(client, "bye", 100);
+		}
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %10s %10s %10s %10s %10s %10s\n", "timeout",
+				"abandoned", "ongoing", "expired", "shed", "ended",
+				"failed");
+		
+		run(Integer.MAX_VALUE, rate, seconds);
+		run(50, rate, seconds);
+		
+		System.exit(0); // Servers linger.
+	}
+	
+	private static void run(int timeout, int rate, int seconds)
+			throws InterruptedException {
+		Map<String, BlockingQueue<FullMessage<String>>> queues =
+				new ConcurrentHashMap<String, BlockingQueue<FullMessage<String>>>();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		
+		Server<String> server = new Server<String>(new Chat(timeout)
+				.interpretAs(Chat.SERVER), new ThreadProtocol<String>(queues,
+				"server"), Actor::new, 0, 1024, 1024, Overload.REJECT_NEW,
+				executor);
+		server.start();
+		
+		ThreadProtocol<String> clientResource = new ThreadProtocol<String>(
+				queues, "client");
+		Part part = new Chat(timeout).interpretAs(Chat.CLIENT);
+		
+		LongAdder ended = new LongAdder(), failed = new LongAdder();
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		CountDownLatch done = new CountDownLatch(4);
+		
+		for (int i = 0; i < 4; i++) {
+			Actor<String> client = new Actor<String>(part, clientResource);
+			client.setInitialAddress(Chat.SERVER, "server");
+			loop(client, executor, deadline, ended, failed, done);
+		}
+		
+		// Say hello and vanish, a millisecond's worth at a time:
+		ThreadProtocol<String> vanishing = new ThreadProtocol<String>(queues,
+				"vanishing");
+		Random random = new Random(42);
+		long abandoned = 0;
+		
+		for (long tic = System.nanoTime(); System.nanoTime() < deadline; /* */) {
+			long due = (System.nanoTime() - tic) * rate / 1_000_000_000L;
+			
+			for (; abandoned < due; abandoned++) {
+				vanishing.sendMessage(new ShortMessage<String>(random
+						.nextLong(), "chat", "hello", null), "server");
+			}
+			
+			LockSupport.parkNanos(1_000_000);
+		}
+		
+		done.await(1, TimeUnit.SECONDS);
+		
+		System.out.printf("%10s %10d %10d %10d %10d %10d %10d\n",
+				timeout == Integer.MAX_VALUE ? "forever" : timeout + "ms",
+				abandoned, server.getNumberOfOngoingRuns(),
+				server.getNumberOfExpiredRuns(), server.getNumberOfShedRuns(),
+				ended.sum(), failed.sum());
+		
+		server.abort();
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Performs rounds until the deadline.
+	 */
+	private static void loop(Actor<String> client, ExecutorService executor,
+			long deadline, LongAdder ended, LongAdder failed,
+			CountDownLatch done) {
+		client.performAsync(executor).whenComplete((nothing, failure) -> {
+			if (failure == null) {
+				ended.increment();
+			} else {
+				failed.increment();
+			}
+			
+			if (System.nanoTime() < deadline) {
+				loop(client, executor, deadline, ended, failed, done);
+			} else {
+				done.countDown();
+			}
+		});
+	}
+}
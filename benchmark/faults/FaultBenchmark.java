@@ -0,0 +1,123 @@
+package faults;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocols.DirectThreadProtocol;
+
+import communications.RxException;
+import communications.util.FaultInjection;
+import communications.util.Impairment;
+
+import dsl.Actor;
+import dsl.Part;
+import dsl.Play;
+import dsl.Server;
+
+
+/**
+ * Runs pings over a {@link FaultInjection} with different impairments and
+ * shows how many rounds time out and how long the others take. Both sides
+ * are impaired alike.
+ * 
+ * <p>
+ * Usage: <code>FaultBenchmark [rounds] [max delay (ms)]</code>, 1000 rounds
+ * of at most 20ms by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class FaultBenchmark {
+	
+	/**
+	 * Sends and waits for an acknowledgment.
+	 */
+	private static class Ping extends Play<String> {
+		public static final String CLIENT = "client";
+		public static final String SERVER = "server";
+		
+		private final int maxDelay;
+		private StatelessCharacter client, server;
+		
+		public Ping(int maxDelay) {
+			this.protocolName = "ping";
+			this.maxDelay = maxDelay;
+		}
+		
+		@Override public void dramatisPersonae() {
+			client = new StatelessCharacter(CLIENT);
+			server = new StatelessCharacter(SERVER);
+		}
+		
+		@Override public void scene() {
+			client.send(server, "msg", maxDelay);
+			server.send(client, "ack", maxDelay);
+		}
+	}
+	
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+		int maxDelay = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%24s %8s %10s %10s %14s %14s\n", "impairment",
+				"rounds", "timeouts", "lost", "median (ms)", "99% (ms)");
+		
+		run("none", Impairment.NONE, rounds, maxDelay);
+		run("2ms + exp(2ms)", new Impairment(Impairment.exponential(
+				2_000_000, 2_000_000), 0, 0, 0, 0, 0), rounds, maxDelay);
+		run("... 5% loss", new Impairment(Impairment.exponential(2_000_000,
+				2_000_000), 0.05, 0, 0, 0, 0), rounds, maxDelay);
+		run("... 5% dup, 5% reorder", new Impairment(Impairment.exponential(
+				2_000_000, 2_000_000), 0.05, 0.05, 0.05, 10_000_000, 0),
+				rounds, maxDelay);
+		run("normal(5ms, 5ms)", new Impairment(Impairment.normal(5_000_000,
+				5_000_000), 0, 0, 0, 0, 0), rounds, maxDelay);
+		run("8kB/s", new Impairment(Impairment.fixed(0), 0, 0, 0, 0, 8_000),
+				rounds, maxDelay);
+		
+		System.exit(0); // Servers linger.
+	}
+	
+	private static void run(String name, Impairment impairment, int rounds,
+			int maxDelay) {
+		Map<String, DirectThreadProtocol<String>> peers =
+				new ConcurrentHashMap<String, DirectThreadProtocol<String>>();
+		
+		FaultInjection<String> serverSide = new FaultInjection<String>(
+				new DirectThreadProtocol<String>(peers, "server"), impairment);
+		new Server<String>(new Ping(maxDelay).interpretAs(Ping.SERVER),
+				serverSide, Actor::new, 4).start();
+		
+		FaultInjection<String> clientSide = new FaultInjection<String>(
+				new DirectThreadProtocol<String>(peers, "client"), impairment);
+		Part part = new Ping(maxDelay).interpretAs(Ping.CLIENT);
+		Actor<String> client = new Actor<String>(part, clientSide);
+		client.setInitialAddress(Ping.SERVER, "server");
+		
+		long[] samples = new long[rounds];
+		int ended = 0, timeouts = 0;
+		
+		for (int i = 0; i < rounds; i++) {
+			long tic = System.nanoTime();
+			
+			try {
+				client.perform();
+				samples[ended++] = System.nanoTime() - tic;
+			} catch (RxException e) {
+				timeouts++;
+			}
+		}
+		
+		Arrays.sort(samples, 0, ended);
+		System.out.printf("%24s %8d %10d %10d %14.2f %14.2f\n", name, rounds,
+				timeouts, clientSide.getNumberOfLostMessages()
+						+ serverSide.getNumberOfLostMessages(),
+				ended > 0 ? samples[ended / 2] * 1e-6 : 0,
+				ended > 0 ? samples[ended * 99 / 100] * 1e-6 : 0);
+		
+		clientSide.disconnect();
+		serverSide.disconnect();
+	}
+}
@@ -0,0 +1,202 @@
+package keys;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocols.ThreadProtocol;
+
+import communications.FullMessage;
+
+import dsl.Actor;
+import dsl.MessageKey;
+import dsl.Part;
+import dsl.Play;
+
+
+/**
+ * Compares reading messages by name and by {@link MessageKey} in the code of
+ * an Actor, in the manner of the data concentrator of the shares protocol:
+ * after a round in which meters send their masked values, the concentrator
+ * adds up whatever arrived, once by names built on the spot and once by keys
+ * resolved beforehand.
+ * 
+ * <p>
+ * Usage: <code>KeyBenchmark [meters...]</code>.
+ * 
+ * @author tokahuke
+ *
+ */
+public class KeyBenchmark {
+	
+	/**
+	 * Adds up the masked values it gets.
+	 */
+	public static class Aggregator extends Actor<Integer> {
+		private final int meters;
+		private MessageKey[] maskedKeys;
+		private MessageKey maskedFinal, shareFinal;
+		
+		public Aggregator(int meters) {
+			this.meters = meters;
+		}
+		
+		public int getAggregateByName() {
+			int totalMasked = 0;
+			
+			for (int i = 1; i < meters - 1; i++) {
+				if (hasMessage("masked-from-" + i)) {
+					totalMasked += getMessage("masked-from-" + i);
+				}
+			}
+			
+			totalMasked += getMessage("masked-final");
+			
+			return totalMasked - getMessage("share-final");
+		}
+		
+		public int getAggregateByKey() {
+			// Resolve names once and for all:
+			if (maskedKeys == null) {
+				maskedKeys = new MessageKey[meters];
+				
+				for (int i = 1; i < meters - 1; i++) {
+					maskedKeys[i] = getMessageKey("masked-from-" + i);
+				}
+				
+				maskedFinal = getMessageKey("masked-final");
+				shareFinal = getMessageKey("share-final");
+			}
+			
+			int totalMasked = 0;
+			
+			for (int i = 1; i < meters - 1; i++) {
+				if (hasMessage(maskedKeys[i])) {
+					totalMasked += getMessage(maskedKeys[i]);
+				}
+			}
+			
+			totalMasked += getMessage(maskedFinal);
+			
+			return totalMasked - getMessage(shareFinal);
+		}
+	}
+	
+	/**
+	 * Meters send their masked values to the concentrator, in one go.
+	 */
+	private static class Gather extends Play<Integer> {
+		public static final String METERS = "meters";
+		public static final String CONCENTRATOR = "DC";
+		
+		private final int meters;
+		private StatelessCharacter sender;
+		private Character<Aggregator> concentrator;
+		
+		public Gather(int meters) {
+			this.protocolName = "gather";
+			this.meters = meters;
+		}
+		
+		@Override public void dramatisPersonae() {
+			sender = new StatelessCharacter(METERS);
+			concentrator = new Character<Aggregator>(Aggregator.class,
+					CONCENTRATOR);
+		}
+		
+		@Override public void scene() {
+			for (int i = 1; i < meters - 1; i++) {
+				sender.send(concentrator, "masked-from-" + i, 1000);
+			}
+			
+			sender.send(concentrator, "masked-final", 1000);
+			sender.send(concentrator, "share-final", 1000);
+		}
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		int[] sizes = { 8, 64, 512 };
+		
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%8s %16s %16s %10s\n", "meters", "by name (ns)",
+				"by key (ns)", "speed-up");
+		
+		for (int meters : sizes) {
+			Aggregator aggregator = gather(meters);
+			int calls = 20_000_000 / meters;
+			int check = 0;
+			
+			// Warm up both first:
+			for (int i = 0; i < calls; i++) {
+				check += aggregator.getAggregateByName();
+				check -= aggregator.getAggregateByKey();
+			}
+			
+			long tic = System.nanoTime();
+			
+			for (int i = 0; i < calls; i++) {
+				check += aggregator.getAggregateByName();
+			}
+			
+			long byName = System.nanoTime() - tic;
+			tic = System.nanoTime();
+			
+			for (int i = 0; i < calls; i++) {
+				check -= aggregator.getAggregateByKey();
+			}
+			
+			long byKey = System.nanoTime() - tic;
+			
+			if (check != 0) {
+				throw new AssertionError("Names and keys do not add up.");
+			}
+			
+			System.out.printf("%8d %16.1f %16.1f %10.1f\n", meters,
+					(double) byName / calls, (double) byKey / calls,
+					(double) byName / byKey);
+		}
+		
+		System.exit(0); // Resources linger.
+	}
+	
+	/**
+	 * Plays a round, leaving the concentrator with all values received.
+	 */
+	private static Aggregator gather(int meters) throws InterruptedException {
+		Gather play = new Gather(meters);
+		Part meterPart = play.interpretAs(Gather.METERS);
+		Part concentratorPart = play.interpretAs(Gather.CONCENTRATOR);
+		
+		Map<String, BlockingQueue<FullMessage<Integer>>> queues =
+				new ConcurrentHashMap<String, BlockingQueue<FullMessage<Integer>>>();
+		
+		Aggregator aggregator = new Aggregator(meters);
+		aggregator.load(concentratorPart, new ThreadProtocol<Integer>(queues,
+				Gather.CONCENTRATOR));
+		Thread thread = new Thread(aggregator::perform);
+		thread.start();
+		
+		Actor<Integer> sender = new Actor<Integer>(meterPart,
+				new ThreadProtocol<Integer>(queues, Gather.METERS));
+		sender.setInitialAddress(Gather.CONCENTRATOR, Gather.CONCENTRATOR);
+		
+		for (int i = 1; i < meters - 1; i++) {
+			sender.setMessage("masked-from-" + i, i);
+		}
+		
+		sender.setMessage("masked-final", meters);
+		sender.setMessage("share-final", 1);
+		sender.perform();
+		thread.join();
+		
+		return aggregator;
+	}
+}
@@ -0,0 +1,155 @@
+package metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.ObjectName;
+
+import protocols.ThreadProtocol;
+
+import communications.FullMessage;
+
+import dsl.Actor;
+import dsl.Play;
+import dsl.Server;
+
+
+/**
+ * Measures what recording metrics costs: first the bare
+ * {@link Histogram#record(long)}, then whole rounds with and without
+ * {@link RoundStatistics} in the client. In the end, scrapes the
+ * {@link PrometheusEndpoint} over HTTP and reads an attribute of the
+ * {@link MetricsMBean} of the Server, to show both work.
+ * 
+ * <p>
+ * Usage: <code>MetricsBenchmark [rounds]</code>, 20,000 rounds by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class MetricsBenchmark {
+	
+	/**
+	 * A simple query and response.
+	 */
+	private static class EchoPlay extends Play<Integer> {
+		public static final String CLIENT = "client";
+		public static final String SERVER = "server";
+		
+		private StatelessCharacter client, server;
+		
+		public EchoPlay() {
+			this.protocolName = "echo";
+		}
+		
+		@Override public void dramatisPersonae() {
+			client = new StatelessCharacter(CLIENT);
+			server = new StatelessCharacter(SERVER);
+		}
+		
+		@Override public void scene() {
+			client.query(server, (me, msg) -> msg + 1, "echo");
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		
+		// Recording alone:
+		Histogram histogram = new Histogram();
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < 10_000_000; i++) {
+			histogram.record(i);
+		}
+		
+		double recordNanos = (System.nanoTime() - tic) / 1e7;
+		
+		// Whole rounds:
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Map<String, BlockingQueue<FullMessage<Integer>>> queues =
+				new ConcurrentHashMap<String, BlockingQueue<FullMessage<Integer>>>();
+		
+		Server<Integer> server = new Server<Integer>(new EchoPlay()
+				.interpretAs(EchoPlay.SERVER), new ThreadProtocol<Integer>(
+				queues, "server"), Actor::new, 16, executor);
+		server.start();
+		
+		Actor<Integer> client = new Actor<Integer>(new EchoPlay()
+				.interpretAs(EchoPlay.CLIENT), new ThreadProtocol<Integer>(
+				queues, "client"));
+		client.setInitialAddress(EchoPlay.SERVER, "server");
+		
+		RoundStatistics statistics = new RoundStatistics("client");
+		double[] roundsPerSecond = new double[2];
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			for (int withStatistics = 0; withStatistics < 2; withStatistics++) {
+				client.setStatistics(withStatistics > 0 ? statistics : null);
+				roundsPerSecond[withStatistics] = perform(client, rounds);
+			}
+		}
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%28s %12.1f\n", "ns per record:", recordNanos);
+		System.out.printf("%28s %12.0f\n", "rounds/s, no statistics:",
+				roundsPerSecond[0]);
+		System.out.printf("%28s %12.0f\n", "rounds/s, with statistics:",
+				roundsPerSecond[1]);
+		System.out.printf("%28s %12.1f\n", "median round (us):", statistics
+				.getLatencies().getValueAtQuantile(0.5) / 1e3);
+		System.out.printf("%28s %12.1f\n", "99th percentile (us):",
+				statistics.getLatencies().getValueAtQuantile(0.99) / 1e3);
+		
+		// Publish and read back:
+		PrometheusEndpoint endpoint = new PrometheusEndpoint(0);
+		endpoint.register("echo", server);
+		endpoint.register("client", statistics);
+		
+		System.out.println("\nSCRAPE:\n");
+		
+		try (InputStream in = new URL("http://localhost:" + endpoint.getPort()
+				+ "/metrics").openStream()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			
+			for (int read; (read = in.read(buffer)) > 0; /* */) {
+				out.write(buffer, 0, read);
+			}
+			
+			System.out.print(out.toString(StandardCharsets.UTF_8.name()));
+		}
+		
+		ObjectName name = MetricsMBean.register(server, "Server", "echo");
+		System.out.printf("\nJMX %s, rounds ended: %s\n", name,
+				ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+						"server_rounds_total{outcome=ended}"));
+		
+		endpoint.stop();
+		System.exit(0); // Servers linger.
+	}
+	
+	/**
+	 * Performs rounds one after the other.
+	 * 
+	 * @return how many rounds per second.
+	 */
+	private static double perform(Actor<Integer> client, int rounds) {
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < rounds; i++) {
+			client.setMessage("echoQuery", i);
+			client.perform();
+		}
+		
+		return rounds * 1e9 / (System.nanoTime() - tic);
+	}
+}
@@ -0,0 +1,148 @@
+package segmentation;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import protocols.DirectThreadProtocol;
+import protocols.DirectThreadProtocol.Delivery;
+import protocols.ThreadProtocol;
+
+import communications.CommunicationResource;
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.util.WrappedTypeProtocol;
+import compose.MessageEncodingScheme;
+import composition.AcknowledgeChannel;
+
+import dsl.Server;
+
+
+/**
+ * Runs the transfer of the {@link SegmentationShowcase} over
+ * {@link ThreadProtocol} and over both kinds of delivery of
+ * {@link DirectThreadProtocol}, and compares how many messages per second
+ * each one carries.
+ * 
+ * <p>
+ * Needs the behavior sources in the classpath. Usage:
+ * <code>SegmentationBenchmark [bytes]</code>, 4 MB by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class SegmentationBenchmark {
+	
+	/**
+	 * A transport: the resources it opens, by address, and how many messages
+	 * they sent so far.
+	 */
+	private static class Transport {
+		final Function<String, CommunicationResource<ShortMessage<String>>> open;
+		final LongSupplier sent;
+		
+		Transport(
+				Function<String, CommunicationResource<ShortMessage<String>>> open,
+				LongSupplier sent) {
+			this.open = open;
+			this.sent = sent;
+		}
+	}
+	
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+		byte[] junk = new byte[size];
+		new Random(42).nextBytes(junk);
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%20s %10s %16s %16s\n", "transport", "messages",
+				"messages/s", "Mbps");
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			run("ThreadProtocol", threadProtocol(), junk, warmUp > 0);
+			run("Direct/QUEUED", direct(Delivery.QUEUED), junk, warmUp > 0);
+			run("Direct/SYNCHRONOUS", direct(Delivery.SYNCHRONOUS), junk,
+					warmUp > 0);
+		}
+		
+		System.exit(0); // Servers linger.
+	}
+	
+	/**
+	 * Sends a bulk from a sender to a receiver, as the showcase does.
+	 */
+	private static void run(String name, Transport transport, byte[] junk,
+			boolean print) {
+		Server<byte[]> server = new Server<byte[]>(
+				new SimpleTransfer().interpretAs("receiver"),
+				stack(transport.open.apply("103 Addison Road")),
+				Buffered::new, 2);
+		server.start();
+		
+		Buffered performer = new Buffered();
+		performer.load(new SimpleTransfer().interpretAs("sender"),
+				stack(transport.open.apply("221 Baker Street")));
+		performer.setInitialAddress("receiver", "103 Addison Road");
+		
+		long tic = System.nanoTime();
+		performer.setBulk(junk);
+		performer.perform();
+		long elapsed = System.nanoTime() - tic;
+		
+		long messages = transport.sent.getAsLong();
+		
+		if (print) {
+			System.out.printf("%20s %10d %16.0f %16.1f\n", name, messages,
+					messages * 1e9 / elapsed, junk.length * 8e3 / elapsed);
+		}
+	}
+	
+	/**
+	 * Puts the acknowledge channel and the encoding of the showcase over a
+	 * resource.
+	 */
+	private static CommunicationResource<byte[]> stack(
+			CommunicationResource<ShortMessage<String>> resource) {
+		CommunicationResource<String> acknowledged =
+				new AcknowledgeChannel<ShortMessage<String>>().compose(
+						MessageEncodingScheme.getTrivialScheme(), resource);
+		
+		return new WrappedTypeProtocol<String, byte[]>(acknowledged,
+				str -> "null".equals(str) ? null : Base64.getDecoder()
+						.decode(str),
+				arr -> arr == null ? "null" : Base64.getEncoder()
+						.encodeToString(arr));
+	}
+	
+	private static Transport threadProtocol() {
+		Map<String, BlockingQueue<FullMessage<ShortMessage<String>>>> queues =
+				new ConcurrentHashMap<String, BlockingQueue<FullMessage<ShortMessage<String>>>>();
+		Map<String, ThreadProtocol<ShortMessage<String>>> opened =
+				new HashMap<String, ThreadProtocol<ShortMessage<String>>>();
+		
+		return new Transport(address -> {
+			ThreadProtocol<ShortMessage<String>> resource =
+					new ThreadProtocol<ShortMessage<String>>(queues, address);
+			opened.put(address, resource);
+			return resource;
+		}, () -> opened.values().stream()
+				.mapToLong(ThreadProtocol::getNumberOfTxMessages).sum());
+	}
+	
+	private static Transport direct(Delivery delivery) {
+		Map<String, DirectThreadProtocol<ShortMessage<String>>> peers =
+				new ConcurrentHashMap<String, DirectThreadProtocol<ShortMessage<String>>>();
+		
+		return new Transport(
+				address -> new DirectThreadProtocol<ShortMessage<String>>(
+						peers, address, delivery, 1024),
+				() -> peers.values().stream()
+						.mapToLong(DirectThreadProtocol::getNumberOfTxMessages)
+						.sum());
+	}
+}
@@ -0,0 +1,155 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dsl.Actor;
+import dsl.Part;
+import dsl.Play;
+import dsl.Server;
+
+
+/**
+ * Simulates a large network of clients and servers over lossy links and
+ * shows how fast virtual time runs compared to wall time. Each client sends a
+ * message to its own server and waits for an acknowledgment, starting a new
+ * round whenever one times out, until it gets one. The simulation is run
+ * twice with the same seed, and must give the same results both times.
+ * 
+ * <p>
+ * Usage: <code>SimulationBenchmark [pairs] [loss] [seed]</code>, 5000 pairs
+ * over links that lose 10% of the messages by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class SimulationBenchmark {
+	
+	/**
+	 * Sends and waits for an acknowledgment.
+	 */
+	private static class Ping extends Play<String> {
+		public static final String CLIENT = "client";
+		public static final String SERVER = "server";
+		
+		private StatelessCharacter client, server;
+		
+		public Ping() {
+			this.protocolName = "ping";
+		}
+		
+		@Override public void dramatisPersonae() {
+			client = new StatelessCharacter(CLIENT);
+			server = new StatelessCharacter(SERVER);
+		}
+		
+		@Override public void scene() {
+			client.send(server, "msg", 500);
+			server.send(client, "ack", 500);
+		}
+	}
+	
+	/**
+	 * What a simulation gives.
+	 */
+	private static class Result {
+		long ended, retries, sent, lost, events, lastEnd, endTimes;
+		long wallNanos;
+	}
+	
+	public static void main(String[] args) {
+		int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+		double loss = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		
+		simulate(pairs, loss, seed); // Warm up.
+		Result first = simulate(pairs, loss, seed);
+		Result second = simulate(pairs, loss, seed);
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%6s %8s %8s %8s %10s %8s %10s %12s %12s %14s\n",
+				"run", "nodes", "ended", "retries", "sent", "lost",
+				"events", "virtual (s)", "wall (ms)", "events/s");
+		print("first", pairs, first);
+		print("second", pairs, second);
+		
+		boolean same = first.ended == second.ended
+				&& first.retries == second.retries && first.sent == second.sent
+				&& first.lost == second.lost && first.events == second.events
+				&& first.endTimes == second.endTimes;
+		System.out.println("\nSame seed, same run: " + same);
+	}
+	
+	private static void print(String name, int pairs, Result result) {
+		System.out.printf(
+				"%6s %8d %8d %8d %10d %8d %10d %12.3f %12.1f %14.0f\n", name,
+				2 * pairs, result.ended, result.retries, result.sent,
+				result.lost, result.events, result.lastEnd * 1e-9,
+				result.wallNanos * 1e-6, result.events * 1e9
+						/ result.wallNanos);
+	}
+	
+	/**
+	 * Performs rounds until one ends well.
+	 */
+	private static void perform(Simulator simulator, Actor<String> client,
+			Result result) {
+		client.performAsync(simulator).whenComplete((nothing, failure) -> {
+			if (failure != null) {
+				result.retries++;
+				perform(simulator, client, result);
+				return;
+			}
+			
+			result.ended++;
+			result.lastEnd = simulator.now();
+			result.endTimes = 31 * result.endTimes + simulator.now();
+		});
+	}
+	
+	private static Result simulate(int pairs, double loss, long seed) {
+		Simulator simulator = new Simulator(seed);
+		simulator.setDefaultLink(new Link(2_000_000, 1_000_000, loss));
+		
+		List<SimulatedResource<String>> nodes =
+				new ArrayList<SimulatedResource<String>>();
+		Result result = new Result();
+		
+		Part serverPart = new Ping().interpretAs(Ping.SERVER);
+		Part clientPart = new Ping().interpretAs(Ping.CLIENT);
+		
+		for (int i = 0; i < pairs; i++) {
+			SimulatedResource<String> serverNode =
+					new SimulatedResource<String>(simulator, "server" + i);
+			new Server<String>(serverPart,
+					serverNode,
+					() -> simulator.attach(new Actor<String>()), 4, simulator)
+					.start();
+			
+			SimulatedResource<String> clientNode =
+					new SimulatedResource<String>(simulator, "client" + i);
+			Actor<String> client = simulator.attach(new Actor<String>(
+					clientPart, clientNode));
+			client.setInitialAddress(Ping.SERVER, "server" + i);
+			
+			// Start all at once and see them go:
+			perform(simulator, client, result);
+			
+			nodes.add(serverNode);
+			nodes.add(clientNode);
+		}
+		
+		long tic = System.nanoTime();
+		simulator.run();
+		
+		result.wallNanos = System.nanoTime() - tic;
+		result.events = simulator.getNumberOfEvents();
+		
+		for (SimulatedResource<String> node : nodes) {
+			result.sent += node.getNumberOfTxMessages();
+			result.lost += node.getNumberOfLostMessages();
+		}
+		
+		return result;
+	}
+}
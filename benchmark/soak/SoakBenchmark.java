@@ -0,0 +1,60 @@
+package soak;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import primitives.Query;
+import protocols.ThreadProtocol;
+
+import communications.FullMessage;
+
+
+/**
+ * Runs a long sequence of {@link Query} rounds between two ThreadProtocol
+ * resources and prints the mean round time over consecutive windows. A
+ * resource that leaks receive events shows a steadily growing round time; a
+ * healthy one stays flat.
+ * 
+ * <p>
+ * Usage: <code>SoakBenchmark [rounds]</code>, one million rounds by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class SoakBenchmark {
+	
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int windows = 10;
+		int windowSize = rounds / windows;
+		
+		Map<String, BlockingQueue<FullMessage<String>>> blockingQueues =
+				new ConcurrentHashMap<String, BlockingQueue<FullMessage<String>>>();
+		
+		new Query.Server<String>(new ThreadProtocol<String>(blockingQueues,
+				"server"), "echo", str -> str);
+		
+		Query.Client<String> client = new Query.Client<String>(
+				new ThreadProtocol<String>(blockingQueues, "client"), "echo",
+				"server");
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%12s %16s\n", "rounds", "mean round (us)");
+		
+		for (int window = 1; window <= windows; window++) {
+			long tic = System.nanoTime();
+			
+			for (int i = 0; i < windowSize; i++) {
+				client.query("ping");
+			}
+			
+			long toc = System.nanoTime();
+			
+			System.out.printf("%12d %16.2f\n", window * windowSize,
+					(toc - tic) * 1e-3 / windowSize);
+		}
+		
+		System.exit(0);
+	}
+}
@@ -0,0 +1,175 @@
+package tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import communications.CommunicationResource;
+import communications.ShortMessage;
+import protocols.Frame;
+import protocols.SelectorTCPCommunication;
+import protocols.TCPCommunication;
+
+
+/**
+ * Compares {@link TCPCommunication} against {@link SelectorTCPCommunication}
+ * as the server of many concurrent peers on the loopback. The server answers
+ * every "ping" with a "pong" to the peer that sent it, while each peer keeps
+ * exactly one ping in flight. The peers are all driven by one selector of the
+ * benchmark, so both servers face the same load.
+ * 
+ * <p>
+ * Usage: <code>TCPBenchmark [peers] [seconds]</code>, 1000 peers during 5
+ * seconds by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class TCPBenchmark {
+	
+	/**
+	 * The state of a peer's connection.
+	 */
+	private static class Peer {
+		final ByteBuffer in = ByteBuffer.allocate(256);
+		final Frame.Dictionary sent = new Frame.Dictionary();
+		final Frame.Dictionary received = new Frame.Dictionary();
+	}
+	
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int peers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %10s %16s %16s %10s\n", "server", "peers",
+				"pings/s", "us/ping", "threads");
+		
+		int threads = Thread.activeCount();
+		TCPCommunication blocking = new TCPCommunication(0);
+		run("blocking", blocking, blocking.getPort(), peers, seconds, threads);
+		blocking.disconnect();
+		
+		Thread.sleep(1000); // Let the threads go.
+		
+		threads = Thread.activeCount();
+		SelectorTCPCommunication selector = new SelectorTCPCommunication(0, 2);
+		run("selector", selector, selector.getPort(), peers, seconds, threads);
+		selector.disconnect();
+		
+		System.exit(0); // The blocking server leaves listeners behind.
+	}
+	
+	/**
+	 * Makes a server answer pings, then measures how many pings it answers.
+	 * 
+	 * @param name
+	 *            the name of the server.
+	 * @param server
+	 *            the server.
+	 * @param port
+	 *            the port of the server.
+	 * @param peers
+	 *            the number of peers.
+	 * @param seconds
+	 *            for how long to measure.
+	 * @param threads
+	 *            the number of threads alive before the server was built.
+	 */
+	private static void run(String name, CommunicationResource<String> server,
+			int port, int peers, int seconds, int threads) throws IOException {
+		server.addReceiveEvent(message -> {
+			server.sendMessage(new ShortMessage<String>(message.getId(),
+					message.getProtocol(), "pong", message.getPayload()),
+					message.getFrom());
+			return true;
+		});
+		
+		// Connect all peers:
+		Selector selector = Selector.open();
+		List<SocketChannel> channels = new ArrayList<SocketChannel>();
+		
+		for (int i = 0; i < peers; i++) {
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+					"127.0.0.1", port));
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.register(selector, SelectionKey.OP_READ, new Peer());
+			channels.add(channel);
+		}
+		
+		// Warm up, then measure:
+		for (int i = 0; i < peers; i++) {
+			SocketChannel channel = channels.get(i);
+			ping(channel, (Peer) channel.keyFor(selector).attachment(), i);
+		}
+		
+		pong(selector, 1_000_000_000L);
+		
+		long tic = System.nanoTime();
+		long pongs = pong(selector, seconds * 1_000_000_000L);
+		long elapsed = System.nanoTime() - tic;
+		
+		System.out.printf("%10s %10d %16.0f %16.1f %10d\n", name, peers,
+				pongs * 1e9 / elapsed, elapsed * 1e-3 * peers / pongs,
+				Thread.activeCount() - threads);
+		
+		for (SocketChannel channel : channels) {
+			channel.close();
+		}
+		
+		selector.close();
+	}
+	
+	/**
+	 * Answers every pong with another ping for a while.
+	 * 
+	 * @return the number of pongs received.
+	 */
+	private static long pong(Selector selector, long nanos) throws IOException {
+		long pongs = 0;
+		long end = System.nanoTime() + nanos;
+		
+		while (System.nanoTime() < end) {
+			selector.select(100);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				
+				SocketChannel channel = (SocketChannel) key.channel();
+				Peer peer = (Peer) key.attachment();
+				channel.read(peer.in);
+				
+				// Count whole frames and ping back for each:
+				peer.in.flip();
+				
+				while (Frame.decode(peer.in, peer.received, null) != null) {
+					pongs++;
+					ping(channel, peer, pongs);
+				}
+				
+				peer.in.compact();
+			}
+		}
+		
+		return pongs;
+	}
+	
+	private static void ping(SocketChannel channel, Peer peer, long id)
+			throws IOException {
+		ByteBuffer out = Frame.encode(new ShortMessage<String>(id, "bench",
+				"ping", "hello"), peer.sent);
+		
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package timer;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import dsl.TimingWheel;
+
+
+/**
+ * Compares the {@link TimingWheel} against a ScheduledThreadPoolExecutor, the
+ * usual heap-based timer service. First, it measures how long setting and
+ * cancelling a timer takes as the number of timers already set grows. Then, it
+ * measures how late sub-millisecond timers go off.
+ * 
+ * @author tokahuke
+ *
+ */
+public class TimerBenchmark {
+	
+	public static void main(String[] args) throws InterruptedException {
+		int[] populations = { 1_000, 10_000, 100_000, 1_000_000 };
+		int operations = 1_000_000;
+		
+		TimingWheel wheel = new TimingWheel(100_000, 4096);
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+		executor.setRemoveOnCancelPolicy(true);
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %20s %20s\n", "timers", "heap (ns/op)",
+				"wheel (ns/op)");
+		
+		for (int population : populations) {
+			// Warm up both first:
+			setAndCancel(executor, population, operations);
+			setAndCancel(wheel, population, operations);
+			
+			System.out.printf("%10d %20.1f %20.1f\n", population,
+					setAndCancel(executor, population, operations),
+					setAndCancel(wheel, population, operations));
+		}
+		
+		System.out.println();
+		System.out.printf("%10s %20s %20s\n", "timeout", "mean late (us)",
+				"max late (us)");
+		
+		for (long timeout : new long[] { 200_000, 500_000, 2_000_000 }) {
+			long[] lateness = lateness(wheel, timeout, 10_000);
+			
+			System.out.printf("%8dus %20.1f %20.1f\n", timeout / 1000,
+					lateness[0] * 1e-3, lateness[1] * 1e-3);
+		}
+		
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Sets and cancels timers in a ScheduledThreadPoolExecutor with a given
+	 * number of timers already set.
+	 * 
+	 * @return the mean time of a set followed by a cancel, in nanoseconds.
+	 */
+	private static double setAndCancel(ScheduledThreadPoolExecutor executor,
+			int population, int operations) {
+		Runnable nothing = () -> {};
+		Random random = new Random(42);
+		
+		ScheduledFuture<?>[] futures = new ScheduledFuture<?>[population];
+		
+		for (int i = 0; i < population; i++) {
+			futures[i] = executor.schedule(nothing, 60 + random.nextInt(60),
+					TimeUnit.SECONDS);
+		}
+		
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < operations; i++) {
+			int victim = random.nextInt(population);
+			
+			futures[victim].cancel(false);
+			futures[victim] = executor.schedule(nothing,
+					60 + random.nextInt(60), TimeUnit.SECONDS);
+		}
+		
+		long toc = System.nanoTime();
+		
+		for (ScheduledFuture<?> future : futures) {
+			future.cancel(false);
+		}
+		
+		return (double) (toc - tic) / operations;
+	}
+	
+	/**
+	 * Sets and cancels timers in a TimingWheel with a given number of timers
+	 * already set.
+	 * 
+	 * @return the mean time of a set followed by a cancel, in nanoseconds.
+	 */
+	private static double setAndCancel(TimingWheel wheel, int population,
+			int operations) {
+		Random random = new Random(42);
+		TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[population];
+		
+		for (int i = 0; i < population; i++) {
+			timeouts[i] = new TimingWheel.Timeout(() -> {});
+			wheel.schedule(timeouts[i], wheel.now() + 60_000_000_000L
+					+ random.nextInt(60_000) * 1_000_000L);
+		}
+		
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < operations; i++) {
+			int victim = random.nextInt(population);
+			
+			wheel.cancel(timeouts[victim]);
+			wheel.schedule(timeouts[victim], wheel.now() + 60_000_000_000L
+					+ random.nextInt(60_000) * 1_000_000L);
+		}
+		
+		long toc = System.nanoTime();
+		
+		for (TimingWheel.Timeout timeout : timeouts) {
+			wheel.cancel(timeout);
+		}
+		
+		return (double) (toc - tic) / operations;
+	}
+	
+	/**
+	 * Sets timers a given time ahead, one at a time, and measures how late
+	 * they go off.
+	 * 
+	 * @return the mean and the maximum lateness, in nanoseconds.
+	 */
+	private static long[] lateness(TimingWheel wheel, long timeout, int samples)
+			throws InterruptedException {
+		long sum = 0, max = 0;
+		
+		for (int i = 0; i < samples; i++) {
+			CountDownLatch latch = new CountDownLatch(1);
+			long[] wentOff = new long[1];
+			
+			TimingWheel.Timeout timer = new TimingWheel.Timeout(() -> {
+				wentOff[0] = System.nanoTime();
+				latch.countDown();
+			});
+			
+			long deadline = wheel.now() + timeout;
+			wheel.schedule(timer, deadline);
+			latch.await();
+			
+			long late = wentOff[0] - deadline;
+			sum += late;
+			max = Math.max(max, late);
+		}
+		
+		return new long[] { sum / samples, max };
+	}
+}
@@ -0,0 +1,115 @@
+package traffic;
+
+import communications.CommunicationResource;
+import communications.FullMessage;
+import communications.ReceiveEvent;
+import communications.ShortMessage;
+import communications.Subscription;
+import communications.util.TrafficMeter;
+
+
+/**
+ * Measures what a {@link TrafficMeter} costs per message, over a resource
+ * that does nothing at all, so that only the metering is timed. Messages go
+ * to and come from a few peers, with a few names, as in a busy node.
+ * 
+ * <p>
+ * Usage: <code>TrafficBenchmark [messages]</code>, 10,000,000 by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class TrafficBenchmark {
+	
+	/**
+	 * Sends nothing and receives what it is told to.
+	 */
+	private static class Null implements CommunicationResource<String> {
+		ReceiveEvent<String> event;
+		
+		@Override public Subscription addReceiveEvent(
+				ReceiveEvent<String> receiveEvent) {
+			event = receiveEvent;
+			return () -> event = null;
+		}
+		
+		@Override public void sendMessage(ShortMessage<String> msg, String to) {
+		}
+	}
+	
+	private static final String[] NAMES = {"request", "response", "ack",
+			"nack"};
+	private static final String[] PEERS = {"10.0.0.1", "10.0.0.2",
+			"10.0.0.3", "10.0.0.4", "10.0.0.5", "10.0.0.6", "10.0.0.7",
+			"10.0.0.8"};
+	
+	public static void main(String[] args) throws InterruptedException {
+		int messages = args.length > 0 ? Integer.parseInt(args[0])
+				: 10_000_000;
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%12s %14s %14s\n", "resource", "send (ns)",
+				"receive (ns)");
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			Null bare = new Null();
+			Null underMeter = new Null();
+			TrafficMeter<String> meter = new TrafficMeter<String>(underMeter,
+					String::length);
+			
+			double[] bareNanos = run(bare, bare, messages);
+			double[] meterNanos = run(meter, underMeter, messages);
+			
+			if (warmUp > 0) {
+				System.out.printf("%12s %14.1f %14.1f\n", "bare",
+						bareNanos[0], bareNanos[1]);
+				System.out.printf("%12s %14.1f %14.1f\n", "metered",
+						meterNanos[0], meterNanos[1]);
+				System.out.printf("\n%d entries, median send %dns\n", meter
+						.getTraffic().size(), meter.getSendLatencies()
+						.getValueAtQuantile(0.5));
+			}
+		}
+	}
+	
+	/**
+	 * Sends and receives messages, returning the time each took on average.
+	 */
+	private static double[] run(CommunicationResource<String> resource,
+			Null underneath, int messages) throws InterruptedException {
+		@SuppressWarnings("unchecked") ShortMessage<String>[] outgoing =
+				(ShortMessage<String>[]) new ShortMessage<?>[NAMES.length];
+		@SuppressWarnings("unchecked") FullMessage<String>[] incoming =
+				(FullMessage<String>[]) new FullMessage<?>[NAMES.length
+						* PEERS.length];
+		
+		for (int i = 0; i < NAMES.length; i++) {
+			outgoing[i] = new ShortMessage<String>(i, "bench", NAMES[i],
+					"payload");
+			
+			for (int j = 0; j < PEERS.length; j++) {
+				incoming[i * PEERS.length + j] = outgoing[i].lengthen(PEERS[j]);
+			}
+		}
+		
+		resource.addReceiveEvent(msg -> true);
+		
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < messages; i++) {
+			resource.sendMessage(outgoing[i & 3], PEERS[i & 7]);
+		}
+		
+		long sendNanos = System.nanoTime() - tic;
+		tic = System.nanoTime();
+		
+		for (int i = 0; i < messages; i++) {
+			underneath.event.receives(incoming[i & 31]);
+		}
+		
+		long receiveNanos = System.nanoTime() - tic;
+		
+		return new double[] {(double) sendNanos / messages,
+				(double) receiveNanos / messages};
+	}
+}
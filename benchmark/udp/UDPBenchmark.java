@@ -0,0 +1,139 @@
+package udp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.management.ThreadMXBean;
+import communications.ShortMessage;
+import protocols.UDPCommunication;
+
+
+/**
+ * Measures how many datagrams a {@link UDPCommunication} takes in on the
+ * loopback and how much memory it allocates for each, both when sending and
+ * when receiving. One thread sends to the resource as fast as it can, so the
+ * receiver is the bottleneck and the datagrams it cannot keep up with are
+ * lost. Small and MTU-sized payloads are measured.
+ * 
+ * <p>
+ * Usage: <code>UDPBenchmark [seconds] [payload sizes...]</code>, 3 seconds
+ * for payloads of 16 and 1400 bytes by default. Only runs on JVMs whose
+ * ThreadMXBean counts allocated bytes (e.g. HotSpot).
+ * 
+ * @author tokahuke
+ *
+ */
+public class UDPBenchmark {
+	
+	private static final ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+	
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int[] sizes = { 16, 1400 };
+		
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			
+			for (int i = 1; i < args.length; i++) {
+				sizes[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %16s %10s %16s %16s\n", "payload",
+				"packets/s", "lost", "bytes/sent", "bytes/received");
+		
+		for (int size : sizes) {
+			run(size, 1, false); // Warm up.
+			run(size, seconds, true);
+		}
+		
+		System.exit(0);
+	}
+	
+	/**
+	 * Sends messages of a given size for a while.
+	 * 
+	 * @param size
+	 *            the size of the payloads.
+	 * @param seconds
+	 *            for how long to send.
+	 * @param print
+	 *            whether to print the statistics.
+	 */
+	private static void run(int size, int seconds, boolean print)
+			throws IOException, InterruptedException {
+		UDPCommunication sender = new UDPCommunication(0, 2048);
+		UDPCommunication receiver = new UDPCommunication(0, 2048);
+		String to = "127.0.0.1:" + receiver.getPort();
+		
+		StringBuilder builder = new StringBuilder();
+		
+		for (int i = 0; i < size; i++) {
+			builder.append((char) ('a' + i % 26));
+		}
+		
+		ShortMessage<String> msg = new ShortMessage<String>(42, "bench",
+				"ping", builder.toString());
+		
+		// Count what arrives, and find who receives it:
+		AtomicLong received = new AtomicLong();
+		AtomicLong listener = new AtomicLong(-1);
+		
+		receiver.addReceiveEvent(message -> {
+			if (received.getAndIncrement() == 0) {
+				listener.set(Thread.currentThread().getId());
+			}
+			
+			return true;
+		});
+		
+		while (received.get() == 0) {
+			sender.sendMessage(msg, to);
+			Thread.sleep(1);
+		}
+		
+		// Blast:
+		long[] sent = new long[1];
+		long[] sentBytes = new long[1];
+		long end = System.nanoTime() + seconds * 1_000_000_000L;
+		
+		Thread blaster = new Thread(() -> {
+			long id = Thread.currentThread().getId();
+			long before = threads.getThreadAllocatedBytes(id);
+			
+			while (System.nanoTime() < end) {
+				sender.sendMessage(msg, to);
+				sent[0]++;
+			}
+			
+			sentBytes[0] = threads.getThreadAllocatedBytes(id) - before;
+		});
+		
+		long receivedBefore = received.get();
+		long allocatedBefore = threads.getThreadAllocatedBytes(listener.get());
+		long tic = System.nanoTime();
+		
+		blaster.start();
+		blaster.join();
+		Thread.sleep(100); // Let the last datagrams in.
+		
+		long elapsed = System.nanoTime() - tic;
+		long packets = received.get() - receivedBefore;
+		long receivedBytes = threads.getThreadAllocatedBytes(listener.get())
+				- allocatedBefore;
+		
+		if (print) {
+			System.out.printf("%10d %16.0f %9.1f%% %16d %16d\n", size,
+					packets * 1e9 / elapsed, 100.0 * (sent[0] - packets)
+							/ sent[0], sentBytes[0] / sent[0], receivedBytes
+							/ Math.max(packets, 1));
+		}
+		
+		sender.disconnect();
+		receiver.disconnect();
+	}
+}
@@ -0,0 +1,127 @@
+package window;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import protocols.DirectThreadProtocol;
+
+import communications.ShortMessage;
+import communications.TxException;
+import communications.util.FaultInjection;
+import communications.util.Impairment;
+import compose.Connection;
+import compose.MessageEncodingScheme;
+import composition.AcknowledgeChannel;
+
+
+/**
+ * Sends messages through an {@link AcknowledgeChannel} over a lossy link, one
+ * at a time and with windows of several sizes, and compares how many messages
+ * per second get through. Messages lost on the way fail their rounds after
+ * the timeout of the channel.
+ * 
+ * <p>
+ * Needs the behavior sources in the classpath. Usage:
+ * <code>WindowBenchmark [messages] [loss]</code>, 500 messages and 1% loss
+ * by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class WindowBenchmark {
+	
+	public static void main(String[] args) {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		double loss = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+		
+		// Some 5ms a round trip, and lossy:
+		Impairment impairment = new Impairment(Impairment.exponential(
+				2_000_000, 500_000), loss, 0, 0, 0, 0);
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%14s %10s %10s %10s %14s\n", "window", "messages",
+				"failed", "delivered", "messages/s");
+		
+		for (int window : new int[] { 0, 4, 16, 64 }) {
+			run(window, messages, impairment);
+		}
+		
+		System.exit(0); // Connections linger.
+	}
+	
+	private static void run(int window, int messages, Impairment impairment) {
+		Map<String, DirectThreadProtocol<ShortMessage<String>>> peers =
+				new ConcurrentHashMap<String, DirectThreadProtocol<ShortMessage<String>>>();
+		
+		FaultInjection<ShortMessage<String>> senderSide =
+				new FaultInjection<ShortMessage<String>>(
+						new DirectThreadProtocol<ShortMessage<String>>(peers,
+								"sender"), impairment);
+		FaultInjection<ShortMessage<String>> receiverSide =
+				new FaultInjection<ShortMessage<String>>(
+						new DirectThreadProtocol<ShortMessage<String>>(peers,
+								"receiver"), impairment);
+		
+		Connection<String, ShortMessage<String>, ShortMessage<String>> sender =
+				new AcknowledgeChannel<ShortMessage<String>>().compose(
+						MessageEncodingScheme.getTrivialScheme(), senderSide,
+						10, 10, window);
+		Connection<String, ShortMessage<String>, ShortMessage<String>> receiver =
+				new AcknowledgeChannel<ShortMessage<String>>().compose(
+						MessageEncodingScheme.getTrivialScheme(), receiverSide);
+		
+		// Count what comes out on the other side:
+		AtomicInteger delivered = new AtomicInteger();
+		receiver.addReceiveEvent(msg -> {
+			delivered.incrementAndGet();
+			return true;
+		});
+		
+		List<CompletableFuture<Void>> receipts =
+				new ArrayList<CompletableFuture<Void>>(messages);
+		Random random = new Random(42);
+		int failed = 0;
+		long tic = System.nanoTime();
+		
+		for (int i = 0; i < messages; i++) {
+			ShortMessage<String> msg = new ShortMessage<String>(random.nextLong(),
+					"bench", "data", "message #" + i);
+			
+			if (window > 0) {
+				receipts.add(sender.sendMessageAsync(msg, "receiver"));
+			} else {
+				try {
+					sender.sendMessage(msg, "receiver");
+				} catch (TxException e) {
+					failed++;
+				}
+			}
+		}
+		
+		// Wait for the stragglers:
+		for (CompletableFuture<Void> receipt : receipts) {
+			try {
+				receipt.join();
+			} catch (RuntimeException e) {
+				failed++;
+			}
+		}
+		
+		long elapsed = System.nanoTime() - tic;
+		
+		System.out.printf("%14s %10d %10d %10d %14.0f\n",
+				window > 0 ? Integer.toString(window) : "stop-and-wait",
+				messages, failed, delivered.get(), (messages - failed) * 1e9
+						/ elapsed);
+		
+		sender.disconnect();
+		receiver.disconnect();
+		senderSide.disconnect();
+		receiverSide.disconnect();
+	}
+}
@@ -0,0 +1,153 @@
+package wire;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+import protocols.Frame;
+
+
+/**
+ * Compares the binary {@link Frame} against the text format the transports
+ * used before, <code>id'name'payload</code> and a newline. Each round trip
+ * encodes a message into a buffer and decodes it back, as a stream transport
+ * would, for several payload sizes.
+ * 
+ * <p>
+ * Usage: <code>FrameBenchmark [payload sizes...]</code>.
+ * 
+ * @author tokahuke
+ *
+ */
+public class FrameBenchmark {
+	
+	/**
+	 * How many messages go through the buffer at a time.
+	 */
+	private static final int BATCH = 64;
+	
+	public static void main(String[] args) {
+		int[] sizes = { 16, 256, 4096 };
+		
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %10s %16s %16s\n", "format", "payload",
+				"ns/message", "bytes/message");
+		
+		for (int size : sizes) {
+			StringBuilder payload = new StringBuilder();
+			
+			for (int i = 0; i < size; i++) {
+				payload.append((char) ('a' + i % 26));
+			}
+			
+			ShortMessage<String> msg = new ShortMessage<String>(
+					0x1234_5678_9ABC_DEF0L, "smap", "share", payload.toString());
+			
+			// Warm up both first:
+			text(msg, 200_000);
+			binary(msg, 200_000);
+			
+			long tic = System.nanoTime();
+			int bytes = text(msg, 1_000_000);
+			long elapsed = System.nanoTime() - tic;
+			System.out.printf("%10s %10d %16.1f %16d\n", "text", size,
+					elapsed / 1e6, bytes);
+			
+			tic = System.nanoTime();
+			bytes = binary(msg, 1_000_000);
+			elapsed = System.nanoTime() - tic;
+			System.out.printf("%10s %10d %16.1f %16d\n", "binary", size,
+					elapsed / 1e6, bytes);
+		}
+	}
+	
+	/**
+	 * Round trips messages in the text format.
+	 * 
+	 * @return the size of each message on the wire.
+	 */
+	private static int text(ShortMessage<String> msg, int messages) {
+		ByteBuffer buffer = ByteBuffer.allocate(BATCH * (64 + 3 * msg
+				.getPayload().length()));
+		int size = 0;
+		
+		for (int done = 0; done < messages; done += BATCH) {
+			for (int i = 0; i < BATCH; i++) {
+				byte[] data = (msg.getId() + "'" + msg.getName() + "'"
+						+ msg.getPayload() + "\n")
+						.getBytes(StandardCharsets.UTF_8);
+				buffer.put(data);
+				size = data.length;
+			}
+			
+			buffer.flip();
+			
+			// Split lines, then fields:
+			byte[] array = buffer.array();
+			int start = 0;
+			
+			for (int i = 0; i < buffer.limit(); i++) {
+				if (array[i] == '\n') {
+					String[] split = new String(array, start, i - start,
+							StandardCharsets.UTF_8).split("'", 3);
+					check(new FullMessage<String>(Long.valueOf(split[0]),
+							"tcp", split[1], null, split[2]), msg);
+					start = i + 1;
+				}
+			}
+			
+			buffer.clear();
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Round trips messages in frames, interning strings as a TCP connection
+	 * does.
+	 * 
+	 * @return the size of each message on the wire, once interned.
+	 */
+	private static int binary(ShortMessage<String> msg, int messages) {
+		ByteBuffer buffer = ByteBuffer.allocate(BATCH * Frame.maxSize(msg));
+		Frame.Dictionary sent = new Frame.Dictionary();
+		Frame.Dictionary received = new Frame.Dictionary();
+		int size = 0;
+		
+		for (int done = 0; done < messages; done += BATCH) {
+			for (int i = 0; i < BATCH; i++) {
+				int position = buffer.position();
+				Frame.encode(msg, sent, buffer);
+				size = buffer.position() - position;
+			}
+			
+			buffer.flip();
+			
+			for (FullMessage<String> decoded; (decoded = Frame.decode(buffer,
+					received, null)) != null; /* */) {
+				check(decoded, msg);
+			}
+			
+			buffer.clear();
+		}
+		
+		return size;
+	}
+	
+	private static void check(FullMessage<String> decoded,
+			ShortMessage<String> msg) {
+		if (decoded.getId() != msg.getId()
+				|| decoded.getPayload().length() != msg.getPayload().length()) {
+			throw new IllegalStateException("Wrong message decoded.");
+		}
+	}
+}
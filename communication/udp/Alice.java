@@ -1,6 +1,6 @@
 package udp;
 
-import java.net.SocketException;
+import java.io.IOException;
 
 import primitives.Query;
 import protocols.UDPCommunication;
@@ -15,7 +15,7 @@ public class Alice implements Runnable {
 		
 		try {
 			comm =  new UDPCommunication(0, 1024);
-		} catch (SocketException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
@@ -1,6 +1,6 @@
 package udp;
 
-import java.net.SocketException;
+import java.io.IOException;
 
 import primitives.Query;
 import protocols.UDPCommunication;
@@ -13,7 +13,7 @@ public class Bob implements Runnable {
 		try {
 			comm = new UDPCommunication(0, 1024);
 			port = comm.getPort();
-		} catch (SocketException e1) {
+		} catch (IOException e1) {
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
 		}
@@ -0,0 +1,163 @@
+package shm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import primitives.Query;
+import protocols.SharedMemoryCommunication;
+import protocols.TCPCommunication;
+import communications.CommunicationResource;
+import communications.ShortMessage;
+import communications.util.QueueResource;
+
+
+/**
+ * Measures round trips between two JVMs on the same host, over
+ * {@link SharedMemoryCommunication} and over {@link TCPCommunication} on the
+ * loopback. The benchmark starts a second JVM that echoes every message, then
+ * times both bare pings, answered by a receive event, and {@link Query
+ * Queries}, answered by a {@link Query.Server}.
+ * 
+ * <p>
+ * Usage: <code>SharedMemoryBenchmark [round trips]</code>, 20000 by default.
+ * 
+ * @author tokahuke
+ *
+ */
+public class SharedMemoryBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("echo")) {
+			echo(Paths.get(args[1]));
+			return;
+		}
+		
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		Path directory = Files.createTempDirectory("inboxes");
+		
+		// Start the echoing JVM and wait for it:
+		Process echo = new ProcessBuilder(Paths.get(
+				System.getProperty("java.home"), "bin", "java").toString(),
+				"-cp", System.getProperty("java.class.path"),
+				SharedMemoryBenchmark.class.getName(), "echo",
+				directory.toString()).redirectError(
+				ProcessBuilder.Redirect.INHERIT).start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				echo.getInputStream()));
+		int port = Integer.parseInt(reader.readLine());
+		
+		System.out.println("\nSTATISTICS:\n");
+		System.out.printf("%10s %10s %10s %16s %16s %16s\n", "resource", "kind",
+				"rounds", "mean (us)", "median (us)", "99% (us)");
+		
+		SharedMemoryCommunication shm = new SharedMemoryCommunication(
+				directory, "client");
+		run("shm", shm, "echo", rounds);
+		shm.disconnect();
+		
+		TCPCommunication tcp = new TCPCommunication(0);
+		run("tcp", tcp, "127.0.0.1:" + port, rounds);
+		tcp.disconnect();
+		
+		echo.destroy();
+		System.exit(0); // The TCP resource leaves listeners behind.
+	}
+	
+	/**
+	 * Measures pings, then queries, against the echoing JVM.
+	 */
+	private static void run(String name, QueueResource<String> resource,
+			String echo, int rounds) {
+		// Pings:
+		AtomicLong pong = new AtomicLong(-1);
+		
+		resource.addReceiveEvent(message -> {
+			if (!message.getProtocol().equals("bench")) {
+				return false;
+			}
+			
+			pong.set(message.getId());
+			return true;
+		});
+		
+		long[] samples = new long[rounds];
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			for (int i = 0; i < rounds; i++) {
+				long tic = System.nanoTime();
+				resource.sendMessage(new ShortMessage<String>(i, "bench",
+						"ping", "hello"), echo);
+				
+				while (pong.get() != i) {
+					Thread.yield(); // Leaves the processor to the listener.
+				}
+				
+				samples[i] = System.nanoTime() - tic;
+			}
+		}
+		
+		print(name, "ping", samples);
+		
+		// Queries:
+		Query.Client<String> client = new Query.Client<String>(resource,
+				"echo", echo);
+		
+		for (int warmUp = 0; warmUp < 2; warmUp++) {
+			for (int i = 0; i < rounds; i++) {
+				long tic = System.nanoTime();
+				client.query("hello");
+				samples[i] = System.nanoTime() - tic;
+			}
+		}
+		
+		print(name, "query", samples);
+	}
+	
+	private static void print(String name, String kind, long[] samples) {
+		long sum = 0;
+		
+		for (long sample : samples) {
+			sum += sample;
+		}
+		
+		Arrays.sort(samples);
+		System.out.printf("%10s %10s %10d %16.1f %16.1f %16.1f\n", name, kind,
+				samples.length, sum * 1e-3 / samples.length,
+				samples[samples.length / 2] * 1e-3,
+				samples[samples.length * 99 / 100] * 1e-3);
+	}
+	
+	/**
+	 * Echoes pings and answers queries on both resources, then tells the
+	 * benchmark the TCP port.
+	 */
+	private static void echo(Path directory) throws IOException {
+		SharedMemoryCommunication shm = new SharedMemoryCommunication(
+				directory, "echo");
+		TCPCommunication tcp = new TCPCommunication(0);
+		
+		for (CommunicationResource<String> resource : Arrays.asList(shm, tcp)) {
+			resource.addReceiveEvent(message -> {
+				if (!message.getProtocol().equals("bench")) {
+					return false;
+				}
+				
+				resource.sendMessage(new ShortMessage<String>(message.getId(),
+						"bench", "pong", message.getPayload()), message
+						.getFrom());
+				return true;
+			});
+			
+			new Query.Server<String>(resource, "echo", query -> query);
+		}
+		
+		System.out.println(tcp.getPort());
+		System.out.flush();
+	}
+}
@@ -0,0 +1,550 @@
+package protocols;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.TxException;
+import communications.util.QueueResource;
+
+
+/**
+ * A resource for processes on the same host, over memory-mapped files. Each
+ * resource owns an inbox: a file named after the address of the resource, in
+ * a directory shared by all the processes, holding a ring buffer. Any number
+ * of senders, in any process, write {@link Frame Frames} into the ring, while
+ * only its owner reads them. Nothing is interned, since many senders share the
+ * ring.
+ * 
+ * <p>
+ * Senders claim room in the ring by a compare-and-set on its tail, mark the
+ * record as claimed, write it and then publish it by writing its length last.
+ * The owner spins for a while on an empty ring before yielding and, at last,
+ * parking, so that a busy resource answers within microseconds while an idle
+ * one leaves the CPU alone. There is no way to wake up another process but
+ * the file itself, so an idle resource may take up to {@link #MAX_PARK_NANOS}
+ * to notice a message.
+ * 
+ * <p>
+ * A sender that dies between claiming a record and publishing it would stall
+ * the inbox for good. The owner gives up on records left unpublished for
+ * {@link #ABANDON_NANOS} and skips them; a sender that was merely that slow
+ * finds out when publishing, and fails.
+ * 
+ * <p>
+ * Ordering on the mapped memory takes byte-buffer VarHandles, so this class
+ * needs Java 9 or later and lives apart from the Java 8 sources.
+ * 
+ * @author tokahuke
+ *
+ */
+public class SharedMemoryCommunication extends QueueResource<String> {
+	public static final String protocolName = "shm";
+	
+	/**
+	 * Marks an initialized inbox.
+	 */
+	private static final int MAGIC = 0x52494E47; // "RING"
+	
+	/**
+	 * The version of the file layout.
+	 */
+	private static final int VERSION = 2;
+	
+	/**
+	 * The size of the ring when none is given.
+	 */
+	private static final int DEFAULT_CAPACITY = 1 << 20;
+	
+	// Layout of an inbox, with tail and head on cache lines of their own:
+	private static final int MAGIC_AT = 0;
+	private static final int VERSION_AT = 4;
+	private static final int CAPACITY_AT = 8;
+	private static final int TAIL_AT = 64;
+	private static final int HEAD_AT = 128;
+	private static final int RING_AT = 192;
+	
+	/**
+	 * Each record begins with its size, zero until it is claimed, minus the
+	 * room it takes while it is being written, and the size of the address of
+	 * its sender, or {@link #PADDING}. Then come the address, in UTF-8, and
+	 * the frame. Records are aligned to 8 bytes.
+	 */
+	private static final int RECORD_HEADER = 8;
+	
+	/**
+	 * Marks a record that only fills the end of the ring.
+	 */
+	private static final int PADDING = -1;
+	
+	// How long to wait for the ring before yielding, then parking. Spinning
+	// on a single processor only delays whoever would fill the ring:
+	private static final int SPINS = Runtime.getRuntime()
+			.availableProcessors() > 1 ? 20_000 : 0;
+	private static final int YIELDS = 200;
+	private static final long MAX_PARK_NANOS = 1_000_000;
+	
+	/**
+	 * How long a sender waits for room in a full inbox before giving up.
+	 */
+	private static final long SEND_TIMEOUT_NANOS = 1_000_000_000;
+	
+	/**
+	 * How long the owner waits for a claimed record to be published before
+	 * taking its sender for dead.
+	 */
+	private static final long ABANDON_NANOS = 1_000_000_000;
+	
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(
+			int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle LONG = MethodHandles
+			.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	
+	/**
+	 * The ring buffer of an inbox, mapped into this process.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private static final class Ring {
+		private final MappedByteBuffer buffer;
+		private final int mask;
+		
+		/**
+		 * Where the owner reads next. Only touched by the owner.
+		 */
+		private long head;
+		
+		// Where and since when the owner has been waiting for a record to be
+		// published, and how far the ring had been claimed by then:
+		private long stalledHead = -1;
+		private long stalledSince;
+		private long stalledTail;
+		
+		/**
+		 * How many records were given up on.
+		 */
+		private volatile long abandoned;
+		
+		private Ring(MappedByteBuffer buffer, int capacity) {
+			this.buffer = buffer;
+			this.mask = capacity - 1;
+		}
+		
+		/**
+		 * Makes a new, empty inbox, replacing any older one.
+		 */
+		public static Ring create(Path path, int capacity) throws IOException {
+			try (FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_WRITE, 0, RING_AT + capacity);
+				
+				buffer.order(ByteOrder.nativeOrder());
+				buffer.putInt(VERSION_AT, VERSION);
+				buffer.putInt(CAPACITY_AT, capacity);
+				INT.setRelease(buffer, MAGIC_AT, MAGIC); // Open for senders.
+				
+				return new Ring(buffer, capacity);
+			}
+		}
+		
+		/**
+		 * Maps the inbox of another resource.
+		 */
+		public static Ring open(Path path) throws IOException {
+			try (FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				if (channel.size() < RING_AT) {
+					throw new IOException("Not an inbox: " + path + ".");
+				}
+				
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_WRITE, 0, channel.size());
+				buffer.order(ByteOrder.nativeOrder());
+				
+				if ((int) INT.getAcquire(buffer, MAGIC_AT) != MAGIC
+						|| buffer.getInt(VERSION_AT) != VERSION
+						|| buffer.getInt(CAPACITY_AT) != channel.size()
+								- RING_AT) {
+					throw new IOException("Not an inbox: " + path + ".");
+				}
+				
+				return new Ring(buffer, buffer.getInt(CAPACITY_AT));
+			}
+		}
+		
+		/**
+		 * Writes a record, if there is room for it. Safe for any number of
+		 * senders in any number of processes.
+		 * 
+		 * @param from
+		 *            the address of the sender.
+		 * @param frame
+		 *            the frame, ready to be read.
+		 * @return whether there was room.
+		 * @throws IllegalArgumentException
+		 *             if the record can never fit in the ring.
+		 */
+		public boolean offer(byte[] from, ByteBuffer frame) {
+			int size = RECORD_HEADER + from.length + frame.remaining();
+			int required = align(size);
+			
+			if (required > mask + 1) {
+				throw new IllegalArgumentException("Message of " + size
+						+ " bytes too large for the inbox.");
+			}
+			
+			// Claim room, skipping the end of the ring if the record does not
+			// fit there:
+			long tail;
+			int index, padding;
+			
+			do {
+				long head = (long) LONG.getAcquire(buffer, HEAD_AT);
+				tail = (long) LONG.getVolatile(buffer, TAIL_AT);
+				index = (int) tail & mask;
+				padding = index + required > mask + 1 ? mask + 1 - index : 0;
+				
+				if (tail + padding + required - head > mask + 1) {
+					return false;
+				}
+			} while (!LONG.compareAndSet(buffer, TAIL_AT, tail, tail + padding
+					+ required));
+			
+			if (padding > 0) {
+				buffer.putInt(RING_AT + index + 4, PADDING);
+				INT.setRelease(buffer, RING_AT + index, padding);
+				index = 0;
+			}
+			
+			// Tell the owner how long the record is, should we die now:
+			int at = RING_AT + index;
+			INT.setRelease(buffer, at, -required);
+			
+			// Write, then publish, unless the owner gave up waiting:
+			ByteBuffer view = buffer.duplicate();
+			view.position(at + RECORD_HEADER);
+			view.put(from);
+			view.put(frame);
+			
+			buffer.putInt(at + 4, from.length);
+			
+			if (!INT.compareAndSet(buffer, at, -required, size)) {
+				throw new TxException("The message took too long to write.");
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Reads the next record. Only called by the owner.
+		 * 
+		 * @return the message in the record, or null if there is none.
+		 */
+		public FullMessage<String> poll() {
+			while (true) {
+				int at = RING_AT + ((int) head & mask);
+				int size = (int) INT.getAcquire(buffer, at);
+				
+				if (size <= 0) {
+					if (skipAbandoned(at, size)) {
+						continue;
+					}
+					
+					return null;
+				}
+				
+				int fromSize = buffer.getInt(at + 4);
+				int required = fromSize == PADDING ? size : align(size);
+				FullMessage<String> message = null;
+				
+				if (fromSize != PADDING) {
+					ByteBuffer view = buffer.duplicate();
+					byte[] from = new byte[fromSize];
+					view.position(at + RECORD_HEADER);
+					view.get(from);
+					view.limit(at + size);
+					
+					try {
+						message = Frame.decode(view, null, new String(from,
+								StandardCharsets.UTF_8));
+					} catch (IllegalArgumentException e) {
+						e.printStackTrace(); // Skip it.
+					}
+				}
+				
+				// Zero the record, so that it reads as unpublished when the
+				// ring comes around, and only then give the room back:
+				for (int i = 0; i < required; i += Long.BYTES) {
+					buffer.putLong(at + i, 0);
+				}
+				
+				head += required;
+				LONG.setRelease(buffer, HEAD_AT, head);
+				
+				if (message != null) {
+					return message;
+				}
+			}
+		}
+		
+		/**
+		 * Skips the unpublished record at the head if it has been so for too
+		 * long. A claimed record says how long it is; otherwise, its sender
+		 * died before saying it, and the record ends where the next one
+		 * begins, if any was claimed before the wait began.
+		 * 
+		 * @param at
+		 *            where the record begins.
+		 * @param size
+		 *            the size read at the head: zero or minus the room taken.
+		 * @return whether it was skipped.
+		 */
+		private boolean skipAbandoned(int at, int size) {
+			long tail = (long) LONG.getVolatile(buffer, TAIL_AT);
+			
+			if (tail == head) {
+				return false; // Just empty.
+			}
+			
+			long now = System.nanoTime();
+			
+			if (stalledHead != head) {
+				stalledHead = head;
+				stalledSince = now;
+				stalledTail = tail;
+				return false;
+			} else if (now - stalledSince < ABANDON_NANOS) {
+				return false;
+			}
+			
+			long next;
+			
+			if (size < 0) {
+				// Keep a slow sender from publishing it after all:
+				if (!INT.compareAndSet(buffer, at, size, 0)) {
+					return true; // It just did.
+				}
+				
+				next = head - size;
+			} else {
+				// Every record claimed by then has said how long it is:
+				next = head + Long.BYTES;
+				
+				while (next < stalledTail
+						&& buffer.getLong(RING_AT + ((int) next & mask)) == 0) {
+					next += Long.BYTES;
+				}
+			}
+			
+			for (long p = head; p < next; p += Long.BYTES) {
+				buffer.putLong(RING_AT + ((int) p & mask), 0);
+			}
+			
+			abandoned++;
+			head = next;
+			stalledHead = -1;
+			LONG.setRelease(buffer, HEAD_AT, head);
+			
+			return true;
+		}
+		
+		private static int align(int size) {
+			return (size + Long.BYTES - 1) & -Long.BYTES;
+		}
+	}
+	
+	
+	// Fields:
+	
+	private final Path directory;
+	private final String address;
+	private final byte[] addressBytes;
+	private final Path path;
+	private final Ring inbox;
+	
+	/**
+	 * The inboxes sent to, by address.
+	 */
+	private final Map<String, Ring> peers = new ConcurrentHashMap<String, Ring>();
+	
+	
+	// Constructors:
+	
+	/**
+	 * Opens an inbox of the default size.
+	 * 
+	 * @param directory
+	 *            the directory shared by all resources that talk to each
+	 *            other.
+	 * @param address
+	 *            the address of the resource, which names its inbox.
+	 * @throws IOException
+	 *             if the inbox cannot be made.
+	 */
+	public SharedMemoryCommunication(Path directory, String address)
+			throws IOException {
+		this(directory, address, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Opens an inbox.
+	 * 
+	 * @param directory
+	 *            the directory shared by all resources that talk to each
+	 *            other.
+	 * @param address
+	 *            the address of the resource, which names its inbox.
+	 * @param capacity
+	 *            the size of the ring buffer, a power of two of at least 4096
+	 *            bytes.
+	 * @throws IOException
+	 *             if the inbox cannot be made.
+	 * @throws IllegalArgumentException
+	 *             if the address or the capacity are invalid.
+	 */
+	public SharedMemoryCommunication(Path directory, String address,
+			int capacity) throws IOException {
+		if (capacity < 4096 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Bad capacity " + capacity
+					+ ".");
+		}
+		
+		this.directory = Files.createDirectories(directory);
+		this.address = address;
+		this.addressBytes = address.getBytes(StandardCharsets.UTF_8);
+		this.path = pathFor(address);
+		this.inbox = Ring.create(path, capacity);
+		
+		start();
+	}
+	
+	public void disconnect() {
+		stop();
+		
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Override public String getLocalAddress() {
+		return address;
+	}
+	
+	/**
+	 * Gets how many messages were given up on because their senders did not
+	 * publish them in time.
+	 * 
+	 * @return the number of messages.
+	 */
+	public long getNumberOfAbandonedMessages() {
+		return inbox.abandoned;
+	}
+	
+	/**
+	 * Writes a message in the inbox of another resource, waiting for room if
+	 * it is full.
+	 * 
+	 * @throws TxException
+	 *             if there is no inbox for the address, if the message is too
+	 *             large for it or if it stays full for too long.
+	 */
+	@Override public void sendMessage(ShortMessage<String> msg, String to) {
+		Ring peer = peers.computeIfAbsent(to, this::open);
+		ByteBuffer frame = Frame.encode(msg, null);
+		long deadline = System.nanoTime() + SEND_TIMEOUT_NANOS;
+		
+		try {
+			for (int idle = 0; !peer.offer(addressBytes, frame); idle++) {
+				if (System.nanoTime() > deadline) {
+					// Maybe the owner is gone. Map the inbox anew next time:
+					peers.remove(to, peer);
+					throw new TxException("The inbox of " + to + " is full.");
+				}
+				
+				idle(idle);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new TxException(e);
+		}
+	}
+	
+	@Override public FullMessage<String> take() throws InterruptedException {
+		for (int idle = 0; /* */; idle++) {
+			FullMessage<String> message = inbox.poll();
+			
+			if (message != null) {
+				return message;
+			} else if (Thread.interrupted()) {
+				throw new InterruptedException(); // Disconnected.
+			}
+			
+			idle(idle);
+		}
+	}
+	
+	
+	// Helpers:
+	
+	/**
+	 * Maps the inbox of an address.
+	 * 
+	 * @throws TxException
+	 *             if there is no inbox for the address.
+	 */
+	private Ring open(String to) {
+		try {
+			return Ring.open(pathFor(to));
+		} catch (IOException | IllegalArgumentException e) {
+			throw new TxException(e);
+		}
+	}
+	
+	/**
+	 * Finds the inbox of an address.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the address is not a plain file name.
+	 */
+	private Path pathFor(String address) {
+		Path path = directory.resolve(address + ".inbox");
+		
+		if (!directory.equals(path.getParent())) {
+			throw new IllegalArgumentException("Bad address " + address + ".");
+		}
+		
+		return path;
+	}
+	
+	/**
+	 * Waits a little, longer the more times it was called in a row.
+	 */
+	private static void idle(int idle) {
+		if (idle < SPINS) {
+			Thread.onSpinWait();
+		} else if (idle < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(Math.min(MAX_PARK_NANOS,
+					1_000L << Math.min(idle - SPINS - YIELDS, 10)));
+		}
+	}
+}
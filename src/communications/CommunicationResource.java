@@ -1,12 +1,104 @@
 package communications;
 
+import java.util.List;
+import java.util.Map;
 
 
 public interface CommunicationResource<PayloadT> {
-	public void addReceiveEvent(ReceiveEvent<PayloadT> receiveEvent);
-	public void removeReceiveEvent(ReceiveEvent<PayloadT> receiveEvent);
+	
+	/**
+	 * Installs a receive event in the resource. The event stays installed
+	 * until the returned subscription is cancelled.
+	 * 
+	 * @param receiveEvent
+	 *            the event to be offered incoming messages.
+	 * @return the subscription of the event.
+	 */
+	public Subscription addReceiveEvent(ReceiveEvent<PayloadT> receiveEvent);
+	
+	/**
+	 * Uninstalls a receive event, looking up the subscriptions it was
+	 * installed with and cancelling them. Every resource in this library
+	 * overrides this (decorators through
+	 * {@link communications.util.Subscriptions}); by default, it is not
+	 * supported.
+	 * 
+	 * @param receiveEvent
+	 *            the event, as given to
+	 *            {@link #addReceiveEvent(ReceiveEvent)}.
+	 * @throws UnsupportedOperationException
+	 *             if the resource cannot look the event up.
+	 * @deprecated Cancel the {@link Subscription} returned by
+	 *             {@link #addReceiveEvent(ReceiveEvent)} instead.
+	 */
+	@Deprecated public default void removeReceiveEvent(
+			ReceiveEvent<PayloadT> receiveEvent) {
+		throw new UnsupportedOperationException(
+				"Cancel the subscription of the event instead.");
+	}
+	
 	public void sendMessage(ShortMessage<PayloadT> msg, String to) throws TxException;
 	
+	/**
+	 * Sends several messages to the same destination, in order. Resources
+	 * that can send them together (e.g., in a single write) should override
+	 * this; by default, they are sent one by one.
+	 * 
+	 * @param msgs
+	 *            the messages.
+	 * @param to
+	 *            the address of the destination.
+	 * @throws TxException
+	 *             if the messages cannot be sent. Some of them may have been
+	 *             sent nonetheless.
+	 */
+	public default void sendMessages(List<ShortMessage<PayloadT>> msgs,
+			String to) throws TxException {
+		for (ShortMessage<PayloadT> msg : msgs) {
+			sendMessage(msg, to);
+		}
+	}
+	
+	/**
+	 * Sends several messages to several destinations. Messages to the same
+	 * destination are sent in order, as by {@link #sendMessages(List, String)}.
+	 * 
+	 * @param batches
+	 *            the messages, by address of the destination.
+	 * @throws TxException
+	 *             if the messages to some destination cannot be sent. Those
+	 *             to the destinations that come after it are not sent.
+	 */
+	public default void sendMessages(
+			Map<String, List<ShortMessage<PayloadT>>> batches)
+			throws TxException {
+		for (Map.Entry<String, List<ShortMessage<PayloadT>>> batch : batches
+				.entrySet()) {
+			sendMessages(batch.getValue(), batch.getKey());
+		}
+	}
+	
+	/**
+	 * Routes all incoming messages of a given protocol round directly to a
+	 * receive event, without consulting the events installed by
+	 * {@link #addReceiveEvent(ReceiveEvent)}. Resources that do not index
+	 * rounds return null, in which case the caller must rely on an ordinary
+	 * receive event to get its messages.
+	 * 
+	 * @param protocol
+	 *            the name of the protocol of the round.
+	 * @param runId
+	 *            the id of the round.
+	 * @param receiveEvent
+	 *            the event to receive all messages of the round.
+	 * @return the subscription of the route if the round was indexed; null
+	 *         otherwise.
+	 */
+	public default Subscription addRunEvent(String protocol, long runId,
+			ReceiveEvent<PayloadT> receiveEvent) {
+		return null;
+	}
+	
 	public default String getLocalAddress() {
 		return null;
 	}
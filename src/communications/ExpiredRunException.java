@@ -0,0 +1,17 @@
+package communications;
+
+/**
+ * Thrown when a round outlives the timeout of its protocol, no matter which
+ * messages it was waiting for.
+ * 
+ * @author tokahuke
+ *
+ */
+public class ExpiredRunException extends TimeoutException {
+	private static final long serialVersionUID = 2016L;
+	
+	public ExpiredRunException(String protocolName, long runId) {
+		super(String.format("Run %s in protocol %s expired.",
+				ShortMessage.idToString(runId), protocolName));
+	}
+}
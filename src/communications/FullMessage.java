@@ -38,6 +38,11 @@ public final class FullMessage<PayloadT> {
 	 */
 	private final PayloadT payload;
 	
+	/**
+	 * The word of the protocol and name, if known.
+	 */
+	private final Vocabulary.Word word;
+	
 	
 	//Constructor:
 	
@@ -57,12 +62,36 @@ public final class FullMessage<PayloadT> {
 	 */
 	public FullMessage(long id, String protocol, String name, String from,
 			PayloadT payload) {
+		this(id, protocol, name, from, payload, null);
+	}
+	
+	/**
+	 * Creates a new FullMessage object whose protocol and name are a word of a
+	 * vocabulary.
+	 * 
+	 * @param id
+	 *            the id of the protocol round the message belongs to.
+	 * @param word
+	 *            the word of the protocol and name of the message.
+	 * @param from
+	 *            the source address of the message.
+	 * @param payload
+	 *            the content of the message.
+	 */
+	public FullMessage(long id, Vocabulary.Word word, String from,
+			PayloadT payload) {
+		this(id, word.getProtocol(), word.getName(), from, payload, word);
+	}
+	
+	private FullMessage(long id, String protocol, String name, String from,
+			PayloadT payload, Vocabulary.Word word) {
 		super();
 		this.id = id;
 		this.protocol = protocol;
 		this.name = name;
 		this.from = from;
 		this.payload = payload;
+		this.word = word;
 	}
 
 	
@@ -107,6 +136,15 @@ public final class FullMessage<PayloadT> {
 		return payload;
 	}
 	
+	/**
+	 * Gets the word of the protocol and name of the message.
+	 * 
+	 * @return the word, or null if not known.
+	 */
+	public Vocabulary.Word getWord() {
+		return word;
+	}
+	
 	/**
 	 * Gets the source address of the message.
 	 * 
@@ -134,7 +172,8 @@ public final class FullMessage<PayloadT> {
 	 * @see ShortMessage#lengthen(String)
 	 */
 	public ShortMessage<PayloadT> shorten() {
-		return new ShortMessage<PayloadT>(id, protocol, name, payload);
+		return word == null ? new ShortMessage<PayloadT>(id, protocol, name,
+				payload) : new ShortMessage<PayloadT>(id, word, payload);
 	}
 	
 	/**
@@ -53,6 +53,12 @@ public class ShortMessage<PayloadT> implements Serializable {
 	 */
 	private final PayloadT payload;
 	
+	/**
+	 * The word of the protocol and name, if known. It does not travel in
+	 * serialized messages, since the other end may not know the word.
+	 */
+	private final transient Vocabulary.Word word;
+	
 	/**
 	 * Builds a short message.
 	 * 
@@ -66,11 +72,32 @@ public class ShortMessage<PayloadT> implements Serializable {
 	 *            the content of the message.
 	 */
 	public ShortMessage(long id, String protocol, String name, PayloadT payload) {
+		this(id, protocol, name, payload, null);
+	}
+	
+	/**
+	 * Builds a short message whose protocol and name are a word of a
+	 * vocabulary.
+	 * 
+	 * @param id
+	 *            the id of the protocol round.
+	 * @param word
+	 *            the word of the protocol and name.
+	 * @param payload
+	 *            the content of the message.
+	 */
+	public ShortMessage(long id, Vocabulary.Word word, PayloadT payload) {
+		this(id, word.getProtocol(), word.getName(), payload, word);
+	}
+	
+	private ShortMessage(long id, String protocol, String name,
+			PayloadT payload, Vocabulary.Word word) {
 		super();
 		this.id = id;
 		this.protocol = protocol;
 		this.name = name;
 		this.payload = payload;
+		this.word = word;
 	}
 	
 	/**
@@ -108,6 +135,15 @@ public class ShortMessage<PayloadT> implements Serializable {
 	public PayloadT getPayload() {
 		return payload;
 	}
+	
+	/**
+	 * Gets the word of the protocol and name of the message.
+	 * 
+	 * @return the word, or null if not known.
+	 */
+	public Vocabulary.Word getWord() {
+		return word;
+	}
 
 	/**
 	 * Returns a {@link FullMessage} object with the same information as the
@@ -119,7 +155,8 @@ public class ShortMessage<PayloadT> implements Serializable {
 	 * @see FullMessage
 	 */
 	public FullMessage<PayloadT> lengthen(String from) {
-		return new FullMessage<PayloadT>(id, protocol, name, from, payload);
+		return word == null ? new FullMessage<PayloadT>(id, protocol, name,
+				from, payload) : new FullMessage<PayloadT>(id, word, from, payload);
 	}
 	
 	/**
@@ -0,0 +1,13 @@
+package communications;
+
+/**
+ * A handle to a receive event installed in a {@link CommunicationResource}.
+ * Cancelling the subscription uninstalls the event. Cancelling more than once
+ * has no effect.
+ * 
+ * @author tokahuke
+ * @see CommunicationResource#addReceiveEvent(ReceiveEvent)
+ */
+@FunctionalInterface public interface Subscription {
+	public void cancel();
+}
@@ -9,4 +9,8 @@ public class TimeoutException extends RxException {
 		super(String.format("Message %s in protocol %s, run %s timed out.",
 				messageName, protocolName, ShortMessage.idToString(runId)));
 	}
+	
+	protected TimeoutException(String cause) {
+		super(cause);
+	}
 }
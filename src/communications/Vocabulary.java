@@ -0,0 +1,267 @@
+package communications;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The message names of a protocol, numbered. Every node that runs the same
+ * Play derives the same vocabulary from it, with the same numbers, so that
+ * names can go on the wire as numbers: a message is identified by the
+ * {@link #getTag() tag} of its vocabulary and the number of its {@link Word}.
+ * Since the other end may not run the same Plays, a transport still defines
+ * each vocabulary on a connection before its first word goes there.
+ * 
+ * <p>
+ * Vocabularies are kept in a registry, where transports look them up by
+ * protocol. Two different vocabularies for the same protocol (e.g. of a Play
+ * built with different parameters) are both left out of look-ups, and
+ * messages of theirs go by name unless they carry a word.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class Vocabulary {
+	
+	/**
+	 * A message name in a vocabulary. Words are unique: two words of the same
+	 * vocabulary and number are the same object.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public static final class Word {
+		private final Vocabulary vocabulary;
+		private final short id;
+		private final String name;
+		
+		private Word(Vocabulary vocabulary, short id, String name) {
+			this.vocabulary = vocabulary;
+			this.id = id;
+			this.name = name;
+		}
+		
+		public Vocabulary getVocabulary() {
+			return vocabulary;
+		}
+		
+		public short getId() {
+			return id;
+		}
+		
+		public String getProtocol() {
+			return vocabulary.protocol;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		@Override public String toString() {
+			return vocabulary.protocol + ":" + name;
+		}
+	}
+	
+	
+	// Registry:
+	
+	/**
+	 * Stands for two or more vocabularies that cannot be told apart.
+	 */
+	private static final Vocabulary AMBIGUOUS = new Vocabulary("",
+			new String[0]);
+	
+	private static final Map<Vocabulary, Vocabulary> known =
+			new HashMap<Vocabulary, Vocabulary>();
+	private static final Map<String, Vocabulary> byProtocol =
+			new ConcurrentHashMap<String, Vocabulary>();
+	
+	/**
+	 * Registers a vocabulary, unless an equal one is already there.
+	 * 
+	 * @param vocabulary
+	 *            the vocabulary.
+	 * @return the vocabulary registered, which is the one to be used.
+	 */
+	public static synchronized Vocabulary register(Vocabulary vocabulary) {
+		Vocabulary registered = known.get(vocabulary);
+		
+		if (registered != null) {
+			return registered;
+		}
+		
+		known.put(vocabulary, vocabulary);
+		byProtocol.merge(vocabulary.protocol, vocabulary, (a, b) -> AMBIGUOUS);
+		
+		return vocabulary;
+	}
+	
+	/**
+	 * Finds the registered vocabulary equal to a given one, as when a
+	 * vocabulary comes from the other end of a connection.
+	 * 
+	 * @param vocabulary
+	 *            the vocabulary.
+	 * @return the vocabulary registered, or the one given if there is none.
+	 */
+	public static synchronized Vocabulary canonical(Vocabulary vocabulary) {
+		Vocabulary registered = known.get(vocabulary);
+		return registered == null ? vocabulary : registered;
+	}
+	
+	/**
+	 * Finds the word of a message in the vocabulary registered for its
+	 * protocol, if that may go on the wire.
+	 * 
+	 * @param protocol
+	 *            the name of the protocol.
+	 * @param name
+	 *            the name of the message.
+	 * @return the word, or null if there is none to be used.
+	 */
+	public static Word lookUp(String protocol, String name) {
+		Vocabulary vocabulary = byProtocol.get(protocol);
+		
+		if (vocabulary == null || vocabulary == AMBIGUOUS) {
+			return null;
+		}
+		
+		return vocabulary.getWord(name);
+	}
+	
+	
+	// Instance members:
+	
+	private final String protocol;
+	private final Word[] words;
+	private final Map<String, Word> index;
+	private final short tag;
+	private final int length;
+	
+	/**
+	 * Creates a vocabulary out of the names of the messages of a protocol.
+	 * Names are numbered in alphabetical order, whatever the order given.
+	 * 
+	 * @param protocol
+	 *            the name of the protocol.
+	 * @param names
+	 *            the names of its messages; repetitions are ignored.
+	 */
+	public Vocabulary(String protocol, Collection<String> names) {
+		this(protocol, new TreeSet<String>(names).toArray(new String[0]));
+	}
+	
+	private Vocabulary(String protocol, String[] sorted) {
+		if (sorted.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format(
+					"Too many names in %s: %d.", protocol, sorted.length));
+		}
+		
+		this.protocol = protocol;
+		this.words = new Word[sorted.length];
+		this.index = new HashMap<String, Word>();
+		
+		// String hashes are the same in every JVM, and so are tags:
+		int hash = protocol.hashCode();
+		int length = protocol.length();
+		
+		for (short i = 0; i < sorted.length; i++) {
+			words[i] = new Word(this, i, sorted[i]);
+			index.put(sorted[i], words[i]);
+			hash = 31 * hash + sorted[i].hashCode();
+			length += sorted[i].length();
+		}
+		
+		this.tag = (short) (hash ^ hash >>> 16);
+		this.length = length;
+	}
+	
+	public String getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * Gets the tag of the vocabulary, which is the same for equal
+	 * vocabularies and most probably not for different ones.
+	 * 
+	 * @return the tag.
+	 */
+	public short getTag() {
+		return tag;
+	}
+	
+	public int size() {
+		return words.length;
+	}
+	
+	/**
+	 * Gets the number of chars in the protocol name and in all the message
+	 * names of the vocabulary, together.
+	 * 
+	 * @return the number of chars.
+	 */
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * Gets the word for a message name.
+	 * 
+	 * @param name
+	 *            the name.
+	 * @return the word, or null if the name is not in the vocabulary.
+	 */
+	public Word getWord(String name) {
+		return index.get(name);
+	}
+	
+	/**
+	 * Gets a word by its number.
+	 * 
+	 * @param id
+	 *            the number.
+	 * @return the word, or null if there is no such number.
+	 */
+	public Word getWord(int id) {
+		return id >= 0 && id < words.length ? words[id] : null;
+	}
+	
+	@Override public boolean equals(Object other) {
+		if (!(other instanceof Vocabulary)) {
+			return false;
+		}
+		
+		Vocabulary that = (Vocabulary) other;
+		
+		if (tag != that.tag || !protocol.equals(that.protocol)
+				|| words.length != that.words.length) {
+			return false;
+		}
+		
+		for (int i = 0; i < words.length; i++) {
+			if (!words[i].name.equals(that.words[i].name)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	@Override public int hashCode() {
+		return protocol.hashCode() ^ tag;
+	}
+	
+	@Override public String toString() {
+		String[] names = new String[words.length];
+		
+		for (int i = 0; i < words.length; i++) {
+			names[i] = words[i].name;
+		}
+		
+		return protocol + Arrays.toString(names);
+	}
+}
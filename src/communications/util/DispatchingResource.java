@@ -0,0 +1,135 @@
+package communications.util;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import communications.CommunicationResource;
+import communications.FullMessage;
+import communications.ReceiveEvent;
+import communications.Subscription;
+
+
+/**
+ * The bookkeeping of receive events common to resources: the events
+ * installed, the index of ongoing rounds and the delivery of each incoming
+ * message to its event. How messages come in is up to the subclass, which
+ * hands each one to {@link #dispatch(FullMessage)}. {@link QueueResource}
+ * does so from a listener thread of its own.
+ * 
+ * @author tokahuke
+ *
+ */
+public abstract class DispatchingResource<PayloadT> implements
+		CommunicationResource<PayloadT> {
+	
+	// Internal classes:
+	
+	/**
+	 * A receive event installed in the resource. Each call to
+	 * {@link DispatchingResource#addReceiveEvent(ReceiveEvent)} gets its own
+	 * registration, even if the same event is installed twice.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private final class Registration implements Subscription {
+		private final ReceiveEvent<PayloadT> receiveEvent;
+		
+		public Registration(ReceiveEvent<PayloadT> receiveEvent) {
+			this.receiveEvent = receiveEvent;
+		}
+		
+		@Override public void cancel() {
+			events.remove(this);
+		}
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * Stores all events added to the resource. This was made a set to make
+	 * removal easy and a concurrent one so that no lock is held while an event
+	 * runs: an event may block (e.g. waiting for a free Actor) until some other
+	 * thread cancels its own subscription.
+	 */
+	private final Set<Registration> events = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Indexes the events of ongoing protocol rounds by protocol name and run
+	 * id. Messages found here are delivered without going through
+	 * {@link #events}.
+	 * 
+	 * @see #addRunEvent(String, long, ReceiveEvent)
+	 */
+	private final Map<String, Map<Long, ReceiveEvent<PayloadT>>> runIndex
+			= new ConcurrentHashMap<String, Map<Long, ReceiveEvent<PayloadT>>>();
+	
+	
+	// Delivery:
+	
+	/**
+	 * Delivers a message to its receive event. Messages of indexed rounds go
+	 * straight to the event of the round; all others are offered to each of
+	 * the general events in turn until one accepts it.
+	 * 
+	 * @param msg
+	 *            the incoming message.
+	 * @throws InterruptedException
+	 *             if the Thread is interrupted while delivering.
+	 */
+	protected void dispatch(FullMessage<PayloadT> msg)
+			throws InterruptedException {
+		Map<Long, ReceiveEvent<PayloadT>> runs = runIndex.get(msg
+				.getProtocol());
+		
+		if (runs != null) {
+			ReceiveEvent<PayloadT> runEvent = runs.get(msg.getId());
+			
+			if (runEvent != null && runEvent.receives(msg)) {
+				return;
+			}
+		}
+		
+		// Not indexed: ask around.
+		for (Registration registration : events) {
+			if (registration.receiveEvent.receives(msg)) {
+				break;
+			}
+		}
+	}
+	
+	
+	// Implementation of the CommunicationResource interface:
+	
+	@Override public Subscription addReceiveEvent(
+			ReceiveEvent<PayloadT> receiveEvent) {
+		Registration registration = new Registration(receiveEvent);
+		
+		events.add(registration);
+		
+		return registration;
+	}
+	
+	@Deprecated @Override public void removeReceiveEvent(
+			ReceiveEvent<PayloadT> receiveEvent) {
+		for (Registration registration : events) {
+			if (registration.receiveEvent == receiveEvent) {
+				registration.cancel();
+			}
+		}
+	}
+	
+	@Override public Subscription addRunEvent(String protocol, long runId,
+			ReceiveEvent<PayloadT> receiveEvent) {
+		Map<Long, ReceiveEvent<PayloadT>> runs = runIndex.computeIfAbsent(
+				protocol,
+				name -> new ConcurrentHashMap<Long, ReceiveEvent<PayloadT>>());
+		
+		runs.put(runId, receiveEvent);
+		
+		// Only remove the route if nobody took its place meanwhile:
+		return () -> runs.remove(runId, receiveEvent);
+	}
+}
@@ -1,11 +1,11 @@
 package communications.util;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.function.Function;
 
 import communications.CommunicationResource;
 import communications.ReceiveEvent;
+import communications.Subscription;
 import communications.TxException;
 import communications.ShortMessage;
 
@@ -28,10 +28,9 @@ public class Dump<P> implements CommunicationResource<P> {
 	private final CommunicationResource<P> resource;
 	
 	/**
-	 * A mapping between the receive events given from the environment and the
-	 * ones installed in the communication resource given.
+	 * The subscriptions of the receive events given from the environment.
 	 */
-	private final Map<ReceiveEvent<P>, ReceiveEvent<P>> modificationMap;
+	private final Subscriptions<P> subscriptions = new Subscriptions<P>();
 	
 	/**
 	 * The formatting style to be used for the payload.
@@ -112,45 +111,64 @@ public class Dump<P> implements CommunicationResource<P> {
 		this.resource = resource;
 		this.formatting = formatting;
 		this.show = show;
-		this.modificationMap = new HashMap<ReceiveEvent<P>, ReceiveEvent<P>>();
 		this.localAddress = resource.getLocalAddress();
 	}
 	
 	
 	// Implementation of the CommuncationResource interface:
 	
-	@Override public void addReceiveEvent(ReceiveEvent<P> receiveEvent) {
+	@Override public Subscription addReceiveEvent(ReceiveEvent<P> receiveEvent) {
 		if (show == Show.RECEIVE || show == Show.BOTH_WAYS) {
-			ReceiveEvent<P> modified = msg -> {
-				if (receiveEvent.receives(msg)) {
-					if (localAddress != null) {
-						System.out.printf("-- from %s to %s: %s\n", msg
-								.getFrom(), localAddress, msg.shorten()
-								.toString(formatting));
-					} else {
-						System.out.printf("-- from %s: %s\n", msg.getFrom(),
-								msg.shorten().toString(formatting));
-					}
-					return true;
-				} else {
-					return false;
-				}
-			};
-			
-			modificationMap.put(receiveEvent, modified);
-			
-			resource.addReceiveEvent(modified);
+			return subscriptions.track(receiveEvent, resource
+					.addReceiveEvent(showing(receiveEvent)));
 		} else {
-			resource.addReceiveEvent(receiveEvent);
+			return subscriptions.track(receiveEvent, resource
+					.addReceiveEvent(receiveEvent));
 		}
 	}
-
-	@Override public void removeReceiveEvent(ReceiveEvent<P> receiveEvent) {
-		resource.removeReceiveEvent(modificationMap.get(receiveEvent));
+	
+	@Deprecated @Override public void removeReceiveEvent(
+			ReceiveEvent<P> receiveEvent) {
+		subscriptions.cancel(receiveEvent);
 	}
-
+	
+	@Override public Subscription addRunEvent(String protocol, long runId,
+			ReceiveEvent<P> receiveEvent) {
+		if (show == Show.RECEIVE || show == Show.BOTH_WAYS) {
+			return resource.addRunEvent(protocol, runId,
+					showing(receiveEvent));
+		} else {
+			return resource.addRunEvent(protocol, runId, receiveEvent);
+		}
+	}
+	
 	@Override public void sendMessage(ShortMessage<P> msg, String to)
 			throws TxException {
+		show(msg, to);
+		resource.sendMessage(msg, to);
+	}
+	
+	@Override public void sendMessages(List<ShortMessage<P>> msgs, String to)
+			throws TxException {
+		for (ShortMessage<P> msg : msgs) {
+			show(msg, to);
+		}
+		
+		resource.sendMessages(msgs, to);
+	}
+	
+	
+	// Utilities:
+	
+	/**
+	 * Shows an outgoing message on the screen, if it is to be shown.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @param to
+	 *            the address of the destination.
+	 */
+	private void show(ShortMessage<P> msg, String to) {
 		if (show == Show.SEND || show == Show.BOTH_WAYS) {
 			if (localAddress != null) {
 				System.out.printf("-- from %s to %s: %s\n", localAddress, to,
@@ -160,7 +178,31 @@ public class Dump<P> implements CommunicationResource<P> {
 					msg.toString(formatting));
 			}
 		}
-		
-		resource.sendMessage(msg, to);
+	}
+	
+	/**
+	 * Wraps a receive event so that the messages it accepts are shown on the
+	 * screen.
+	 * 
+	 * @param receiveEvent
+	 *            the receive event given from the environment.
+	 * @return the receive event to be installed in the resource.
+	 */
+	private ReceiveEvent<P> showing(ReceiveEvent<P> receiveEvent) {
+		return msg -> {
+			if (receiveEvent.receives(msg)) {
+				if (localAddress != null) {
+					System.out.printf("-- from %s to %s: %s\n", msg
+							.getFrom(), localAddress, msg.shorten()
+							.toString(formatting));
+				} else {
+					System.out.printf("-- from %s: %s\n", msg.getFrom(),
+							msg.shorten().toString(formatting));
+				}
+				return true;
+			} else {
+				return false;
+			}
+		};
 	}
 }
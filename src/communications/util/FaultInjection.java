@@ -0,0 +1,358 @@
+package communications.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import communications.CommunicationResource;
+import communications.ReceiveEvent;
+import communications.ShortMessage;
+import communications.Subscription;
+import communications.TxException;
+
+
+/**
+ * A decorator that makes a communication resource behave like a bad network.
+ * Outgoing messages suffer the {@link Impairment} set for their destination:
+ * they may be lost, duplicated, delayed, held back behind later messages or
+ * made to wait for the bandwidth of the link. This is meant for testing, on a
+ * single machine, how protocols cope with real networks, e.g. whether the
+ * maximum delays of a Play are well chosen.
+ * 
+ * <p>
+ * Delayed messages wait in a delay line with a thread of its own, which sends
+ * them through the underlying resource when their time comes; senders never
+ * wait. Incoming messages are not touched, so impairing both ways takes a
+ * decorator on each side.
+ * 
+ * @author tokahuke
+ *
+ */
+public class FaultInjection<P> implements CommunicationResource<P> {
+	
+	// Internal classes:
+	
+	/**
+	 * A message waiting in the delay line. Messages due at the same time
+	 * leave in the order they came.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private final class Delivery implements Delayed {
+		private final long deadline;
+		private final long sequence;
+		private final ShortMessage<P> msg;
+		private final String to;
+		
+		public Delivery(long deadline, ShortMessage<P> msg, String to) {
+			this.deadline = deadline;
+			this.sequence = sequencer.getAndIncrement();
+			this.msg = msg;
+			this.to = to;
+		}
+		
+		@Override public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(),
+					TimeUnit.NANOSECONDS);
+		}
+		
+		@Override public int compareTo(Delayed other) {
+			@SuppressWarnings("unchecked") Delivery delivery = (Delivery) other;
+			int byDeadline = Long.compare(deadline, delivery.deadline);
+			
+			return byDeadline != 0 ? byDeadline : Long.compare(sequence,
+					delivery.sequence);
+		}
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * The resource to be used to actually send the messages.
+	 */
+	private final CommunicationResource<P> resource;
+	
+	/**
+	 * Estimates the size of messages, in bytes, for bandwidth limits.
+	 */
+	private final ToIntFunction<ShortMessage<P>> size;
+	
+	/**
+	 * Decides the fate of each message.
+	 */
+	private final Random random;
+	
+	/**
+	 * The impairments set for specific destinations.
+	 */
+	private final Map<String, Impairment> impairments =
+			new HashMap<String, Impairment>();
+	
+	/**
+	 * The impairment of destinations with no impairment of their own.
+	 */
+	private Impairment defaultImpairment;
+	
+	/**
+	 * When each bandwidth limited link will have drained all messages sent so
+	 * far, as given by {@link System#nanoTime()}.
+	 */
+	private final Map<String, Long> busyUntil = new HashMap<String, Long>();
+	
+	/**
+	 * The messages waiting to be sent.
+	 */
+	private final DelayQueue<Delivery> delayLine = new DelayQueue<Delivery>();
+	
+	/**
+	 * Orders deliveries due at the same time.
+	 */
+	private final AtomicLong sequencer = new AtomicLong();
+	
+	/**
+	 * The thread that empties the delay line, started with the first delayed
+	 * message.
+	 */
+	private Thread sender = null;
+	
+	/**
+	 * Number of messages given to this decorator.
+	 */
+	private final LongAdder numberOfTxMessages = new LongAdder();
+	
+	/**
+	 * Number of messages lost, on purpose or because the delay line failed to
+	 * send them.
+	 */
+	private final LongAdder numberOfLostMessages = new LongAdder();
+	
+	/**
+	 * Number of extra copies of messages sent.
+	 */
+	private final LongAdder numberOfDuplicates = new LongAdder();
+	
+	
+	// Constructors:
+	
+	/**
+	 * Creates a new decorator over a resource, impairing all destinations the
+	 * same way. Messages are taken to be as long as their names and payloads,
+	 * as written by toString, plus some header.
+	 * 
+	 * @param resource
+	 *            the resource to be impaired.
+	 * @param impairment
+	 *            the impairment of all destinations.
+	 */
+	public FaultInjection(CommunicationResource<P> resource,
+			Impairment impairment) {
+		this(resource, impairment, FaultInjection::estimateSize, new Random());
+	}
+	
+	/**
+	 * Creates a new decorator over a resource.
+	 * 
+	 * @param resource
+	 *            the resource to be impaired.
+	 * @param impairment
+	 *            the impairment of destinations with no impairment of their
+	 *            own.
+	 * @param size
+	 *            estimates the size of messages in bytes, for bandwidth
+	 *            limits.
+	 * @param random
+	 *            the source of randomness, which may be seeded for
+	 *            reproducible faults.
+	 */
+	public FaultInjection(CommunicationResource<P> resource,
+			Impairment impairment, ToIntFunction<ShortMessage<P>> size,
+			Random random) {
+		this.resource = resource;
+		this.defaultImpairment = impairment;
+		this.size = size;
+		this.random = random;
+	}
+	
+	/**
+	 * Sets the impairment of a destination.
+	 * 
+	 * @param to
+	 *            the address of the destination.
+	 * @param impairment
+	 *            the impairment, or null to go back to the default one.
+	 */
+	public synchronized void setImpairment(String to, Impairment impairment) {
+		if (impairment != null) {
+			impairments.put(to, impairment);
+		} else {
+			impairments.remove(to);
+		}
+	}
+	
+	/**
+	 * Sets the impairment of destinations with no impairment of their own.
+	 * 
+	 * @param impairment
+	 *            the new default impairment.
+	 */
+	public synchronized void setDefaultImpairment(Impairment impairment) {
+		this.defaultImpairment = impairment;
+	}
+	
+	/**
+	 * Stops the delay line. Messages still waiting in it are lost, and
+	 * messages sent afterwards with some delay as well. The underlying
+	 * resource is left alone.
+	 */
+	public synchronized void disconnect() {
+		if (sender != null) {
+			sender.interrupt();
+		}
+		
+		delayLine.clear();
+	}
+	
+	
+	// Implementation of the CommunicationResource interface:
+	
+	@Override public Subscription addReceiveEvent(ReceiveEvent<P> receiveEvent) {
+		return resource.addReceiveEvent(receiveEvent);
+	}
+	
+	@Deprecated @Override public void removeReceiveEvent(
+			ReceiveEvent<P> receiveEvent) {
+		resource.removeReceiveEvent(receiveEvent);
+	}
+	
+	@Override public Subscription addRunEvent(String protocol, long runId,
+			ReceiveEvent<P> receiveEvent) {
+		return resource.addRunEvent(protocol, runId, receiveEvent);
+	}
+	
+	@Override public void sendMessage(ShortMessage<P> msg, String to)
+			throws TxException {
+		numberOfTxMessages.increment();
+		
+		long now = System.nanoTime();
+		long departure;
+		long first, second = -1;
+		
+		synchronized (this) {
+			Impairment impairment = impairments.getOrDefault(to,
+					defaultImpairment);
+			
+			// Wait for the link to drain what came before:
+			long transmission = impairment.transmission(size.applyAsInt(msg));
+			
+			if (transmission > 0) {
+				departure = Math.max(now, busyUntil.getOrDefault(to, now))
+						+ transmission;
+				busyUntil.put(to, departure);
+			} else {
+				departure = now;
+			}
+			
+			// Then the fate of each copy:
+			first = impairment.delay(random);
+			
+			if (impairment.duplicates(random)) {
+				numberOfDuplicates.increment();
+				second = impairment.delay(random);
+			}
+		}
+		
+		if (first < 0) {
+			numberOfLostMessages.increment();
+		} else {
+			send(msg, to, departure + first, now);
+		}
+		
+		if (second >= 0) {
+			send(msg, to, departure + second, now);
+		}
+	}
+	
+	@Override public String getLocalAddress() {
+		return resource.getLocalAddress();
+	}
+	
+	public long getNumberOfTxMessages() {
+		return numberOfTxMessages.sum();
+	}
+	
+	public long getNumberOfLostMessages() {
+		return numberOfLostMessages.sum();
+	}
+	
+	public long getNumberOfDuplicates() {
+		return numberOfDuplicates.sum();
+	}
+	
+	
+	// Helpers:
+	
+	/**
+	 * Sends a message right away if it is due, or else puts it in the delay
+	 * line.
+	 */
+	private void send(ShortMessage<P> msg, String to, long deadline, long now) {
+		if (deadline <= now) {
+			resource.sendMessage(msg, to);
+			return;
+		}
+		
+		synchronized (this) {
+			if (sender == null) {
+				sender = new Thread(this::drain, "delay-line");
+				sender.setDaemon(true);
+				sender.start();
+			} else if (sender.isInterrupted() || !sender.isAlive()) {
+				return; // Disconnected.
+			}
+		}
+		
+		delayLine.add(new Delivery(deadline, msg, to));
+	}
+	
+	/**
+	 * Sends delayed messages as they become due, until disconnected.
+	 */
+	private void drain() {
+		try {
+			while (true) {
+				Delivery delivery = delayLine.take();
+				
+				// A failed send is just like a lost message, but it must not
+				// end the delay line, or every later delayed message is lost:
+				try {
+					resource.sendMessage(delivery.msg, delivery.to);
+				} catch (TxException e) {
+					numberOfLostMessages.increment();
+				} catch (RuntimeException e) {
+					numberOfLostMessages.increment();
+					e.printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Estimates the size of a message on the wire.
+	 */
+	private static <P> int estimateSize(ShortMessage<P> msg) {
+		P payload = msg.getPayload();
+		
+		return 24 + msg.getProtocol().length() + msg.getName().length()
+				+ (payload != null ? payload.toString().length() : 0);
+	}
+}
@@ -0,0 +1,228 @@
+package communications.util;
+
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * What goes wrong with messages on their way to a given destination, as
+ * injected by a {@link FaultInjection}: how long they take, how often they
+ * are lost, duplicated or held back behind later messages, and how fast the
+ * link drains them. Delays are drawn from a distribution, for which some
+ * common choices are given as static methods.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class Impairment {
+	
+	/**
+	 * Nothing goes wrong.
+	 */
+	public static final Impairment NONE = new Impairment(fixed(0), 0, 0, 0, 0,
+			0);
+	
+	
+	// Delay distributions:
+	
+	/**
+	 * A delay that is always the same.
+	 * 
+	 * @param nanos
+	 *            the delay, in nanoseconds.
+	 * @return the distribution.
+	 */
+	public static ToLongFunction<Random> fixed(long nanos) {
+		return random -> nanos;
+	}
+	
+	/**
+	 * A delay uniformly distributed in an interval.
+	 * 
+	 * @param minNanos
+	 *            the least delay, in nanoseconds.
+	 * @param maxNanos
+	 *            the greatest delay, in nanoseconds.
+	 * @return the distribution.
+	 */
+	public static ToLongFunction<Random> uniform(long minNanos, long maxNanos) {
+		return random -> minNanos
+				+ (long) (random.nextDouble() * (maxNanos - minNanos));
+	}
+	
+	/**
+	 * A fixed delay plus an exponentially distributed one, as in a queue.
+	 * 
+	 * @param minNanos
+	 *            the least delay, in nanoseconds.
+	 * @param meanNanos
+	 *            the mean of the exponential part, in nanoseconds.
+	 * @return the distribution.
+	 */
+	public static ToLongFunction<Random> exponential(long minNanos,
+			long meanNanos) {
+		return random -> minNanos
+				- (long) (Math.log(1 - random.nextDouble()) * meanNanos);
+	}
+	
+	/**
+	 * A normally distributed delay, never less than zero.
+	 * 
+	 * @param meanNanos
+	 *            the mean delay, in nanoseconds.
+	 * @param deviationNanos
+	 *            the standard deviation, in nanoseconds.
+	 * @return the distribution.
+	 */
+	public static ToLongFunction<Random> normal(long meanNanos,
+			long deviationNanos) {
+		return random -> Math.max(0, meanNanos
+				+ (long) (random.nextGaussian() * deviationNanos));
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * Draws the delay of each message.
+	 */
+	private final ToLongFunction<Random> delay;
+	
+	/**
+	 * The probability that a message is lost.
+	 */
+	private final double loss;
+	
+	/**
+	 * The probability that a message arrives twice.
+	 */
+	private final double duplication;
+	
+	/**
+	 * The probability that a message is held back.
+	 */
+	private final double reordering;
+	
+	/**
+	 * How long held back messages are held back, in nanoseconds.
+	 */
+	private final long holdNanos;
+	
+	/**
+	 * How many bytes per second the link drains, or 0 if it is unlimited.
+	 */
+	private final long bytesPerSecond;
+	
+	
+	// Constructor:
+	
+	/**
+	 * Creates a new impairment.
+	 * 
+	 * @param delay
+	 *            the distribution of delays, in nanoseconds.
+	 * @param loss
+	 *            the probability that a message is lost, from 0 to 1.
+	 * @param duplication
+	 *            the probability that a message arrives twice, from 0 to 1.
+	 *            Each copy has a delay of its own.
+	 * @param reordering
+	 *            the probability that a message is held back, from 0 to 1,
+	 *            so that messages sent after it may arrive first.
+	 * @param holdNanos
+	 *            how much longer held back messages take, in nanoseconds.
+	 * @param bytesPerSecond
+	 *            the bandwidth of the link, or 0 for an unlimited one.
+	 *            Messages wait for the ones before them to be drained.
+	 */
+	public Impairment(ToLongFunction<Random> delay, double loss,
+			double duplication, double reordering, long holdNanos,
+			long bytesPerSecond) {
+		if (isNotProbability(loss) || isNotProbability(duplication)
+				|| isNotProbability(reordering) || holdNanos < 0
+				|| bytesPerSecond < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Bad impairment: %f loss, %f duplication, %f reordering "
+							+ "by %dns, %dB/s.", loss, duplication,
+					reordering, holdNanos, bytesPerSecond));
+		}
+		
+		this.delay = delay;
+		this.loss = loss;
+		this.duplication = duplication;
+		this.reordering = reordering;
+		this.holdNanos = holdNanos;
+		this.bytesPerSecond = bytesPerSecond;
+	}
+	
+	
+	// Getters:
+	
+	public double getLoss() {
+		return loss;
+	}
+	
+	public double getDuplication() {
+		return duplication;
+	}
+	
+	public double getReordering() {
+		return reordering;
+	}
+	
+	public long getHoldNanos() {
+		return holdNanos;
+	}
+	
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+	
+	
+	// Helpers:
+	
+	/**
+	 * Decides the fate of a copy of a message.
+	 * 
+	 * @param random
+	 *            the source of randomness.
+	 * @return how long the copy takes after leaving the link, or -1 if it is
+	 *         lost.
+	 */
+	/* package-private */long delay(Random random) {
+		if (loss > 0 && random.nextDouble() < loss) {
+			return -1;
+		}
+		
+		long nanos = delay.applyAsLong(random);
+		
+		if (reordering > 0 && random.nextDouble() < reordering) {
+			nanos += holdNanos;
+		}
+		
+		return nanos;
+	}
+	
+	/**
+	 * Decides whether a message arrives twice.
+	 */
+	/* package-private */boolean duplicates(Random random) {
+		return duplication > 0 && random.nextDouble() < duplication;
+	}
+	
+	/**
+	 * Gets how long a message takes to be drained by the link.
+	 * 
+	 * @param bytes
+	 *            the size of the message.
+	 * @return the time, in nanoseconds.
+	 */
+	/* package-private */long transmission(int bytes) {
+		return bytesPerSecond > 0 ? bytes * 1_000_000_000L / bytesPerSecond
+				: 0;
+	}
+	
+	private static boolean isNotProbability(double value) {
+		return !(value >= 0 && value <= 1);
+	}
+}
@@ -1,25 +1,21 @@
 package communications.util;
 
-import java.util.HashSet;
-import java.util.Set;
-
-import communications.CommunicationResource;
 import communications.FullMessage;
-import communications.ReceiveEvent;
 
 
-public abstract class QueueResource<PayloadT> implements
-		CommunicationResource<PayloadT> {
+/**
+ * A resource whose incoming messages are taken, one at a time, by a listener
+ * thread of its own and dispatched to the receive events from there.
+ * Subclasses only say how to take the next message.
+ * 
+ * @author tokahuke
+ *
+ */
+public abstract class QueueResource<PayloadT> extends
+		DispatchingResource<PayloadT> {
 	
 	// Fields:
 	
-	/**
-	 * Stores all events added to the resource. This was made a set to make
-	 * removal easy.
-	 */
-	private final Set<ReceiveEvent<PayloadT>> events 
-			= new HashSet<ReceiveEvent<PayloadT>>();
-	
 	/**
 	 * The thread that listens to incoming messages.
 	 */
@@ -41,15 +37,7 @@ public abstract class QueueResource<PayloadT> implements
 	private void listenMessages() {
 		try {
 			while (true) {
-				FullMessage<PayloadT> msg = take();
-
-				synchronized (events) {
-					for (ReceiveEvent<PayloadT> receiveEvent : events) {
-						if (receiveEvent.receives(msg)) {
-							break;
-						}
-					}
-				}
+				dispatch(take());
 			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
@@ -69,24 +57,11 @@ public abstract class QueueResource<PayloadT> implements
 	}
 	
 	/**
-	 * Interrupts the listener thread.
+	 * Interrupts the listener thread, if it was started.
 	 */
 	protected void stop() {
-		listener.interrupt();
-	}
-	
-	
-	// Implementation of the CommunicationResource interface:
-	
-	@Override public void addReceiveEvent(ReceiveEvent<PayloadT> receiveEvent) {
-		synchronized (events) {
-			events.add(receiveEvent);
-		}
-	}
-	
-	@Override public void removeReceiveEvent(ReceiveEvent<PayloadT> receiveEvent) {
-		synchronized (events) {
-			events.remove(receiveEvent);
+		if (listener != null) {
+			listener.interrupt();
 		}
 	}
 }
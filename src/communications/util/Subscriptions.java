@@ -0,0 +1,58 @@
+package communications.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import communications.ReceiveEvent;
+import communications.Subscription;
+
+
+/**
+ * Remembers the subscription of each receive event a resource passes on, so
+ * that the deprecated
+ * {@link communications.CommunicationResource#removeReceiveEvent(ReceiveEvent)
+ * removeReceiveEvent} can still find it. An entry lasts until its subscription
+ * is cancelled, whichever way.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class Subscriptions<P> {
+	private final Map<ReceiveEvent<P>, Subscription> subscriptions =
+			new ConcurrentHashMap<ReceiveEvent<P>, Subscription>();
+	
+	/**
+	 * Remembers the subscription of an event.
+	 * 
+	 * @param receiveEvent
+	 *            the event, as given by the user.
+	 * @param subscription
+	 *            the subscription of the event, or of whatever was installed
+	 *            in its place.
+	 * @return the subscription to hand back to the user, which also forgets
+	 *         the event.
+	 */
+	public Subscription track(ReceiveEvent<P> receiveEvent,
+			Subscription subscription) {
+		subscriptions.put(receiveEvent, subscription);
+		
+		return () -> {
+			subscriptions.remove(receiveEvent, subscription);
+			subscription.cancel();
+		};
+	}
+	
+	/**
+	 * Cancels the subscription of an event, if it is remembered.
+	 * 
+	 * @param receiveEvent
+	 *            the event, as given by the user.
+	 */
+	public void cancel(ReceiveEvent<P> receiveEvent) {
+		Subscription subscription = subscriptions.remove(receiveEvent);
+		
+		if (subscription != null) {
+			subscription.cancel();
+		}
+	}
+}
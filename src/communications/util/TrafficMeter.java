@@ -0,0 +1,428 @@
+package communications.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import communications.CommunicationResource;
+import communications.ReceiveEvent;
+import communications.ShortMessage;
+import communications.Subscription;
+import communications.TxException;
+import metrics.Histogram;
+import metrics.Instrumented;
+import metrics.Snapshot;
+
+
+/**
+ * A decorator that counts the traffic through a communication resource:
+ * messages and bytes, sent and received, by protocol, message name and peer
+ * address. It also times calls to send, which includes whatever encoding and
+ * writing the resource does in the sending thread, and, if its conversions
+ * are wrapped with {@link #timingEncoding(Function)} and
+ * {@link #timingDecoding(Function)}, the encoding and decoding of a
+ * {@link WrappedTypeProtocol}.
+ * 
+ * <p>
+ * Counters are {@link LongAdder}s and histograms take no locks, so that
+ * metering costs a few tens of nanoseconds per message, no matter how many
+ * threads send and receive. Reading the clock may cost as much as that, so
+ * only one in {@value #SEND_SAMPLING} calls to send is timed, at random. Incoming messages are counted when some receive
+ * event takes them; those nobody takes are not seen by the decorator.
+ * 
+ * @author tokahuke
+ *
+ */
+public class TrafficMeter<P> implements CommunicationResource<P>, Instrumented {
+	
+	// Internal classes:
+	
+	/**
+	 * What traffic is counted by: protocol, message name and peer address.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private static final class Key {
+		private final String protocol;
+		private final String name;
+		private final String peer;
+		private final int hash;
+		
+		public Key(String protocol, String name, String peer) {
+			this.protocol = protocol;
+			this.name = name;
+			this.peer = peer;
+			this.hash = (protocol.hashCode() * 31 + name.hashCode()) * 31
+					+ peer.hashCode();
+		}
+		
+		@Override public int hashCode() {
+			return hash;
+		}
+		
+		@Override public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			
+			Key key = (Key) other;
+			
+			return hash == key.hash && protocol.equals(key.protocol)
+					&& name.equals(key.name) && peer.equals(key.peer);
+		}
+	}
+	
+	/**
+	 * The traffic of a message of a protocol to and from a peer, as counted so
+	 * far.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public static final class Traffic {
+		private final Key key;
+		private final LongAdder messagesSent = new LongAdder();
+		private final LongAdder bytesSent = new LongAdder();
+		private final LongAdder messagesReceived = new LongAdder();
+		private final LongAdder bytesReceived = new LongAdder();
+		
+		private Traffic(Key key) {
+			this.key = key;
+		}
+		
+		public String getProtocol() {
+			return key.protocol;
+		}
+		
+		public String getName() {
+			return key.name;
+		}
+		
+		public String getPeer() {
+			return key.peer;
+		}
+		
+		public long getMessagesSent() {
+			return messagesSent.sum();
+		}
+		
+		public long getBytesSent() {
+			return bytesSent.sum();
+		}
+		
+		public long getMessagesReceived() {
+			return messagesReceived.sum();
+		}
+		
+		public long getBytesReceived() {
+			return bytesReceived.sum();
+		}
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * One in how many calls to send is timed.
+	 */
+	public static final int SEND_SAMPLING = 8;
+	
+	/**
+	 * The resource to be used to actually send the messages.
+	 */
+	private final CommunicationResource<P> resource;
+	
+	/**
+	 * The subscriptions of the receive events given from the environment.
+	 */
+	private final Subscriptions<P> subscriptions = new Subscriptions<P>();
+	
+	/**
+	 * The size in bytes of each payload, or null if bytes are not counted.
+	 */
+	private final ToIntFunction<? super P> sizeOf;
+	
+	/**
+	 * The traffic counted so far.
+	 */
+	private final Map<Key, Traffic> traffic =
+			new ConcurrentHashMap<Key, Traffic>();
+	
+	/**
+	 * How long calls to send take, in nanoseconds, one in
+	 * {@value #SEND_SAMPLING}.
+	 */
+	private final Histogram sendLatencies = new Histogram();
+	
+	/**
+	 * How long encoding and decoding each payload takes, in nanoseconds.
+	 */
+	private final Histogram encodeTimes = new Histogram(),
+			decodeTimes = new Histogram();
+	
+	
+	// Constructors:
+	
+	/**
+	 * Creates a TrafficMeter over a given resource that counts messages, but
+	 * not bytes.
+	 * 
+	 * @param resource
+	 *            the communication resource to be metered.
+	 */
+	public TrafficMeter(CommunicationResource<P> resource) {
+		this(resource, null);
+	}
+	
+	/**
+	 * Creates a TrafficMeter over a given resource that counts both messages
+	 * and bytes.
+	 * 
+	 * @param resource
+	 *            the communication resource to be metered.
+	 * @param sizeOf
+	 *            the size of a payload in bytes, e.g.
+	 *            <code>String::length</code>. It must be quick and able to
+	 *            handle the case where the payload is null.
+	 */
+	public TrafficMeter(CommunicationResource<P> resource,
+			ToIntFunction<? super P> sizeOf) {
+		this.resource = resource;
+		this.sizeOf = sizeOf;
+	}
+	
+	
+	// Implementation of the CommuncationResource interface:
+	
+	@Override public Subscription addReceiveEvent(ReceiveEvent<P> receiveEvent) {
+		return subscriptions.track(receiveEvent, resource
+				.addReceiveEvent(counting(receiveEvent)));
+	}
+	
+	@Deprecated @Override public void removeReceiveEvent(
+			ReceiveEvent<P> receiveEvent) {
+		subscriptions.cancel(receiveEvent);
+	}
+	
+	@Override public Subscription addRunEvent(String protocol, long runId,
+			ReceiveEvent<P> receiveEvent) {
+		return resource.addRunEvent(protocol, runId, counting(receiveEvent));
+	}
+	
+	@Override public void sendMessage(ShortMessage<P> msg, String to)
+			throws TxException {
+		if (ThreadLocalRandom.current().nextInt(SEND_SAMPLING) != 0) {
+			resource.sendMessage(msg, to);
+		} else {
+			long tic = System.nanoTime();
+			
+			try {
+				resource.sendMessage(msg, to);
+			} finally {
+				sendLatencies.record(System.nanoTime() - tic);
+			}
+		}
+		
+		countSent(msg, to);
+	}
+	
+	@Override public void sendMessages(List<ShortMessage<P>> msgs, String to)
+			throws TxException {
+		if (ThreadLocalRandom.current().nextInt(SEND_SAMPLING) != 0) {
+			resource.sendMessages(msgs, to);
+		} else {
+			long tic = System.nanoTime();
+			
+			try {
+				resource.sendMessages(msgs, to);
+			} finally {
+				sendLatencies.record(System.nanoTime() - tic);
+			}
+		}
+		
+		for (ShortMessage<P> msg : msgs) {
+			countSent(msg, to);
+		}
+	}
+	
+	@Override public String getLocalAddress() {
+		return resource.getLocalAddress();
+	}
+	
+	
+	// Metering:
+	
+	/**
+	 * Wraps a receive event so that the messages it takes are counted.
+	 * 
+	 * @param receiveEvent
+	 *            the receive event given from the environment.
+	 * @return the receive event to be installed in the resource.
+	 */
+	private ReceiveEvent<P> counting(ReceiveEvent<P> receiveEvent) {
+		return msg -> {
+			if (receiveEvent.receives(msg)) {
+				Traffic counters = trafficOf(msg.getProtocol(),
+						msg.getName(), msg.getFrom());
+				counters.messagesReceived.increment();
+				
+				if (sizeOf != null) {
+					counters.bytesReceived.add(sizeOf.applyAsInt(msg
+							.getPayload()));
+				}
+				
+				return true;
+			} else {
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Counts a message sent.
+	 */
+	private void countSent(ShortMessage<P> msg, String to) {
+		Traffic counters = trafficOf(msg.getProtocol(), msg.getName(), to);
+		counters.messagesSent.increment();
+		
+		if (sizeOf != null) {
+			counters.bytesSent.add(sizeOf.applyAsInt(msg.getPayload()));
+		}
+	}
+	
+	/**
+	 * Gets the counters of a message of a protocol to and from a peer,
+	 * creating them if needed.
+	 */
+	private Traffic trafficOf(String protocol, String name, String peer) {
+		Key key = new Key(String.valueOf(protocol), String.valueOf(name),
+				String.valueOf(peer));
+		Traffic counters = traffic.get(key);
+		
+		// Rarely, and only once per key:
+		if (counters == null) {
+			counters = traffic.computeIfAbsent(key, Traffic::new);
+		}
+		
+		return counters;
+	}
+	
+	/**
+	 * Wraps the conversion that encodes payloads, so that the time it takes
+	 * is recorded here, e.g. the revert function of a
+	 * {@link WrappedTypeProtocol} put over this resource.
+	 * 
+	 * @param encoding
+	 *            the conversion.
+	 * @return the timed conversion.
+	 */
+	public <T> Function<T, P> timingEncoding(Function<T, P> encoding) {
+		return payload -> {
+			long tic = System.nanoTime();
+			
+			try {
+				return encoding.apply(payload);
+			} finally {
+				encodeTimes.record(System.nanoTime() - tic);
+			}
+		};
+	}
+	
+	/**
+	 * Wraps the conversion that decodes payloads, so that the time it takes
+	 * is recorded here, e.g. the convert function of a
+	 * {@link WrappedTypeProtocol} put over this resource.
+	 * 
+	 * @param decoding
+	 *            the conversion.
+	 * @return the timed conversion.
+	 */
+	public <T> Function<P, T> timingDecoding(Function<P, T> decoding) {
+		return payload -> {
+			long tic = System.nanoTime();
+			
+			try {
+				return decoding.apply(payload);
+			} finally {
+				decodeTimes.record(System.nanoTime() - tic);
+			}
+		};
+	}
+	
+	
+	// Snapshot:
+	
+	/**
+	 * Gets the traffic counted so far, one entry per message of a protocol to
+	 * or from a peer. The entries go on counting after they are returned.
+	 * 
+	 * @return the traffic.
+	 */
+	public List<Traffic> getTraffic() {
+		return new ArrayList<Traffic>(traffic.values());
+	}
+	
+	/**
+	 * Gets how long calls to send took, batches included, in nanoseconds. Only
+	 * one in {@value #SEND_SAMPLING} calls is recorded.
+	 * 
+	 * @return the histogram.
+	 */
+	public Histogram getSendLatencies() {
+		return sendLatencies;
+	}
+	
+	/**
+	 * Gets how long encoding each payload took, in nanoseconds.
+	 * 
+	 * @return the histogram, empty unless encoding is timed.
+	 * @see #timingEncoding(Function)
+	 */
+	public Histogram getEncodeTimes() {
+		return encodeTimes;
+	}
+	
+	/**
+	 * Gets how long decoding each payload took, in nanoseconds.
+	 * 
+	 * @return the histogram, empty unless decoding is timed.
+	 * @see #timingDecoding(Function)
+	 */
+	public Histogram getDecodeTimes() {
+		return decodeTimes;
+	}
+	
+	@Override public void collect(Snapshot snapshot) {
+		for (Traffic entry : traffic.values()) {
+			String[] labels = {"protocol", entry.getProtocol(), "message",
+					entry.getName(), "peer", entry.getPeer()};
+			
+			snapshot.counter("transport_messages_sent_total",
+					"Messages sent.", entry.getMessagesSent(), labels);
+			snapshot.counter("transport_messages_received_total",
+					"Messages received.", entry.getMessagesReceived(), labels);
+			
+			if (sizeOf != null) {
+				snapshot.counter("transport_bytes_sent_total",
+						"Payload bytes sent.", entry.getBytesSent(), labels);
+				snapshot.counter("transport_bytes_received_total",
+						"Payload bytes received.", entry.getBytesReceived(),
+						labels);
+			}
+		}
+		
+		snapshot.summary("transport_send_seconds",
+				"Time taken by a sample of the calls to send.", sendLatencies,
+				1e-9);
+		snapshot.summary("transport_encode_seconds",
+				"Time taken to encode each payload.", encodeTimes, 1e-9);
+		snapshot.summary("transport_decode_seconds",
+				"Time taken to decode each payload.", decodeTimes, 1e-9);
+	}
+}
@@ -1,25 +1,25 @@
 package communications.util;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 
 import communications.CommunicationResource;
 import communications.FullMessage;
 import communications.ReceiveEvent;
+import communications.Subscription;
 import communications.TxException;
 import communications.ShortMessage;
 
 public class WrappedTypeProtocol<FromT, ToT> implements
 		CommunicationResource<ToT> {
-
+	
 	private CommunicationResource<FromT> communicationsResource;
 	private Function<FromT, ToT> convert;
 	private Function<ToT, FromT> revert;
 	
-	private Map<ReceiveEvent<ToT>, ReceiveEvent<FromT>> conversionMap =
-			new HashMap<ReceiveEvent<ToT>, ReceiveEvent<FromT>>();
-
+	private final Subscriptions<ToT> subscriptions = new Subscriptions<ToT>();
+	
 	public WrappedTypeProtocol(CommunicationResource<FromT> communicationsResource,
 			Function<FromT, ToT> convert, Function<ToT, FromT> revert) {
 		this.communicationsResource =  communicationsResource;
@@ -27,35 +27,69 @@ public class WrappedTypeProtocol<FromT, ToT> implements
 		this.revert = revert;
 	}
 	
-
-	@Override public void addReceiveEvent(ReceiveEvent<ToT> receiveEvent) {
-		ReceiveEvent<FromT> receiveEventConverted = (FullMessage<FromT> msg) -> {
-			return receiveEvent.receives(new FullMessage<ToT>(
-				msg.getId(),
-				msg.getProtocol(),
-				msg.getName(),
-				msg.getFrom(),
-				convert.apply(msg.getPayload()))
-			);
-		};
-
-		conversionMap.put(receiveEvent, receiveEventConverted);
-
-		communicationsResource.addReceiveEvent(receiveEventConverted);
+	
+	@Override public Subscription addReceiveEvent(
+			ReceiveEvent<ToT> receiveEvent) {
+		return subscriptions.track(receiveEvent, communicationsResource
+				.addReceiveEvent(converting(receiveEvent)));
 	}
-
-	@Override public void removeReceiveEvent(ReceiveEvent<ToT> mre) {
-		communicationsResource.removeReceiveEvent(conversionMap.get(mre));
-		conversionMap.remove(mre);
+	
+	@Deprecated @Override public void removeReceiveEvent(
+			ReceiveEvent<ToT> receiveEvent) {
+		subscriptions.cancel(receiveEvent);
+	}
+	
+	@Override public Subscription addRunEvent(String protocol, long runId,
+			ReceiveEvent<ToT> receiveEvent) {
+		return communicationsResource.addRunEvent(protocol, runId,
+				converting(receiveEvent));
 	}
 	
 	@Override public void sendMessage(ShortMessage<ToT> msg, String to)
 			throws TxException {
-		communicationsResource.sendMessage(new ShortMessage<FromT>(
+		communicationsResource.sendMessage(reverting(msg), to);
+	}
+	
+	@Override public void sendMessages(List<ShortMessage<ToT>> msgs, String to)
+			throws TxException {
+		List<ShortMessage<FromT>> reverted =
+				new ArrayList<ShortMessage<FromT>>(msgs.size());
+		
+		for (ShortMessage<ToT> msg : msgs) {
+			reverted.add(reverting(msg));
+		}
+		
+		communicationsResource.sendMessages(reverted, to);
+	}
+	
+	private ShortMessage<FromT> reverting(ShortMessage<ToT> msg) {
+		if (msg.getWord() != null) {
+			return new ShortMessage<FromT>(msg.getId(), msg.getWord(),
+					revert.apply(msg.getPayload()));
+		}
+		
+		return new ShortMessage<FromT>(
 				msg.getId(),
 				msg.getProtocol(),
 				msg.getName(),
-				revert.apply(msg.getPayload())),
-				to);
+				revert.apply(msg.getPayload()));
+	}
+	
+	private ReceiveEvent<FromT> converting(ReceiveEvent<ToT> receiveEvent) {
+		return (FullMessage<FromT> msg) -> {
+			if (msg.getWord() != null) {
+				return receiveEvent.receives(new FullMessage<ToT>(msg.getId(),
+						msg.getWord(), msg.getFrom(),
+						convert.apply(msg.getPayload())));
+			}
+			
+			return receiveEvent.receives(new FullMessage<ToT>(
+				msg.getId(),
+				msg.getProtocol(),
+				msg.getName(),
+				msg.getFrom(),
+				convert.apply(msg.getPayload()))
+			);
+		};
 	}
-}
+}
\ No newline at end of file
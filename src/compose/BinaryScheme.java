@@ -0,0 +1,190 @@
+package compose;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import communications.ShortMessage;
+
+
+/**
+ * A compact binary encoding of messages, with no Java serialization involved.
+ * All numbers are big-endian. A message is written as:
+ * 
+ * <pre>
+ * version       u8   {@link #VERSION}
+ * flags         u8   {@link #NULL_PAYLOAD} or zero
+ * run id        i64
+ * protocol      u16 size and UTF-8 bytes
+ * name          u16 size and UTF-8 bytes
+ * payload       as written by the {@link PayloadCodec}, if not null
+ * </pre>
+ * 
+ * Messages are encoded in a buffer of the encoding thread, reused from one
+ * message to the next and grown when a message does not fit. Callers with
+ * buffers of their own can use {@link #encode(ShortMessage, ByteBuffer)} and
+ * {@link #decode(ByteBuffer)} and skip copying altogether.
+ * 
+ * @author tokahuke
+ *
+ * @param <P>
+ *            the type of the payloads.
+ */
+public class BinaryScheme<P> implements MessageEncodingScheme<P, byte[]> {
+	
+	/**
+	 * The version of the encoding.
+	 */
+	public static final byte VERSION = 1;
+	
+	/**
+	 * Flags a message whose payload is null.
+	 */
+	public static final byte NULL_PAYLOAD = 1;
+	
+	/**
+	 * The size of the buffers to begin with.
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 512;
+	
+	/**
+	 * The UTF-8 bytes of the protocol and message names seen so far, which are
+	 * few and seen again and again.
+	 */
+	private static final Map<String, byte[]> utf8 =
+			new ConcurrentHashMap<String, byte[]>();
+	
+	/**
+	 * The buffer of each encoding thread.
+	 */
+	private final ThreadLocal<ByteBuffer> buffers = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+	
+	/**
+	 * Writes and reads the payloads.
+	 */
+	private final PayloadCodec<P> codec;
+	
+	/**
+	 * Creates a new scheme for payloads of some type.
+	 * 
+	 * @param codec
+	 *            writes and reads the payloads.
+	 */
+	public BinaryScheme(PayloadCodec<P> codec) {
+		this.codec = codec;
+	}
+	
+	@Override public byte[] encode(ShortMessage<P> msg) throws ParseException {
+		ByteBuffer buffer = buffers.get();
+		
+		while (true) {
+			buffer.clear();
+			
+			if (encode(msg, buffer)) {
+				return Arrays.copyOf(buffer.array(), buffer.position());
+			}
+			
+			buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffers.set(buffer);
+		}
+	}
+	
+	/**
+	 * Encodes a message at the position of a buffer. If the message does not
+	 * fit, the position of the buffer is left anywhere.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @param out
+	 *            the buffer.
+	 * @return true if the message fit in the buffer.
+	 */
+	public boolean encode(ShortMessage<P> msg, ByteBuffer out) {
+		P payload = msg.getPayload();
+		
+		try {
+			out.put(VERSION);
+			out.put(payload == null ? NULL_PAYLOAD : 0);
+			out.putLong(msg.getId());
+			putString(msg.getProtocol(), out);
+			putString(msg.getName(), out);
+			
+			if (payload != null) {
+				codec.write(payload, out);
+			}
+			
+			return true;
+		} catch (BufferOverflowException e) {
+			return false;
+		}
+	}
+	
+	@Override public ShortMessage<P> decode(byte[] msg) throws ParseException {
+		return decode(ByteBuffer.wrap(msg));
+	}
+	
+	/**
+	 * Decodes a message at the position of a buffer, leaving the position
+	 * right after it.
+	 * 
+	 * @param in
+	 *            the buffer.
+	 * @return the message.
+	 * @throws ParseException
+	 *             if the buffer does not hold a message of this scheme.
+	 */
+	public ShortMessage<P> decode(ByteBuffer in) throws ParseException {
+		try {
+			byte version = in.get();
+			
+			if (version != VERSION) {
+				throw new ParseException(String.format(
+						"Unknown version: %d.", version), 0);
+			}
+			
+			byte flags = in.get();
+			long id = in.getLong();
+			String protocol = getString(in);
+			String name = getString(in);
+			P payload = (flags & NULL_PAYLOAD) != 0 ? null : codec.read(in);
+			
+			return new ShortMessage<P>(id, protocol, name, payload);
+		} catch (BufferUnderflowException e) {
+			throw new ParseException("Message too short.", in.position());
+		}
+	}
+	
+	private static void putString(String string, ByteBuffer out) {
+		byte[] bytes = utf8.get(string);
+		
+		if (bytes == null) {
+			bytes = string.getBytes(StandardCharsets.UTF_8);
+			
+			if (bytes.length > 0xffff) {
+				throw new IllegalArgumentException(String.format(
+						"Name too long: %d bytes.", bytes.length));
+			}
+			
+			// Names are few; anything else is not worth keeping:
+			if (utf8.size() < 1024) {
+				utf8.put(string, bytes);
+			}
+		}
+		
+		out.putShort((short) bytes.length).put(bytes);
+	}
+	
+	private static String getString(ByteBuffer in) {
+		int size = in.getShort() & 0xffff;
+		byte[] bytes = new byte[size];
+		in.get(bytes);
+		
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
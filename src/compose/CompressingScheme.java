@@ -0,0 +1,244 @@
+package compose;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import communications.ShortMessage;
+
+
+/**
+ * An encoding stage that compresses what another scheme encodes, if it is
+ * large enough to be worth it. Small messages gain nothing from compression
+ * but the time it takes, so they go as they are. Encoded messages begin with a
+ * flag byte:
+ * 
+ * <pre>
+ * {@link #STORED}     followed by the message as encoded by the inner scheme
+ * {@link #DEFLATED}   followed by its size, as an i32, and the message deflated
+ * </pre>
+ * 
+ * Compression is DEFLATE, from the JDK, at its fastest level. Each thread keeps
+ * its own Deflater and Inflater, so that they are not built anew for every
+ * message. Messages that look random are not even tried, and messages that do
+ * not shrink are stored all the same.
+ * 
+ * @author tokahuke
+ *
+ * @param <P>
+ *            the type of the payloads.
+ */
+public class CompressingScheme<P> implements MessageEncodingScheme<P, byte[]> {
+	
+	/**
+	 * Flags a message not compressed.
+	 */
+	public static final byte STORED = 0;
+	
+	/**
+	 * Flags a message compressed with DEFLATE.
+	 */
+	public static final byte DEFLATED = 1;
+	
+	/**
+	 * The size, in bytes, from which messages are compressed when no other is
+	 * given. Below this, the headers of DEFLATE eat most of what is saved.
+	 */
+	public static final int DEFAULT_THRESHOLD = 256;
+	
+	/**
+	 * The largest message accepted when decoding.
+	 */
+	public static final int MAX_SIZE = 64 << 20;
+	
+	/**
+	 * How many bytes of a message are looked at to tell whether it is worth
+	 * compressing at all.
+	 */
+	private static final int SAMPLE_SIZE = 1024;
+	
+	private static final ThreadLocal<Deflater> deflaters = ThreadLocal
+			.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal
+			.withInitial(() -> new Inflater(true));
+	
+	/**
+	 * The scheme whose output is compressed.
+	 */
+	private final MessageEncodingScheme<P, byte[]> scheme;
+	
+	/**
+	 * The size, in bytes, from which messages are compressed.
+	 */
+	private final int threshold;
+	
+	/**
+	 * Puts a compression stage over a scheme, compressing messages from
+	 * {@value #DEFAULT_THRESHOLD} bytes on.
+	 * 
+	 * @param scheme
+	 *            the scheme whose output is to be compressed.
+	 */
+	public CompressingScheme(MessageEncodingScheme<P, byte[]> scheme) {
+		this(scheme, DEFAULT_THRESHOLD);
+	}
+	
+	/**
+	 * Puts a compression stage over a scheme.
+	 * 
+	 * @param scheme
+	 *            the scheme whose output is to be compressed.
+	 * @param threshold
+	 *            the size, in bytes, from which messages are compressed.
+	 */
+	public CompressingScheme(MessageEncodingScheme<P, byte[]> scheme,
+			int threshold) {
+		this.scheme = scheme;
+		this.threshold = Math.max(threshold, 16); // Leave room for headers.
+	}
+	
+	@Override public byte[] encode(ShortMessage<P> msg) throws ParseException {
+		byte[] plain = scheme.encode(msg);
+		
+		if (plain.length >= threshold) {
+			byte[] deflated = deflate(plain);
+			
+			// Random data does not shrink:
+			if (deflated != null) {
+				return deflated;
+			}
+		}
+		
+		byte[] stored = new byte[plain.length + 1];
+		stored[0] = STORED;
+		System.arraycopy(plain, 0, stored, 1, plain.length);
+		
+		return stored;
+	}
+	
+	/**
+	 * Deflates an encoded message, with its flag and size in front.
+	 * 
+	 * @return the message deflated, or null if that would not make it any
+	 *         shorter.
+	 */
+	private static byte[] deflate(byte[] plain) {
+		if (looksRandom(plain)) {
+			return null;
+		}
+		
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		
+		// Worth it only if it saves more than the size takes:
+		byte[] out = new byte[plain.length - 4];
+		out[0] = DEFLATED;
+		out[1] = (byte) (plain.length >>> 24);
+		out[2] = (byte) (plain.length >>> 16);
+		out[3] = (byte) (plain.length >>> 8);
+		out[4] = (byte) plain.length;
+		
+		deflater.setInput(plain);
+		deflater.finish();
+		
+		int size = 5;
+		
+		while (!deflater.finished() && size < out.length) {
+			size += deflater.deflate(out, size, out.length - size);
+		}
+		
+		return deflater.finished() ? Arrays.copyOf(out, size) : null;
+	}
+	
+	/**
+	 * Tells, from a sample of its bytes, whether a message looks too random to
+	 * shrink, such as data already compressed or encrypted. The chance that
+	 * two bytes of the sample are equal is about 1/256 for random data and
+	 * much higher for anything DEFLATE does well on. Deflating a message to
+	 * find out costs far more than this.
+	 */
+	private static boolean looksRandom(byte[] plain) {
+		int[] counts = new int[256];
+		int step = Math.max(1, plain.length / SAMPLE_SIZE);
+		long sampled = 0;
+		
+		for (int i = 0; i < plain.length; i += step) {
+			counts[plain[i] & 0xff]++;
+			sampled++;
+		}
+		
+		long pairs = 0;
+		
+		for (int count : counts) {
+			pairs += count * (count - 1);
+		}
+		
+		// Random if equal pairs are less than 1.5 times what chance gives:
+		return 2 * 256 * pairs < 3 * sampled * (sampled - 1);
+	}
+	
+	@Override public ShortMessage<P> decode(byte[] msg) throws ParseException {
+		if (msg.length == 0) {
+			throw new ParseException("Empty message.", 0);
+		}
+		
+		switch (msg[0]) {
+		case STORED:
+			return scheme.decode(Arrays.copyOfRange(msg, 1, msg.length));
+		case DEFLATED:
+			return scheme.decode(inflate(msg));
+		default:
+			throw new ParseException(String.format("Unknown flag: %d.",
+					msg[0]), 0);
+		}
+	}
+	
+	/**
+	 * Inflates a message flagged as deflated.
+	 */
+	private static byte[] inflate(byte[] msg) throws ParseException {
+		if (msg.length < 5) {
+			throw new ParseException("Message too short.", msg.length);
+		}
+		
+		int size = (msg[1] & 0xff) << 24 | (msg[2] & 0xff) << 16
+				| (msg[3] & 0xff) << 8 | (msg[4] & 0xff);
+		
+		if (size < 0 || size > MAX_SIZE) {
+			throw new ParseException(String.format("Bad size: %d.", size), 1);
+		}
+		
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(msg, 5, msg.length - 5);
+		
+		byte[] plain = new byte[size];
+		
+		try {
+			int inflated = 0;
+			
+			while (inflated < size && !inflater.finished()) {
+				int count = inflater.inflate(plain, inflated, size - inflated);
+				
+				if (count == 0 && (inflater.needsInput()
+						|| inflater.needsDictionary())) {
+					break;
+				}
+				
+				inflated += count;
+			}
+			
+			if (inflated != size) {
+				throw new ParseException(String.format(
+						"Inflated %d bytes of %d.", inflated, size), 5);
+			}
+		} catch (DataFormatException e) {
+			throw new ParseException(String.format("Bad DEFLATE data: %s",
+					e.getMessage()), 5);
+		}
+		
+		return plain;
+	}
+}
@@ -4,25 +4,37 @@ import java.security.SecureRandom;
 import java.text.ParseException;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import communications.CommunicationResource;
 import communications.FullMessage;
+import communications.MessageLimboException;
 import communications.RxException;
+import communications.Subscription;
 import communications.TxException;
 import communications.ShortMessage;
 import communications.util.QueueResource;
 import dsl.Part;
+import metrics.Instrumented;
+import metrics.RoundStatistics;
+import metrics.Snapshot;
 
 
-public class Connection<P, M, Q> extends QueueResource<P> {
+public class Connection<P, M, Q> extends QueueResource<P> implements
+		Instrumented {
 	
 	private static final Random random = new SecureRandom();
 	
@@ -30,14 +42,31 @@ public class Connection<P, M, Q> extends QueueResource<P> {
 	private final Predicate<String> isInitial;
 	private final MessageEncodingScheme<P, M> scheme;
 	
-	private final ExecutorService recevierService;
-	private final ExecutorService senderService;
+	private final ThreadPoolExecutor recevierService;
+	private final ThreadPoolExecutor senderService;
 	private final Supplier<SendingActor<M, Q>> senderFactory;
 	private final Supplier<ReceivingActor<M, Q>> receiverFactory;
 	
 	private final Map<String, SendingActor<M, Q>> addressToSenderActor;
 	private final HashSet<Long> runningIds = new HashSet<Long>();
 	private final BlockingQueue<MessageSenderPair<M>> returnQueue;
+	private final Subscription freshRunSubscription;
+	
+	private final int window;
+	private final Map<String, Semaphore> addressToWindow =
+			new ConcurrentHashMap<String, Semaphore>();
+	private final Set<SendingActor<M, Q>> inFlight = ConcurrentHashMap
+			.newKeySet();
+	private final Map<String, Queue<SendingActor<M, Q>>> addressToIdleSenders =
+			new ConcurrentHashMap<String, Queue<SendingActor<M, Q>>>();
+	private final Map<String, Throwable> addressToFailure =
+			new ConcurrentHashMap<String, Throwable>();
+	private final LongAdder numberOfFailedMessages = new LongAdder();
+	
+	private final RoundStatistics senderStatistics = new RoundStatistics(
+			"connection_sender");
+	private final RoundStatistics receiverStatistics = new RoundStatistics(
+			"connection_receiver");
 	
 	/*package-private*/ Connection(TransportPlay<M, Q> play,
 			MessageEncodingScheme<P, M> scheme,
@@ -49,8 +78,27 @@ public class Connection<P, M, Q> extends QueueResource<P> {
 			MessageEncodingScheme<P, M> scheme,
 			CommunicationResource<Q> resource, int senderMaxNumber,
 			int receiverMaxNumber) {
+		this(play, scheme, resource, senderMaxNumber, receiverMaxNumber, 0);
+	}
+	
+	/**
+	 * Creates a connection.
+	 * 
+	 * @param window
+	 *            how many messages may be on their way to each destination at
+	 *            once, or 0 for one at a time, each send waiting for the round
+	 *            of the message to end.
+	 */
+	/*package-private*/ Connection(TransportPlay<M, Q> play,
+			MessageEncodingScheme<P, M> scheme,
+			CommunicationResource<Q> resource, int senderMaxNumber,
+			int receiverMaxNumber, int window) {
 		super();
 		
+		if (window < 0) {
+			throw new IllegalArgumentException("Negative window: " + window);
+		}
+		
 		// Get protocol description for both end points:
 		Part senderPart = play.interpretAs(play.getSenderName());
 		Part receiverPart = play.interpretAs(play.getReceieverName());
@@ -73,32 +121,53 @@ public class Connection<P, M, Q> extends QueueResource<P> {
 		this.senderFactory = () -> {
 			SendingActor<M, Q> sender = play.getSender();
 			sender.load(senderPart, resource);
+			sender.setStatistics(senderStatistics);
 			return sender;
 		};
 		
 		this.receiverFactory = () -> {
 			ReceivingActor<M, Q> receiver = play.getReceiver();
 			receiver.load(receiverPart, resource);
+			receiver.setStatistics(receiverStatistics);
 			return receiver;
 		};
 		
 		// Instantiate pools:
-		this.recevierService = Executors.newFixedThreadPool(receiverMaxNumber);
-		this.senderService = Executors.newFixedThreadPool(senderMaxNumber);
+		this.recevierService = (ThreadPoolExecutor) Executors
+				.newFixedThreadPool(receiverMaxNumber);
+		this.senderService = (ThreadPoolExecutor) Executors
+				.newFixedThreadPool(senderMaxNumber);
 		
 		// Instantiate mapping from addresses to id's:
 		addressToSenderActor = new ConcurrentHashMap<String, SendingActor<M, Q>>();
 		
 		// Internalize message encoding scheme:
 		this.scheme = scheme;
+		this.window = window;
 		
 		// Install fresh connection event:
-		resource.addReceiveEvent(this::freshRunEvent);
+		freshRunSubscription = resource.addReceiveEvent(this::freshRunEvent);
 		
 		// Activate superclass code:
 		super.start();
 	}
 	
+	/**
+	 * Stops accepting new connections and interrupts all running senders and
+	 * receivers.
+	 */
+	public void disconnect() {
+		freshRunSubscription.cancel();
+		recevierService.shutdownNow();
+		senderService.shutdownNow();
+		stop();
+		
+		// Whatever was on its way may or may not have arrived:
+		for (SendingActor<M, Q> sender : inFlight) {
+			sender.setFinalException(new MessageLimboException());
+		}
+	}
+	
 	public boolean freshRunEvent(FullMessage<Q> msg) {
 		if (!protocolName.equals(msg.getProtocol())
 				|| runningIds.contains(msg.getId())
@@ -128,7 +197,36 @@ public class Connection<P, M, Q> extends QueueResource<P> {
 		return true;
 	}
 	
+	/**
+	 * Sends a message. With a window, the message is only put on its way and
+	 * its failure is reported by the next call for the same destination; use
+	 * {@link #sendMessageAsync(ShortMessage, String)} to learn about it right
+	 * away. Otherwise, waits for the round of the message to end.
+	 * 
+	 * @throws TxException
+	 *             if the message cannot be encoded or, without a window, if
+	 *             its round fails. With a window, if an earlier message to
+	 *             the same destination failed; this message is then not sent.
+	 */
 	@Override public void sendMessage(ShortMessage<P> msg, String to) {
+		if (window > 0) {
+			Throwable failure = addressToFailure.remove(to);
+			
+			if (failure != null) {
+				throw failure instanceof TxException ? (TxException) failure
+						: new TxException(failure);
+			}
+			
+			// Nobody waits for the receipt, so keep its failure for later:
+			sendMessageAsync(msg, to).whenComplete((nothing, later) -> {
+				if (later != null) {
+					addressToFailure.putIfAbsent(to, later);
+				}
+			});
+			
+			return;
+		}
+		
 		SendingActor<M, Q> sender;
 		
 		synchronized (addressToSenderActor) {
@@ -167,6 +265,131 @@ public class Connection<P, M, Q> extends QueueResource<P> {
 		}
 	}
 	
+	/**
+	 * Sends a message, returning a receipt for it. With a window, every
+	 * message goes in a round of its own, and up to the size of the window of
+	 * them may be waiting for their acknowledgments at once; the caller only
+	 * waits while the window of the destination is full. Otherwise, this is
+	 * the same as {@link #sendMessage(ShortMessage, String)}, and the receipt
+	 * is complete on return.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @param to
+	 *            the address of the destination.
+	 * @return a future that completes when the round of the message ends,
+	 *         exceptionally with a {@link TxException} if it fails.
+	 * @throws TxException
+	 *             if the message cannot be encoded.
+	 */
+	public CompletableFuture<Void> sendMessageAsync(ShortMessage<P> msg,
+			String to) {
+		CompletableFuture<Void> receipt;
+		
+		if (window == 0) {
+			receipt = new CompletableFuture<Void>();
+			
+			try {
+				sendMessage(msg, to);
+				receipt.complete(null);
+			} catch (TxException e) {
+				receipt.completeExceptionally(e);
+			}
+			
+			return receipt;
+		}
+		
+		M encoded;
+		
+		try {
+			encoded = scheme.encode(msg);
+		} catch (ParseException e) {
+			throw new TxException("Message encoding failed.");
+		}
+		
+		// Wait for room in the window:
+		Semaphore slots = addressToWindow.computeIfAbsent(to,
+				address -> new Semaphore(window));
+		
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			receipt = new CompletableFuture<Void>();
+			receipt.completeExceptionally(new TxException(e));
+			return receipt;
+		}
+		
+		// A round for the message alone, holding no thread while it waits. Its
+		// sender is one left idle by an earlier round to the same destination
+		// if there is any, so there are never more senders than the window:
+		Queue<SendingActor<M, Q>> idle = addressToIdleSenders.computeIfAbsent(
+				to, address -> new ConcurrentLinkedQueue<SendingActor<M, Q>>());
+		SendingActor<M, Q> idleSender = idle.poll();
+		SendingActor<M, Q> sender = idleSender != null ? idleSender
+				: senderFactory.get();
+		sender.setInitialAddress(receiverName, to);
+		receipt = sender.post(encoded);
+		inFlight.add(sender);
+		
+		try {
+			sender.performAsync(senderService).whenComplete(
+					(nothing, failure) -> {
+						inFlight.remove(sender);
+						sender.setFinalException(failure);
+						
+						if (failure != null) {
+							numberOfFailedMessages.increment();
+						}
+						
+						// The round is over, so the next one may reuse it:
+						idle.add(sender);
+						slots.release();
+					});
+		} catch (RuntimeException e) {
+			// E.g., the connection is down:
+			inFlight.remove(sender);
+			slots.release();
+			sender.setFinalException(e);
+			numberOfFailedMessages.increment();
+		}
+		
+		return receipt;
+	}
+	
+	@Override public void collect(Snapshot snapshot) {
+		senderStatistics.collect(snapshot);
+		receiverStatistics.collect(snapshot);
+		
+		snapshot.gauge("connection_active_rounds", "Rounds being performed.",
+				senderService.getActiveCount(), "side", "sender");
+		snapshot.gauge("connection_active_rounds", "Rounds being performed.",
+				recevierService.getActiveCount(), "side", "receiver");
+		snapshot.gauge("connection_queued_rounds",
+				"Rounds waiting for a thread.", senderService.getQueue()
+						.size(), "side", "sender");
+		snapshot.gauge("connection_queued_rounds",
+				"Rounds waiting for a thread.", recevierService.getQueue()
+						.size(), "side", "receiver");
+		snapshot.gauge("connection_saturation",
+				"Fraction of the threads performing rounds.",
+				(double) senderService.getActiveCount()
+						/ senderService.getMaximumPoolSize(), "side", "sender");
+		snapshot.gauge("connection_saturation",
+				"Fraction of the threads performing rounds.",
+				(double) recevierService.getActiveCount()
+						/ recevierService.getMaximumPoolSize(), "side",
+				"receiver");
+		snapshot.gauge("connection_queued_messages",
+				"Messages received and not yet taken.", returnQueue.size());
+		snapshot.gauge("connection_messages_in_flight",
+				"Messages sent in a window and not yet acknowledged.",
+				inFlight.size());
+		snapshot.counter("connection_failed_messages_total",
+				"Messages sent in a window whose round failed.",
+				numberOfFailedMessages.sum());
+	}
+	
 	@Override public FullMessage<P> take() throws InterruptedException {
 		try {
 			MessageSenderPair<M> pair = returnQueue.take();
@@ -46,6 +46,16 @@ public interface MessageEncodingScheme<P, M> {
 		};
 	}
 	
+	public static <P> MessageEncodingScheme<P, byte[]> getBinaryScheme(
+			PayloadCodec<P> codec) {
+		return new BinaryScheme<P>(codec);
+	}
+	
+	public static <P> MessageEncodingScheme<P, byte[]> getCompressingScheme(
+			MessageEncodingScheme<P, byte[]> scheme, int threshold) {
+		return new CompressingScheme<P>(scheme, threshold);
+	}
+	
 	public static <P> MessageEncodingScheme<P, byte[]> getSerializationScheme() {
 		return new MessageEncodingScheme<P, byte[]>() {
 			
@@ -0,0 +1,223 @@
+package compose;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+
+/**
+ * Writes payloads of some type into a buffer and reads them back, for the
+ * {@link BinaryScheme}. Codecs never see null payloads, which the scheme takes
+ * care of, and may assume that the buffer has room: if it has not, the scheme
+ * gets a larger one and tries again.
+ * 
+ * <p>
+ * Codecs for composite types are built out of the codecs of their parts, e.g.
+ * <code>PayloadCodec.list(PayloadCodec.string())</code>.
+ * 
+ * @author tokahuke
+ *
+ * @param <P>
+ *            the type of the payloads.
+ */
+public interface PayloadCodec<P> {
+	
+	/**
+	 * Writes a payload at the position of a buffer.
+	 * 
+	 * @param payload
+	 *            the payload, never null.
+	 * @param out
+	 *            the buffer.
+	 */
+	public void write(P payload, ByteBuffer out);
+	
+	/**
+	 * Reads a payload at the position of a buffer.
+	 * 
+	 * @param in
+	 *            the buffer.
+	 * @return the payload.
+	 * @throws ParseException
+	 *             if what is in the buffer makes no sense.
+	 */
+	public P read(ByteBuffer in) throws ParseException;
+	
+	
+	// Codecs for the usual types:
+	
+	/**
+	 * Gets a codec for byte arrays, written as their length and content.
+	 * 
+	 * @return the codec.
+	 */
+	public static PayloadCodec<byte[]> bytes() {
+		return new PayloadCodec<byte[]>() {
+			@Override public void write(byte[] payload, ByteBuffer out) {
+				out.putInt(payload.length).put(payload);
+			}
+			
+			@Override public byte[] read(ByteBuffer in) throws ParseException {
+				byte[] payload = new byte[length(in)];
+				in.get(payload);
+				
+				return payload;
+			}
+		};
+	}
+	
+	/**
+	 * Gets a codec for strings, written as their length and content in UTF-8.
+	 * 
+	 * @return the codec.
+	 */
+	public static PayloadCodec<String> string() {
+		return new PayloadCodec<String>() {
+			@Override public void write(String payload, ByteBuffer out) {
+				byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+				out.putInt(bytes.length).put(bytes);
+			}
+			
+			@Override public String read(ByteBuffer in) throws ParseException {
+				int length = length(in);
+				
+				if (!in.hasArray()) {
+					byte[] bytes = new byte[length];
+					in.get(bytes);
+					return new String(bytes, StandardCharsets.UTF_8);
+				}
+				
+				String payload = new String(in.array(), in.arrayOffset()
+						+ in.position(), length, StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+				
+				return payload;
+			}
+		};
+	}
+	
+	/**
+	 * Gets a codec for integers, written in four bytes.
+	 * 
+	 * @return the codec.
+	 */
+	public static PayloadCodec<Integer> integer() {
+		return new PayloadCodec<Integer>() {
+			@Override public void write(Integer payload, ByteBuffer out) {
+				out.putInt(payload);
+			}
+			
+			@Override public Integer read(ByteBuffer in) {
+				return in.getInt();
+			}
+		};
+	}
+	
+	/**
+	 * Gets a codec for longs, written in eight bytes.
+	 * 
+	 * @return the codec.
+	 */
+	public static PayloadCodec<Long> longInteger() {
+		return new PayloadCodec<Long>() {
+			@Override public void write(Long payload, ByteBuffer out) {
+				out.putLong(payload);
+			}
+			
+			@Override public Long read(ByteBuffer in) {
+				return in.getLong();
+			}
+		};
+	}
+	
+	/**
+	 * Gets a codec for lists, written as their size and their elements. Null
+	 * elements are not allowed.
+	 * 
+	 * @param element
+	 *            the codec of the elements.
+	 * @return the codec.
+	 */
+	public static <T> PayloadCodec<List<T>> list(PayloadCodec<T> element) {
+		return new PayloadCodec<List<T>>() {
+			@Override public void write(List<T> payload, ByteBuffer out) {
+				out.putInt(payload.size());
+				
+				for (T item : payload) {
+					element.write(item, out);
+				}
+			}
+			
+			@Override public List<T> read(ByteBuffer in) throws ParseException {
+				int size = length(in);
+				List<T> payload = new ArrayList<T>(size);
+				
+				for (int i = 0; i < size; i++) {
+					payload.add(element.read(in));
+				}
+				
+				return payload;
+			}
+		};
+	}
+	
+	/**
+	 * Gets a codec for objects made of two parts, written one after the other.
+	 * Null parts are not allowed.
+	 * 
+	 * @param firstCodec
+	 *            the codec of the first part.
+	 * @param first
+	 *            gets the first part of an object.
+	 * @param secondCodec
+	 *            the codec of the second part.
+	 * @param second
+	 *            gets the second part of an object.
+	 * @param build
+	 *            builds an object out of its parts.
+	 * @return the codec.
+	 */
+	public static <P, A, B> PayloadCodec<P> composite(
+			PayloadCodec<A> firstCodec, Function<P, A> first,
+			PayloadCodec<B> secondCodec, Function<P, B> second,
+			BiFunction<A, B, P> build) {
+		return new PayloadCodec<P>() {
+			@Override public void write(P payload, ByteBuffer out) {
+				firstCodec.write(first.apply(payload), out);
+				secondCodec.write(second.apply(payload), out);
+			}
+			
+			@Override public P read(ByteBuffer in) throws ParseException {
+				A a = firstCodec.read(in);
+				B b = secondCodec.read(in);
+				
+				return build.apply(a, b);
+			}
+		};
+	}
+	
+	/**
+	 * Reads a length and checks that the buffer is long enough for it, at
+	 * least at one byte per unit.
+	 * 
+	 * @param in
+	 *            the buffer.
+	 * @return the length.
+	 * @throws ParseException
+	 *             if the length makes no sense.
+	 */
+	public static int length(ByteBuffer in) throws ParseException {
+		int length = in.getInt();
+		
+		if (length < 0 || length > in.remaining()) {
+			throw new ParseException(String.format("Bad length: %d.", length),
+					in.position());
+		}
+		
+		return length;
+	}
+}
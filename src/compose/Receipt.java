@@ -1,9 +1,15 @@
 package compose;
 
+import java.util.concurrent.CompletableFuture;
+
+import communications.TxException;
+
 class Receipt<V> {	
 	private V value;
 	private Throwable outcome;
 	private boolean outcomeSet = false;
+	private final CompletableFuture<Void> completion =
+			new CompletableFuture<Void>();
 	
 	public Receipt(V value) {
 		this.setValue(value);
@@ -17,10 +23,19 @@ class Receipt<V> {
 		return value;
 	}
 	
-	synchronized void setOutcome(Throwable outcome) {
-		this.outcome = outcome;
-		outcomeSet = true;
-		notify();
+	void setOutcome(Throwable outcome) {
+		synchronized (this) {
+			this.outcome = outcome;
+			outcomeSet = true;
+			notify();
+		}
+		
+		// Out of the lock, for whatever depends on it runs here:
+		if (outcome == null) {
+			completion.complete(null);
+		} else {
+			completion.completeExceptionally(new TxException(outcome));
+		}
 	}
 	
 	synchronized Throwable getOutcome() throws InterruptedException {
@@ -30,4 +45,13 @@ class Receipt<V> {
 		
 		return outcome;
 	}
+	
+	/**
+	 * Gets a future that completes with the first outcome set: normally if the
+	 * value was delivered and exceptionally, with a {@link TxException}, if
+	 * not.
+	 */
+	CompletableFuture<Void> getCompletion() {
+		return completion;
+	}
 }
\ No newline at end of file
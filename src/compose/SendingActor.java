@@ -1,6 +1,7 @@
 package compose;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import communications.MessageLimboException;
@@ -27,6 +28,19 @@ public class SendingActor<M, P> extends Actor<P> {
 		}
 	}
 	
+	/**
+	 * Queues a message to be taken by the round, without waiting for it.
+	 * 
+	 * @return a future that completes when the outcome of the message is
+	 *         known.
+	 */
+	/* package-private */ CompletableFuture<Void> post(M msg) {
+		Receipt<M> receipt = new Receipt<M>(msg);
+		receiptQueue.add(receipt);
+		
+		return receipt.getCompletion();
+	}
+	
 	public M take() {
 		try {
 			if (currentReceipt != null) {
@@ -53,16 +67,16 @@ public class SendingActor<M, P> extends Actor<P> {
 	/*package-private*/ void setFinalException(Throwable throwable) {
 		if (currentReceipt != null) {
 			currentReceipt.setOutcome(throwable);
-			
-			if (throwable == null) {
-				for (Receipt<M> funny : receiptQueue) {
-					funny.setOutcome(new MessageLimboException());
-				}
-			} else {
-				for (Receipt<M> funny : receiptQueue) {
-					funny.setOutcome(throwable);
-				}
-			}
+			currentReceipt = null;
+		}
+		
+		// The round is over; nothing else will be taken by it, and the next
+		// round must not take it either:
+		Throwable rest = throwable == null ? new MessageLimboException()
+				: throwable;
+		
+		for (Receipt<M> funny; (funny = receiptQueue.poll()) != null; /* */) {
+			funny.setOutcome(rest);
 		}
 	}
 }
\ No newline at end of file
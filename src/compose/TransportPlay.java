@@ -20,4 +20,11 @@ public abstract class TransportPlay<M, P> extends Play<P> {
 		return new Connection<Q, M, P>(this, scheme, resource, senderMaxNumber,
 				receiverMaxNumber);
 	}
+	
+	public <Q> Connection<Q, M, P> compose(MessageEncodingScheme<Q, M> scheme,
+			CommunicationResource<P> resource, int senderMaxNumber,
+			int receiverMaxNumber, int window) {
+		return new Connection<Q, M, P>(this, scheme, resource, senderMaxNumber,
+				receiverMaxNumber, window);
+	}
 }
\ No newline at end of file
@@ -1,24 +1,33 @@
 package dsl;
 
 import java.security.SecureRandom;
-import java.time.Clock;
+import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import communications.CommunicationResource;
+import communications.ExpiredRunException;
 import communications.FullMessage;
 import communications.NoSuchCharacter;
 import communications.NoSuchMessage;
 import communications.ShortMessage;
+import communications.Subscription;
 import communications.TimeoutException;
+import communications.Vocabulary;
+import metrics.RoundStatistics;
 
 
 /**
@@ -43,6 +52,11 @@ import communications.TimeoutException;
  * indefinitely. In this case, consider using {@link Server}, an Actor pool,
  * instead.
  * 
+ * <p>
+ * Rounds can also be performed asynchronously with
+ * {@link #performAsync(Executor)}. Then, no thread is held
+ * while the Actor waits for messages and many Actors can share a few threads.
+ * 
  * @author tokahuke
  *
  * @param <P>
@@ -85,9 +99,11 @@ public class Actor<P> {
 	
 	/**
 	 * A secure random number generator object to generate protocol round
-	 * identifiers.
+	 * identifiers, unless the Actor is given one of its own.
+	 * 
+	 * @see #setRandom(Random)
 	 */
-	private static final Random random = new SecureRandom();
+	private static final Random secureRandom = new SecureRandom();
 	
 	
 	// These come from the environment:
@@ -102,6 +118,29 @@ public class Actor<P> {
 	 */
 	private Long runId;
 	
+	/**
+	 * The subscription of {@link #ongoingRunEvent(FullMessage)} while a round
+	 * is being performed.
+	 */
+	private Subscription ongoingRunSubscription;
+	
+	/**
+	 * The subscription of {@link #indexedRunEvent(FullMessage)} in the round
+	 * index of the communication resource, or null if this Actor is not
+	 * indexed.
+	 * 
+	 * @see CommunicationResource#addRunEvent(String, long,
+	 *      communications.ReceiveEvent)
+	 */
+	private Subscription runIndexSubscription;
+	
+	/**
+	 * The round identifier under which this Actor is indexed.
+	 * 
+	 * @see #runIndexSubscription
+	 */
+	private long indexedRunId;
+	
 	/**
 	 * The underlying protocol this actor uses to communicate.
 	 */
@@ -163,24 +202,125 @@ public class Actor<P> {
 	private BitSet sent;
 	
 	/**
-	 * Stores the maximum arrival time for each incoming message. A position is
-	 * set to -1 if the corresponding message is not expected to arrive due to
-	 * causality constraints.
+	 * Stores the maximum arrival time for each incoming message, in nanoseconds
+	 * since the beginning of the run. A position is set to -1 if the
+	 * corresponding message is not expected to arrive due to causality
+	 * constraints.
 	 */
-	private int[] maxTimes;
+	private long[] maxTimes;
 	
 	/**
-	 * Stores the time the current run started.
+	 * Stores the time the current run started, as given by the
+	 * {@link #scheduler}.
 	 */
 	private long beginTime;
 	
 	/**
-	 * A priority queue to store incoming messages according to their expiration
-	 * date.
+	 * The timer service in which message expiries are set, which is also the
+	 * clock of the rounds.
 	 */
-	private PriorityQueue<Short> expiryQueue;
+	private Scheduler scheduler = TimingWheel.shared();
+	
+	/**
+	 * Generates the ids of the rounds this Actor starts.
+	 */
+	private Random random = secureRandom;
+	
+	/**
+	 * Where the rounds of this Actor are recorded, or null if they are not.
+	 */
+	private RoundStatistics statistics;
+	
+	/**
+	 * The expiry timer of each incoming message, ordered by incoming message id.
+	 */
+	private TimingWheel.Timeout[] expiryTimers;
+	
+	/**
+	 * The timer that puts an end to rounds taking longer than the timeout of
+	 * the Part.
+	 * 
+	 * @see Play#timeout
+	 */
+	private TimingWheel.Timeout roundTimer;
+	
+	/**
+	 * The incoming messages whose expiry timer is set.
+	 */
+	private BitSet armed;
+	
+	/**
+	 * The incoming messages whose expiry timer has gone off but which have not
+	 * been handled yet.
+	 */
+	private final Queue<Short> expired = new ConcurrentLinkedQueue<Short>();
+	
+	/**
+	 * Put in {@link #queue} to tell that messages or the round have expired.
+	 */
+	private final FullMessage<P> expiryMark = new FullMessage<P>(0, null,
+			null, null, null);
+	
+	/**
+	 * The messages whose arrival may lead the run forward, gathered along the
+	 * run.
+	 */
+	private BitSet initials;
+	
+	/**
+	 * The search for the next transition while messages are being received.
+	 * It is reset, rather than rebuilt, at every receiving step.
+	 */
+	private TransitionFinder finder;
+	
+	/**
+	 * The last message handled while receiving.
+	 */
+	private FullMessage<P> lastMessage;
+	
+	/**
+	 * The messages sent in the current row of SendNodes, not yet out.
+	 * 
+	 * @see #flushMessages()
+	 */
+	private final List<ShortMessage<P>> pending =
+			new ArrayList<ShortMessage<P>>();
+	
+	/**
+	 * The addresses of the messages in {@link #pending}, in the same order.
+	 */
+	private final List<String> pendingReceivers = new ArrayList<String>();
+	
+	
+	// And this is only used in asynchronous rounds:
+	
+	/**
+	 * The executor running the current asynchronous round, or null if there is
+	 * none.
+	 * 
+	 * @see #performAsync(Executor)
+	 */
+	private volatile Executor executor;
+	
+	/**
+	 * Completes when the current asynchronous round ends.
+	 */
+	private CompletableFuture<Void> completion;
+	
+	/**
+	 * The Node from which the current asynchronous round is to start, or null
+	 * if it has already started.
+	 */
+	private Node startNode;
+	
+	/**
+	 * Counts the wake ups of the current asynchronous round not yet served.
+	 * 
+	 * @see #wakeUp()
+	 */
+	private final AtomicInteger wakeUps = new AtomicInteger();
+	
 	
-
 	// Constructors and building methods:
 	
 	/**
@@ -275,9 +415,18 @@ public class Actor<P> {
 		this.addressMap = new String[characterNumber];
 		this.addressBuffer = new String[inMessageNumber];
 		this.sent = new BitSet(outMessageNumber);
-		this.maxTimes = new int[inMessageNumber];
-		this.expiryQueue = new PriorityQueue<Short>(
-				Comparator.comparingInt(msgId -> maxTimes[msgId]));
+		this.maxTimes = new long[inMessageNumber];
+		this.expiryTimers = new TimingWheel.Timeout[inMessageNumber];
+		this.armed = new BitSet(inMessageNumber);
+		this.initials = new BitSet(inMessageNumber);
+		this.finder = new TransitionFinder(part);
+		
+		for (short in = 0; in < inMessageNumber; in++) {
+			short messageId = in;
+			expiryTimers[in] = new TimingWheel.Timeout(() -> expire(messageId));
+		}
+		
+		this.roundTimer = new TimingWheel.Timeout(this::expireRound);
 	}
 	
 	
@@ -322,147 +471,356 @@ public class Actor<P> {
 			throw new NotLoadedException("Please invoke Actor#load before use.");
 		}
 		
-		BitSet initials = new BitSet();
-		
 		// Oh! What time is it?
-		beginTime = Clock.systemUTC().millis();
+		beginTime = scheduler.now();
+		initials.clear();
+		setRoundTimer();
 		
 		// Start listening:
-		communicationResource.addReceiveEvent(this::ongoingRunEvent);
+		subscribe();
 		
 		// Zhu Lee! Do the thing!
 		try {
-			for (Node node = part.rootNode; !(node instanceof EndNode); /* */) {
-				// Get messages that might arrive from NoReceive handlers:
-				if (node instanceof SendNode
-						&& ((SendNode) node).getHandlerMessages() != null) {
-					initials.or(((SendNode) node).getHandlerMessages());
-				}
-				
-				// Execute:
-				Node next = node.next(this);
-				Object nextAction = next.getNextAction();
-				
-				// Decide what comes next:
-				if (nextAction != null) {
-					if (nextAction instanceof Node) {
-						node = (Node) nextAction;
-					} else {
-						initials.or((BitSet) nextAction);
-						node = receiveMessages(initials);
-					}
-				} else {
-					node = next;
-				}
+			for (Node node = part.rootNode; advance(node); /* */) {
+				node = receiveMessages();
 			}
+			
+			recordRound(null);
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			reset();
+		} catch (RuntimeException e) {
+			recordRound(e);
+			throw e;
 		} finally {
 			// Stop listening:
-			communicationResource.removeReceiveEvent(this::ongoingRunEvent);
+			unsubscribe();
+		}
+	}
+	
+	/**
+	 * Performs a round of the protocol as described in the {@link Part} object
+	 * supplied without holding a thread while waiting for messages. The round
+	 * runs on the executor given: it is suspended whenever messages are to be
+	 * received and resumed when a message arrives or expires. Several Actors
+	 * can share the same executor.
+	 * 
+	 * @param executor
+	 *            the executor in which the round runs.
+	 * @return a future that completes when the round ends, exceptionally if
+	 *         the round fails (e.g. with a {@link TimeoutException}).
+	 * @throws NotLoadedException
+	 *             in case the object has not yet been initialized.
+	 * @see #perform()
+	 */
+	public CompletableFuture<Void> performAsync(Executor executor) {
+		reset();
+		return performAsyncWithoutResetting(executor);
+	}
+	
+	/**
+	 * Performs a round of the protocol asynchronously, but does not resets the
+	 * object to its initial state in the end. Prefer using
+	 * {@link #performAsync(Executor)} instead.
+	 * 
+	 * @param executor
+	 *            the executor in which the round runs.
+	 * @return a future that completes when the round ends.
+	 * @throws NotLoadedException
+	 *             in case the object has not yet been initialized.
+	 * @see #performAsync(Executor)
+	 */
+	public CompletableFuture<Void> performAsyncWithoutResetting(
+			Executor executor) {
+		if (part == null) {
+			throw new NotLoadedException("Please invoke Actor#load before use.");
+		}
+		
+		beginTime = scheduler.now();
+		initials.clear();
+		setRoundTimer();
+		startNode = part.rootNode;
+		completion = new CompletableFuture<Void>();
+		
+		// Keep a reference: the round may end before we return.
+		CompletableFuture<Void> roundCompletion = completion;
+		
+		// From now on, every arriving message wakes the round up:
+		this.executor = executor;
+		
+		subscribe();
+		wakeUp();
+		
+		return roundCompletion;
+	}
+	
+	/**
+	 * Executes Nodes starting from the one given until the round either ends or
+	 * has to wait for messages. In the latter case, the messages to be waited
+	 * for are added to {@link #initials}. Messages sent along the way go out
+	 * together, once the round stops.
+	 * 
+	 * @param node
+	 *            the Node from which to start.
+	 * @return true if the round has to wait for messages; false if it ended.
+	 */
+	private boolean advance(Node node) {
+		try {
+			return advanceAndHold(node);
+		} finally {
+			flushMessages();
 		}
 	}
 	
+	/**
+	 * Does the work of {@link #advance(Node)}, but leaves the messages sent in
+	 * {@link #pending}.
+	 */
+	private boolean advanceAndHold(Node node) {
+		while (!(node instanceof EndNode)) {
+			// Get messages that might arrive from NoReceive handlers:
+			if (node instanceof SendNode
+					&& ((SendNode) node).getHandlerMessages() != null) {
+				initials.or(((SendNode) node).getHandlerMessages());
+			}
+			
+			// Execute:
+			Node next = node.next(this);
+			Object nextAction = next.getNextAction();
+			
+			// Decide what comes next:
+			if (nextAction != null) {
+				if (nextAction instanceof Node) {
+					node = (Node) nextAction;
+				} else {
+					initials.or((BitSet) nextAction);
+					return true;
+				}
+			} else {
+				node = next;
+			}
+		}
+		
+		return false;
+	}
+	
 	/**
 	 * Receives messages until a path of confirmed (i.e., possibly not spurious)
-	 * has been found from one of the messages marked as initial in the BitSet
-	 * provided to an active Node.
+	 * has been found from one of the messages marked as initial in
+	 * {@link #initials}, blocking the current thread meanwhile.
 	 * 
-	 * @param initials
-	 *            the BitSet of initial incoming messages to be received.
 	 * @return the active Node found (this is the next action in the execution
 	 *         path).
 	 * @throws InterruptedException it the current thread is interrupted.
 	 */
-	private Node receiveMessages(BitSet initials) throws InterruptedException {
-		FullMessage<P> message;
+	private Node receiveMessages() throws InterruptedException {
 		Transition transition = null;
-		TransitionFinder finder = new TransitionFinder(part, initials);
-		BitSet connectivityProof = finder.getConnectivityProof();
+		beginReceiving();
 		
 		do {
 			// Receive a message or lose your temper:
-			if (expiryQueue.isEmpty()) {
-				message = queue.take();
+			FullMessage<P> message = queue.take();
+			
+			if (message != expiryMark) {
+				transition = handleMessage(message);
 			} else {
-				// Wait until all patience is gone:
-				message = queue.poll(maxTimes[expiryQueue.peek()]
-						- Clock.systemUTC().millis() + beginTime,
-						TimeUnit.MILLISECONDS);
+				transition = handleExpiries();
+			}
+		} while (transition == null);
+		
+		return endReceiving(transition);
+	}
+	
+	/**
+	 * Prepares the search for a transition from the messages in
+	 * {@link #initials}.
+	 */
+	private void beginReceiving() {
+		finder.reset(initials);
+		lastMessage = null;
+	}
+	
+	/**
+	 * This method is the task of the expiry timers. It tells the round that a
+	 * message has expired, waking it up if necessary.
+	 * 
+	 * @param messageId
+	 *            the id of the expired message.
+	 */
+	private void expire(short messageId) {
+		expired.add(messageId);
+		queue.add(expiryMark);
+		wakeUp();
+	}
+	
+	/**
+	 * Sets the {@link #roundTimer} for the round just begun, if the Part has a
+	 * timeout.
+	 */
+	private void setRoundTimer() {
+		if (part.timeout != Integer.MAX_VALUE) {
+			scheduler.schedule(roundTimer, beginTime + part.timeout
+					* 1_000_000L);
+		}
+	}
+	
+	/**
+	 * This method is the task of the {@link #roundTimer}. It tells the round
+	 * that time is up, waking it up if necessary.
+	 */
+	private void expireRound() {
+		queue.add(expiryMark);
+		wakeUp();
+	}
+	
+	/**
+	 * Handles the messages in {@link #expired} until a transition is found.
+	 * Whatever is left is handled at the next {@link #expiryMark}.
+	 * 
+	 * @return the transition found, if any, or null.
+	 * @throws TimeoutException
+	 *             if no transition can be found any longer.
+	 * @throws ExpiredRunException
+	 *             if the round has outlived the timeout of the Part.
+	 */
+	private Transition handleExpiries() {
+		// The round timer may also be a leftover. Check:
+		if (part.timeout != Integer.MAX_VALUE
+				&& scheduler.now() - beginTime >= part.timeout * 1_000_000L) {
+			throw new ExpiredRunException(part.protocolName,
+					runId != null ? runId : 0);
+		}
+		
+		Short expiredMessageId;
+		
+		while ((expiredMessageId = expired.poll()) != null) {
+			Transition transition = handleExpiry(expiredMessageId);
+			
+			if (transition != null) {
+				return transition;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Handles the expiry of a message.
+	 * 
+	 * @param expiredMessageId
+	 *            the id of the expired message.
+	 * @return the transition found, if any, or null.
+	 * @throws TimeoutException
+	 *             if no transition can be found any longer.
+	 */
+	private Transition handleExpiry(short expiredMessageId) {
+		// Timers may go off as they are cancelled or moved. Check:
+		if (maxTimes[expiredMessageId] == -1
+				|| scheduler.now() - beginTime < maxTimes[expiredMessageId]) {
+			return null;
+		}
+		
+		armed.clear(expiredMessageId);
+		
+		// Mark message as expired if it has not yet arrived:
+		maxTimes[expiredMessageId] = -1;
+		Transition transition = finder.markTimeout(expiredMessageId);
+		
+		// Found it? Great!
+		if (transition != null) {
+			return transition;
+		}
+		
+		// Check if connectivity proof still holds:
+		if (part.noReceiveHandlers[expiredMessageId] == EndNode.NO_RECEIVE) {
+			if (!finder.hasConnectivityProof()) {
+				// Find expired message name:
+				String expiredMessageName = null;
 				
-				// If a message expires:
-				if (message == null) {
-					// Remove from priority queue:
-					int expiredMessageId = expiryQueue.remove();
-					
-					// Mark message as expired if it has not yet arrived:
-					maxTimes[expiredMessageId] = -1;
-					transition = finder.markTimeout((short) expiredMessageId);
-					
-					// Found it? Great!
-					if (transition != null) {
+				for (Entry<String, Short> entry : part.inMessageIds.entrySet()) {
+					if (entry.getValue() == expiredMessageId) {
+						expiredMessageName = entry.getKey();
 						break;
 					}
-
-					// Check if connectivity proof still holds:
-					if (part.noReceiveHandlers[expiredMessageId] == EndNode.NO_RECEIVE
-							&& connectivityProof.get(expiredMessageId)) {
-						connectivityProof = finder.getConnectivityProof();
-
-						// Find expired message name:
-						String expiredMessageName = null;
-						
-						if (connectivityProof.isEmpty()) {
-							// Find expired message name:
-							for (Entry<String, Short> entry : part.inMessageIds
-									.entrySet()) {
-								if (entry.getValue() == expiredMessageId) {
-									expiredMessageName = entry.getKey();
-									break;
-								}
-							}
-							
-							throw new TimeoutException(part.protocolName,
-									expiredMessageName, runId);
-						}
-					}
-
-					// Carry on... nothing happens.
-					continue;
 				}
+				
+				if (statistics != null) {
+					statistics.recordTimeout(expiredMessageName);
+				}
+				
+				throw new TimeoutException(part.protocolName,
+						expiredMessageName, runId);
+			}
+		}
+		
+		// Carry on... nothing happens.
+		return null;
+	}
+	
+	/**
+	 * Handles an incoming message of the current round.
+	 * 
+	 * @param message
+	 *            the incoming message.
+	 * @return the transition found, if any, or null.
+	 */
+	private Transition handleMessage(FullMessage<P> message) {
+		// Now that we have something, lets check if is legit and what it
+		// means:
+		short messageId = part.inMessageId(message);
+		
+		if (messageId < 0) {
+			if (statistics != null) {
+				statistics.recordSpuriousMessage();
 			}
 			
-			// Now that we have something, lets check if is legit and what it
-			// means:
-			
-			short messageId = part.inMessageIds.get(message.getName());
-			String inferredAddress = addressMap[part.characterForMessage[messageId]];
+			return null; // Not for this character.
+		}
+		
+		String inferredAddress = addressMap[part.characterForMessage[messageId]];
+		lastMessage = message;
+		
+		// Conditions to consider a message as non spurious: it is not
+		// already explored, but it must also
+		// have been completely caused and the inferred address must be
+		// equal to the one given in the map (or there must be none given).
+		// Additionally, it may not have already expired.
+		if (!finder.isReceived(messageId)
+				&& (inferredAddress == null || inferredAddress.equals(message
+						.getFrom()))) {
+			// Put in buffer:
+			inMessages[messageId] = message.getPayload();
+			addressBuffer[messageId] = message.getFrom();
 			
-			// Conditions to consider a message as non spurious: it is not
-			// already explored, but it must also
-			// have been completely caused and the inferred address must be
-			// equal to the one given in the map (or there must be none given).
-			// Additionally, it may not have already expired.
-			if (!finder.isReceived(messageId)
-					&& (inferredAddress == null || inferredAddress
-							.equals(message.getFrom()))) {
-				// Put in buffer:
-				inMessages[messageId] = message.getPayload();
-				addressBuffer[messageId] = message.getFrom();
-				
-				// Check if message is initial:
-				transition = finder.markReceived(messageId);
+			// Check if message is initial:
+			return finder.markReceived(messageId);
+		} else {
+			if (statistics != null) {
+				statistics.recordSpuriousMessage();
 			}
-		} while (transition == null);
-		
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Accepts the messages in the path of a transition found.
+	 * 
+	 * @param transition
+	 *            the transition found.
+	 * @return the active Node found (this is the next action in the execution
+	 *         path).
+	 */
+	private Node endReceiving(Transition transition) {
 		// Learn search id:
-		if (runId == null) {
-			runId = message.getId();
+		if (runId == null && lastMessage != null) {
+			setRunId(lastMessage.getId());
 		}
 		
 		// Accept messages in the path and learn their addresses:
-		for (short id : transition.messagePath) {
+		for (int i = 0; i < transition.length; i++) {
+			short id = transition.messagePath[i];
+			
 			if (finder.isReceived(id)) {
 				accepted.set(id);
 				addressMap[part.characterForMessage[id]] = addressBuffer[id];
@@ -472,6 +830,161 @@ public class Actor<P> {
 		return transition.nextNode;
 	}
 	
+	/**
+	 * Wakes the current asynchronous round up, if any, to process whatever
+	 * happened meanwhile. Only one thread runs the round at a time: wake ups
+	 * arriving while it runs are counted and served by the same thread.
+	 */
+	private void wakeUp() {
+		Executor executor = this.executor;
+		
+		if (executor != null && wakeUps.getAndIncrement() == 0) {
+			try {
+				executor.execute(() -> {
+					int missed = 1;
+					
+					do {
+						step();
+						missed = wakeUps.addAndGet(-missed);
+					} while (missed != 0);
+				});
+			} catch (RejectedExecutionException e) {
+				// Nobody is left to run the round (e.g. the executor was shut
+				// down). Fail it here; the wake ups counted keep anyone else
+				// from running it meanwhile:
+				if (completion != null) {
+					endAsync(e);
+				}
+				
+				wakeUps.set(0);
+			}
+		}
+	}
+	
+	/**
+	 * Runs the current asynchronous round as far as it can go without waiting:
+	 * starts it if necessary, then handles queued messages and expiries until
+	 * the queue is empty.
+	 */
+	private void step() {
+		if (completion == null) {
+			return; // Nothing going on.
+		}
+		
+		try {
+			// Starting:
+			if (startNode != null) {
+				Node node = startNode;
+				startNode = null;
+				
+				if (!advance(node)) {
+					endAsync(null);
+					return;
+				}
+				
+				beginReceiving();
+			}
+			
+			for (FullMessage<P> message; (message = queue.poll()) != null; /* */) {
+				Transition transition;
+				
+				if (message != expiryMark) {
+					transition = handleMessage(message);
+				} else {
+					transition = handleExpiries();
+				}
+				
+				if (transition != null) {
+					if (!advance(endReceiving(transition))) {
+						endAsync(null);
+						return;
+					}
+					
+					beginReceiving();
+				}
+			}
+		} catch (RuntimeException e) {
+			endAsync(e);
+		}
+	}
+	
+	/**
+	 * Cancels all expiry timers set, the {@link #roundTimer} included.
+	 */
+	private void cancelExpiryTimers() {
+		for (int in = armed.nextSetBit(0); in >= 0; in = armed
+				.nextSetBit(in + 1)) {
+			scheduler.cancel(expiryTimers[in]);
+		}
+		
+		if (part.timeout != Integer.MAX_VALUE) {
+			scheduler.cancel(roundTimer);
+		}
+		
+		armed.clear();
+		expired.clear();
+	}
+	
+	/**
+	 * Ends the current asynchronous round.
+	 * 
+	 * @param failure
+	 *            the reason the round failed or null, if it ended normally.
+	 */
+	private void endAsync(RuntimeException failure) {
+		CompletableFuture<Void> roundCompletion = completion;
+		
+		// Stop listening:
+		unsubscribe();
+		completion = null;
+		executor = null;
+		recordRound(failure);
+		
+		if (failure == null) {
+			roundCompletion.complete(null);
+		} else {
+			roundCompletion.completeExceptionally(failure);
+		}
+	}
+	
+	/**
+	 * Records the end of the round in the {@link #statistics}, if any.
+	 * 
+	 * @param failure
+	 *            the reason the round failed or null, if it ended normally.
+	 */
+	private void recordRound(RuntimeException failure) {
+		if (statistics != null) {
+			statistics.recordRound(scheduler.now() - beginTime, failure);
+		}
+	}
+	
+	/**
+	 * Starts listening to messages of the round. An Actor already indexed in
+	 * the communication resource gets all messages of its round through the
+	 * index and does not need to listen to anything else.
+	 */
+	private void subscribe() {
+		if (runIndexSubscription == null) {
+			ongoingRunSubscription = communicationResource
+					.addReceiveEvent(this::ongoingRunEvent);
+		}
+	}
+	
+	/**
+	 * Stops listening to messages of the round.
+	 */
+	private void unsubscribe() {
+		cancelExpiryTimers();
+		
+		if (ongoingRunSubscription != null) {
+			ongoingRunSubscription.cancel();
+			ongoingRunSubscription = null;
+		}
+		
+		removeRunIndex();
+	}
+	
 	/**
 	 * Resets the actor back to it's initial state (addresses set to the ones of
 	 * the initial map, no messages sent, no messages received).
@@ -488,65 +1001,122 @@ public class Actor<P> {
 		short msgNum = (short) (part.inMessageIds.size() - 1);
 		for (short in = 0; in < msgNum; in++) {
 			maxTimes[in] = part.isCausFinal[in].isEmpty()
-					|| part.isSpontaneous.get(in) ? Integer.MAX_VALUE : -1;
+					|| part.isSpontaneous.get(in) ? Long.MAX_VALUE : -1;
 		}
 		
-		// Empty queue:
-		expiryQueue.clear();
+		// Disarm timers:
+		cancelExpiryTimers();
 		
 		// Clear buffer:
 		accepted.clear();
+		pending.clear();
+		pendingReceivers.clear();
 		
 		// Clear run id:
 		runId = null;
+		removeRunIndex();
 	}
 	
 	/**
 	 * Sends a message.
 	 * 
 	 * @param receiver
-	 *            the character identifier of the receiver.
-	 * @param name
-	 *            the name of the message.
+	 *            the key of the receiver.
+	 * @param key
+	 *            the key of the message.
+	 * @param isDeferred
+	 *            whether the message may wait in {@link #pending} to go out
+	 *            with the next ones. Only messages whose failure is not
+	 *            handled may wait, since they fail the round either way.
 	 */
-	/* package-private */void sendMessage(String receiver, String name) {
-		// Resolve name into an id:
-		short outMessageId = part.outMessageIds.get(name);
+	/* package-private */void sendMessage(CharacterKey receiver,
+			MessageKey key, boolean isDeferred) {
+		// Resolve keys into ids:
+		short outMessageId = outId(key);
+		short receiverId = characterId(receiver);
 		
 		// Invent a run id if necessary:
 		if (runId == null) {
-			runId = random.nextLong();
+			setRunId(random.nextLong());
 		}
 		
-		// Send the thing:
-		communicationResource.sendMessage(new ShortMessage<P>(runId, // id
+		Vocabulary.Word word = part.outWords == null ? null
+				: part.outWords[outMessageId];
+		ShortMessage<P> msg = word != null ? new ShortMessage<P>(runId, word,
+				outMessages[outMessageId]) : new ShortMessage<P>(runId, // id
 				part.protocolName,			  // protocol name
-				name, 						  // message name
-				outMessages[outMessageId]),   // payload
-				addressMap[part.characterIds.get(receiver)]); // receiver
+				key.name, 					  // message name
+				outMessages[outMessageId]);   // payload
+		String to = addressMap[receiverId];
+		
+		// Send the thing, or hold it for the rest of the row:
+		if (isDeferred) {
+			pending.add(msg);
+			pendingReceivers.add(to);
+		} else {
+			flushMessages();
+			communicationResource.sendMessage(msg, to);
+		}
 		
 		// Set the maximum tolerances for incoming messages:
-		int now = (int) (Clock.systemUTC().millis() - beginTime);
+		long now = scheduler.now() - beginTime;
 		short maxCausalId = (short) part.causalRelation[outMessageId].length;
 		
 		for (short causalId = 0; causalId < maxCausalId; causalId++) {
 			short inMessageId = part.causalRelation[outMessageId][causalId];
-			int newMaxTime = now + part.maxDelays[outMessageId][causalId];
+			int maxDelay = part.maxDelays[outMessageId][causalId];
 			
-			// Calculate maximum waiting time for each message (saturating
-			// addition):
-			newMaxTime = newMaxTime > -1 ? newMaxTime : Integer.MAX_VALUE;
+			// Calculate maximum waiting time for each message (delays are
+			// given in milliseconds and a maximal one means forever):
+			long newMaxTime = maxDelay != Integer.MAX_VALUE ? now + maxDelay
+					* 1_000_000L : Long.MAX_VALUE;
 			maxTimes[inMessageId] = maxTimes[inMessageId] > newMaxTime ? maxTimes[inMessageId]
 					: newMaxTime;
 			
 			// If causal count is zero, set the bomb to explode:
 			if (part.isCausFinal[inMessageId].get(outMessageId)
-					&& maxTimes[inMessageId] != Integer.MAX_VALUE) {
-				expiryQueue.add(inMessageId);
+					&& maxTimes[inMessageId] != Long.MAX_VALUE) {
+				scheduler.schedule(expiryTimers[inMessageId], beginTime
+						+ maxTimes[inMessageId]);
+				armed.set(inMessageId);
 			}
 		}
 	}
 	
+	/**
+	 * Sends all messages in {@link #pending}: all at once, if they go to the
+	 * same address, or else in one batch per address.
+	 */
+	private void flushMessages() {
+		int size = pending.size();
+		
+		if (size == 0) {
+			return;
+		}
+		
+		try {
+			if (size == 1) {
+				communicationResource.sendMessage(pending.get(0),
+						pendingReceivers.get(0));
+				return;
+			}
+			
+			Map<String, List<ShortMessage<P>>> batches =
+					new LinkedHashMap<String, List<ShortMessage<P>>>();
+			
+			for (int i = 0; i < size; i++) {
+				batches.computeIfAbsent(pendingReceivers.get(i),
+						to -> new ArrayList<ShortMessage<P>>()).add(
+						pending.get(i));
+			}
+			
+			communicationResource.sendMessages(batches);
+		} finally {
+			pending.clear();
+			pendingReceivers.clear();
+		}
+	}
+	
 	/**
 	 * This method is a receive event that elects all messages pertaining to the
 	 * current protocol round. It decides whether the associated message is to
@@ -562,7 +1132,7 @@ public class Actor<P> {
 	private boolean ongoingRunEvent(FullMessage<P> inMessage)
 			throws InterruptedException {
 		// First off, lets filter by protocol name:
-		if (!part.protocolName.equals(inMessage.getProtocol())) {
+		if (!part.isOwn(inMessage)) {
 			return false;
 		}
 		
@@ -572,16 +1142,18 @@ public class Actor<P> {
 			if (runId.equals(inMessage.getId())) {
 				// If yes, you've go mail! Enqueue message:
 				queue.put(inMessage);
+				wakeUp();
 				return true;
 			} else { // It's the neighbor's mail, perhaps...
 				return false;
 			}
 		} else { // Run id is null: first message from a new run!
 			// But first... let's check if it is at all plausible:
-			if (part.isInitial(inMessage.getName())) {
+			if (part.isInitial(part.inMessageId(inMessage))) {
 				// If yes, you've got mail! Learn new run id and enqueue.
 				setRunId(inMessage.getId());
 				queue.put(inMessage);
+				wakeUp();
 				return true;
 			} else { // Something went wrong somewhere...
 				return false;
@@ -589,11 +1161,63 @@ public class Actor<P> {
 		}
 	}
 	
+	/**
+	 * This method is the receive event installed in the round index of the
+	 * communication resource. Since the resource only routes messages of the
+	 * current round here, every message is accepted.
+	 * 
+	 * @param inMessage
+	 *            the received message.
+	 * @return always true.
+	 * @throws InterruptedException
+	 *             if the running thread is interrupted.
+	 * @see CommunicationResource#addRunEvent(String, long,
+	 *      communications.ReceiveEvent)
+	 */
+	private boolean indexedRunEvent(FullMessage<P> inMessage)
+			throws InterruptedException {
+		queue.put(inMessage);
+		wakeUp();
+		return true;
+	}
+	
+	/**
+	 * Indexes this Actor in the communication resource under a given run id,
+	 * replacing any previous index entry.
+	 * 
+	 * @param id
+	 *            the run id.
+	 */
+	private synchronized void putRunIndex(long id) {
+		if (runIndexSubscription != null) {
+			if (indexedRunId == id) {
+				return;
+			}
+			
+			runIndexSubscription.cancel();
+		}
+		
+		runIndexSubscription = communicationResource.addRunEvent(
+				part.protocolName, id, this::indexedRunEvent);
+		indexedRunId = id;
+	}
+	
+	/**
+	 * Removes the index entry of this Actor from the communication resource,
+	 * if there is one.
+	 */
+	private synchronized void removeRunIndex() {
+		if (runIndexSubscription != null) {
+			runIndexSubscription.cancel();
+			runIndexSubscription = null;
+		}
+	}
+	
 	/**
 	 * Stops the run by making the actor stop listening to messages.
 	 */
 	public void exit() {
-		communicationResource.removeReceiveEvent(this::ongoingRunEvent);
+		unsubscribe();
 	}
 	
 	
@@ -614,23 +1238,24 @@ public class Actor<P> {
 	 * @see #hasMessage(String)
 	 */
 	public P getMessage(String messageName) {
-		short id;
-		
-		try {
-			id = part.inMessageIds.get(messageName);
-		} catch (NullPointerException e) {
-			throw new NoSuchMessage(String.format(
-					"Character %s in protocol %s does not receive %s. %s",
-					part.characterName, part.protocolName, messageName,
-					part.inMessageIds));
-		}
-//		
-//		for(String name : part.inMessageIds.keySet()) {
-//			System.out.println(name);
-//			System.out.println(inMessages[part.inMessageIds.get(name)]);
-//			System.out.println(accepted.get(part.inMessageIds.get(name)));
-//		}
-		
+		return getMessage(inId(part.messageKeys.get(messageName), messageName));
+	}
+	
+	/**
+	 * Gets the content of a given <em>incoming</em> message by its key, with
+	 * no string hashing. Returns null in case the message has not arrived.
+	 * 
+	 * @param key
+	 *            the key of the message.
+	 * @return the content of that message or null if the message was not
+	 *         received.
+	 * @see #getMessageKey(String)
+	 */
+	public P getMessage(MessageKey key) {
+		return getMessage(inId(part.rebind(key), key.name));
+	}
+	
+	private P getMessage(short id) {
 		if (accepted.get(id)) {
 			return inMessages[id];
 		} else {
@@ -647,14 +1272,21 @@ public class Actor<P> {
 	 *         otherwise.
 	 */
 	public boolean hasMessage(String messageName) {
-		try {
-			return accepted.get(part.inMessageIds.get(messageName));
-		} catch (NullPointerException e) {
-			throw new NoSuchMessage(String.format(
-					"Character %s in protocol %s does not receive %s. %s",
-					part.characterName, part.protocolName, messageName,
-					part.inMessageIds));
-		}
+		return accepted.get(inId(part.messageKeys.get(messageName),
+				messageName));
+	}
+	
+	/**
+	 * Checks if a given incoming message has arrived, by its key.
+	 * 
+	 * @param key
+	 *            the key of the message to be checked.
+	 * @return true if the message has arrived and is non spurious, false
+	 *         otherwise.
+	 * @see #getMessageKey(String)
+	 */
+	public boolean hasMessage(MessageKey key) {
+		return accepted.get(inId(part.rebind(key), key.name));
 	}
 	
 	/**
@@ -666,17 +1298,24 @@ public class Actor<P> {
 	 *            the payload to be sent with that message.
 	 */
 	public void setMessage(String messageName, P payload) {
-		short id;
-		
-		try {
-			id = part.outMessageIds.get(messageName);
-		} catch (NullPointerException e) {
-			throw new NoSuchMessage(String.format(
-					"Character %s in protocol %s does not send %s. %s",
-					part.characterName, part.protocolName, messageName,
-					part.outMessageIds));
-		}
-		
+		setMessage(outId(part.messageKeys.get(messageName), messageName),
+				payload);
+	}
+	
+	/**
+	 * Sets the content of an outgoing message, by its key.
+	 * 
+	 * @param key
+	 *            the key of the outgoing message.
+	 * @param payload
+	 *            the payload to be sent with that message.
+	 * @see #getMessageKey(String)
+	 */
+	public void setMessage(MessageKey key, P payload) {
+		setMessage(outId(key), payload);
+	}
+	
+	private void setMessage(short id, P payload) {
 		sent.set(id);
 		outMessages[id] = payload;
 	}
@@ -690,13 +1329,20 @@ public class Actor<P> {
 	 * @see #getInitialAddress(String)
 	 */
 	public String getAddress(String identifier) {
-		try {
-			return addressMap[part.characterIds.get(identifier)];
-		} catch (NullPointerException e) {
-			throw new NoSuchCharacter(String.format(
-					"The protocol %s has no character %s.", part.protocolName,
-					identifier));
-		}
+		return addressMap[characterId(part.characterKeys.get(identifier),
+				identifier)];
+	}
+	
+	/**
+	 * Gets the <em>current</em> address of a character, by its key.
+	 * 
+	 * @param key
+	 *            the key of the character.
+	 * @return a String representation of the current address.
+	 * @see #getCharacterKey(String)
+	 */
+	public String getAddress(CharacterKey key) {
+		return addressMap[characterId(key)];
 	}
 	
 	/**
@@ -711,14 +1357,117 @@ public class Actor<P> {
 	 * @see #setInitialAddress(String, String)
 	 */
 	public void setAddress(String identifier, String address) {
-		try {
-			addressMap[part.characterIds.get(identifier)] = address;
-		} catch (NullPointerException e) {
+		addressMap[characterId(part.characterKeys.get(identifier),
+				identifier)] = address;
+	}
+	
+	/**
+	 * Sets the address of a character for this run, by its key.
+	 * 
+	 * @param key
+	 *            the key of the character.
+	 * @param address
+	 *            the String representation of the address.
+	 * @see #setAddress(String, String)
+	 */
+	public void setAddress(CharacterKey key, String address) {
+		addressMap[characterId(key)] = address;
+	}
+	
+	/**
+	 * Resolves the name of a message, incoming or outgoing, into a key, which
+	 * can be kept and used instead of the name with no string hashing.
+	 * 
+	 * @param messageName
+	 *            the name of the message.
+	 * @return the key.
+	 * @throws NoSuchMessage
+	 *             if this character neither sends nor receives the message.
+	 */
+	public MessageKey getMessageKey(String messageName) {
+		MessageKey key = part.messageKeys.get(messageName);
+		
+		if (key == null) {
+			throw new NoSuchMessage(String.format(
+					"Character %s in protocol %s neither sends nor receives "
+							+ "%s. %s", part.characterName, part.protocolName,
+					messageName, part.messageKeys.keySet()));
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * Resolves the identifier of a character into a key, which can be kept
+	 * and used instead of the identifier with no string hashing.
+	 * 
+	 * @param identifier
+	 *            the character's identifier.
+	 * @return the key.
+	 * @throws NoSuchCharacter
+	 *             if the protocol has no such character.
+	 */
+	public CharacterKey getCharacterKey(String identifier) {
+		CharacterKey key = part.characterKeys.get(identifier);
+		
+		if (key == null) {
+			throw new NoSuchCharacter(String.format(
+					"The protocol %s has no character %s.", part.protocolName,
+					identifier));
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * Gets the id of an incoming message from its key here.
+	 */
+	private short inId(MessageKey key, String messageName) {
+		if (key == null || key.inId < 0) {
+			throw new NoSuchMessage(String.format(
+					"Character %s in protocol %s does not receive %s. %s",
+					part.characterName, part.protocolName, messageName,
+					part.inMessageIds));
+		}
+		
+		return key.inId;
+	}
+	
+	/**
+	 * Gets the id of an outgoing message from its key, resolved anywhere.
+	 */
+	private short outId(MessageKey key) {
+		return key.part == part && key.outId >= 0 ? key.outId : outId(part
+				.rebind(key), key.name);
+	}
+	
+	private short outId(MessageKey key, String messageName) {
+		if (key == null || key.outId < 0) {
+			throw new NoSuchMessage(String.format(
+					"Character %s in protocol %s does not send %s. %s",
+					part.characterName, part.protocolName, messageName,
+					part.outMessageIds));
+		}
+		
+		return key.outId;
+	}
+	
+	/**
+	 * Gets the id of a character from its key, resolved anywhere.
+	 */
+	private short characterId(CharacterKey key) {
+		return key.part == part ? key.id : characterId(part.rebind(key),
+				key.name);
+	}
+	
+	private short characterId(CharacterKey key, String identifier) {
+		if (key == null) {
 			throw new NoSuchCharacter(String.format(
 					"The protocol %s has no character %s.", part.protocolName,
 					identifier));
-			
 		}
+		
+		return key.id;
 	}
 	
 	/**
@@ -775,6 +1524,52 @@ public class Actor<P> {
 	 */
 	public void setRunId(long runId) {
 		this.runId = runId;
+		putRunIndex(runId);
+	}
+	
+	/**
+	 * Sets the clock and the timers this Actor runs by, the shared
+	 * {@link TimingWheel} by default. Do not change it in the middle of a
+	 * round.
+	 * 
+	 * @param scheduler
+	 *            the new scheduler.
+	 */
+	public void setScheduler(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Sets the random number generator from which the ids of the rounds this
+	 * Actor starts are drawn, a secure one by default. Seeded generators make
+	 * runs reproducible, but also predictable by anyone on the network.
+	 * 
+	 * @param random
+	 *            the new generator.
+	 */
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+	
+	/**
+	 * Sets where the rounds of this Actor are recorded: how long they take,
+	 * how they fail and how many spurious messages they get. Nothing is
+	 * recorded by default. Several actors may share the same statistics.
+	 * 
+	 * @param statistics
+	 *            the statistics, or null to record nothing.
+	 */
+	public void setStatistics(RoundStatistics statistics) {
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Gets where the rounds of this Actor are recorded.
+	 * 
+	 * @return the statistics, or null if nothing is recorded.
+	 */
+	public RoundStatistics getStatistics() {
+		return statistics;
 	}
 	
 	/**
@@ -0,0 +1,150 @@
+package dsl;
+
+
+/**
+ * Utilities class for sets of messages stored as rows of 64-bit words, where
+ * bit <code>i % 64</code> of word <code>i / 64</code> stands for message
+ * <code>i</code>. Unlike BitSets, rows have a fixed length, so they can be
+ * allocated once and reused, and whole rows can be combined a word at a time.
+ * 
+ * @author tokahuke
+ *
+ */
+final class BitRows {
+	
+	/**
+	 * Calculates the number of words needed for a row.
+	 * 
+	 * @param size
+	 *            the number of messages.
+	 * @return the number of words.
+	 */
+	public static int words(int size) {
+		return (size + 63) >>> 6;
+	}
+	
+	public static boolean get(long[] row, int i) {
+		return (row[i >>> 6] & (1L << i)) != 0;
+	}
+	
+	public static void set(long[] row, int i) {
+		row[i >>> 6] |= 1L << i;
+	}
+	
+	public static void clear(long[] row) {
+		for (int w = 0; w < row.length; w++) {
+			row[w] = 0;
+		}
+	}
+	
+	public static boolean isEmpty(long[] row) {
+		for (long word : row) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Finds the first message in a row from a given one on.
+	 * 
+	 * @param row
+	 *            the row.
+	 * @param from
+	 *            the message from which to start looking.
+	 * @return the message found, or -1 if there is none.
+	 */
+	public static int nextSetBit(long[] row, int from) {
+		int w = from >>> 6;
+		
+		if (w >= row.length) {
+			return -1;
+		}
+		
+		long word = row[w] & (-1L << from);
+		
+		while (word == 0) {
+			if (++w == row.length) {
+				return -1;
+			}
+			
+			word = row[w];
+		}
+		
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+	
+	/**
+	 * Finds the first message in the intersection of two rows.
+	 * 
+	 * @return the message found, or -1 if there is none.
+	 */
+	public static int firstCommon(long[] a, long[] b) {
+		for (int w = 0; w < a.length; w++) {
+			long word = a[w] & b[w];
+			
+			if (word != 0) {
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Turns an adjacency list into rows.
+	 * 
+	 * @param lists
+	 *            the adjacency list. Anything other than a short[] counts as no
+	 *            adjacencies.
+	 * @return a row for each position of the list.
+	 */
+	public static long[][] fromLists(Object[] lists) {
+		int words = words(lists.length);
+		long[][] rows = new long[lists.length][words];
+		
+		for (int i = 0; i < lists.length; i++) {
+			if (lists[i] instanceof short[]) {
+				for (short j : (short[]) lists[i]) {
+					set(rows[i], j);
+				}
+			}
+		}
+		
+		return rows;
+	}
+	
+	/**
+	 * Calculates the transitive closure of a DAG.
+	 * 
+	 * @param adjacencies
+	 *            the rows of adjacencies of the DAG.
+	 * @param order
+	 *            an ordering of the DAG in which every message comes after all
+	 *            of its adjacencies.
+	 * @return for each message, the row of messages reachable from it, not
+	 *         counting itself.
+	 */
+	public static long[][] closure(long[][] adjacencies, short[] order) {
+		long[][] closure = new long[adjacencies.length][];
+		
+		for (short v : order) {
+			long[] row = adjacencies[v].clone();
+			
+			for (int u = nextSetBit(adjacencies[v], 0); u >= 0; u = nextSetBit(
+					adjacencies[v], u + 1)) {
+				for (int w = 0; w < row.length; w++) {
+					row[w] |= closure[u][w];
+				}
+			}
+			
+			closure[v] = row;
+		}
+		
+		return closure;
+	}
+	
+	private BitRows() {}
+}
@@ -0,0 +1,30 @@
+package dsl;
+
+import java.util.BitSet;
+
+
+/**
+ * The results of the causality analysis of a {@link Part}, which are by far
+ * the most expensive thing to calculate when building one.
+ * 
+ * @author tokahuke
+ *
+ * @see Part#causalRelation
+ * @see Part#maxDelays
+ * @see Part#isCausFinal
+ * @see Part#isSpontaneous
+ */
+final class CausalTables {
+	final short[][] causalRelation;
+	final int[][] maxDelays;
+	final BitSet[] isCausFinal;
+	final BitSet isSpontaneous;
+	
+	public CausalTables(short[][] causalRelation, int[][] maxDelays,
+			BitSet[] isCausFinal, BitSet isSpontaneous) {
+		this.causalRelation = causalRelation;
+		this.maxDelays = maxDelays;
+		this.isCausFinal = isCausFinal;
+		this.isSpontaneous = isSpontaneous;
+	}
+}
@@ -0,0 +1,54 @@
+package dsl;
+
+import java.io.Serializable;
+
+
+/**
+ * A character of a {@link Part}, resolved from its identifier once and for
+ * all, so that its address is found in an {@link Actor} by index instead of
+ * by name. Get one with {@link Actor#getCharacterKey(String)}.
+ * 
+ * <p>
+ * Keys are best used with the Part they were resolved for. With any other, the
+ * identifier is looked up again.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class CharacterKey implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The Part the id is from.
+	 */
+	final Part part;
+	
+	/**
+	 * The identifier of the character.
+	 */
+	final String name;
+	
+	/**
+	 * The id of the character in the Part.
+	 */
+	final short id;
+	
+	/* package-private */ CharacterKey(Part part, String name, short id) {
+		this.part = part;
+		this.name = name;
+		this.id = id;
+	}
+	
+	/**
+	 * Gets the identifier of the character.
+	 * 
+	 * @return the identifier.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	@Override public String toString() {
+		return part.protocolName + ":" + name;
+	}
+}
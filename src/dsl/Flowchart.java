@@ -1,5 +1,8 @@
 package dsl;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
@@ -291,6 +294,62 @@ class Flowchart {
 			}
 		});
 	}
+	
+	/**
+	 * Digests the shape of the flowchart: its edges and, for each node, its
+	 * kind, its character and, for SendNodes, the message sent and its timeout.
+	 * Flowcharts of the same Play built with different parameters will (most
+	 * probably) have different fingerprints.
+	 * 
+	 * @return the fingerprint.
+	 * @see PartCache
+	 */
+	public byte[] fingerprint() {
+		MessageDigest digest = PartCache.newDigest();
+		Map<Node, Integer> index = new HashMap<Node, Integer>();
+		
+		doSearch((node, next, outcome) -> {
+			if (!index.containsKey(next)) {
+				index.put(next, index.size());
+				
+				String description = next.getClass().getSimpleName() + " "
+						+ next.getCharacter();
+				
+				if (next instanceof SendNode) {
+					description += " " + next + " "
+							+ ((SendNode) next).getTimeout();
+				} else if (next instanceof EndNode) {
+					description += " " + next;
+				}
+				
+				digest.update(description.getBytes(StandardCharsets.UTF_8));
+			}
+			
+			String edge = (node == null ? -1 : index.get(node)) + " "
+					+ index.get(next) + " " + outcome + "\n";
+			digest.update(edge.getBytes(StandardCharsets.UTF_8));
+		});
+		
+		return digest.digest();
+	}
+	
+	/**
+	 * Collects the names of all messages sent in the flowchart, by any
+	 * character.
+	 * 
+	 * @return the names.
+	 */
+	public Set<String> getMessageNames() {
+		Set<String> names = new HashSet<String>();
+		
+		doSearch((node, next, outcome) -> {
+			if (next instanceof SendNode) {
+				names.add(((SendNode) next).getMessageName());
+			}
+		});
+		
+		return names;
+	}
 
 	
 	// Part building:
@@ -309,8 +368,35 @@ class Flowchart {
 	 * @return a new part object.
 	 * @see Part
 	 */
+	public Part buildPart(String characterName, String protocolName,
+			Class<?> actorClass, Causality causality) {
+		return buildPart(characterName, protocolName, actorClass, causality,
+				null, null);
+	}
+	
+	/**
+	 * Builds a part object for a given character, taking the causality tables
+	 * from a cache when possible.
+	 * 
+	 * @param characterName
+	 *            the character identifier.
+	 * @param protocolName
+	 *            the name of the protocol.
+	 * @param actorClass
+	 *            the Actor class for which this protocol was intended.
+	 * @param causality
+	 *            the calculated causality graph for the protocol.
+	 * @param cache
+	 *            the cache, or null for no cache.
+	 * @param playClass
+	 *            the class of the Play this flowchart comes from.
+	 * @return a new part object.
+	 * @see Part
+	 * @see PartCache
+	 */
 	@SuppressWarnings("unchecked") public Part buildPart(String characterName,
-			String protocolName, Class<?> actorClass, Causality causality) {
+			String protocolName, Class<?> actorClass, Causality causality,
+			PartCache cache, Class<?> playClass) {
 		
 		// Create a root node:
 		RootNode rootNode = new RootNode(characterName, first);
@@ -340,6 +426,75 @@ class Flowchart {
 		short[] characterForMessageArray = FlowchartUtils
 				.listToShortArray(characterForMessage);
 		
+		// Build causality relations, unless they are cached:
+		CausalTables tables = null;
+		Path cachePath = null;
+		
+		if (cache != null) {
+			cachePath = cache.pathFor(playClass, characterName, fingerprint());
+			tables = cache.load(cachePath, playClass, inMessageIds,
+					outMessageIds);
+		}
+		
+		if (tables == null) {
+			tables = findCausalTables(characterName, causality);
+			
+			if (cache != null) {
+				cache.store(cachePath, playClass, inMessageIds, outMessageIds,
+						tables);
+			}
+		}
+		
+		// Precompute reachability in the expected messages graph:
+		short[][] nextMessagesReverse = FlowchartUtils
+				.reverse(nextActionsArray);
+		short[] topSort = FlowchartUtils.topSort(nextActionsArray,
+				nextMessagesReverse);
+		short[] reverseTopSort = new short[topSort.length];
+		
+		for (int i = 0; i < topSort.length; i++) {
+			reverseTopSort[topSort.length - 1 - i] = topSort[i];
+		}
+		
+		long[][] successors = BitRows.fromLists(nextActionsArray);
+		long[][] predecessors = BitRows.fromLists(nextMessagesReverse);
+		long[] finals = new long[BitRows.words(inMessageNumber)];
+		
+		for (short i = 0; i < inMessageNumber; i++) {
+			if (nextActionsArray[i] instanceof Node) {
+				BitRows.set(finals, i);
+			}
+		}
+
+		// Build part!
+		return new Part(characterName, protocolName, actorClass, inMessageIds,
+				outMessageIds, characterIds, characterForMessageArray,
+				nextActionsArray, nextMessagesReverse, topSort, successors,
+				predecessors, BitRows.closure(successors, reverseTopSort),
+				BitRows.closure(predecessors, topSort), finals,
+				noReceiveHandlersArray, tables.causalRelation,
+				tables.maxDelays, tables.isCausFinal, tables.isSpontaneous,
+				inMessageIds.size(), rootNode);
+	}
+	
+	/**
+	 * Does the causality analysis for a given character: finds the maximum
+	 * delays between its outgoing messages and the incoming messages they
+	 * cause, which outgoing messages are the last to cause each incoming one
+	 * and which incoming messages arrive without any message being sent. This
+	 * is the most expensive step in building a part.
+	 * 
+	 * @param characterName
+	 *            the character identifier.
+	 * @param causality
+	 *            the calculated causality graph for the protocol.
+	 * @return the tables found.
+	 */
+	private CausalTables findCausalTables(String characterName,
+			Causality causality) {
+		int inMessageNumber = inMessageIds.size();
+		int outMessageNumber = outMessageIds.size();
+		
 		// Build causality relations:
 		 Map<SendNode, Map<SendNode, Integer>> maxDelaysMap =
 				 causality.findMaxDelays(characterName);
@@ -414,15 +569,9 @@ class Flowchart {
 								.getMessageName()));
 					}
 				});
-
-		// Build part!
-		return new Part(characterName, protocolName, actorClass, inMessageIds,
-				outMessageIds, characterIds, characterForMessageArray,
-				nextActionsArray, FlowchartUtils.reverse(nextActionsArray),
-				FlowchartUtils.topSort(nextActionsArray,
-						FlowchartUtils.reverse(nextActionsArray)),
-				noReceiveHandlersArray, causalityRelation, maxDelays,
-				isCausFinal, isSpontaneous, inMessageIds.size(), rootNode);
+		
+		return new CausalTables(causalityRelation, maxDelays, isCausFinal,
+				isSpontaneous);
 	}
 	
 	/**
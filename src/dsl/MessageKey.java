@@ -0,0 +1,81 @@
+package dsl;
+
+import java.io.Serializable;
+
+
+/**
+ * A message of a {@link Part}, resolved from its name once and for all, so
+ * that the content of the message is found in an {@link Actor} by index
+ * instead of by name. Get one with {@link Actor#getMessageKey(String)}, keep
+ * it and use it wherever the name would do, e.g.
+ * {@link Actor#getMessage(MessageKey)}.
+ * 
+ * <p>
+ * Keys are best used with the Part they were resolved for. With any other, the
+ * name is looked up again.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class MessageKey implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The Part the ids are from.
+	 */
+	final Part part;
+	
+	/**
+	 * The name of the message.
+	 */
+	final String name;
+	
+	/**
+	 * The incoming message id, or -1 if the message is not received.
+	 */
+	final short inId;
+	
+	/**
+	 * The outgoing message id, or -1 if the message is not sent.
+	 */
+	final short outId;
+	
+	/* package-private */ MessageKey(Part part, String name, short inId,
+			short outId) {
+		this.part = part;
+		this.name = name;
+		this.inId = inId;
+		this.outId = outId;
+	}
+	
+	/**
+	 * Gets the name of the message.
+	 * 
+	 * @return the name.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Tells whether the character of the Part receives the message.
+	 * 
+	 * @return true if it does.
+	 */
+	public boolean isIncoming() {
+		return inId >= 0;
+	}
+	
+	/**
+	 * Tells whether the character of the Part sends the message.
+	 * 
+	 * @return true if it does.
+	 */
+	public boolean isOutgoing() {
+		return outId >= 0;
+	}
+	
+	@Override public String toString() {
+		return part.protocolName + ":" + name;
+	}
+}
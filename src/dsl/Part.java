@@ -3,7 +3,12 @@ package dsl;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+
+import communications.FullMessage;
+import communications.Vocabulary;
 
 
 /**
@@ -67,6 +72,16 @@ public class Part implements Serializable {
 	 */
 	final short[] characterForMessage;
 	
+	/**
+	 * The mapping between message names, incoming or outgoing, and their keys.
+	 */
+	final Map<String, MessageKey> messageKeys;
+	
+	/**
+	 * The mapping between character identifiers and their keys.
+	 */
+	final Map<String, CharacterKey> characterKeys;
+	
 	
 	// Distributed flux control:
 	
@@ -88,6 +103,36 @@ public class Part implements Serializable {
 	 */
 	final short[] topSort;
 	
+	/**
+	 * The expected messages graph as rows of bits, one per message.
+	 * 
+	 * @see BitRows
+	 */
+	final long[][] successors;
+	
+	/**
+	 * The reverse of the expected messages graph as rows of bits.
+	 */
+	final long[][] predecessors;
+	
+	/**
+	 * The messages that can be received, directly or not, after each message.
+	 * This is the transitive closure of {@link #successors}.
+	 */
+	final long[][] reachable;
+	
+	/**
+	 * The messages that can be received, directly or not, before each message.
+	 * This is the transitive closure of {@link #predecessors}.
+	 */
+	final long[][] reaching;
+	
+	/**
+	 * The final messages, that is, those followed by a Node in
+	 * {@link #nextActions}.
+	 */
+	final long[] finals;
+	
 	/**
 	 * The mapping between incoming message ids and NoRxException handlers.
 	 * Null positions indicate no handler was supplied.
@@ -131,7 +176,31 @@ public class Part implements Serializable {
 	 * active Node, even if it is a dummy Node.
 	 */
 	final RootNode rootNode;
-
+	
+	/**
+	 * The maximum amount of time a round may take, in milliseconds, as given
+	 * by {@link Play#timeout}. A maximal one means forever.
+	 */
+	int timeout = Integer.MAX_VALUE;
+	
+	/**
+	 * The message names of the whole Play, numbered, as given by
+	 * {@link #setVocabulary(Vocabulary)}. Null if there is none.
+	 */
+	transient Vocabulary vocabulary;
+	
+	/**
+	 * The mapping between the words of {@link #vocabulary} and incoming
+	 * message ids, -1 for the words not received here.
+	 */
+	transient short[] inMessageForWord;
+	
+	/**
+	 * The mapping between outgoing message ids and their words in
+	 * {@link #vocabulary}.
+	 */
+	transient Vocabulary.Word[] outWords;
+	
 	
 	// Constructor:
 	
@@ -139,7 +208,9 @@ public class Part implements Serializable {
 			Class<?> actorClass, Map<String, Short> inMessageIds,
 			Map<String, Short> outMessageIds, Map<String, Short> characterIds,
 			short[] characterForMessage, Object[] nextActions,
-			short[][] nextMessagesReverse, short[] topSort, Node[] noReceiveHandlers,
+			short[][] nextMessagesReverse, short[] topSort,
+			long[][] successors, long[][] predecessors, long[][] reachable,
+			long[][] reaching, long[] finals, Node[] noReceiveHandlers,
 			short[][] causalRelation, int[][] maxDelays, BitSet[] isCausFinal,
 			BitSet isSpontaneous, int stackSize, RootNode rootNode) {
 		super();
@@ -153,6 +224,11 @@ public class Part implements Serializable {
 		this.nextActions = nextActions;
 		this.nextMessagesReverse = nextMessagesReverse;
 		this.topSort = topSort;
+		this.successors = successors;
+		this.predecessors = predecessors;
+		this.reachable = reachable;
+		this.reaching = reaching;
+		this.finals = finals;
 		this.noReceiveHandlers = noReceiveHandlers;
 		this.causalRelation = causalRelation;
 		this.maxDelays = maxDelays;
@@ -160,11 +236,134 @@ public class Part implements Serializable {
 		this.isSpontaneous = isSpontaneous;
 		this.stackSize = stackSize;
 		this.rootNode = rootNode;
+		
+		// Resolve every name once:
+		this.messageKeys = new HashMap<String, MessageKey>();
+		this.characterKeys = new HashMap<String, CharacterKey>();
+		
+		for (Entry<String, Short> entry : inMessageIds.entrySet()) {
+			Short outId = outMessageIds.get(entry.getKey());
+			messageKeys.put(entry.getKey(), new MessageKey(this, entry.getKey(),
+					entry.getValue(), outId == null ? -1 : outId));
+		}
+		
+		for (Entry<String, Short> entry : outMessageIds.entrySet()) {
+			messageKeys.putIfAbsent(entry.getKey(), new MessageKey(this, entry
+					.getKey(), (short) -1, entry.getValue()));
+		}
+		
+		for (Entry<String, Short> entry : characterIds.entrySet()) {
+			characterKeys.put(entry.getKey(), new CharacterKey(this, entry
+					.getKey(), entry.getValue()));
+		}
 	}
 	
 	
 	// Methods:
 	
+	/**
+	 * Numbers the messages of this part after the words of a vocabulary, so
+	 * that messages carrying words are told apart with no string hashing.
+	 * 
+	 * @param vocabulary
+	 *            the vocabulary of the Play. Messages whose names are not in
+	 *            it are told by name.
+	 */
+	void setVocabulary(Vocabulary vocabulary) {
+		short[] inMessageForWord = new short[vocabulary.size()];
+		Vocabulary.Word[] outWords = new Vocabulary.Word[outMessageIds.size()];
+		Arrays.fill(inMessageForWord, (short) -1);
+		
+		for (Entry<String, Short> entry : inMessageIds.entrySet()) {
+			Vocabulary.Word word = vocabulary.getWord(entry.getKey());
+			
+			if (word != null) {
+				inMessageForWord[word.getId()] = entry.getValue();
+			}
+		}
+		
+		for (Entry<String, Short> entry : outMessageIds.entrySet()) {
+			outWords[entry.getValue()] = vocabulary.getWord(entry.getKey());
+		}
+		
+		this.inMessageForWord = inMessageForWord;
+		this.outWords = outWords;
+		this.vocabulary = vocabulary;
+	}
+	
+	/**
+	 * Finds the key of a message of this part, which may have been resolved
+	 * for another.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the key of the same message here, or null if there is none.
+	 */
+	MessageKey rebind(MessageKey key) {
+		return key.part == this ? key : messageKeys.get(key.name);
+	}
+	
+	/**
+	 * Finds the key of a character of this part, which may have been resolved
+	 * for another.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the key of the same character here, or null if there is none.
+	 */
+	CharacterKey rebind(CharacterKey key) {
+		return key.part == this ? key : characterKeys.get(key.name);
+	}
+	
+	/**
+	 * Tests whether a message belongs to the protocol of this part.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @return true if it does.
+	 */
+	boolean isOwn(FullMessage<?> msg) {
+		Vocabulary.Word word = msg.getWord();
+		
+		return word != null && word.getVocabulary() == vocabulary
+				|| protocolName.equals(msg.getProtocol());
+	}
+	
+	/**
+	 * Finds the id of an incoming message of the protocol of this part, by its
+	 * word if it is one of {@link #vocabulary} and by its name otherwise.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @return the id, or -1 if this character does not receive such messages.
+	 */
+	short inMessageId(FullMessage<?> msg) {
+		Vocabulary.Word word = msg.getWord();
+		
+		if (word != null && word.getVocabulary() == vocabulary) {
+			return inMessageForWord[word.getId()];
+		}
+		
+		Short id = inMessageIds.get(msg.getName());
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * Tests whether a given incoming message id corresponds to an initial
+	 * message.
+	 * 
+	 * @param messageId
+	 *            the id of the message, or -1 for none.
+	 * @return true if the message is initial, false otherwise.
+	 * @see #isInitial(String)
+	 */
+	boolean isInitial(short messageId) {
+		Object nextAction = rootNode.getNext().getNextAction();
+		
+		return messageId >= 0 && nextAction instanceof BitSet
+				&& ((BitSet) nextAction).get(messageId);
+	}
+	
 	/**
 	 * Tests whether a given message name corresponds to an initial message,
 	 * i.e., a message to be received before any action is ever taken.
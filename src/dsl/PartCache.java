@@ -0,0 +1,411 @@
+package dsl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Map.Entry;
+
+
+/**
+ * A directory of compiled {@link Part Parts}, so that the causality analysis
+ * of a {@link Play} is not done again every time a process starts. Use it with
+ * {@link Play#interpretAs(String, PartCache)}.
+ * 
+ * <p>
+ * Only the causality tables are kept: the rest of the Part refers to the code
+ * in {@link Play#scene()}, which cannot be stored, and is cheap to build
+ * anyway. Each entry is stored in a compact binary file, named after the Play
+ * class, the character and the shape of the flowchart of the Play, so that
+ * Plays built with different parameters do not mix. Entries are read through
+ * a memory map and are discarded (and written again) whenever the bytecode of
+ * the Play class changes.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class PartCache {
+	
+	/**
+	 * Marks the beginning of every cache file.
+	 */
+	private static final int MAGIC = 0x50415254; // "PART"
+	
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+	
+	/**
+	 * The directory where the files are kept.
+	 */
+	private final Path directory;
+	
+	/**
+	 * Builds a cache over a directory, which is created if it does not exist.
+	 * 
+	 * @param directory
+	 *            the directory.
+	 * @throws UncheckedIOException
+	 *             if the directory cannot be created.
+	 */
+	public PartCache(Path directory) {
+		try {
+			this.directory = Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Finds the file of an entry.
+	 * 
+	 * @param playClass
+	 *            the class of the Play.
+	 * @param characterName
+	 *            the character the Part is for.
+	 * @param fingerprint
+	 *            the fingerprint of the flowchart of the Play.
+	 * @return the path to the file.
+	 * @see Flowchart#fingerprint()
+	 */
+	Path pathFor(Class<?> playClass, String characterName, byte[] fingerprint) {
+		MessageDigest digest = newDigest();
+		
+		digest.update(playClass.getName().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(characterName.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(fingerprint);
+		
+		return directory.resolve(toHex(digest.digest(), 16) + ".part");
+	}
+	
+	/**
+	 * Reads an entry.
+	 * 
+	 * @param path
+	 *            the path to the entry, as given by
+	 *            {@link #pathFor(Class, String, byte[])}.
+	 * @param playClass
+	 *            the class of the Play.
+	 * @param inMessageIds
+	 *            the incoming message ids of the Part being built.
+	 * @param outMessageIds
+	 *            the outgoing message ids of the Part being built.
+	 * @return the tables stored, or null if there are none, if they are stale,
+	 *         corrupt or if they do not match the message ids given.
+	 */
+	CausalTables load(Path path, Class<?> playClass,
+			Map<String, Short> inMessageIds, Map<String, Short> outMessageIds) {
+		byte[] bytecode = bytecodeDigest(playClass);
+		
+		if (bytecode == null || !Files.isRegularFile(path)) {
+			return null;
+		}
+		
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			
+			// Header:
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+			
+			byte[] storedBytecode = new byte[bytecode.length];
+			buffer.get(storedBytecode);
+			
+			if (!Arrays.equals(bytecode, storedBytecode)
+					|| !readNames(buffer, inMessageIds)
+					|| !readNames(buffer, outMessageIds)) {
+				return null;
+			}
+			
+			// Causal relation and maximum delays, each out message causing
+			// every in message at most once:
+			int inMessageNumber = inMessageIds.size();
+			int outMessageNumber = outMessageIds.size();
+			short[][] causalRelation = new short[outMessageNumber][];
+			int[][] maxDelays = new int[outMessageNumber][];
+			
+			for (int out = 0; out < outMessageNumber; out++) {
+				int causedSize = buffer.getInt();
+				
+				if (causedSize < -1 || causedSize > inMessageNumber) {
+					return null;
+				} else if (causedSize >= 0) {
+					causalRelation[out] = new short[causedSize];
+					maxDelays[out] = new int[causedSize];
+					
+					for (int i = 0; i < causedSize; i++) {
+						causalRelation[out][i] = buffer.getShort();
+						maxDelays[out][i] = buffer.getInt();
+						
+						if (causalRelation[out][i] < 0
+								|| causalRelation[out][i] >= inMessageNumber) {
+							return null;
+						}
+					}
+				}
+			}
+			
+			// Finals, which are out messages, and spontaneous messages, which
+			// are in messages:
+			BitSet[] isCausFinal = new BitSet[inMessageNumber];
+			
+			for (int in = 0; in < inMessageNumber; in++) {
+				isCausFinal[in] = readBitSet(buffer, outMessageNumber);
+				
+				if (isCausFinal[in] == null) {
+					return null;
+				}
+			}
+			
+			BitSet isSpontaneous = readBitSet(buffer, inMessageNumber);
+			
+			if (isSpontaneous == null || buffer.hasRemaining()) {
+				return null;
+			}
+			
+			return new CausalTables(causalRelation, maxDelays, isCausFinal,
+					isSpontaneous);
+		} catch (IOException | BufferUnderflowException
+				| IllegalArgumentException e) {
+			return null; // Unreadable: as good as missing.
+		}
+	}
+	
+	/**
+	 * Writes an entry, replacing any previous one. The file is written aside
+	 * and then moved into place, so readers never see half an entry. If it
+	 * cannot be written (e.g., the directory is read-only or the disk is
+	 * full), the entry is not stored: a cache never fails the Part it caches.
+	 * 
+	 * @param path
+	 *            the path to the entry, as given by
+	 *            {@link #pathFor(Class, String, byte[])}.
+	 * @param playClass
+	 *            the class of the Play.
+	 * @param inMessageIds
+	 *            the incoming message ids of the Part.
+	 * @param outMessageIds
+	 *            the outgoing message ids of the Part.
+	 * @param tables
+	 *            the tables to be stored.
+	 */
+	void store(Path path, Class<?> playClass, Map<String, Short> inMessageIds,
+			Map<String, Short> outMessageIds, CausalTables tables) {
+		byte[] bytecode = bytecodeDigest(playClass);
+		
+		if (bytecode == null) {
+			return; // Cannot tell when it would be stale. Do not store.
+		}
+		
+		Path temporary = null;
+		
+		try {
+			temporary = Files.createTempFile(directory, null, ".tmp");
+			
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				// Header:
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(bytecode);
+				writeNames(out, inMessageIds);
+				writeNames(out, outMessageIds);
+				
+				// Causal relation and maximum delays:
+				for (int o = 0; o < tables.causalRelation.length; o++) {
+					if (tables.causalRelation[o] == null) {
+						out.writeInt(-1);
+					} else {
+						out.writeInt(tables.causalRelation[o].length);
+						
+						for (int i = 0; i < tables.causalRelation[o].length; i++) {
+							out.writeShort(tables.causalRelation[o][i]);
+							out.writeInt(tables.maxDelays[o][i]);
+						}
+					}
+				}
+				
+				// Finals and spontaneous messages:
+				for (BitSet causFinal : tables.isCausFinal) {
+					writeBitSet(out, causFinal);
+				}
+				
+				writeBitSet(out, tables.isSpontaneous);
+			}
+			
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+			
+			// Leave no half entry behind:
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException f) {
+					// Nothing else to do.
+				}
+			}
+		}
+	}
+	
+	
+	// Encoding:
+	
+	/**
+	 * Writes message names in id order.
+	 */
+	private static void writeNames(DataOutputStream out, Map<String, Short> ids)
+			throws IOException {
+		String[] names = new String[ids.size()];
+		
+		for (Entry<String, Short> entry : ids.entrySet()) {
+			names[entry.getValue()] = entry.getKey();
+		}
+		
+		out.writeShort(names.length);
+		
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(bytes.length);
+			out.write(bytes);
+		}
+	}
+	
+	/**
+	 * Reads message names in id order and checks them against the ids given.
+	 * 
+	 * @return true if all names have the ids given.
+	 */
+	private static boolean readNames(ByteBuffer buffer, Map<String, Short> ids) {
+		if (buffer.getShort() != ids.size()) {
+			return false;
+		}
+		
+		for (short id = 0; id < ids.size(); id++) {
+			int size = buffer.getShort() & 0xffff;
+			
+			if (size > buffer.remaining()) {
+				return false;
+			}
+			
+			byte[] bytes = new byte[size];
+			buffer.get(bytes);
+			
+			if (!Short.valueOf(id).equals(
+					ids.get(new String(bytes, StandardCharsets.UTF_8)))) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static void writeBitSet(DataOutputStream out, BitSet bitSet)
+			throws IOException {
+		long[] words = bitSet.toLongArray();
+		out.writeInt(words.length);
+		
+		for (long word : words) {
+			out.writeLong(word);
+		}
+	}
+	
+	/**
+	 * Reads a bit set with no bit beyond a given size.
+	 * 
+	 * @return the bit set, or null if it is too large.
+	 */
+	private static BitSet readBitSet(ByteBuffer buffer, int size) {
+		int wordNumber = buffer.getInt();
+		
+		if (wordNumber < 0 || wordNumber > (size + 63) / 64) {
+			return null;
+		}
+		
+		long[] words = new long[wordNumber];
+		
+		for (int w = 0; w < words.length; w++) {
+			words[w] = buffer.getLong();
+		}
+		
+		BitSet bitSet = BitSet.valueOf(words);
+		return bitSet.length() <= size ? bitSet : null;
+	}
+	
+	
+	// Digests:
+	
+	/**
+	 * Digests the bytecode of a Play class and of its superclasses, up to
+	 * {@link Play} itself. Lambdas are compiled into the class that declares
+	 * them, so they are taken into account too.
+	 * 
+	 * @param playClass
+	 *            the class of the Play.
+	 * @return the digest, or null if some bytecode cannot be found.
+	 */
+	private static byte[] bytecodeDigest(Class<?> playClass) {
+		MessageDigest digest = newDigest();
+		byte[] chunk = new byte[8192];
+		
+		for (Class<?> c = playClass; c != null && c != Play.class; c = c
+				.getSuperclass()) {
+			String name = c.getName();
+			String resource = name.substring(name.lastIndexOf('.') + 1)
+					+ ".class";
+			
+			try (InputStream in = c.getResourceAsStream(resource)) {
+				if (in == null) {
+					return null;
+				}
+				
+				for (int read; (read = in.read(chunk)) != -1; /* */) {
+					digest.update(chunk, 0, read);
+				}
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		
+		return digest.digest();
+	}
+	
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Every JVM has SHA-256.
+		}
+	}
+	
+	private static String toHex(byte[] bytes, int length) {
+		StringBuilder builder = new StringBuilder(2 * length);
+		
+		for (int i = 0; i < length; i++) {
+			builder.append(String.format("%02x", bytes[i]));
+		}
+		
+		return builder.toString();
+	}
+}
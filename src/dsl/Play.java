@@ -6,9 +6,11 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.function.Supplier;
 
+import communications.ExpiredRunException;
 import communications.NoSuchCharacter;
 import communications.RxException;
 import communications.TxException;
+import communications.Vocabulary;
 
 import function.ConsumerWithActor;
 import function.RunnableWithActor;
@@ -55,9 +57,14 @@ public abstract class Play<P> {
 	protected String protocolName = this.getClass().getCanonicalName();
 	
 	/**
-	 * The maximum amount time each participant will stay processing a run.
+	 * The maximum amount time each participant will stay processing a run, in
+	 * milliseconds. Should be overridden for protocols whose participants may
+	 * vanish halfway through a run, e.g., in the constructor. A maximal one
+	 * means forever.
+	 * 
+	 * @see ExpiredRunException
 	 */
-	protected final int timeout = Integer.MAX_VALUE;
+	protected int timeout = Integer.MAX_VALUE;
 	
 	/**
 	 * The mapping from character to the Actor class it uses.
@@ -72,6 +79,12 @@ public abstract class Play<P> {
 	 */
 	private Flowchart flowchart = null;
 	
+	/**
+	 * The names of all messages in the flowchart, numbered the same way in
+	 * every node running this Play.
+	 */
+	private Vocabulary vocabulary = null;
+	
 	/**
 	 * The object describing the causality and bifurcations relations in the
 	 * protocol. It is used to determine the maximum timeouts for messages.
@@ -173,8 +186,62 @@ public abstract class Play<P> {
 					actorClasses.keySet()));
 		}
 		
-		return flowchart.copy().buildPart(mainCharacter, protocolName,
+		Part part = flowchart.copy().buildPart(mainCharacter, protocolName,
 				actorClasses.get(mainCharacter), causality);
+		part.timeout = timeout;
+		part.setVocabulary(getVocabulary());
+		
+		return part;
+	}
+	
+	/**
+	 * Does the same as {@link #interpretAs(String)}, but takes the results of
+	 * the causality analysis, which is the slowest part of the work, from a
+	 * cache if they are there, and puts them there otherwise. The scene still
+	 * has to be explored, since the code it runs cannot be cached.
+	 * 
+	 * @param mainCharacter
+	 *            the character the program has to enact.
+	 * @param cache
+	 *            the cache to be used.
+	 * @return the part object containing all information to relative to the
+	 *         role of the given character.
+	 * @see PartCache
+	 */
+	public final Part interpretAs(String mainCharacter, PartCache cache) {
+		Flowchart flowchart = getFlowchart();
+		
+		// See if our star is there after all:
+		if (!actorClasses.containsKey(mainCharacter)) {
+			throw new NoSuchCharacter(String.format(
+					"Character \"%s\" not in %s.", mainCharacter,
+					actorClasses.keySet()));
+		}
+		
+		Part part = flowchart.copy().buildPart(mainCharacter, protocolName,
+				actorClasses.get(mainCharacter), causality, cache,
+				this.getClass());
+		part.timeout = timeout;
+		part.setVocabulary(getVocabulary());
+		
+		return part;
+	}
+	
+	/**
+	 * Gets the names of the messages of the protocol, numbered. Plays that
+	 * build the same flowchart get equal vocabularies, here and in any other
+	 * node, so that messages can be told by number.
+	 * 
+	 * @return the vocabulary, as registered.
+	 * @see Vocabulary#register(Vocabulary)
+	 */
+	public final Vocabulary getVocabulary() {
+		if (vocabulary == null) {
+			vocabulary = Vocabulary.register(new Vocabulary(protocolName,
+					getFlowchart().getMessageNames()));
+		}
+		
+		return vocabulary;
 	}
 	
 	/**
@@ -0,0 +1,46 @@
+package dsl;
+
+
+/**
+ * The time and the timers an {@link Actor} runs by. Rounds are timed by
+ * {@link #now()} and message expiries are set as timers, so replacing the
+ * scheduler of an Actor replaces its notion of time altogether: the
+ * {@link TimingWheel} follows the wall clock, while a simulator may follow a
+ * virtual one.
+ * 
+ * @author tokahuke
+ *
+ * @see Actor#setScheduler(Scheduler)
+ */
+public interface Scheduler {
+	
+	/**
+	 * Gets the current time.
+	 * 
+	 * @return the current time, in nanoseconds from an arbitrary origin.
+	 */
+	public long now();
+	
+	/**
+	 * Sets a timer to go off at a given time, when it is to be
+	 * {@link TimingWheel.Timeout#run() run}. If the timer is already set, it
+	 * is moved to the new time. Timers set for the past go off as soon as
+	 * possible, but never within this call.
+	 * 
+	 * @param timeout
+	 *            the timer to be set.
+	 * @param deadline
+	 *            when the timer goes off, as given by {@link #now()}.
+	 */
+	public void schedule(TimingWheel.Timeout timeout, long deadline);
+	
+	/**
+	 * Cancels a timer.
+	 * 
+	 * @param timeout
+	 *            the timer to be cancelled.
+	 * @return true if the timer was set; false if it was not set or has
+	 *         already gone off.
+	 */
+	public boolean cancel(TimingWheel.Timeout timeout);
+}
@@ -13,7 +13,11 @@ final class SendNode extends Node {
 			noSend = EndNode.NO_SEND,
 			noReceive = EndNode.NO_RECEIVE;
 	private BitSet handlerMessages;
-
+	
+	// Resolved on the first send, for the Part of the first Actor:
+	private MessageKey key;
+	private CharacterKey receiverKey;
+	
 	public SendNode(String sender, String receiver, String name, int timeout) {
 		super();
 		this.character = sender;
@@ -21,7 +25,7 @@ final class SendNode extends Node {
 		this.messageName = name;
 		this.timeout = timeout;
 	}
-
+	
 	public String getMessageName() {
 		return messageName;
 	}
@@ -49,7 +53,7 @@ final class SendNode extends Node {
 	public BitSet getHandlerMessages() {
 		return handlerMessages;
 	}
-
+	
 	public void setHandlerMessages(BitSet handlerMessages) {
 		this.handlerMessages = handlerMessages;
 	}
@@ -78,7 +82,16 @@ final class SendNode extends Node {
 	
 	@Override public Node next(Actor<?> actor) {
 		try {
-			actor.sendMessage(receiver, messageName);
+			// Unhandled failures may wait to go out with the next sends:
+			MessageKey key = this.key;
+			CharacterKey receiverKey = this.receiverKey;
+			
+			if (key == null || receiverKey == null) {
+				this.receiverKey = receiverKey = actor.getCharacterKey(receiver);
+				this.key = key = actor.getMessageKey(messageName);
+			}
+			
+			actor.sendMessage(receiverKey, key, noSend == EndNode.NO_SEND);
 			return next;
 		} catch (TxException e) {
 			if(noSend != EndNode.NO_SEND)
@@ -1,20 +1,34 @@
 package dsl;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 import communications.CommunicationResource;
+import communications.ExpiredRunException;
 import communications.FullMessage;
 import communications.ReceiveEvent;
+import communications.RxException;
+import communications.Subscription;
+import metrics.Instrumented;
+import metrics.RoundStatistics;
+import metrics.Snapshot;
 
 
-public class Server<P> {
-	
-	// TODO Re-implement using Java's Executors instead. You get something
-	// better and for less lines of code.
+public class Server<P> implements Instrumented {
 	
 	// Internal classes:
 	
@@ -29,9 +43,57 @@ public class Server<P> {
 		RUNNING, STOPPED, ABORTED
 	};
 	
+	/**
+	 * What to do with a fresh run that arrives when all actors are busy and
+	 * the queue of pending runs is full.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public static enum Overload {
+		/**
+		 * Ignore the fresh run.
+		 */
+		REJECT_NEW,
+		
+		/**
+		 * Forget the oldest pending run to make room for the fresh one, which
+		 * is more likely to be still awaited by whoever started it.
+		 */
+		SHED_OLDEST
+	}
+	
+	/**
+	 * A fresh run waiting for an Actor, with all messages that arrived for it
+	 * meanwhile.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private final class PendingRun {
+		private final long runId;
+		private final long arrivalTime = System.nanoTime();
+		private final List<FullMessage<P>> messages =
+				new ArrayList<FullMessage<P>>(2);
+		
+		public PendingRun(long runId) {
+			this.runId = runId;
+		}
+	}
+	
 	
 	// Fields:
 	
+	/**
+	 * How long threads of the Server's own executor linger when idle.
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 60;
+	
+	/**
+	 * How many fresh runs wait for an Actor when no number is given.
+	 */
+	private static final int DEFAULT_MAX_PENDING = 1024;
+	
 	/**
 	 * Current state of the server.
 	 * 
@@ -45,19 +107,77 @@ public class Server<P> {
 	private final Part part;
 	
 	/**
-	 * The queue of actors available to perform a protocol round.
+	 * The executor in which actors perform their rounds.
+	 */
+	private final Executor executor;
+	
+	/**
+	 * Whether rounds are performed asynchronously in the {@link #executor},
+	 * or else each one holds a thread of it.
+	 * 
+	 * @see Actor#performAsync(Executor)
+	 */
+	private final boolean isAsync;
+	
+	/**
+	 * Builds new actors on demand.
+	 */
+	private final Supplier<? extends Actor<P>> actorFactory;
+	
+	/**
+	 * The actors not performing any round. Guarded by this.
 	 */
-	private final BlockingQueue<Integer> actorIdQueue;
+	private final ArrayDeque<Actor<P>> idleActors = new ArrayDeque<Actor<P>>();
 	
 	/**
-	 * The pool of threads in which actors are running (one Thread, one Actor).
+	 * The fresh runs waiting for an Actor, oldest first, by run id. Guarded by
+	 * this.
 	 */
-	private final Thread[] threadPool;
+	private final LinkedHashMap<Long, PendingRun> pendingRuns =
+			new LinkedHashMap<Long, PendingRun>();
 	
 	/**
-	 * An array pooling all created Actor objects.
+	 * The number of actors built so far and not discarded.
 	 */
-	private final Actor<P>[] actorPool;
+	private final AtomicInteger actorCount = new AtomicInteger();
+	
+	/**
+	 * The number of idle actors kept for later runs.
+	 */
+	private final int maxIdle;
+	
+	/**
+	 * The maximum number of actors that can run simultaneously.
+	 */
+	private final int size;
+	
+	/**
+	 * The maximum number of fresh runs waiting for an Actor.
+	 */
+	private final int maxPending;
+	
+	/**
+	 * What to do with fresh runs that find no room.
+	 */
+	private final Overload overload;
+	
+	/**
+	 * Number of fresh runs ignored or forgotten for lack of room.
+	 */
+	private final LongAdder numberOfShedRuns = new LongAdder();
+	
+	/**
+	 * Number of runs that outlived the timeout of the Part, either performing
+	 * or waiting for an Actor.
+	 * 
+	 * @see Play#timeout
+	 */
+	private final LongAdder numberOfExpiredRuns = new LongAdder();
+	
+	/**
+	 * Where the actors of this Server record their rounds.
+	 */
+	private final RoundStatistics statistics = new RoundStatistics("server");
 	
 	/**
 	 * The list of addresses for characters that is fixed for all runs of the
@@ -72,17 +192,27 @@ public class Server<P> {
 	private final CommunicationResource<P> communicationResource;
 	
 	/**
-	 * The map of run IDs to the objects performing the run.
+	 * The subscription of {@link #freshRunEvent(FullMessage)} while the
+	 * Server is running.
+	 */
+	private Subscription freshRunSubscription;
+	
+	/**
+	 * The map of run IDs to the objects performing the run. Entries are
+	 * removed when the round ends, which takes at most the timeout of the Part
+	 * if it has one.
 	 */
 	private final Map<Long, Actor<P>> ongoingRuns = 
-			new HashMap<Long, Actor<P>>();
+			new ConcurrentHashMap<Long, Actor<P>>();
 	
 	
-	// Constructor:
+	// Constructors:
 	
 	/**
 	 * Creates a new Server object to interpret the protocol Part given using a
-	 * certain CommunicationsResource.
+	 * certain CommunicationsResource. Each round holds a thread of the Server's
+	 * own, and all actors are built upfront. Fresh runs arriving when all
+	 * actors are busy wait for one, up to a limit.
 	 * 
 	 * @param <A>
 	 *            the Actor type to be used by this Server.
@@ -96,59 +226,158 @@ public class Server<P> {
 	 * @param size
 	 *            the maximum number of actors that can run simultaneously.
 	 */
-	@SuppressWarnings("unchecked") public <A extends Actor<P>> Server(
-			Part part, CommunicationResource<P> communicationResource,
+	public <A extends Actor<P>> Server(Part part,
+			CommunicationResource<P> communicationResource,
 			Supplier<A> actorFactory, int size) {
+		this(part, communicationResource, actorFactory, size, size,
+				DEFAULT_MAX_PENDING, Overload.REJECT_NEW);
+	}
+	
+	/**
+	 * Creates a new Server object in which each round holds a thread of the
+	 * Server's own. Actors and threads are added as load grows, up to a
+	 * maximum, and let go when idle, down to a minimum.
+	 * 
+	 * @param <A>
+	 *            the Actor type to be used by this Server.
+	 * @param part
+	 *            the Part to be interpreted by the Server.
+	 * @param communicationResource
+	 *            the resource to be used to send and receive messages.
+	 * @param actorFactory
+	 *            a factory to instantiate new Actors (and do any necessary
+	 *            setup before running).
+	 * @param minSize
+	 *            the number of actors built upfront and always kept.
+	 * @param size
+	 *            the maximum number of actors that can run simultaneously.
+	 * @param maxPending
+	 *            the maximum number of fresh runs waiting for an Actor.
+	 * @param overload
+	 *            what to do with fresh runs that find no room.
+	 */
+	public <A extends Actor<P>> Server(Part part,
+			CommunicationResource<P> communicationResource,
+			Supplier<A> actorFactory, int minSize, int size, int maxPending,
+			Overload overload) {
+		this(part, communicationResource, actorFactory, minSize, minSize,
+				size, maxPending, overload, newThreadPool(part, minSize), false);
+	}
+	
+	/**
+	 * Creates a new Server object to interpret the protocol Part given using a
+	 * certain CommunicationsResource, running all rounds asynchronously in an
+	 * executor. Actors are built as needed and no thread is held while they
+	 * wait for messages, so the size of the Server can be much larger than the
+	 * number of threads in the executor. Fresh runs arriving when all actors
+	 * are busy are ignored.
+	 * 
+	 * @param <A>
+	 *            the Actor type to be used by this Server.
+	 * @param part
+	 *            the Part to be interpreted by the Server.
+	 * @param communicationResource
+	 *            the resource to be used to send and receive messages.
+	 * @param actorFactory
+	 *            a factory to instantiate new Actors (and do any necessary
+	 *            setup before running).
+	 * @param size
+	 *            the maximum number of actors that can run simultaneously.
+	 * @param executor
+	 *            the executor in which the rounds run.
+	 * @see Actor#performAsync(Executor)
+	 */
+	public <A extends Actor<P>> Server(Part part,
+			CommunicationResource<P> communicationResource,
+			Supplier<A> actorFactory, int size, Executor executor) {
+		this(part, communicationResource, actorFactory, 0, size, size, 0,
+				Overload.REJECT_NEW, executor, true);
+	}
+	
+	/**
+	 * Creates a new Server object running all rounds asynchronously in an
+	 * executor, with actors added as load grows and let go when idle.
+	 * 
+	 * @param <A>
+	 *            the Actor type to be used by this Server.
+	 * @param part
+	 *            the Part to be interpreted by the Server.
+	 * @param communicationResource
+	 *            the resource to be used to send and receive messages.
+	 * @param actorFactory
+	 *            a factory to instantiate new Actors (and do any necessary
+	 *            setup before running).
+	 * @param minSize
+	 *            the number of actors built upfront and always kept.
+	 * @param size
+	 *            the maximum number of actors that can run simultaneously.
+	 * @param maxPending
+	 *            the maximum number of fresh runs waiting for an Actor.
+	 * @param overload
+	 *            what to do with fresh runs that find no room.
+	 * @param executor
+	 *            the executor in which the rounds run.
+	 * @see Actor#performAsync(Executor)
+	 */
+	public <A extends Actor<P>> Server(Part part,
+			CommunicationResource<P> communicationResource,
+			Supplier<A> actorFactory, int minSize, int size, int maxPending,
+			Overload overload, Executor executor) {
+		this(part, communicationResource, actorFactory, minSize, minSize,
+				size, maxPending, overload, executor, true);
+	}
+	
+	private <A extends Actor<P>> Server(Part part,
+			CommunicationResource<P> communicationResource,
+			Supplier<A> actorFactory, int minSize, int maxIdle, int size,
+			int maxPending, Overload overload, Executor executor,
+			boolean isAsync) {
+		if (minSize < 0 || size < Math.max(minSize, 1) || maxPending < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Bad server: %d to %d actors, %d pending runs.", minSize,
+					size, maxPending));
+		}
+		
 		this.part = part;
 		this.communicationResource = communicationResource;
+		this.actorFactory = actorFactory;
+		this.maxIdle = maxIdle;
+		this.size = size;
+		this.maxPending = maxPending;
+		this.overload = overload;
+		this.executor = executor;
+		this.isAsync = isAsync;
 		
-		actorIdQueue = new ArrayBlockingQueue<Integer>(size);
-		threadPool = new Thread[size];
-		actorPool = (A[]) new Actor[size];
-		
-		for (int i = 0; i < size; i++) {
-			A actor = actorFactory.get();
-			actor.load(part, communicationResource, initialAddressMap);
-			actorPool[i] = actor;
-			threadPool[i] = buildThread(i, actor);
+		for (int i = 0; i < minSize; i++) {
+			actorCount.incrementAndGet();
+			idleActors.add(buildActor());
 		}
 	}
 	
 	/**
-	 * Creates a new Thread object to run an Actor.
-	 * 
-	 * @param id
-	 *            the id of the Actor.
-	 * @param actor
-	 *            the Actor object to be run by the thread.
-	 * @return an inactive Thread object (invoke {@link Thread#start()} to start
-	 *         the thread).
-	 */
-	private Thread buildThread(int id, Actor<?> actor) {
-		return new Thread(new Runnable() {
-			public void run() {
-				while (true) {
-					// Go to the end of the line!
-					try {
-						actorIdQueue.put(id);
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						return;
-					}
-					
-					// Run it!
-					actor.perform();
-					
-					// End:
-					ongoingRuns.remove(actor.getRunId());
-				}
-			}
-		}, actor.getCharacter() + "_" + id);
+	 * Creates the executor of a Server whose rounds hold a thread each. It has
+	 * no queue, since the Server queues runs itself, and no bound: the number
+	 * of actors bounds the number of rounds, but a thread may linger a little
+	 * after its Actor has been let go.
+	 */
+	private static ThreadPoolExecutor newThreadPool(Part part, int minSize) {
+		AtomicInteger count = new AtomicInteger();
+		
+		return new ThreadPoolExecutor(minSize, Integer.MAX_VALUE,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), runnable -> new Thread(
+						runnable, part.characterName + "_"
+								+ count.getAndIncrement()));
 	}
 	
+	
+	// Admission:
+	
 	/**
 	 * This method is an event handler to identify and process new runs of the
-	 * given protocol that arrive through the communication resource given.
+	 * given protocol that arrive through the communication resource given. It
+	 * never blocks: if no Actor can take a fresh run, the run waits or is
+	 * shed.
 	 * 
 	 * @param inMessage
 	 *            an incoming message.
@@ -156,69 +385,400 @@ public class Server<P> {
 	 * @see ReceiveEvent
 	 */
 	private boolean freshRunEvent(FullMessage<P> inMessage) {
-		if (!ongoingRuns.containsKey(inMessage.getId())
-				&& part.inMessageIds.containsKey(inMessage.getName())) {
-			long runId = inMessage.getId();
+		if (part.inMessageId(inMessage) < 0) {
+			return false;
+		}
+		
+		long runId = inMessage.getId();
+		Actor<P> actor;
+		
+		// Ongoing runs stay so until their Actor says otherwise:
+		if (ongoingRuns.containsKey(runId)) {
+			return false;
+		}
+		
+		// Pending runs become ongoing under the lock, so look for both here:
+		synchronized (this) {
+			if (ongoingRuns.containsKey(runId)) {
+				return false;
+			}
+			
+			PendingRun pending = pendingRuns.get(runId);
+			
+			// Already waiting? Then wait together:
+			if (pending != null) {
+				pending.messages.add(inMessage);
+				return true;
+			}
 			
+			actor = hire();
+			
+			if (actor == null) {
+				return admit(runId, inMessage);
+			}
+			
+			ongoingRuns.put(runId, actor);
+		}
+		
+		perform(actor, runId, Collections.singletonList(inMessage));
+		
+		return true;
+	}
+	
+	/**
+	 * Gets an idle Actor or builds a new one, if there is still room. Called
+	 * while holding the lock.
+	 * 
+	 * @return the Actor or null, if all are busy.
+	 */
+	private Actor<P> hire() {
+		Actor<P> actor = idleActors.poll();
+		
+		if (actor == null && actorCount.get() < size) {
+			actorCount.incrementAndGet();
+			actor = buildActor();
+		}
+		
+		return actor;
+	}
+	
+	/**
+	 * Puts a fresh run in the queue of pending runs, if there is room for it.
+	 * Called while holding the lock.
+	 * 
+	 * @return true if the run was queued.
+	 */
+	private boolean admit(long runId, FullMessage<P> inMessage) {
+		// Make room, if somebody gave up waiting:
+		for (Iterator<PendingRun> oldest = pendingRuns.values().iterator(); oldest
+				.hasNext() && isStale(oldest.next()); /* */) {
+			oldest.remove();
+			numberOfExpiredRuns.increment();
+		}
+		
+		if (pendingRuns.size() >= maxPending) {
+			numberOfShedRuns.increment();
+			
+			if (overload == Overload.REJECT_NEW || maxPending == 0) {
+				return false;
+			}
+			
+			Iterator<PendingRun> oldest = pendingRuns.values().iterator();
+			oldest.next();
+			oldest.remove();
+		}
+		
+		PendingRun pending = new PendingRun(runId);
+		pending.messages.add(inMessage);
+		pendingRuns.put(runId, pending);
+		
+		return true;
+	}
+	
+	/**
+	 * Tells whether a pending run has waited longer than the timeout of the
+	 * Part, so that nobody is awaiting it any longer.
+	 */
+	private boolean isStale(PendingRun pending) {
+		return part.timeout != Integer.MAX_VALUE
+				&& System.nanoTime() - pending.arrivalTime >= part.timeout
+						* 1_000_000L;
+	}
+	
+	/**
+	 * Starts a round in an Actor already registered in {@link #ongoingRuns}.
+	 * 
+	 * @param actor
+	 *            the Actor.
+	 * @param runId
+	 *            the id of the round.
+	 * @param inMessages
+	 *            the messages already arrived for the round.
+	 */
+	private void perform(Actor<P> actor, long runId,
+			List<FullMessage<P>> inMessages) {
+		actor.setRunId(runId);
+		
+		for (FullMessage<P> inMessage : inMessages) {
+			actor.getMessageQueue().add(inMessage);
+		}
+		
+		if (isAsync) {
+			actor.performAsyncWithoutResetting(executor).whenComplete(
+					(result, failure) -> {
+						if (failure != null) {
+							fail(failure);
+						}
+						
+						PendingRun next = finish(actor, runId);
+						
+						if (next != null) {
+							perform(actor, next.runId, next.messages);
+						}
+					});
+			return;
+		}
+		
+		try {
+			executor.execute(() -> performAll(actor, runId));
+		} catch (RuntimeException e) {
+			// The executor refused, e.g. after an abort:
+			finish(actor, runId);
+		}
+	}
+	
+	/**
+	 * Performs a round that holds the current thread and then, in the same
+	 * thread, the pending runs that the Actor takes over.
+	 */
+	private void performAll(Actor<P> actor, long runId) {
+		for (PendingRun next = null; /* */; /* */) {
 			try {
-				Actor<P> actor = actorPool[actorIdQueue.take()];
-				actor.setRunId(runId);
-				ongoingRuns.put(runId, actor);
-				actor.getMessageQueue().put(inMessage);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
+				actor.performWithoutResetting();
+			} catch (RuntimeException e) {
+				fail(e);
+			} finally {
+				next = finish(actor, runId);
 			}
 			
-			return true;
-		} else
-			return false;
+			if (next == null) {
+				break;
+			}
+			
+			runId = next.runId;
+			actor.setRunId(runId);
+			
+			for (FullMessage<P> inMessage : next.messages) {
+				actor.getMessageQueue().add(inMessage);
+			}
+		}
 	}
 	
 	/**
-	 * Starts the Server.
+	 * Takes note of a failed round. Failures of the protocol, such as
+	 * timeouts, are the business of the other participants; anything else is
+	 * a bug and is reported as an uncaught exception, without stopping the
+	 * Server.
+	 * 
+	 * @param failure
+	 *            the reason the round failed.
 	 */
-	public void start() {
-		if (status != RunStatus.RUNNING) {
-			if (status == RunStatus.ABORTED) {
-				for (Thread thread : threadPool) {
-					thread.start();
+	private void fail(Throwable failure) {
+		if (failure instanceof ExpiredRunException) {
+			numberOfExpiredRuns.increment();
+		} else if (!(failure instanceof RxException)) {
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread,
+					failure);
+		}
+	}
+	
+	/**
+	 * Ends a round and hands the Actor over to the oldest pending run not yet
+	 * stale, if there is one.
+	 * 
+	 * @return the pending run the Actor is to perform next, already in
+	 *         {@link #ongoingRuns}, or null if the Actor was retired.
+	 */
+	private PendingRun finish(Actor<P> actor, long runId) {
+		ongoingRuns.remove(runId);
+		actor.reset();
+		
+		synchronized (this) {
+			Iterator<PendingRun> oldest = pendingRuns.values().iterator();
+			
+			while (status != RunStatus.ABORTED && oldest.hasNext()) {
+				PendingRun next = oldest.next();
+				oldest.remove();
+				
+				if (isStale(next)) {
+					numberOfExpiredRuns.increment();
+					continue;
 				}
+				
+				ongoingRuns.put(next.runId, actor);
+				
+				return next;
 			}
 			
+			retire(actor);
+			return null;
+		}
+	}
+	
+	/**
+	 * Puts an Actor with nothing to do back in the idle ones, or lets it go if
+	 * there are enough of those. Called while holding the lock.
+	 */
+	private void retire(Actor<P> actor) {
+		if (idleActors.size() < maxIdle) {
+			idleActors.add(actor);
+		} else {
+			actorCount.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Builds and loads a new Actor.
+	 */
+	private Actor<P> buildActor() {
+		Actor<P> actor = actorFactory.get();
+		actor.load(part, communicationResource, initialAddressMap);
+		actor.reset();
+		
+		// Unless the factory knows better:
+		if (actor.getStatistics() == null) {
+			actor.setStatistics(statistics);
+		}
+		
+		return actor;
+	}
+	
+	
+	// Life cycle:
+	
+	/**
+	 * Starts the Server.
+	 */
+	public void start() {
+		if (status != RunStatus.RUNNING) {
 			status = RunStatus.RUNNING;
 			
-			communicationResource.addReceiveEvent(this::freshRunEvent);
+			freshRunSubscription = communicationResource
+					.addReceiveEvent(this::freshRunEvent);
 		}
 	}
 	
 	/**
 	 * Stops the server. This only prevents the server from accepting new rounds
-	 * and does not affect the ones already running.
+	 * and does not affect the ones already running or waiting.
 	 */
 	public void stop() {
 		if (status != RunStatus.STOPPED) {
 			if (status != RunStatus.ABORTED) {
-				communicationResource.removeReceiveEvent(this::freshRunEvent);
+				freshRunSubscription.cancel();
 				status = RunStatus.STOPPED;
 			}
 		}
 	}
 	
 	/**
-	 * Aborts the server. Existing rounds will be forced to stop by interrupting
-	 * all running threads. No new rounds will be accepted.
+	 * Aborts the server. Existing rounds will be forced to stop and pending
+	 * ones forgotten. No new rounds will be accepted.
 	 */
 	public void abort() {
 		if (status != RunStatus.ABORTED) {
-			communicationResource.removeReceiveEvent(this::freshRunEvent);
+			freshRunSubscription.cancel();
+			
+			synchronized (this) {
+				status = RunStatus.ABORTED;
+				pendingRuns.clear();
+			}
 			
-			for (Thread thread : threadPool) {
-				thread.interrupt();
+			// Rounds that hold a thread are interrupted; the others have no
+			// thread to interrupt:
+			if (!isAsync) {
+				((ThreadPoolExecutor) executor).shutdownNow();
+			} else {
+				for (Actor<P> actor : ongoingRuns.values()) {
+					actor.exit();
+				}
 			}
 			
 			ongoingRuns.clear();
+		}
+	}
+	
+	
+	// Statistics:
+	
+	/**
+	 * Gets the number of actors currently built.
+	 * 
+	 * @return the number of actors, busy or idle.
+	 */
+	public int getNumberOfActors() {
+		return actorCount.get();
+	}
+	
+	/**
+	 * Gets the number of fresh runs waiting for an Actor.
+	 * 
+	 * @return the number of pending runs.
+	 */
+	public synchronized int getNumberOfPendingRuns() {
+		return pendingRuns.size();
+	}
+	
+	/**
+	 * Gets the number of fresh runs ignored or forgotten so far because all
+	 * actors were busy and no more runs could wait.
+	 * 
+	 * @return the number of shed runs.
+	 */
+	public long getNumberOfShedRuns() {
+		return numberOfShedRuns.sum();
+	}
+	
+	/**
+	 * Gets the number of runs that outlived the timeout of the Part so far,
+	 * either performing or waiting for an Actor.
+	 * 
+	 * @return the number of expired runs.
+	 * @see Play#timeout
+	 */
+	public long getNumberOfExpiredRuns() {
+		return numberOfExpiredRuns.sum();
+	}
+	
+	/**
+	 * Gets the number of runs currently being performed.
+	 * 
+	 * @return the number of ongoing runs.
+	 */
+	public int getNumberOfOngoingRuns() {
+		return ongoingRuns.size();
+	}
+	
+	/**
+	 * Gets where the actors of this Server record their rounds, unless their
+	 * factory gave them statistics of their own.
+	 * 
+	 * @return the statistics of the rounds.
+	 */
+	public RoundStatistics getStatistics() {
+		return statistics;
+	}
+	
+	@Override public void collect(Snapshot snapshot) {
+		statistics.collect(snapshot);
+		
+		int ongoing = ongoingRuns.size();
+		
+		snapshot.gauge("server_actors", "Actors built, busy or idle.",
+				getNumberOfActors());
+		snapshot.gauge("server_ongoing_runs", "Runs being performed.",
+				ongoing);
+		snapshot.gauge("server_pending_runs", "Runs waiting for an actor.",
+				getNumberOfPendingRuns());
+		snapshot.gauge("server_saturation",
+				"Fraction of the maximum number of actors that is busy.",
+				(double) ongoing / size);
+		snapshot.counter("server_shed_runs_total",
+				"Runs ignored or forgotten for lack of room.",
+				getNumberOfShedRuns());
+		snapshot.counter("server_expired_runs_total",
+				"Runs that outlived the timeout, performing or waiting.",
+				getNumberOfExpiredRuns());
+		
+		if (!isAsync) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
 			
-			status = RunStatus.ABORTED;
+			snapshot.gauge("server_threads", "Threads of the server.",
+					pool.getPoolSize());
+			snapshot.gauge("server_busy_threads",
+					"Threads of the server performing rounds.",
+					pool.getActiveCount());
 		}
 	}
 	
@@ -0,0 +1,398 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A hashed timing wheel: a timer service in which setting and cancelling a
+ * timer takes constant time, no matter how many timers are set. Time is
+ * divided in ticks and each timer is put in the bucket of the tick at which it
+ * goes off; a single daemon thread walks the buckets as time passes and runs
+ * the timers due. Timers further away than one turn of the wheel simply stay
+ * in their bucket until the right turn comes.
+ * 
+ * <p>
+ * All time is measured by {@link System#nanoTime()}, which is monotonic, and
+ * the precision of the wheel is one tick. The thread sleeps until the next
+ * tick at which some timer goes off, looking one turn of the wheel ahead at
+ * most, and for good while no timer is set.
+ * 
+ * <p>
+ * Timers run in the thread of the wheel and must be quick. Anything slow has
+ * to be handed over to some other thread.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class TimingWheel implements Scheduler {
+	
+	// Internal classes:
+	
+	/**
+	 * A timer that can be set in a {@link TimingWheel}. The same timer can be
+	 * set again and again, but it is set at most once at a time: setting a
+	 * timer already set moves it to the new deadline.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public static final class Timeout {
+		
+		/**
+		 * What to do when the timer goes off.
+		 */
+		private final Runnable task;
+		
+		/**
+		 * The tick at which the timer goes off.
+		 */
+		private long tick;
+		
+		/**
+		 * The neighbors in the bucket. These are null if the timer is not set.
+		 */
+		private Timeout previous, next;
+		
+		/**
+		 * Whether the timer is set.
+		 */
+		private boolean isSet = false;
+		
+		/**
+		 * Creates a new timer, not yet set.
+		 * 
+		 * @param task
+		 *            what to do when the timer goes off.
+		 */
+		public Timeout(Runnable task) {
+			this.task = task;
+		}
+		
+		/**
+		 * Runs the task of the timer. Schedulers call this when the timer goes
+		 * off.
+		 */
+		public void run() {
+			task.run();
+		}
+	}
+	
+	
+	// Static stuff:
+	
+	/**
+	 * The wheel shared by everybody who does not care to have one of its own.
+	 */
+	private static TimingWheel shared = null;
+	
+	/**
+	 * Gets the wheel shared by all actors in this JVM, creating it if needed.
+	 * Ticks are 100&micro;s long.
+	 * 
+	 * @return the shared TimingWheel.
+	 */
+	public static synchronized TimingWheel shared() {
+		if (shared == null) {
+			shared = new TimingWheel(100_000, 4096);
+		}
+		
+		return shared;
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * The duration of a tick in nanoseconds.
+	 */
+	private final long tickNanos;
+	
+	/**
+	 * The buckets of the wheel. Each one is the head of a doubly linked list of
+	 * timers.
+	 */
+	private final Timeout[] buckets;
+	
+	/**
+	 * Maps ticks into buckets. The number of buckets is a power of two.
+	 */
+	private final int mask;
+	
+	/**
+	 * The time the wheel was created. Ticks are counted from here.
+	 */
+	private final long origin;
+	
+	/**
+	 * The last tick whose bucket has been walked.
+	 */
+	private long currentTick = 0;
+	
+	/**
+	 * The number of timers set.
+	 */
+	private int size = 0;
+	
+	/**
+	 * The tick the thread sleeps until, or {@link Long#MAX_VALUE} if it sleeps
+	 * until woken up.
+	 */
+	private long wakeTick = Long.MAX_VALUE;
+	
+	/**
+	 * The thread that walks the wheel.
+	 */
+	private final Thread ticker;
+	
+	
+	// Constructor:
+	
+	/**
+	 * Creates a new TimingWheel and starts its thread.
+	 * 
+	 * @param tickNanos
+	 *            the duration of a tick in nanoseconds.
+	 * @param numberOfBuckets
+	 *            the number of buckets in the wheel, rounded up to a power of
+	 *            two.
+	 */
+	public TimingWheel(long tickNanos, int numberOfBuckets) {
+		if (tickNanos <= 0 || numberOfBuckets <= 0) {
+			throw new IllegalArgumentException(String.format(
+					"Bad wheel: %d ticks of %dns.", numberOfBuckets, tickNanos));
+		}
+		
+		int length = Integer.highestOneBit(numberOfBuckets);
+		length = length < numberOfBuckets ? length << 1 : length;
+		
+		this.tickNanos = tickNanos;
+		this.buckets = new Timeout[length];
+		this.mask = length - 1;
+		this.origin = System.nanoTime();
+		
+		ticker = new Thread(this::walk, "timing-wheel");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+	
+	
+	// The mechanism of the thing:
+	
+	/**
+	 * Gets the current time as seen by the wheel.
+	 * 
+	 * @return the current time, in nanoseconds.
+	 * @see System#nanoTime()
+	 */
+	@Override public long now() {
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Sets a timer to go off at a given time. If the timer is already set, it
+	 * is moved to the new time. Timers set for the past go off at the next
+	 * tick.
+	 * 
+	 * @param timeout
+	 *            the timer to be set.
+	 * @param deadline
+	 *            when the timer goes off, as given by {@link #now()}.
+	 */
+	@Override public void schedule(Timeout timeout, long deadline) {
+		boolean isEarlier;
+		
+		synchronized (this) {
+			if (timeout.isSet) {
+				unlink(timeout);
+				size--;
+			}
+			
+			// The thread does not walk an empty wheel. Catch up:
+			if (size == 0) {
+				currentTick = Math.max(currentTick, (now() - origin)
+						/ tickNanos);
+			}
+			
+			// Round up, so that timers never go off early:
+			long tick = (deadline - origin + tickNanos - 1) / tickNanos;
+			timeout.tick = tick > currentTick ? tick : currentTick + 1;
+			
+			link(timeout);
+			size++;
+			
+			// Once is enough for the thread to look again:
+			isEarlier = timeout.tick < wakeTick;
+			
+			if (isEarlier) {
+				wakeTick = timeout.tick;
+			}
+		}
+		
+		// Wake the thread up if it would sleep past the timer:
+		if (isEarlier) {
+			LockSupport.unpark(ticker);
+		}
+	}
+	
+	/**
+	 * Cancels a timer.
+	 * 
+	 * @param timeout
+	 *            the timer to be cancelled.
+	 * @return true if the timer was set; false if it was not set or has
+	 *         already gone off.
+	 */
+	@Override public synchronized boolean cancel(Timeout timeout) {
+		if (timeout.isSet) {
+			unlink(timeout);
+			size--;
+			
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Puts a timer in the bucket of its tick.
+	 * 
+	 * @param timeout
+	 *            the timer.
+	 */
+	private void link(Timeout timeout) {
+		int bucket = (int) (timeout.tick & mask);
+		Timeout head = buckets[bucket];
+		
+		timeout.previous = null;
+		timeout.next = head;
+		
+		if (head != null) {
+			head.previous = timeout;
+		}
+		
+		buckets[bucket] = timeout;
+		timeout.isSet = true;
+	}
+	
+	/**
+	 * Takes a timer out of its bucket.
+	 * 
+	 * @param timeout
+	 *            the timer.
+	 */
+	private void unlink(Timeout timeout) {
+		if (timeout.previous != null) {
+			timeout.previous.next = timeout.next;
+		} else {
+			buckets[(int) (timeout.tick & mask)] = timeout.next;
+		}
+		
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.isSet = false;
+	}
+	
+	/**
+	 * Walks the wheel for as long as the JVM lives.
+	 */
+	private void walk() {
+		ArrayList<Runnable> due = new ArrayList<Runnable>();
+		
+		while (true) {
+			long sleepTick;
+			
+			synchronized (this) {
+				long now = (now() - origin) / tickNanos;
+				
+				if (size == 0) {
+					// Nothing to do but to keep up with time:
+					currentTick = now;
+				}
+				
+				for (; currentTick < now && size > 0; /* */) {
+					currentTick++;
+					collect(currentTick, due);
+				}
+				
+				sleepTick = wakeTick = size == 0 ? Long.MAX_VALUE
+						: nextTick();
+			}
+			
+			// Run timers outside the lock. They may set other timers, but a
+			// timer that throws must not take the wheel down with it:
+			for (Runnable task : due) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			
+			due.clear();
+			
+			// Sleep until there is something to do:
+			if (sleepTick == Long.MAX_VALUE) {
+				LockSupport.park(this);
+			} else {
+				LockSupport.parkNanos(this, origin + sleepTick * tickNanos
+						- now());
+			}
+		}
+	}
+	
+	/**
+	 * Finds the next tick at which some timer goes off, looking one turn of
+	 * the wheel ahead at most.
+	 * 
+	 * @return the tick, or the last one of the turn if no timer goes off
+	 *         before.
+	 */
+	private long nextTick() {
+		long last = currentTick + buckets.length;
+		
+		for (long tick = currentTick + 1; tick < last; tick++) {
+			Timeout timeout = buckets[(int) (tick & mask)];
+			
+			// Those for later turns do not count:
+			while (timeout != null) {
+				if (timeout.tick <= tick) {
+					return tick;
+				}
+				
+				timeout = timeout.next;
+			}
+		}
+		
+		return last;
+	}
+	
+	/**
+	 * Takes all timers due at a given tick out of the wheel.
+	 * 
+	 * @param tick
+	 *            the tick.
+	 * @param due
+	 *            where to put what is to be run.
+	 */
+	private void collect(long tick, ArrayList<Runnable> due) {
+		Timeout timeout = buckets[(int) (tick & mask)];
+		
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			
+			// Those for later turns stay:
+			if (timeout.tick <= tick) {
+				unlink(timeout);
+				size--;
+				due.add(timeout.task);
+			}
+			
+			timeout = next;
+		}
+	}
+}
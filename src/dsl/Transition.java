@@ -0,0 +1,33 @@
+package dsl;
+
+
+/**
+ * A transition found by a {@link TransitionFinder}. The same object is reused
+ * by the finder for every transition it finds, so it is only valid until the
+ * finder is reset.
+ * 
+ * @author tokahuke
+ *
+ */
+final class Transition {
+	
+	/**
+	 * The messages in the path, from the final message backwards. Only the
+	 * first {@link #length} positions are valid.
+	 */
+	final short[] messagePath;
+	
+	/**
+	 * The number of messages in the path.
+	 */
+	int length;
+	
+	/**
+	 * The next active Node to be executed.
+	 */
+	Node nextNode;
+	
+	public Transition(int size) {
+		this.messagePath = new short[size];
+	}
+}
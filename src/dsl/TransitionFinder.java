@@ -1,48 +1,154 @@
 package dsl;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.List;
-import java.util.Queue;
 
 import communications.RxException;
 
-final class Transition {
-	final List<Short> messagePath;
-	final Node nextNode;
-	
-	public Transition(List<Short> messagePath, Node nextNode) {
-		this.messagePath = messagePath;
-		this.nextNode = nextNode;
-	}
-}
-
 final class TransitionFinder {
 	private enum MessageStatus {
 		NOT_RECEIVED, RECEIVED, TIMEOUT, TIMEOUT_OPT,
 	}
 	
 	private final Part part;
-	private final BitSet initials;
+	private BitSet initials;
+	
+	private final MessageStatus[] messageStatus;
+	
+	/**
+	 * The transition returned when one is found.
+	 */
+	private final Transition transition;
+	
+	/**
+	 * The position of each message in {@link Part#topSort}.
+	 */
+	private final short[] order;
+	
+	/**
+	 * The number of messages in the longest chain of arrived (or optionally
+	 * timed out) messages that starts at an initial message and ends at each
+	 * message; zero if there is no such chain.
+	 */
+	private final short[] dist;
+	
+	/**
+	 * The previous message in the chain of {@link #dist}, plus one; zero where
+	 * the chain begins.
+	 */
+	private final short[] parent;
+	
+	/**
+	 * The parent of each message (as in {@link #parent}) for which the edge
+	 * from the parent to the message has been proven to have no backup path.
+	 * Since backup paths can only disappear, this never needs to be checked
+	 * again.
+	 * 
+	 * @see #findBackup(short, short)
+	 */
+	private final short[] settledParent;
+	
+	/**
+	 * The messages whose chain has grown, but whose successors have not been
+	 * updated yet, by position in {@link Part#topSort}.
+	 */
+	private final BitSet dirty;
+	
+	/**
+	 * The final message at the end of the longest chain, or -1 if no chain
+	 * reaches a final message.
+	 */
+	private short bestFinal;
+	
+	/**
+	 * The messages that timed out without any handling, as a row.
+	 * 
+	 * @see BitRows
+	 */
+	private final long[] timedOut;
+	
+	/**
+	 * Whether any message has timed out without handling.
+	 */
+	private boolean anyTimedOut;
+	
+	/**
+	 * The path last found by {@link #findConnectivityProof()}, as a row.
+	 */
+	private final long[] proof;
+	
+	/**
+	 * Whether {@link #proof} still holds, that is, none of its messages has
+	 * timed out since it was found.
+	 */
+	private boolean proofKnown;
 	
-	private MessageStatus[] messageStatus;
+	/**
+	 * Whether {@link #proof} is a path at all.
+	 */
+	private boolean proofFound;
 	
-	private boolean foundFinal = false;
-	private BitSet explored;
+	// Rows reused by the searches:
+	private final long[] allowed, reach, frontier, next;
 	
-	public TransitionFinder(Part part, BitSet initials) {
+	/**
+	 * Builds a finder for a Part. Everything the search needs is allocated
+	 * here, once, so that the finder can be {@link #reset(BitSet) reset} and
+	 * used again for every receiving step of every round.
+	 * 
+	 * @param part
+	 *            the Part.
+	 */
+	public TransitionFinder(Part part) {
 		this.part = part;
-		this.initials = initials;
 		
-		this.messageStatus = new MessageStatus[part.inMessageIds.size()];
-		this.explored = new BitSet();
+		int size = part.inMessageIds.size();
+		
+		this.messageStatus = new MessageStatus[size];
+		this.transition = new Transition(size);
+		this.order = new short[size];
+		this.dist = new short[size];
+		this.parent = new short[size];
+		this.settledParent = new short[size];
+		this.dirty = new BitSet(size);
+		
+		int words = BitRows.words(size);
 		
-		for (short id = 0; id < messageStatus.length; id++) {
-			messageStatus[id] = MessageStatus.NOT_RECEIVED;
+		this.timedOut = new long[words];
+		this.proof = new long[words];
+		this.allowed = new long[words];
+		this.reach = new long[words];
+		this.frontier = new long[words];
+		this.next = new long[words];
+		
+		for (short position = 0; position < size; position++) {
+			order[part.topSort[position]] = position;
 		}
 	}
-
+	
+	/**
+	 * Prepares a new search, forgetting everything about the last one.
+	 * 
+	 * @param initials
+	 *            the messages from which the transition may start. The BitSet
+	 *            is not copied and must not change during the search.
+	 */
+	public void reset(BitSet initials) {
+		this.initials = initials;
+		
+		Arrays.fill(messageStatus, MessageStatus.NOT_RECEIVED);
+		Arrays.fill(dist, (short) 0);
+		Arrays.fill(parent, (short) 0);
+		Arrays.fill(settledParent, (short) 0);
+		dirty.clear();
+		bestFinal = -1;
+		
+		BitRows.clear(timedOut);
+		anyTimedOut = false;
+		proofKnown = false;
+		proofFound = false;
+	}
+	
 	/**
 	 * 
 	 */
@@ -67,6 +173,14 @@ final class TransitionFinder {
 		
 		if (part.noReceiveHandlers[messageId] == EndNode.NO_RECEIVE) {
 			messageStatus[messageId] = MessageStatus.TIMEOUT;
+			BitRows.set(timedOut, messageId);
+			anyTimedOut = true;
+			
+			// The proof is broken if it went through the message:
+			if (proofKnown && BitRows.get(proof, messageId)) {
+				proofKnown = false;
+			}
+			
 			return null;
 		} else {
 			messageStatus[messageId] = MessageStatus.TIMEOUT_OPT;
@@ -80,261 +194,226 @@ final class TransitionFinder {
 	
 	/**
 	 * Looks for a transition in the message DAG, given that the given message
-	 * arrived.
+	 * arrived. The transition chosen is the longest chain of messages from an
+	 * initial message to a final one. It is only taken if no longer chain can
+	 * still be formed by messages yet to arrive.
 	 * 
-	 * @param initials
-	 *            the BitSet of initial messages.
 	 * @param messageId
 	 *            the id of the message.
 	 * @return the next active Node to be executed if it exists, else null.
 	 */
 	private Transition lookForTransition(short messageId) {
-		// If a final was not yet found, there is no use finding a transition:
-		if (!foundFinal) {
-			if (initials.get(messageId)) {
-				// Initial are trivially explored:
-				foundFinal = searchForFinal(messageId);
-			} else {
-				// Check if message connects to previously explored:
-				for (short previous : part.nextMessagesReverse[messageId]) {
-					if (explored.get(previous) && searchForFinal(messageId)) {
-						// If connects, do search for a final message:
-						if (foundFinal = searchForFinal(messageId)) {
-							break;
-						}
-					}
-				}
-			}
-		}
+		extend(messageId);
 		
-		// If needed, try again:
-		if (foundFinal) {
-			Transition transition = longestPath();
-			
-			// Still need to see if a better solution is possible:
-			if (isSubPath(transition.messagePath)) {
-				return null;
-			} else {
-				return transition;
-			}
-		} else { // We will have to wait more...
+		// If a final was not yet found, there is no use finding a transition:
+		if (bestFinal == -1) {
 			return null;
 		}
-	}
-	
-	/**
-	 * Does a search for a final message in the incoming message graph that is
-	 * connected to the message id provided. The connection has to be done
-	 * through messages that arrived but were not confirmed yet.
-	 * 
-	 * @param messageId
-	 *            the id of the beginning of the search.
-	 * @return the next action in the execution path if it was found; null
-	 *         otherwise.
-	 */
-	private boolean searchForFinal(short messageId) {
-		
-		// Search variables initialization:
-		Queue<Short> queue =  new ArrayDeque<Short>();
-		queue.add(messageId);
 		
-		// Depth first search:
-		while (!queue.isEmpty()) {
-			// Dequeue:
-			short current = queue.remove();
-			explored.set(current);
-			
-			// Analyze:
-			if (part.nextActions[current] instanceof Node) {
-				// Found a final message
-				return true;
-			} else {
-				for (short next : (short[]) part.nextActions[current]) {
-					// Only put those messages that arrived or timed out in the
-					// right conditions:
-					if (messageStatus[next] == MessageStatus.RECEIVED
-							|| (messageStatus[next] ==
-									MessageStatus.TIMEOUT_OPT)) {
-						queue.add(next);
-					}
-				}
-			}
-		}
-		
-		// End of the search. Nothing here.
-		return false;
-	}
-	
-	private Transition longestPath() {
-		List<Short> path = new ArrayList<Short>();
-		List<Short> finalsList = new ArrayList<Short>();
-		short[] dist = new short[part.inMessageIds.size()];
-		short[] parent = new short[part.inMessageIds.size()];
-		
-		// Longest path in DAG:
-		for (short v : part.topSort) {
-			if (messageStatus[v] == MessageStatus.RECEIVED
-					|| (messageStatus[v] ==
-							MessageStatus.TIMEOUT_OPT)) {
-				
-				for (short u : part.nextMessagesReverse[v]) {
-					if (dist[v] < dist[u] + 1) {
-						dist[v] = (short) (dist[u] + 1);
-						parent[v] = (short) (u + 1);
-					}
+		// Still need to see if a better solution is possible:
+		for (short v = bestFinal; parent[v] != 0; v = (short) (parent[v] - 1)) {
+			if (settledParent[v] != parent[v]) {
+				if (findBackup((short) (parent[v] - 1), v)) {
+					return null;
 				}
 				
-				// If it is final, add to final list:
-				if (part.nextActions[v] instanceof Node) {
-					finalsList.add(v);
-				}
+				settledParent[v] = parent[v];
 			}
 		}
 		
-		// Find farthest final message:
-		Short finalId = null;
-		short d = -1;
+		// Backtrack:
+		int length = 0;
 		
-		for (short msgId : finalsList) {
-			if (d < dist[msgId]) {
-				finalId = msgId;
-			}
+		for (short id = bestFinal; id != -1; id = (short) (parent[id] - 1)) {
+			transition.messagePath[length++] = id;
 		}
 		
-		// Backtrack:
-		for (short id = finalId; id != -1; id = (short) (parent[id] - 1)) {
-			path.add(id);
-		}
+		transition.length = length;
+		transition.nextNode = (Node) part.nextActions[bestFinal];
 		
-		return new Transition(path, (Node) part.nextActions[finalId]);
+		return transition;
 	}
 	
 	/**
+	 * Updates the longest chains, given that a message has just arrived (or
+	 * optionally timed out). Only the chains going through the message are
+	 * looked at, walking forward in topological order.
 	 * 
-	 * @param path
-	 * @return
+	 * @param messageId
+	 *            the id of the message.
 	 */
-	private boolean isSubPath(List<Short> path) {
-		if (path.size() == 1) {
-			// Only message is final.
-			return false;
+	private void extend(short messageId) {
+		// Initials start chains of their own:
+		short length = (short) (initials.get(messageId) ? 1 : 0);
+		short from = 0;
+		
+		// Otherwise, continue the longest chain around:
+		for (short u : part.nextMessagesReverse[messageId]) {
+			if (dist[u] > 0 && dist[u] + 1 > length) {
+				length = (short) (dist[u] + 1);
+				from = (short) (u + 1);
+			}
+		}
+		
+		if (length <= dist[messageId]) {
+			return;
 		}
 		
-		short v = path.get(0);
+		dist[messageId] = length;
+		parent[messageId] = from;
+		dirty.set(order[messageId]);
 		
-		for(int i = 1; i < path.size(); i++) {
-			short u = path.get(i);
+		// Successors always come later in topological order:
+		for (int position = dirty.nextSetBit(order[messageId]); position >= 0;
+				position = dirty.nextSetBit(position + 1)) {
+			dirty.clear(position);
+			short v = part.topSort[position];
 			
-			// We have got an edge (u, v) in the DAG.
-			if (findBackup(u, v)) {
-				return true;
+			if (part.nextActions[v] instanceof Node) {
+				// Found a final message:
+				if (bestFinal == -1 || dist[v] > dist[bestFinal]) {
+					bestFinal = v;
+				}
+			} else {
+				for (short w : (short[]) part.nextActions[v]) {
+					if ((messageStatus[w] == MessageStatus.RECEIVED
+							|| messageStatus[w] == MessageStatus.TIMEOUT_OPT)
+							&& dist[v] + 1 > dist[w]) {
+						dist[w] = (short) (dist[v] + 1);
+						parent[w] = (short) (v + 1);
+						dirty.set(order[w]);
+					}
+				}
 			}
-			
-			v = u;
 		}
-		
-		return false;
 	}
 	
 	/**
+	 * Looks for a backup path for the edge (u, v), that is, another path from
+	 * u to v through messages that may still arrive. If there is one, a longer
+	 * chain might still be formed and the edge cannot be taken for now. Only
+	 * messages both reachable from u and reaching v can be part of the path,
+	 * so, while nothing has timed out, any such message is a backup path.
+	 * Otherwise, the search spreads a whole row of messages at a time.
 	 * 
 	 * @param u
+	 *            the beginning of the edge.
 	 * @param v
-	 * @return
+	 *            the end of the edge.
+	 * @return true if there is a backup path.
 	 */
 	private boolean findBackup(short u, short v) {
-		Queue<Short> queue = new ArrayDeque<Short>();
-		BitSet explored = new BitSet(part.inMessageIds.size());
+		long[] after = part.reachable[u];
+		long[] before = part.reaching[v];
+		boolean anyBetween = false, anyBlocked = false;
+		
+		for (int w = 0; w < allowed.length; w++) {
+			long between = after[w] & before[w];
+			allowed[w] = between & ~timedOut[w];
+			anyBetween |= between != 0;
+			anyBlocked |= (between & timedOut[w]) != 0;
+		}
+		
+		// Trivial cases (these will happen most of the time):
+		if (!anyBetween || !anyBlocked) {
+			return anyBetween;
+		}
+		
+		// Start right after u, leaving the edge itself out:
+		long[] last = part.predecessors[v];
+		boolean any = false;
 		
-		queue.add(u);
+		for (int w = 0; w < allowed.length; w++) {
+			frontier[w] = part.successors[u][w] & allowed[w];
+			reach[w] = frontier[w];
+			any |= frontier[w] != 0;
+		}
 		
-		while (!queue.isEmpty()) {
-			short current = queue.remove();
-			explored.set(current);
+		while (any) {
+			// Arrived at v?
+			if (BitRows.firstCommon(frontier, last) != -1) {
+				return true;
+			}
 			
-			if (current == v) {
-				return true;  
-			} else if (part.nextActions[current] instanceof short[]) {
-				for (short next : (short[]) part.nextActions[current]) {
-					if (messageStatus[next] != MessageStatus.TIMEOUT
-							&& (current != u || next != v)) {
-						queue.add(next);
-					}
+			// Spread the frontier:
+			BitRows.clear(next);
+			
+			for (int x = BitRows.nextSetBit(frontier, 0); x >= 0; x = BitRows
+					.nextSetBit(frontier, x + 1)) {
+				long[] successors = part.successors[x];
+				
+				for (int w = 0; w < next.length; w++) {
+					next[w] |= successors[w];
 				}
 			}
+			
+			any = false;
+			
+			for (int w = 0; w < next.length; w++) {
+				frontier[w] = next[w] & allowed[w] & ~reach[w];
+				reach[w] |= frontier[w];
+				any |= frontier[w] != 0;
+			}
 		}
 		
-		// TODO if the only path is made exclusively of TIMEOUT_OPT messages, it
-		// does not count as backup path.
-		
 		return false;
 	}
 	
 	/**
+	 * Establishes whether any messages can still be received, that is, whether
+	 * there is still a path of receivable messages from any of the initial
+	 * messages to a Node. This path, if it exists, serves as proof that it is
+	 * still reasonable to wait for new messages to arrive (instead of, say,
+	 * raising a {@link RxException}). The proof is only looked for again once
+	 * one of its messages times out.
 	 * 
-	 * @param messageId
-	 * @return
+	 * @return true if there is such a path.
 	 */
-	private boolean notBadTimeout(short messageId) {
-		return messageStatus[messageId] != MessageStatus.TIMEOUT;
-				// TODO solve this.
-				//&& (acceptExpired || messageStatus[messageId] != MessageStatus.TIMEOUT_OPT);
+	public boolean hasConnectivityProof() {
+		if (!proofKnown) {
+			proofFound = findConnectivityProof();
+			proofKnown = true;
+		}
+		
+		return proofFound;
 	}
 	
 	/**
-	 * Establishes whether any messages can still be received. This method looks
-	 * for a path from any of the initial messages provided and tries to find a
-	 * path of receivable messages to a Node. This path, if non-empty, serves as
-	 * proof that it is still reasonable to wait for new messages to arrive
-	 * (instead of, say, raising a {@link RxException}).
+	 * Looks for a path of receivable messages from an initial message to a
+	 * Node and stores it in {@link #proof}.
 	 * 
-	 * @param initials
-	 *            a BitSet with the positions to start the search from set.
-	 * @return a BitSet with the positions in the proof path set.
+	 * @return true if a path was found.
 	 */
-	public BitSet getConnectivityProof() {
-		
-		// Initializing search variables:
-		BitSet proof = new BitSet();
-		Queue<Short> queue = new ArrayDeque<Short>();
-		BitSet explored = new BitSet();
-		short[] parent = new short[part.inMessageIds.size()];
+	private boolean findConnectivityProof() {
+		BitRows.clear(reach);
+		BitRows.clear(proof);
 		
-		// Put initials in stack:
-		for (short i = 0; i < initials.length(); i++) {
-			if (initials.get(i) && notBadTimeout(i)) {
-				queue.add(i);
+		// Find all receivable messages reachable from the initials:
+		for (short v : part.topSort) {
+			if (anyTimedOut && BitRows.get(timedOut, v)) {
+				continue;
 			}
-		}
-		
-		// Depth first search:
-		while (!queue.isEmpty()) {
-			// Dequeue:
-			short current = queue.remove();
-			explored.set(current);
 			
-			// Analyze:
-			if (part.nextActions[current] instanceof Node) {
-				// Found a path!
-				for (short id = current; id != -1; id = (short) (parent[id] - 1)) {
-					proof.set(id);
-				}
-				
-				// Search done!
-				break;
-			} else {
-				// Put valid adjacencies in queue:
-				for (short next : (short[]) part.nextActions[current]) {
-					// Only put those messages that may arrive or have timed out
-					// correctly:
-					if (!explored.get(next) && notBadTimeout(next)) {
-						queue.add(next);
-						parent[next] = (short) (current + 1);
-					}
-				}
+			if (initials.get(v)
+					|| BitRows.firstCommon(part.predecessors[v], reach) != -1) {
+				BitRows.set(reach, v);
 			}
 		}
 		
-		return proof;
+		int current = BitRows.firstCommon(reach, part.finals);
+		
+		if (current == -1) {
+			return false;
+		}
+		
+		// Backtrack to an initial:
+		BitRows.set(proof, current);
+		
+		while (!initials.get(current)) {
+			current = BitRows.firstCommon(part.predecessors[current], reach);
+			BitRows.set(proof, current);
+		}
+		
+		return true;
 	}
 }
@@ -0,0 +1,166 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, that
+ * can be recorded from any number of threads without locking. Buckets are
+ * log-linear, as in HdrHistogram: each power of two is split in
+ * {@value #SUB_BUCKETS} equal buckets, so that any value is known to about 3%
+ * of itself, from one nanosecond up to centuries, in a few kilobytes.
+ * 
+ * <p>
+ * Reading while others record gives a picture that may be slightly out of
+ * step, but never wrong by more than the values being recorded meanwhile.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class Histogram {
+	
+	/**
+	 * The number of bits of each value that are kept.
+	 */
+	private static final int SUB_BITS = 6;
+	
+	/**
+	 * The number of buckets in each power of two.
+	 */
+	public static final int SUB_BUCKETS = 1 << (SUB_BITS - 1);
+	
+	/**
+	 * The number of buckets needed to cover all positive longs.
+	 */
+	private static final int NUMBER_OF_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS
+			+ 2 * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(
+			NUMBER_OF_BUCKETS);
+	private final LongAdder total = new LongAdder();
+	
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 * 
+	 * @param value
+	 *            the value.
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		
+		counts.incrementAndGet(bucketOf(value));
+		total.add(value);
+	}
+	
+	/**
+	 * Finds the bucket of a value. Values below 2^{@value #SUB_BITS} have a
+	 * bucket each; above that, only the {@value #SUB_BITS} highest bits of a
+	 * value count.
+	 */
+	private static int bucketOf(long value) {
+		int shift = 64 - SUB_BITS - Long.numberOfLeadingZeros(value);
+		
+		if (shift <= 0) {
+			return (int) value;
+		}
+		
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+	
+	/**
+	 * Gets the greatest value that falls in a bucket.
+	 */
+	private static long highestValueOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		
+		return ((mantissa + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Gets the number of values recorded.
+	 * 
+	 * @return the number of values.
+	 */
+	public long getCount() {
+		long count = 0;
+		
+		for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+			count += counts.get(bucket);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Gets the sum of all values recorded.
+	 * 
+	 * @return the sum.
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+	
+	/**
+	 * Gets the greatest value recorded, rounded up as values are by
+	 * {@link #getValueAtQuantile(double)}.
+	 * 
+	 * @return the greatest value, or 0 if none was recorded.
+	 */
+	public long getMax() {
+		for (int bucket = NUMBER_OF_BUCKETS - 1; bucket >= 0; bucket--) {
+			if (counts.get(bucket) != 0) {
+				return highestValueOf(bucket);
+			}
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Gets the mean of all values recorded.
+	 * 
+	 * @return the mean, or 0 if none was recorded.
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) getTotal() / count;
+	}
+	
+	/**
+	 * Gets a value below which a given fraction of the values recorded falls,
+	 * e.g., the median for 0.5. The value returned is the greatest of its
+	 * bucket, so it errs on the high side.
+	 * 
+	 * @param quantile
+	 *            the fraction of values, from 0 to 1.
+	 * @return the value, or 0 if none was recorded.
+	 */
+	public long getValueAtQuantile(double quantile) {
+		long[] snapshot = new long[NUMBER_OF_BUCKETS];
+		long count = 0;
+		
+		// Count what is there now, once and for all:
+		for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+			snapshot[bucket] = counts.get(bucket);
+			count += snapshot[bucket];
+		}
+		
+		long rank = Math.max(1, (long) Math.ceil(quantile * count));
+		
+		for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+			rank -= snapshot[bucket];
+			
+			if (rank <= 0) {
+				return highestValueOf(bucket);
+			}
+		}
+		
+		return 0;
+	}
+}
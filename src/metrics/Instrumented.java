@@ -0,0 +1,21 @@
+package metrics;
+
+/**
+ * Something that can tell how it is doing, as a set of metrics taken on
+ * demand.
+ * 
+ * @author tokahuke
+ *
+ * @see PrometheusEndpoint
+ * @see MetricsMBean
+ */
+public interface Instrumented {
+	
+	/**
+	 * Adds the current value of every metric to a snapshot.
+	 * 
+	 * @param snapshot
+	 *            the snapshot being taken.
+	 */
+	public void collect(Snapshot snapshot);
+}
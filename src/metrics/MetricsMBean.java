@@ -0,0 +1,167 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+
+/**
+ * Publishes the metrics of an {@link Instrumented} object as a read-only
+ * MBean, with one attribute of type double per sample. Attributes are named
+ * after the samples, labels included, e.g.
+ * <code>server_timeouts_total{message=response}</code>. Metrics are taken
+ * anew whenever attributes are read.
+ * 
+ * @author tokahuke
+ *
+ */
+public class MetricsMBean implements DynamicMBean {
+	
+	private final Instrumented source;
+	private final String description;
+	
+	/**
+	 * Creates a new MBean, not yet registered.
+	 * 
+	 * @param source
+	 *            the object whose metrics are published.
+	 * @param description
+	 *            what the object is.
+	 */
+	public MetricsMBean(Instrumented source, String description) {
+		this.source = source;
+		this.description = description;
+	}
+	
+	/**
+	 * Publishes the metrics of an object in the platform MBean server, under
+	 * the domain <code>dsl</code>.
+	 * 
+	 * @param source
+	 *            the object.
+	 * @param type
+	 *            the kind of object, e.g. "Server".
+	 * @param name
+	 *            the name of the object.
+	 * @return the name under which the MBean was registered, needed to
+	 *         unregister it.
+	 * @throws JMException
+	 *             if the MBean cannot be registered, e.g. because the name is
+	 *             taken.
+	 */
+	public static ObjectName register(Instrumented source, String type,
+			String name) throws JMException {
+		ObjectName objectName = new ObjectName("dsl:type=" + type + ",name="
+				+ ObjectName.quote(name));
+		
+		ManagementFactory.getPlatformMBeanServer().registerMBean(
+				new MetricsMBean(source, type + " " + name), objectName);
+		
+		return objectName;
+	}
+	
+	/**
+	 * Takes the metrics of the object, by attribute name.
+	 */
+	private Map<String, Double> sample() {
+		Snapshot snapshot = new Snapshot();
+		source.collect(snapshot);
+		
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		
+		for (Snapshot.Family family : snapshot.getFamilies()) {
+			for (Snapshot.Sample sample : family.getSamples()) {
+				values.put(attributeName(sample), sample.getValue());
+			}
+		}
+		
+		return values;
+	}
+	
+	private static String attributeName(Snapshot.Sample sample) {
+		String[] labels = sample.getLabels();
+		
+		if (labels.length == 0) {
+			return sample.getName();
+		}
+		
+		StringBuilder name = new StringBuilder(sample.getName()).append('{');
+		
+		for (int i = 0; i < labels.length; i += 2) {
+			name.append(i == 0 ? "" : ",").append(labels[i]).append('=')
+					.append(labels[i + 1]);
+		}
+		
+		return name.append('}').toString();
+	}
+	
+	@Override public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		Double value = sample().get(attribute);
+		
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		
+		return value;
+	}
+	
+	@Override public AttributeList getAttributes(String[] attributes) {
+		Map<String, Double> values = sample();
+		AttributeList list = new AttributeList();
+		
+		for (String attribute : attributes) {
+			Double value = values.get(attribute);
+			
+			if (value != null) {
+				list.add(new Attribute(attribute, value));
+			}
+		}
+		
+		return list;
+	}
+	
+	@Override public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes =
+				new ArrayList<MBeanAttributeInfo>();
+		Snapshot snapshot = new Snapshot();
+		source.collect(snapshot);
+		
+		for (Snapshot.Family family : snapshot.getFamilies()) {
+			for (Snapshot.Sample sample : family.getSamples()) {
+				attributes.add(new MBeanAttributeInfo(attributeName(sample),
+						"double", family.getHelp(), true, false, false));
+			}
+		}
+		
+		return new MBeanInfo(getClass().getName(), description,
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[0], null);
+	}
+	
+	@Override public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only.");
+	}
+	
+	@Override public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+	
+	@Override public Object invoke(String actionName, Object[] params,
+			String[] signature) {
+		throw new UnsupportedOperationException(actionName);
+	}
+}
@@ -0,0 +1,123 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A tiny HTTP server that answers <code>GET /metrics</code> with the metrics
+ * of the objects registered in it, in the text format of Prometheus. The
+ * metrics are taken at every scrape, in the thread of the HTTP server, and
+ * each object gets a <code>source</code> label with the name it was
+ * registered with.
+ * 
+ * @author tokahuke
+ *
+ */
+public class PrometheusEndpoint {
+	
+	private final HttpServer server;
+	
+	/**
+	 * The objects whose metrics are published, by name.
+	 */
+	private final Map<String, Instrumented> sources =
+			new ConcurrentSkipListMap<String, Instrumented>();
+	
+	/**
+	 * Creates a new endpoint and starts it.
+	 * 
+	 * @param port
+	 *            the port to listen on, or 0 for any free port.
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	public PrometheusEndpoint(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", this::handle);
+		server.start();
+	}
+	
+	/**
+	 * Publishes the metrics of an object, replacing any object registered
+	 * with the same name.
+	 * 
+	 * @param name
+	 *            the name of the object, given as the <code>source</code>
+	 *            label.
+	 * @param source
+	 *            the object.
+	 */
+	public void register(String name, Instrumented source) {
+		sources.put(name, source);
+	}
+	
+	/**
+	 * Stops publishing the metrics of an object.
+	 * 
+	 * @param name
+	 *            the name the object was registered with.
+	 */
+	public void unregister(String name) {
+		sources.remove(name);
+	}
+	
+	/**
+	 * Takes the metrics of all objects registered, as a scrape would.
+	 * 
+	 * @return the metrics, in the text format of Prometheus.
+	 */
+	public String scrape() {
+		Snapshot snapshot = new Snapshot();
+		
+		for (Map.Entry<String, Instrumented> entry : sources.entrySet()) {
+			snapshot.collect(entry.getValue(), "source", entry.getKey());
+		}
+		
+		return snapshot.toPrometheusText();
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			
+			byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+			
+			exchange.getResponseHeaders().set("Content-Type",
+					"text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Gets the port the endpoint listens on.
+	 * 
+	 * @return the port.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Stops the endpoint at once.
+	 */
+	public void stop() {
+		server.stop(0);
+	}
+}
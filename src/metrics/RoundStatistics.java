@@ -0,0 +1,127 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import communications.ExpiredRunException;
+
+
+/**
+ * How the rounds of a protocol went, as recorded by one or more actors: how
+ * long they took, how many failed and why, and how many messages arriving
+ * were spurious. Recording takes no locks, so all actors of a Server may
+ * share the same statistics.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class RoundStatistics implements Instrumented {
+	
+	/**
+	 * Prefixes the names of all metrics.
+	 */
+	private final String prefix;
+	
+	private final Histogram latencies = new Histogram();
+	private final LongAdder numberOfFailedRounds = new LongAdder();
+	private final LongAdder numberOfExpiredRounds = new LongAdder();
+	private final LongAdder numberOfSpuriousMessages = new LongAdder();
+	
+	/**
+	 * The number of rounds failed by the timeout of each message, by message
+	 * name.
+	 */
+	private final Map<String, LongAdder> timeouts =
+			new ConcurrentHashMap<String, LongAdder>();
+	
+	/**
+	 * Creates new, empty statistics.
+	 * 
+	 * @param prefix
+	 *            prefixes the names of all metrics, e.g. "server".
+	 */
+	public RoundStatistics(String prefix) {
+		this.prefix = prefix;
+	}
+	
+	/**
+	 * Records the end of a round.
+	 * 
+	 * @param nanos
+	 *            how long the round took, in nanoseconds.
+	 * @param failure
+	 *            why the round failed, or null if it ended well.
+	 */
+	public void recordRound(long nanos, Throwable failure) {
+		if (failure == null) {
+			latencies.record(nanos);
+		} else {
+			numberOfFailedRounds.increment();
+			
+			if (failure instanceof ExpiredRunException) {
+				numberOfExpiredRounds.increment();
+			}
+		}
+	}
+	
+	/**
+	 * Records a round failed because a message did not arrive in time.
+	 * 
+	 * @param messageName
+	 *            the name of the message.
+	 */
+	public void recordTimeout(String messageName) {
+		timeouts.computeIfAbsent(messageName, name -> new LongAdder())
+				.increment();
+	}
+	
+	/**
+	 * Records a message dropped as spurious, e.g. a repeated one or one from
+	 * the wrong address.
+	 */
+	public void recordSpuriousMessage() {
+		numberOfSpuriousMessages.increment();
+	}
+	
+	/**
+	 * Gets how long the rounds that ended well took, in nanoseconds.
+	 * 
+	 * @return the histogram of latencies.
+	 */
+	public Histogram getLatencies() {
+		return latencies;
+	}
+	
+	public long getNumberOfFailedRounds() {
+		return numberOfFailedRounds.sum();
+	}
+	
+	public long getNumberOfExpiredRounds() {
+		return numberOfExpiredRounds.sum();
+	}
+	
+	public long getNumberOfSpuriousMessages() {
+		return numberOfSpuriousMessages.sum();
+	}
+	
+	@Override public void collect(Snapshot snapshot) {
+		snapshot.summary(prefix + "_round_latency_seconds",
+				"Time taken by the rounds that ended well.", latencies, 1e-9);
+		snapshot.counter(prefix + "_rounds_total", "Rounds performed.",
+				latencies.getCount(), "outcome", "ended");
+		snapshot.counter(prefix + "_rounds_total", "Rounds performed.",
+				getNumberOfFailedRounds(), "outcome", "failed");
+		snapshot.counter(prefix + "_expired_rounds_total",
+				"Rounds that outlived the timeout of the protocol.",
+				getNumberOfExpiredRounds());
+		snapshot.counter(prefix + "_spurious_messages_total",
+				"Messages dropped as spurious.", getNumberOfSpuriousMessages());
+		
+		for (Map.Entry<String, LongAdder> entry : timeouts.entrySet()) {
+			snapshot.counter(prefix + "_timeouts_total",
+					"Rounds failed by the timeout of a message.", entry
+							.getValue().sum(), "message", entry.getKey());
+		}
+	}
+}
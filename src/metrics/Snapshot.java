@@ -0,0 +1,297 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The values of a set of metrics at some point in time, as gathered from one
+ * or more {@link Instrumented} objects. Metrics are named and typed after the
+ * Prometheus conventions: counters end in <code>_total</code>, times are in
+ * seconds and summaries give a few quantiles of a {@link Histogram}.
+ * 
+ * <p>
+ * Samples of the same metric are kept together, whatever the order in which
+ * they were added.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class Snapshot {
+	
+	// Internal classes:
+	
+	/**
+	 * A metric and all samples of it.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public static final class Family {
+		private final String name;
+		private final String help;
+		private final String type;
+		private final List<Sample> samples = new ArrayList<Sample>();
+		
+		private Family(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public String getHelp() {
+			return help;
+		}
+		
+		/**
+		 * Gets the type of the metric: counter, gauge or summary.
+		 * 
+		 * @return the type.
+		 */
+		public String getType() {
+			return type;
+		}
+		
+		public List<Sample> getSamples() {
+			return samples;
+		}
+	}
+	
+	/**
+	 * A value of a metric, with the labels that tell it apart from other
+	 * values of the same metric.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public static final class Sample {
+		private final String name;
+		private final String[] labels;
+		private final double value;
+		
+		private Sample(String name, String[] labels, double value) {
+			this.name = name;
+			this.labels = labels;
+			this.value = value;
+		}
+		
+		/**
+		 * Gets the name of the sample, which is the name of the metric
+		 * possibly followed by a suffix, such as <code>_count</code>.
+		 * 
+		 * @return the name.
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Gets the labels of the sample, as names followed by values.
+		 * 
+		 * @return the labels.
+		 */
+		public String[] getLabels() {
+			return labels;
+		}
+		
+		public double getValue() {
+			return value;
+		}
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * The quantiles given by summaries.
+	 */
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+	
+	/**
+	 * Labels added to all samples from now on.
+	 */
+	private String[] commonLabels = new String[0];
+	
+	private final Map<String, Family> families =
+			new LinkedHashMap<String, Family>();
+	
+	
+	// Taking the snapshot:
+	
+	/**
+	 * Takes the metrics of an object, adding a label to all of them.
+	 * 
+	 * @param source
+	 *            the object.
+	 * @param labelName
+	 *            the name of the label, e.g. "source".
+	 * @param labelValue
+	 *            the value of the label.
+	 */
+	public void collect(Instrumented source, String labelName,
+			String labelValue) {
+		String[] previous = commonLabels;
+		commonLabels = concat(previous, labelName, labelValue);
+		
+		try {
+			source.collect(this);
+		} finally {
+			commonLabels = previous;
+		}
+	}
+	
+	/**
+	 * Adds a value to a counter, i.e. something that only goes up.
+	 * 
+	 * @param name
+	 *            the name of the metric, ending in <code>_total</code>.
+	 * @param help
+	 *            what the metric means.
+	 * @param value
+	 *            the value.
+	 * @param labels
+	 *            the labels, as names followed by values.
+	 */
+	public void counter(String name, String help, double value,
+			String... labels) {
+		add(family(name, help, "counter"), name, value, labels);
+	}
+	
+	/**
+	 * Adds a value to a gauge, i.e. something that goes up and down.
+	 * 
+	 * @param name
+	 *            the name of the metric.
+	 * @param help
+	 *            what the metric means.
+	 * @param value
+	 *            the value.
+	 * @param labels
+	 *            the labels, as names followed by values.
+	 */
+	public void gauge(String name, String help, double value,
+			String... labels) {
+		add(family(name, help, "gauge"), name, value, labels);
+	}
+	
+	/**
+	 * Adds a summary of a histogram: a few quantiles, the sum and the count.
+	 * 
+	 * @param name
+	 *            the name of the metric.
+	 * @param help
+	 *            what the metric means.
+	 * @param histogram
+	 *            the histogram.
+	 * @param unit
+	 *            the value of each unit of the histogram in the unit of the
+	 *            metric, e.g. 1e-9 for nanoseconds in seconds.
+	 * @param labels
+	 *            the labels, as names followed by values.
+	 */
+	public void summary(String name, String help, Histogram histogram,
+			double unit, String... labels) {
+		Family family = family(name, help, "summary");
+		
+		for (double quantile : QUANTILES) {
+			add(family, name, histogram.getValueAtQuantile(quantile) * unit,
+					concat(labels, "quantile", Double.toString(quantile)));
+		}
+		
+		add(family, name + "_sum", histogram.getTotal() * unit, labels);
+		add(family, name + "_count", histogram.getCount(), labels);
+	}
+	
+	private Family family(String name, String help, String type) {
+		Family family = families.get(name);
+		
+		if (family == null) {
+			family = new Family(name, help, type);
+			families.put(name, family);
+		}
+		
+		return family;
+	}
+	
+	private void add(Family family, String name, double value,
+			String[] labels) {
+		String[] allLabels = commonLabels.length == 0 ? labels : concat(
+				commonLabels, labels);
+		family.samples.add(new Sample(name, allLabels, value));
+	}
+	
+	private static String[] concat(String[] first, String... second) {
+		String[] all = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, all, first.length, second.length);
+		
+		return all;
+	}
+	
+	
+	// Reading it:
+	
+	/**
+	 * Gets all metrics in the snapshot, in the order they first appeared.
+	 * 
+	 * @return the metrics.
+	 */
+	public Iterable<Family> getFamilies() {
+		return families.values();
+	}
+	
+	/**
+	 * Writes the snapshot in the text format of Prometheus, version 0.0.4.
+	 * 
+	 * @return the text.
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		
+		for (Family family : families.values()) {
+			text.append("# HELP ").append(family.name).append(' ')
+					.append(family.help.replace("\\", "\\\\")
+							.replace("\n", "\\n")).append('\n');
+			text.append("# TYPE ").append(family.name).append(' ')
+					.append(family.type).append('\n');
+			
+			for (Sample sample : family.samples) {
+				text.append(sample.name);
+				
+				if (sample.labels.length > 0) {
+					text.append('{');
+					
+					for (int i = 0; i < sample.labels.length; i += 2) {
+						text.append(i == 0 ? "" : ",")
+								.append(sample.labels[i])
+								.append("=\"")
+								.append(sample.labels[i + 1]
+										.replace("\\", "\\\\")
+										.replace("\"", "\\\"")
+										.replace("\n", "\\n")).append('"');
+					}
+					
+					text.append('}');
+				}
+				
+				text.append(' ').append(format(sample.value)).append('\n');
+			}
+		}
+		
+		return text.toString();
+	}
+	
+	private static String format(double value) {
+		if (value == (long) value) {
+			return Long.toString((long) value);
+		}
+		
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,328 @@
+package protocols;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.TxException;
+import communications.util.DispatchingResource;
+
+
+/**
+ * A variant of {@link ThreadProtocol} that hands messages over without locks.
+ * Each resource has a bounded ring buffer as inbox, written by any number of
+ * senders and read by the listener thread of the resource alone, or delivers
+ * messages straight on the thread of the sender, with no inbox at all and no
+ * listener thread.
+ * 
+ * @author tokahuke
+ *
+ */
+public class DirectThreadProtocol<P> extends DispatchingResource<P> {
+	
+	// Internal classes:
+	
+	/**
+	 * How messages reach the receive events of a resource.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public enum Delivery {
+		/**
+		 * Senders put messages in the inbox of the resource, from which its
+		 * listener thread dispatches them. Senders wait while the inbox is
+		 * full.
+		 */
+		QUEUED,
+		
+		/**
+		 * Senders dispatch messages themselves, so there is no inbox and no
+		 * listener thread. A receive event that blocks blocks the sender, so
+		 * this is only safe for receive events that hand messages over.
+		 */
+		SYNCHRONOUS
+	}
+	
+	/**
+	 * A bounded ring buffer for many producers and a single consumer. A
+	 * producer claims a slot by a compare-and-set on the tail and publishes
+	 * its element by storing it there; the consumer takes elements in order
+	 * and gives the slot back by emptying it.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private static final class Ring<E> {
+		private final AtomicReferenceArray<E> slots;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();
+		private final AtomicLong head = new AtomicLong();
+		
+		/**
+		 * The consumer, while it is parked.
+		 */
+		private volatile Thread waiting;
+		
+		public Ring(int capacity) {
+			this.slots = new AtomicReferenceArray<E>(capacity);
+			this.mask = capacity - 1;
+		}
+		
+		/**
+		 * Puts an element, waiting for room if needed.
+		 * 
+		 * @throws InterruptedException
+		 *             if interrupted while waiting.
+		 */
+		public void put(E element) throws InterruptedException {
+			long claimed;
+			
+			for (int idle = 0; /* */; idle++) {
+				claimed = tail.get();
+				
+				if (claimed - head.get() > mask) {
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+					
+					idle(idle); // Full.
+				} else if (tail.compareAndSet(claimed, claimed + 1)) {
+					break;
+				}
+			}
+			
+			slots.set((int) claimed & mask, element);
+			
+			// The store above and the read below are both volatile, so either
+			// this sees the consumer waiting or the consumer sees the element:
+			Thread consumer = waiting;
+			
+			if (consumer != null) {
+				LockSupport.unpark(consumer);
+			}
+		}
+		
+		/**
+		 * Takes the next element, waiting for one if needed. Only called by
+		 * the consumer.
+		 * 
+		 * @throws InterruptedException
+		 *             if interrupted while waiting.
+		 */
+		public E take() throws InterruptedException {
+			int index = (int) head.get() & mask;
+			
+			for (int idle = 0; /* */; idle++) {
+				E element = slots.get(index);
+				
+				if (element != null) {
+					slots.lazySet(index, null);
+					head.lazySet(head.get() + 1);
+					return element;
+				} else if (Thread.interrupted()) {
+					throw new InterruptedException();
+				} else if (idle < SPINS) {
+					SpinHint.spin();
+				} else {
+					waiting = Thread.currentThread();
+					
+					if (slots.get(index) == null) {
+						LockSupport.park(this);
+					}
+					
+					waiting = null;
+				}
+			}
+		}
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * The capacity of inboxes when none is given.
+	 */
+	private static final int DEFAULT_CAPACITY = 1024;
+	
+	/**
+	 * How long to spin for a message before parking. Spinning on a single
+	 * processor only delays whoever would send it.
+	 */
+	private static final int SPINS = Runtime.getRuntime()
+			.availableProcessors() > 1 ? 1_000 : 0;
+	
+	/**
+	 * The map between addresses and resources. This simulates the network.
+	 */
+	private final Map<String, DirectThreadProtocol<P>> peers;
+	
+	/**
+	 * The address of the host.
+	 */
+	private final String me;
+	
+	private final Delivery delivery;
+	
+	/**
+	 * The incoming messages, or null for synchronous delivery.
+	 */
+	private final Ring<FullMessage<P>> inbox;
+	
+	/**
+	 * The thread that dispatches the messages of the inbox, or null for
+	 * synchronous delivery.
+	 */
+	private final Thread listener;
+	
+	/**
+	 * Number of messages sent on this interface.
+	 */
+	private final LongAdder numberOfTxMessages = new LongAdder();
+	
+	/**
+	 * Number of messages received on this interface.
+	 */
+	private final LongAdder numberOfRxMessages = new LongAdder();
+	
+	
+	// Constructors:
+	
+	/**
+	 * Creates a new resource for a certain address, with queued delivery.
+	 * 
+	 * @param peers
+	 *            the mapping between addresses and resources. It must be safe
+	 *            for concurrent use.
+	 * @param me
+	 *            the address to which the object created responds to (i.e.,
+	 *            the local address). It can be any String.
+	 */
+	public DirectThreadProtocol(Map<String, DirectThreadProtocol<P>> peers,
+			String me) {
+		this(peers, me, Delivery.QUEUED, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Creates a new resource for a certain address.
+	 * 
+	 * @param peers
+	 *            the mapping between addresses and resources. It must be safe
+	 *            for concurrent use.
+	 * @param me
+	 *            the address to which the object created responds to (i.e.,
+	 *            the local address). It can be any String.
+	 * @param delivery
+	 *            how messages are delivered.
+	 * @param capacity
+	 *            the size of the inbox, a power of two. Ignored for
+	 *            synchronous delivery.
+	 */
+	public DirectThreadProtocol(Map<String, DirectThreadProtocol<P>> peers,
+			String me, Delivery delivery, int capacity) {
+		this.peers = peers;
+		this.me = me;
+		this.delivery = delivery;
+		
+		if (delivery == Delivery.QUEUED) {
+			if (Integer.bitCount(capacity) != 1) {
+				throw new IllegalArgumentException("Bad capacity " + capacity
+						+ ".");
+			}
+			
+			this.inbox = new Ring<FullMessage<P>>(capacity);
+			this.listener = new Thread(this::listenMessages);
+		} else {
+			this.inbox = null;
+			this.listener = null;
+		}
+		
+		peers.put(me, this);
+		
+		if (listener != null) {
+			listener.start();
+		}
+	}
+	
+	public void disconnect() {
+		peers.remove(me, this);
+		
+		if (listener != null) {
+			listener.interrupt();
+		}
+	}
+	
+	
+	// Implementation of the CommunicationResource interface:
+	
+	@Override public void sendMessage(ShortMessage<P> msg, String to) {
+		DirectThreadProtocol<P> peer = peers.get(to);
+		
+		if (peer == null) {
+			throw new TxException(); // Panic on non existent addresses.
+		}
+		
+		numberOfTxMessages.increment();
+		
+		try {
+			peer.deliver(msg.lengthen(me));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override public String getLocalAddress() {
+		return me;
+	}
+	
+	public Delivery getDelivery() {
+		return delivery;
+	}
+	
+	public long getNumberOfRxMessages() {
+		return numberOfRxMessages.sum();
+	}
+	
+	public long getNumberOfTxMessages() {
+		return numberOfTxMessages.sum();
+	}
+	
+	
+	// Helpers:
+	
+	private void listenMessages() {
+		try {
+			while (true) {
+				dispatch(inbox.take());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void deliver(FullMessage<P> msg) throws InterruptedException {
+		numberOfRxMessages.increment();
+		
+		if (inbox == null) {
+			dispatch(msg);
+		} else {
+			inbox.put(msg);
+		}
+	}
+	
+	/**
+	 * Waits a little, longer the more times it was called in a row.
+	 */
+	private static void idle(int idle) {
+		if (idle < SPINS) {
+			SpinHint.spin();
+		} else {
+			LockSupport.parkNanos(Math.min(100_000L,
+					1_000L << Math.min(idle - SPINS, 10)));
+		}
+	}
+}
@@ -0,0 +1,532 @@
+package protocols;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.Vocabulary;
+
+
+/**
+ * The binary frame in which the transports in this package put messages on
+ * the wire. All numbers are big-endian. A frame begins with a fixed header:
+ * 
+ * <pre>
+ * version       u8   {@link #VERSION}
+ * flags         u8   {@link #WORD}, {@link #VOCABULARY} or zero
+ * run id        i64
+ * protocol      i16  reference to the protocol name
+ * name          i16  reference to the message name
+ * payload size  i32  in bytes, or -1 for a null payload
+ * </pre>
+ * 
+ * Messages whose names are in a {@link Vocabulary} are flagged {@link #WORD}
+ * on streams: the protocol is then the tag of the vocabulary and the name the
+ * number of the word. The first word of each vocabulary in a
+ * {@link Dictionary} is also flagged {@link #VOCABULARY}, and the vocabulary
+ * follows the header (the protocol name, the number of words as an u16 and
+ * their names, each string as below); other words have no strings. The
+ * receiver reads words by the vocabulary so defined, not by the Plays it
+ * happens to run. Otherwise, a reference is
+ * either the id of a string interned earlier in the same
+ * {@link Dictionary}, {@link #LITERAL} or {@link #DEFINE}. The latter two are
+ * followed, after the header and in the same order, by the string itself (its
+ * size as an u16 and its UTF-8 bytes); a defined string gets the next id of
+ * the dictionary. The payload, in UTF-8, comes last.
+ * 
+ * <p>
+ * Streams interning strings and words need one dictionary per direction of
+ * each connection. Transports that may lose or reorder frames, like UDP, must
+ * not intern at all, and their messages always go by name.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class Frame {
+	
+	/**
+	 * The version of the frame format.
+	 */
+	public static final byte VERSION = 3;
+	
+	/**
+	 * Flags a frame whose protocol and name are a word of a vocabulary.
+	 */
+	public static final byte WORD = 1;
+	
+	/**
+	 * Flags a word frame that defines its vocabulary.
+	 */
+	public static final byte VOCABULARY = 2;
+	
+	/**
+	 * The size of the fixed header.
+	 */
+	public static final int HEADER_SIZE = 18;
+	
+	/**
+	 * The largest payload accepted when decoding.
+	 */
+	public static final int MAX_PAYLOAD_SIZE = 16 << 20;
+	
+	/**
+	 * References a string that follows the header, not to be interned.
+	 */
+	static final short LITERAL = -1;
+	
+	/**
+	 * References a string that follows the header, to be interned.
+	 */
+	static final short DEFINE = -2;
+	
+	/**
+	 * The strings and vocabularies interned in one direction of a
+	 * connection. Encoding and decoding dictionaries are kept in step by the
+	 * order of the frames, so each end of the connection keeps its own.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	public static final class Dictionary {
+		private final Map<String, Short> ids = new HashMap<String, Short>();
+		private final List<String> strings = new ArrayList<String>();
+		private final Map<Short, Vocabulary> vocabularies =
+				new HashMap<Short, Vocabulary>();
+		
+		/**
+		 * Finds the reference to put on the wire for a string, interning it
+		 * if there is room.
+		 */
+		private short reference(String string) {
+			Short id = ids.get(string);
+			
+			if (id != null) {
+				return id;
+			} else if (strings.size() < Short.MAX_VALUE) {
+				ids.put(string, (short) strings.size());
+				strings.add(string);
+				return DEFINE;
+			} else {
+				return LITERAL;
+			}
+		}
+	}
+	
+	
+	// Encoding:
+	
+	/**
+	 * Gives an upper bound to the size of the frame of a message.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @return the number of bytes, at most, the frame takes.
+	 * @throws IllegalArgumentException
+	 *             if the protocol or the name of the message takes more than
+	 *             65535 bytes in UTF-8. Checking every message of a batch
+	 *             before encoding any keeps dictionaries in step.
+	 */
+	public static int maxSize(ShortMessage<String> msg) {
+		checkSize(msg.getProtocol());
+		checkSize(msg.getName());
+		
+		int chars = msg.getProtocol().length() + msg.getName().length()
+				+ (msg.getPayload() == null ? 0 : msg.getPayload().length());
+		int size = HEADER_SIZE + 2 * Short.BYTES + 3 * chars;
+		
+		// Room to define the vocabulary, in case this is its first word:
+		Vocabulary.Word word = findWord(msg);
+		
+		if (word != null) {
+			Vocabulary vocabulary = word.getVocabulary();
+			size += (vocabulary.size() + 2) * Short.BYTES + 3
+					* vocabulary.length();
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Puts a message in a buffer, which must have at least
+	 * {@link #maxSize(ShortMessage)} bytes remaining.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @param dictionary
+	 *            the dictionary of the connection, or null for not interning.
+	 * @param out
+	 *            the buffer.
+	 * @throws IllegalArgumentException
+	 *             if a string of the frame takes more than 65535 bytes in
+	 *             UTF-8. Nothing is written or interned then.
+	 */
+	public static void encode(ShortMessage<String> msg, Dictionary dictionary,
+			ByteBuffer out) {
+		checkSize(msg.getProtocol());
+		checkSize(msg.getName());
+		
+		Vocabulary.Word word = dictionary == null ? null : findWord(msg);
+		boolean isDefinition = false;
+		
+		// The first word of a vocabulary defines it; a tag already taken by
+		// another vocabulary here sends the message by name:
+		if (word != null) {
+			Vocabulary vocabulary = word.getVocabulary();
+			Vocabulary bound = dictionary.vocabularies.get(vocabulary
+					.getTag());
+			
+			if (bound == null) {
+				for (int i = 0; i < vocabulary.size(); i++) {
+					checkSize(vocabulary.getWord(i).getName());
+				}
+				
+				dictionary.vocabularies.put(vocabulary.getTag(), vocabulary);
+				isDefinition = true;
+			} else if (bound != vocabulary) {
+				word = null;
+			}
+		}
+		
+		short protocol, name;
+		
+		if (word != null) {
+			protocol = word.getVocabulary().getTag();
+			name = word.getId();
+		} else {
+			protocol = dictionary == null ? LITERAL : dictionary
+					.reference(msg.getProtocol());
+			name = dictionary == null ? LITERAL : dictionary
+					.reference(msg.getName());
+		}
+		
+		byte[] payload = msg.getPayload() == null ? null : msg.getPayload()
+				.getBytes(StandardCharsets.UTF_8);
+		
+		// Header:
+		out.put(VERSION);
+		out.put(word == null ? 0 : isDefinition ? WORD | VOCABULARY : WORD);
+		out.putLong(msg.getId());
+		out.putShort(protocol);
+		out.putShort(name);
+		out.putInt(payload == null ? -1 : payload.length);
+		
+		// Strings:
+		if (isDefinition) {
+			Vocabulary vocabulary = word.getVocabulary();
+			putString(out, vocabulary.getProtocol());
+			out.putShort((short) vocabulary.size());
+			
+			for (int i = 0; i < vocabulary.size(); i++) {
+				putString(out, vocabulary.getWord(i).getName());
+			}
+		}
+		
+		if (word == null && protocol < 0) {
+			putString(out, msg.getProtocol());
+		}
+		
+		if (word == null && name < 0) {
+			putString(out, msg.getName());
+		}
+		
+		if (payload != null) {
+			out.put(payload);
+		}
+	}
+	
+	/**
+	 * Puts a message in a new buffer, ready to be read.
+	 * 
+	 * @param msg
+	 *            the message.
+	 * @param dictionary
+	 *            the dictionary of the connection, or null for not interning.
+	 * @return the buffer.
+	 */
+	public static ByteBuffer encode(ShortMessage<String> msg,
+			Dictionary dictionary) {
+		ByteBuffer out = ByteBuffer.allocate(maxSize(msg));
+		encode(msg, dictionary, out);
+		out.flip();
+		
+		return out;
+	}
+	
+	/**
+	 * Finds the word a message may go as: its own or, failing that, the one
+	 * registered for its protocol and name.
+	 */
+	private static Vocabulary.Word findWord(ShortMessage<String> msg) {
+		Vocabulary.Word word = msg.getWord();
+		return word != null ? word : Vocabulary.lookUp(msg.getProtocol(),
+				msg.getName());
+	}
+	
+	/**
+	 * Makes sure a string fits in the u16 size it goes with.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if it does not.
+	 */
+	private static void checkSize(String string) {
+		// Only long strings may not fit:
+		if (string.length() > 0xFFFF / 3) {
+			int size = string.getBytes(StandardCharsets.UTF_8).length;
+			
+			if (size > 0xFFFF) {
+				throw new IllegalArgumentException(String.format(
+						"Name too long: %d bytes.", size));
+			}
+		}
+	}
+	
+	/**
+	 * Puts a string, which must have passed {@link #checkSize(String)}.
+	 */
+	private static void putString(ByteBuffer out, String string) {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+	
+	
+	// Decoding:
+	
+	/**
+	 * Takes a message from a buffer, if a whole frame is there. Otherwise,
+	 * nothing is taken.
+	 * 
+	 * @param in
+	 *            the buffer, ready to be read.
+	 * @param dictionary
+	 *            the dictionary of the connection, or null for not interning.
+	 * @param from
+	 *            the address the frame came from.
+	 * @return the message, or null if the frame is not complete yet.
+	 * @throws IllegalArgumentException
+	 *             if the frame is malformed. The buffer cannot be trusted any
+	 *             more.
+	 */
+	public static FullMessage<String> decode(ByteBuffer in,
+			Dictionary dictionary, String from) {
+		int start = in.position();
+		
+		if (in.remaining() < HEADER_SIZE) {
+			return null;
+		}
+		
+		// Header:
+		if (in.get(start) != VERSION) {
+			throw new IllegalArgumentException("Unknown frame version "
+					+ in.get(start) + ".");
+		}
+		
+		boolean isWord = (in.get(start + 1) & WORD) != 0;
+		boolean isDefinition = (in.get(start + 1) & VOCABULARY) != 0;
+		long id = in.getLong(start + 2);
+		short protocol = in.getShort(start + 10);
+		short name = in.getShort(start + 12);
+		int payloadSize = in.getInt(start + 14);
+		
+		if (payloadSize < -1 || payloadSize > MAX_PAYLOAD_SIZE) {
+			throw new IllegalArgumentException("Bad payload size "
+					+ payloadSize + ".");
+		}
+		
+		int position = start + HEADER_SIZE;
+		
+		// Words have no strings to wait for, unless they define their
+		// vocabulary:
+		if (isWord) {
+			if (dictionary == null) {
+				throw new IllegalArgumentException(
+						"Word sent without a dictionary.");
+			}
+			
+			if (isDefinition) {
+				position = define(in, position, protocol, payloadSize,
+						dictionary);
+				
+				if (position < 0) {
+					return null;
+				}
+			}
+			
+			Vocabulary vocabulary = dictionary.vocabularies.get(protocol);
+			Vocabulary.Word word = vocabulary == null ? null : vocabulary
+					.getWord(name);
+			
+			if (word == null) {
+				throw new IllegalArgumentException("Unknown word " + name
+						+ " of vocabulary " + protocol + ".");
+			}
+			
+			if (in.limit() < position + Math.max(payloadSize, 0)) {
+				return null;
+			}
+			
+			String payload = payloadSize == -1 ? null : getString(in,
+					position, payloadSize);
+			in.position(position + Math.max(payloadSize, 0));
+			
+			return new FullMessage<String>(id, word, from, payload);
+		}
+		
+		// Is the whole frame there?
+		int protocolAt = position;
+		
+		if (protocol < 0) {
+			if (in.limit() < position + Short.BYTES) {
+				return null;
+			}
+			
+			position += Short.BYTES + (in.getShort(position) & 0xFFFF);
+		}
+		
+		int nameAt = position;
+		
+		if (name < 0) {
+			if (in.limit() < position + Short.BYTES) {
+				return null;
+			}
+			
+			position += Short.BYTES + (in.getShort(position) & 0xFFFF);
+		}
+		
+		if (in.limit() < position + Math.max(payloadSize, 0)) {
+			return null;
+		}
+		
+		// Yes. Take it:
+		String protocolName = resolve(in, protocolAt, protocol, dictionary);
+		String messageName = resolve(in, nameAt, name, dictionary);
+		String payload = payloadSize == -1 ? null : getString(in, position,
+				payloadSize);
+		
+		in.position(position + Math.max(payloadSize, 0));
+		
+		return new FullMessage<String>(id, protocolName, messageName, from,
+				payload);
+	}
+	
+	/**
+	 * Interns the vocabulary defined at a position, if the whole frame is
+	 * there.
+	 * 
+	 * @return the position of the payload, or -1 if the frame is not complete
+	 *         yet.
+	 */
+	private static int define(ByteBuffer in, int at, short tag,
+			int payloadSize, Dictionary dictionary) {
+		// Is the whole frame there?
+		int position = skipString(in, at);
+		
+		if (position < 0 || in.limit() < position + Short.BYTES) {
+			return -1;
+		}
+		
+		int size = in.getShort(position) & 0xFFFF;
+		int namesAt = position + Short.BYTES;
+		position = namesAt;
+		
+		for (int i = 0; i < size && position >= 0; i++) {
+			position = skipString(in, position);
+		}
+		
+		if (position < 0 || in.limit() < position + Math.max(payloadSize, 0)) {
+			return -1;
+		}
+		
+		// Yes. Take the vocabulary:
+		String protocol = getString(in, at + Short.BYTES, in.getShort(at)
+				& 0xFFFF);
+		List<String> names = new ArrayList<String>(size);
+		
+		for (int nameAt = namesAt; names.size() < size;) {
+			int length = in.getShort(nameAt) & 0xFFFF;
+			names.add(getString(in, nameAt + Short.BYTES, length));
+			nameAt += Short.BYTES + length;
+		}
+		
+		Vocabulary vocabulary = Vocabulary.canonical(new Vocabulary(protocol,
+				names));
+		
+		if (vocabulary.getTag() != tag || vocabulary.size() != size) {
+			throw new IllegalArgumentException("Vocabulary " + vocabulary
+					+ " does not match tag " + tag + ".");
+		}
+		
+		dictionary.vocabularies.put(tag, vocabulary);
+		
+		return position;
+	}
+	
+	/**
+	 * Finds the string a reference stands for, interning it if it is defined
+	 * here.
+	 */
+	private static String resolve(ByteBuffer in, int at, short reference,
+			Dictionary dictionary) {
+		if (reference >= 0) {
+			if (dictionary == null || reference >= dictionary.strings.size()) {
+				throw new IllegalArgumentException("Unknown string reference "
+						+ reference + ".");
+			}
+			
+			return dictionary.strings.get(reference);
+		}
+		
+		String string = getString(in, at + Short.BYTES,
+				in.getShort(at) & 0xFFFF);
+		
+		if (reference == DEFINE) {
+			if (dictionary == null) {
+				throw new IllegalArgumentException(
+						"String defined without a dictionary.");
+			}
+			
+			dictionary.ids.put(string, (short) dictionary.strings.size());
+			dictionary.strings.add(string);
+		} else if (reference != LITERAL) {
+			throw new IllegalArgumentException("Bad string reference "
+					+ reference + ".");
+		}
+		
+		return string;
+	}
+	
+	/**
+	 * Finds where a string put at a position ends.
+	 * 
+	 * @return the position after the string, or -1 if it is not all there.
+	 */
+	private static int skipString(ByteBuffer in, int at) {
+		if (in.limit() < at + Short.BYTES) {
+			return -1;
+		}
+		
+		int end = at + Short.BYTES + (in.getShort(at) & 0xFFFF);
+		return in.limit() < end ? -1 : end;
+	}
+	
+	private static String getString(ByteBuffer in, int at, int size) {
+		if (in.hasArray()) {
+			return new String(in.array(), in.arrayOffset() + at, size,
+					StandardCharsets.UTF_8);
+		} else {
+			byte[] bytes = new byte[size];
+			ByteBuffer view = in.duplicate();
+			view.position(at);
+			view.get(bytes);
+			
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+	
+	private Frame() {}
+}
@@ -0,0 +1,490 @@
+package protocols;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import communications.FullMessage;
+import communications.ShortMessage;
+import communications.TxException;
+import communications.util.DispatchingResource;
+
+
+/**
+ * A TCP resource driven by selectors. A fixed number of I/O threads serves all
+ * connections, each thread with a selector of its own, and incoming messages
+ * are dispatched to the receive events straight from the I/O thread that read
+ * them. Since a receive event that blocks holds all the connections of its
+ * thread, receive events should hand messages over rather than process them.
+ * 
+ * <p>
+ * Messages are put in {@link Frame Frames}, as in {@link TCPCommunication}, so
+ * both resources can talk to each other.
+ * 
+ * @author tokahuke
+ *
+ */
+public class SelectorTCPCommunication extends
+		DispatchingResource<String> {
+	public static final String protocolName = TCPCommunication.protocolName;
+	
+	/**
+	 * The size in which connection buffers start.
+	 */
+	private static final int BUFFER_SIZE = 4096;
+	
+	/**
+	 * A TCP connection, either accepted or opened by the resource.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private final class Connection {
+		private final SocketChannel channel;
+		private final String address;
+		private final IOLoop loop;
+		private SelectionKey key;
+		
+		/**
+		 * The bytes read but not yet dispatched. Only touched by the I/O
+		 * thread.
+		 */
+		private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		
+		/**
+		 * The bytes yet to be written, in write mode. Guarded by the
+		 * connection itself, as any thread may send.
+		 */
+		private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+		
+		/**
+		 * The strings interned in the frames sent. Guarded by the connection.
+		 */
+		private final Frame.Dictionary sent = new Frame.Dictionary();
+		
+		/**
+		 * The strings interned in the frames received. Only touched by the I/O
+		 * thread.
+		 */
+		private final Frame.Dictionary received = new Frame.Dictionary();
+		
+		/**
+		 * Whether the channel is connected. Guarded by the connection.
+		 */
+		private boolean connected;
+		
+		/**
+		 * Whether the I/O thread is waiting to write. Guarded by the
+		 * connection.
+		 */
+		private boolean writing;
+		
+		public Connection(SocketChannel channel, String address,
+				boolean connected) {
+			this.channel = channel;
+			this.address = address;
+			this.connected = connected;
+			this.loop = loops[Math.floorMod(nextLoop.getAndIncrement(),
+					loops.length)];
+		}
+		
+		/**
+		 * Queues messages for writing, in order, writing right away what the
+		 * channel takes. All of them are encoded before the first write, so
+		 * a batch goes out in as few writes as the channel allows.
+		 * 
+		 * @throws IOException
+		 *             if the channel fails.
+		 */
+		public synchronized void write(List<ShortMessage<String>> msgs)
+				throws IOException {
+			int size = 0;
+			
+			for (ShortMessage<String> msg : msgs) {
+				size += Frame.maxSize(msg);
+			}
+			
+			if (out.remaining() < size) {
+				out = grow(out, out.position() + size);
+			}
+			
+			for (ShortMessage<String> msg : msgs) {
+				Frame.encode(msg, sent, out);
+			}
+			
+			if (connected && !writing) {
+				flush();
+				
+				if (out.position() > 0) {
+					writing = true;
+					loop.execute(() -> {
+						if (key.isValid()) {
+							key.interestOps(SelectionKey.OP_READ
+									| SelectionKey.OP_WRITE);
+						}
+					});
+				}
+			}
+		}
+		
+		/**
+		 * Writes what the channel takes of the queued bytes.
+		 */
+		private void flush() throws IOException {
+			out.flip();
+			channel.write(out);
+			out.compact();
+		}
+		
+		
+		// These are only called by the I/O thread:
+		
+		public synchronized void onConnectable() throws IOException {
+			channel.finishConnect();
+			connected = true;
+			writing = out.position() > 0;
+			key.interestOps(writing ? SelectionKey.OP_READ
+					| SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+		
+		public synchronized void onWritable() throws IOException {
+			flush();
+			
+			if (out.position() == 0) {
+				writing = false;
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+		
+		public void onReadable() throws IOException, InterruptedException {
+			if (channel.read(in) == -1) {
+				close();
+				return;
+			}
+			
+			// Dispatch every complete frame and keep the rest for later:
+			in.flip();
+			
+			try {
+				for (FullMessage<String> message; (message = Frame.decode(in,
+						received, address)) != null; /* */) {
+					dispatch(message);
+				}
+			} finally {
+				in.compact();
+			}
+			
+			if (!in.hasRemaining()) {
+				in = grow(in, 2 * in.capacity());
+			}
+		}
+		
+		public void close() {
+			connections.remove(address, this);
+			
+			if (key != null) {
+				key.cancel();
+			}
+			
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing to do: it is gone either way.
+			}
+		}
+	}
+	
+	/**
+	 * An I/O thread and its selector.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private final class IOLoop implements Runnable {
+		private final Selector selector;
+		
+		/**
+		 * Work other threads ask this thread to do, such as registering
+		 * channels or changing interests, which is only safe to do here.
+		 */
+		private final Queue<Runnable> tasks =
+				new ConcurrentLinkedQueue<Runnable>();
+		
+		private final Thread thread;
+		
+		public IOLoop(int index) throws IOException {
+			this.selector = Selector.open();
+			this.thread = new Thread(this, "tcp-selector-" + index);
+		}
+		
+		public void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+		
+		/**
+		 * Registers a connection with this thread.
+		 */
+		public void register(Connection connection) {
+			execute(() -> {
+				try {
+					connection.key = connection.channel.register(selector,
+							connection.connected ? SelectionKey.OP_READ
+									: SelectionKey.OP_CONNECT, connection);
+				} catch (IOException e) {
+					connection.close();
+				}
+			});
+		}
+		
+		@Override public void run() {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					selector.select();
+					
+					for (Runnable task; (task = tasks.poll()) != null; /* */) {
+						try {
+							task.run();
+						} catch (RuntimeException e) {
+							e.printStackTrace(); // Only this task failed.
+						}
+					}
+					
+					Iterator<SelectionKey> keys = selector.selectedKeys()
+							.iterator();
+					
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						handle(key);
+					}
+				}
+			} catch (InterruptedException | ClosedSelectorException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof Connection) {
+						((Connection) key.attachment()).close();
+					}
+				}
+				
+				try {
+					selector.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		private void handle(SelectionKey key) throws InterruptedException {
+			if (!key.isValid()) {
+				return;
+			}
+			
+			if (key.attachment() == null) {
+				accept();
+				return;
+			}
+			
+			Connection connection = (Connection) key.attachment();
+			
+			try {
+				if (key.isConnectable()) {
+					connection.onConnectable();
+				}
+				
+				if (key.isValid() && key.isWritable()) {
+					connection.onWritable();
+				}
+				
+				if (key.isValid() && key.isReadable()) {
+					connection.onReadable();
+				}
+			} catch (IOException | CancelledKeyException
+					| IllegalArgumentException e) {
+				connection.close(); // Failed, malformed or closed by a sender.
+			} catch (RuntimeException e) {
+				// A receive event failed. Only its connection pays for it:
+				e.printStackTrace();
+				connection.close();
+			}
+		}
+	}
+	
+	
+	// Fields:
+	
+	private final ServerSocketChannel serverChannel;
+	
+	private final IOLoop[] loops;
+	
+	/**
+	 * Spreads connections over the I/O threads.
+	 */
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	
+	/**
+	 * The open connections by remote address.
+	 */
+	private final Map<String, Connection> connections =
+			new ConcurrentHashMap<String, Connection>();
+	
+	
+	// Constructors:
+	
+	/**
+	 * Listens on a port with a single I/O thread.
+	 * 
+	 * @param port
+	 *            the port, or 0 for any free port.
+	 * @throws IOException
+	 *             if the port cannot be opened.
+	 */
+	public SelectorTCPCommunication(int port) throws IOException {
+		this(port, 1);
+	}
+	
+	/**
+	 * Listens on a port.
+	 * 
+	 * @param port
+	 *            the port, or 0 for any free port.
+	 * @param ioThreads
+	 *            the number of I/O threads.
+	 * @throws IOException
+	 *             if the port cannot be opened.
+	 */
+	public SelectorTCPCommunication(int port, int ioThreads)
+			throws IOException {
+		this.loops = new IOLoop[ioThreads];
+		
+		for (int i = 0; i < ioThreads; i++) {
+			loops[i] = new IOLoop(i);
+		}
+		
+		// The first thread accepts as well:
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		
+		for (IOLoop loop : loops) {
+			loop.thread.start();
+		}
+	}
+	
+	public void disconnect() {
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		for (IOLoop loop : loops) {
+			loop.thread.interrupt();
+			loop.selector.wakeup();
+		}
+	}
+	
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+	
+	@Override public void sendMessage(ShortMessage<String> msg, String to) {
+		sendMessages(Collections.singletonList(msg), to);
+	}
+	
+	@Override public void sendMessages(List<ShortMessage<String>> msgs,
+			String to) {
+		Connection connection = connections.computeIfAbsent(to, this::connect);
+		
+		try {
+			connection.write(msgs);
+		} catch (IOException e) {
+			connection.close();
+			throw new TxException(e);
+		}
+	}
+	
+	
+	// Helpers:
+	
+	/**
+	 * Accepts all pending connections.
+	 */
+	private void accept() {
+		try {
+			for (SocketChannel channel; (channel = serverChannel.accept()) != null; /* */) {
+				InetSocketAddress remote = (InetSocketAddress) channel
+						.getRemoteAddress();
+				String address = remote.getAddress().getHostAddress() + ":"
+						+ remote.getPort();
+				
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				
+				// Register first, so that sends find the key set up:
+				Connection connection = new Connection(channel, address, true);
+				connection.loop.register(connection);
+				connections.put(address, connection);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Opens a connection to an address, without waiting for it to be
+	 * established.
+	 * 
+	 * @param to
+	 *            the address, as <code>host:port</code>.
+	 * @return the connection.
+	 * @throws TxException
+	 *             if the address is invalid or no channel can be opened.
+	 */
+	private Connection connect(String to) {
+		String[] addressSplit = to.split(":");
+		
+		try {
+			SocketChannel channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			
+			boolean connected = channel.connect(new InetSocketAddress(
+					addressSplit[0], Integer.parseInt(addressSplit[1])));
+			
+			Connection connection = new Connection(channel, to, connected);
+			connection.loop.register(connection);
+			
+			return connection;
+		} catch (IOException | RuntimeException e) {
+			throw new TxException(e);
+		}
+	}
+	
+	private static ByteBuffer grow(ByteBuffer buffer, int minimum) {
+		ByteBuffer grown = ByteBuffer.allocate(Math.max(minimum,
+				2 * buffer.capacity()));
+		buffer.flip();
+		grown.put(buffer);
+		
+		return grown;
+	}
+}
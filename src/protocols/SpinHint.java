@@ -0,0 +1,46 @@
+package protocols;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+/**
+ * Tells the processor that the calling thread is spinning, where the
+ * platform knows how to (Thread.onSpinWait, from Java 9 on). On Java 8, a
+ * spin is just a busy spin.
+ * 
+ * @author tokahuke
+ *
+ */
+final class SpinHint {
+	
+	/**
+	 * Thread.onSpinWait, or null if there is no such method.
+	 */
+	private static final MethodHandle ON_SPIN_WAIT = lookUp();
+	
+	private SpinHint() {}
+	
+	/**
+	 * Spins once.
+	 */
+	static void spin() {
+		if (ON_SPIN_WAIT != null) {
+			try {
+				ON_SPIN_WAIT.invokeExact();
+			} catch (Throwable e) {
+				// Cannot happen: the method throws nothing.
+			}
+		}
+	}
+	
+	private static MethodHandle lookUp() {
+		try {
+			return MethodHandles.lookup().findStatic(Thread.class,
+					"onSpinWait", MethodType.methodType(void.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null; // Java 8.
+		}
+	}
+}
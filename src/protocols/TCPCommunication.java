@@ -1,12 +1,14 @@
 package protocols;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -28,6 +30,14 @@ public class TCPCommunication extends QueueResource<String> {
 	private ServerSocket serverSocket;
 	
 	private Map<String, Socket> sockets = new HashMap<String, Socket>();
+	
+	/**
+	 * The strings interned in the frames sent through each socket.
+	 * 
+	 * @see Frame.Dictionary
+	 */
+	private Map<Socket, Frame.Dictionary> dictionaries =
+			new HashMap<Socket, Frame.Dictionary>();
 	// private Map<String, SocketListener> listeners = new HashMap<String,
 	// SocketListener>();
 	private BlockingQueue<FullMessage<String>> queue =
@@ -74,6 +84,11 @@ public class TCPCommunication extends QueueResource<String> {
 	}
 	
 	@Override public void sendMessage(ShortMessage<String> msg, String to) {
+		sendMessages(Collections.singletonList(msg), to);
+	}
+	
+	@Override public void sendMessages(List<ShortMessage<String>> msgs,
+			String to) {
 		Socket socket = null;
 		
 		// Find the right socket:
@@ -96,21 +111,36 @@ public class TCPCommunication extends QueueResource<String> {
 			}
 		}
 		
-		DataOutputStream outToServer = null;
-		
-		// Send the stuff:
+		// Send the stuff, all in one write (frames must go out in the order
+		// they are encoded):
 		try {
-			outToServer = new DataOutputStream(socket.getOutputStream());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		
-		try {
-			outToServer.writeBytes(msg.getId() + "'" + msg.getName() + "'"
-					+ msg.getPayload() + "\n");
+			synchronized (socket) {
+				Frame.Dictionary dictionary;
+				
+				synchronized (sockets) {
+					dictionary = dictionaries.computeIfAbsent(socket,
+							s -> new Frame.Dictionary());
+				}
+				
+				int size = 0;
+				
+				for (ShortMessage<String> msg : msgs) {
+					size += Frame.maxSize(msg);
+				}
+				
+				ByteBuffer frames = ByteBuffer.allocate(size);
+				
+				for (ShortMessage<String> msg : msgs) {
+					Frame.encode(msg, dictionary, frames);
+				}
+				
+				OutputStream out = socket.getOutputStream();
+				out.write(frames.array(), 0, frames.position());
+			}
 		} catch (IOException e) {
 			synchronized (sockets) {
-				sockets.remove(socket);
+				sockets.remove(to);
+				dictionaries.remove(socket);
 			}
 		}
 	}
@@ -136,46 +166,48 @@ class SocketListener implements Runnable {
 	}
 	
 	@Override public void run() {
-		BufferedReader buffer = null;
+		InputStream input = null;
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		Frame.Dictionary dictionary = new Frame.Dictionary();
 		
 		try {
-			buffer = new BufferedReader(new InputStreamReader(
-					socket.getInputStream()));
+			input = socket.getInputStream();
 		} catch (IOException e1) {
 			e1.printStackTrace();
 			interrupt();
+			return;
 		}
 		
 		while (true) {
-			String[] split = null;
-			
 			try {
-				String read = buffer.readLine();
+				int read = input.read(buffer.array(), buffer.position(),
+						buffer.remaining());
 				
-				if (read == null) { // Conncetion closed.
+				if (read == -1) { // Conncetion closed.
 					interrupt();
 					break;
 				}
 				
-				split = read.split("'", 3);
-			} catch (IOException e1) {
-				interrupt();
+				buffer.position(buffer.position() + read);
+				buffer.flip();
+				
+				for (FullMessage<String> message; (message = Frame.decode(
+						buffer, dictionary, senderIp)) != null; /* */) {
+					queue.put(message);
+				}
+				
+				buffer.compact();
+				
+				if (!buffer.hasRemaining()) {
+					buffer.flip();
+					buffer = ByteBuffer.allocate(2 * buffer.capacity())
+							.put(buffer);
+				}
+			} catch (IOException | IllegalArgumentException
+					| InterruptedException e) {
+				interrupt(); // Closed, malformed or stopped.
 				break;
 			}
-			
-			try {
-				queue.put(new FullMessage<String>(Long.valueOf(split[0]),  // id
-						TCPCommunication.protocolName,
-						split[1],  // type
-						senderIp,  // sender address
-						split[2]));// payload
-			} catch (InterruptedException e) {
-				interrupt();
-				break;
-			} /*catch (NumberFormatException e1) {
-				System.out.println("Kukuck!");
-				break;
-			}*/
 		}
 	}
 	
@@ -1,9 +1,11 @@
 package protocols;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 import communications.FullMessage;
 import communications.ShortMessage;
@@ -33,15 +35,15 @@ public class ThreadProtocol<P> extends QueueResource<P> {
 	/**
 	 * Number of messages sent on this interface.
 	 */
-	private long numberOfTxMessages = 0;
+	private final LongAdder numberOfTxMessages = new LongAdder();
 	
 	/**
 	 * Number of messages received on this interface.
 	 */
-	private long numberOfRxMessages = 0;
+	private final LongAdder numberOfRxMessages = new LongAdder();
 	
 	// Constructors:
-
+	
 	/**
 	 * Creates a new ThreadProtocol resource for a certain address, given as any
 	 * String, and a channel simulated by a BlockingQueue map.
@@ -88,7 +90,7 @@ public class ThreadProtocol<P> extends QueueResource<P> {
 //				return;
 //			}
 			
-			numberOfTxMessages++;
+			numberOfTxMessages.increment();
 			
 			try {
 				blockingQueues.get(to).put(fullMsg);
@@ -101,9 +103,30 @@ public class ThreadProtocol<P> extends QueueResource<P> {
 		}
 	}
 	
+	@Override public void sendMessages(List<ShortMessage<P>> msgs, String to) {
+		BlockingQueue<FullMessage<P>> inbox = blockingQueues.get(to);
+		
+		if (inbox == null) {
+			throw new TxException(); // Panic on non existent addresses.
+		}
+		
+		int sent = 0;
+		
+		try {
+			for (ShortMessage<P> msg : msgs) {
+				inbox.put(msg.lengthen(me));
+				sent++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			numberOfTxMessages.add(sent);
+		}
+	}
+	
 	@Override public FullMessage<P> take() throws InterruptedException {
 		FullMessage<P> msg = blockingQueue.take();
-		numberOfRxMessages++;
+		numberOfRxMessages.increment();
 		return msg;
 	}
 	
@@ -112,10 +135,10 @@ public class ThreadProtocol<P> extends QueueResource<P> {
 	}
 	
 	public long getNumberOfRxMessages() {
-		return numberOfRxMessages;
+		return numberOfRxMessages.sum();
 	}
 	
 	public long getNumberOfTxMessages() {
-		return numberOfTxMessages;
+		return numberOfTxMessages.sum();
 	}
 }
\ No newline at end of file
@@ -1,98 +1,348 @@
 package protocols;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 import communications.FullMessage;
 import communications.ShortMessage;
 import communications.util.QueueResource;
 
-public class UDPCommunication extends QueueResource<String> {
 
+/**
+ * A UDP resource over a {@link DatagramChannel}. Each datagram holds one
+ * {@link Frame}, or several when messages are sent in a batch, in which
+ * nothing is interned, since datagrams may be lost or reordered.
+ * 
+ * <p>
+ * Frames are sent from a pool of direct buffers and received into a single
+ * heap buffer, whose array strings are decoded from without further copies,
+ * so that no buffer is allocated per message. Addresses are resolved once and
+ * kept, both ways. The listener drains every datagram waiting in the channel
+ * before it waits on its selector again.
+ * 
+ * @author tokahuke
+ *
+ */
+public class UDPCommunication extends QueueResource<String> {
+	
 	public static final String protocolName = "udp";
 	
-	private DatagramSocket socket;
-	private int bufferLength;
-
-	public UDPCommunication(int port, int bufferLength) throws SocketException {
-		this.socket = new DatagramSocket(port);
+	/**
+	 * The largest datagram, which is also the size of the send buffers and
+	 * of the receive buffer when none is given.
+	 */
+	private static final int MAX_DATAGRAM = 65507;
+	
+	/**
+	 * How many send buffers are kept for reuse.
+	 */
+	private static final int POOL_SIZE = 8;
+	
+	/**
+	 * How many addresses are kept, each way, before the caches start over.
+	 */
+	private static final int MAX_ADDRESSES = 4096;
+	
+	private final DatagramChannel channel;
+	private final Selector selector;
+	
+	/**
+	 * The size of the receive buffer. A datagram longer than this is
+	 * truncated, and then dropped.
+	 */
+	private volatile int bufferLength;
+	
+	/**
+	 * The buffer datagrams are received into. Only touched by the listener.
+	 */
+	private ByteBuffer in;
+	
+	/**
+	 * The name of the sender of the datagram in {@link #in}.
+	 */
+	private String inFrom;
+	
+	/**
+	 * The direct buffers free for sending, all of {@link #MAX_DATAGRAM} bytes.
+	 * Senders that find the pool empty, or whose frames may not fit, send
+	 * from a buffer of their own.
+	 */
+	private final BlockingQueue<ByteBuffer> pool =
+			new ArrayBlockingQueue<ByteBuffer>(POOL_SIZE);
+	
+	/**
+	 * The addresses sent to, by name.
+	 */
+	private final Map<String, InetSocketAddress> resolved =
+			new ConcurrentHashMap<String, InetSocketAddress>();
+	
+	/**
+	 * The names of the addresses received from. Only touched by the listener.
+	 */
+	private final Map<SocketAddress, String> names =
+			new HashMap<SocketAddress, String>();
+	
+	public UDPCommunication(int port, int bufferLength) throws IOException {
 		this.bufferLength = bufferLength;
 		
+		channel = DatagramChannel.open();
+		channel.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+		
+		for (int i = 0; i < POOL_SIZE; i++) {
+			pool.add(ByteBuffer.allocateDirect(MAX_DATAGRAM));
+		}
+		
 		start();
 	}
 	
-	UDPCommunication(int port) throws SocketException {
-		socket = new DatagramSocket(port);
-		start();
+	UDPCommunication(int port) throws IOException {
+		this(port, MAX_DATAGRAM);
 	}
 	
 	public int getPort() {
-		return socket.getLocalPort();
+		return channel.socket().getLocalPort();
 	}
 	
 	public int getBufferLength() {
 		return bufferLength;
 	}
-
+	
 	public void setBufferLength(int bufferLength) {
 		this.bufferLength = bufferLength;
 	}
 	
 	public void disconnect() {
 		stop();
-		socket.disconnect();
+		
+		try {
+			channel.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
-
+	
 	@Override public void sendMessage(ShortMessage<String> msg, String to) {
-		byte[] data = (msg.getId() + "'" + msg.getName() + "'" + msg.getPayload()).getBytes();
-		String[] addressSplit = to.split(":");
-		
-		DatagramPacket packet = null;
+		InetSocketAddress address;
 		
 		try {
-			packet = new DatagramPacket(data, data.length, InetAddress.getByName(addressSplit[0]), Integer.parseInt(addressSplit[1]));
-		} catch (NumberFormatException | UnknownHostException e) {
+			address = resolve(to);
+		} catch (IllegalArgumentException e) {
 			e.printStackTrace();
+			return;
 		}
 		
+		// Datagrams may be lost, so nothing is interned:
+		ByteBuffer buffer = pool.poll();
+		
 		try {
-			socket.send(packet);
+			if (buffer != null && Frame.maxSize(msg) <= MAX_DATAGRAM) {
+				Frame.encode(msg, null, buffer);
+				buffer.flip();
+				channel.send(buffer, address);
+			} else {
+				channel.send(Frame.encode(msg, null), address);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			if (buffer != null) {
+				buffer.clear();
+				pool.offer(buffer);
+			}
 		}
 	}
-
-	@Override public FullMessage<String> take() throws InterruptedException {
-		byte[] buffer = new byte[bufferLength];
-		DatagramPacket packet = new DatagramPacket(buffer, bufferLength);
+	
+	/**
+	 * Sends several messages to the same destination, as many frames per
+	 * datagram as fit in the receive buffer length of this resource, which
+	 * the destination is expected to share.
+	 */
+	@Override public void sendMessages(List<ShortMessage<String>> msgs,
+			String to) {
+		if (msgs.size() == 1) {
+			sendMessage(msgs.get(0), to);
+			return;
+		}
+		
+		InetSocketAddress address;
 		
 		try {
-			socket.receive(packet);
+			address = resolve(to);
+		} catch (IllegalArgumentException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		ByteBuffer buffer = pool.poll();
+		ByteBuffer batch = buffer != null ? buffer : ByteBuffer
+				.allocate(MAX_DATAGRAM);
+		int limit = Math.min(bufferLength, MAX_DATAGRAM);
+		
+		try {
+			for (ShortMessage<String> msg : msgs) {
+				int size = Frame.maxSize(msg);
+				
+				if (batch.position() + size > limit) {
+					flush(batch, address);
+				}
+				
+				if (size > limit) {
+					channel.send(Frame.encode(msg, null), address); // Alone.
+				} else {
+					Frame.encode(msg, null, batch);
+				}
+			}
+			
+			flush(batch, address);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			if (buffer != null) {
+				buffer.clear();
+				pool.offer(buffer);
+			}
+		}
+	}
+	
+	@Override public FullMessage<String> take() throws InterruptedException {
+		while (true) {
+			// Frames left in the last datagram come first; skip the rest of
+			// it if truncated or malformed:
+			if (in != null && in.hasRemaining()) {
+				try {
+					FullMessage<String> message = Frame.decode(in, null,
+							inFrom);
+					
+					if (message != null) {
+						return message;
+					}
+				} catch (IllegalArgumentException e) {
+					e.printStackTrace();
+				}
+				
+				in.position(in.limit());
+				continue;
+			}
+			
+			if (in == null || in.capacity() != bufferLength) {
+				in = ByteBuffer.allocate(bufferLength);
+			}
+			
+			SocketAddress sender;
+			in.clear();
+			
+			// Wait only once the channel is drained:
+			try {
+				while ((sender = channel.receive(in)) == null) {
+					selector.select();
+					selector.selectedKeys().clear();
+					
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+				}
+			} catch (ClosedChannelException | ClosedSelectorException e) {
+				throw new InterruptedException(); // Disconnected.
+			} catch (IOException e) {
+				in.limit(0);
+				e.printStackTrace();
+				continue;
+			}
+			
+			in.flip();
+			inFrom = nameOf(sender);
+		}
+	}
+	
+	
+	// Helpers:
+	
+	/**
+	 * Sends the frames in a buffer as a datagram, if there are any, and
+	 * clears it.
+	 */
+	private void flush(ByteBuffer batch, InetSocketAddress address)
+			throws IOException {
+		if (batch.position() > 0) {
+			batch.flip();
+			channel.send(batch, address);
+			batch.clear();
+		}
+	}
+	
+	/**
+	 * Finds the address of a name, resolving it the first time.
+	 * 
+	 * @param to
+	 *            the name, as <code>host:port</code>.
+	 * @return the address.
+	 * @throws IllegalArgumentException
+	 *             if the name is not a valid address.
+	 */
+	private InetSocketAddress resolve(String to) {
+		InetSocketAddress address = resolved.get(to);
+		
+		if (address == null) {
+			String[] addressSplit = to.split(":");
+			
+			if (addressSplit.length != 2) {
+				throw new IllegalArgumentException("Bad address " + to + ".");
+			}
+			
+			address = new InetSocketAddress(addressSplit[0],
+					Integer.parseInt(addressSplit[1]));
+			
+			if (address.isUnresolved()) {
+				throw new IllegalArgumentException("Unknown host in " + to
+						+ ".");
+			}
+			
+			if (resolved.size() >= MAX_ADDRESSES) {
+				resolved.clear();
+			}
+			
+			resolved.put(to, address);
 		}
 		
-		// Ghaaa! Back to C-strings!!
-		StringBuilder sb = new StringBuilder();
+		return address;
+	}
+	
+	/**
+	 * Finds the name of an address, as <code>host:port</code>.
+	 */
+	private String nameOf(SocketAddress sender) {
+		String name = names.get(sender);
 		
-		for(byte b: packet.getData()) {
-			if(b == 0)
-				break;
+		if (name == null) {
+			InetSocketAddress address = (InetSocketAddress) sender;
+			name = address.getAddress().getHostAddress() + ":"
+					+ address.getPort();
 			
-			sb.append((char)b);
+			if (names.size() >= MAX_ADDRESSES) {
+				names.clear();
+			}
+			
+			names.put(sender, name);
 		}
 		
-		String[] split = new String(sb).split("'", 3);
-
-		return new FullMessage<String>(
-				Long.valueOf(split[0]), // id
-				UDPCommunication.protocolName,
-				split[1], // type
-				packet.getSocketAddress().toString().substring(1), // sender address (without the bloody initial "/")
-				split[2]); // payload
+		return name;
 	}
 }
@@ -1,8 +1,5 @@
 package protocols;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
 import org.jivesoftware.smack.PacketListener;
@@ -14,14 +11,17 @@ import org.jivesoftware.smack.provider.ProviderManager;
 
 import communications.CommunicationResource;
 import communications.ReceiveEvent;
+import communications.Subscription;
 import communications.TxException;
 import communications.ShortMessage;
+import communications.util.Subscriptions;
 
 public class XMPPWithIQProtocol implements CommunicationResource<String> {
 	private ConnectionConfiguration config;
 	private XMPPConnection connection;
-	private Map<ReceiveEvent<String>, PacketListener> mreToListener = 
-			new HashMap<ReceiveEvent<String>, PacketListener>();
+	
+	private final Subscriptions<String> subscriptions =
+			new Subscriptions<String>();
 	
 	public XMPPWithIQProtocol(String ipAddress, int port, String user,
 			String password) throws XMPPException {
@@ -41,11 +41,10 @@ public class XMPPWithIQProtocol implements CommunicationResource<String> {
         ProviderManager.getInstance().addIQProvider("query", "iq:myOwn", new MyIQProvider());
 	}
 	
-	@Override public void addReceiveEvent(ReceiveEvent<String> receiveEvent) {
+	@Override public Subscription addReceiveEvent(
+			ReceiveEvent<String> receiveEvent) {
 		// Yep! Do nothing. And yep! They all have different hashCodes...
 		PacketListener packetListener = (Packet packet) -> {}; 
-			
-		mreToListener.put(receiveEvent, packetListener);
 		
 		connection.addPacketListener(packetListener, (Packet packet) -> {
 			try {
@@ -56,10 +55,14 @@ public class XMPPWithIQProtocol implements CommunicationResource<String> {
 				return false;
 			}
 		});
+		
+		return subscriptions.track(receiveEvent,
+				() -> connection.removePacketListener(packetListener));
 	}
-
-	@Override public void removeReceiveEvent(ReceiveEvent<String> receiveEvent) {
-		connection.removePacketListener(mreToListener.get(receiveEvent));
+	
+	@Deprecated @Override public void removeReceiveEvent(
+			ReceiveEvent<String> receiveEvent) {
+		subscriptions.cancel(receiveEvent);
 	}
 
 	@Override public void sendMessage(ShortMessage<String> msg, String to) throws TxException {
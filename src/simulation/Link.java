@@ -0,0 +1,76 @@
+package simulation;
+
+import java.util.Random;
+
+
+/**
+ * The behavior of a one-way link between two nodes of a {@link Simulator}:
+ * how long messages take to cross it and how often they are lost. Messages
+ * take the latency of the link plus a uniformly distributed jitter, so that
+ * messages sent close enough together may arrive out of order.
+ * 
+ * @author tokahuke
+ *
+ */
+public final class Link {
+	
+	/**
+	 * A perfect link: no delay, no loss.
+	 */
+	public static final Link IDEAL = new Link(0, 0, 0);
+	
+	private final long latencyNanos;
+	private final long jitterNanos;
+	private final double loss;
+	
+	/**
+	 * Creates a new link.
+	 * 
+	 * @param latencyNanos
+	 *            the least time messages take to cross the link.
+	 * @param jitterNanos
+	 *            the most time added to the latency of each message.
+	 * @param loss
+	 *            the probability that a message is lost, from 0 to 1.
+	 */
+	public Link(long latencyNanos, long jitterNanos, double loss) {
+		if (latencyNanos < 0 || jitterNanos < 0 || loss < 0 || loss > 1) {
+			throw new IllegalArgumentException(String.format(
+					"Bad link: %dns + %dns, %f loss.", latencyNanos,
+					jitterNanos, loss));
+		}
+		
+		this.latencyNanos = latencyNanos;
+		this.jitterNanos = jitterNanos;
+		this.loss = loss;
+	}
+	
+	/**
+	 * Decides the fate of a message crossing the link.
+	 * 
+	 * @param random
+	 *            the source of randomness of the simulation.
+	 * @return how long the message takes to cross the link, or -1 if it is
+	 *         lost.
+	 */
+	/* package-private */long delay(Random random) {
+		if (loss > 0 && random.nextDouble() < loss) {
+			return -1;
+		}
+		
+		return jitterNanos > 0 ? latencyNanos
+				+ (long) (random.nextDouble() * jitterNanos) : latencyNanos;
+	}
+	
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+	
+	public long getJitterNanos() {
+		return jitterNanos;
+	}
+	
+	public double getLoss() {
+		return loss;
+	}
+}
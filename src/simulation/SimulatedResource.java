@@ -0,0 +1,217 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import communications.CommunicationResource;
+import communications.FullMessage;
+import communications.ReceiveEvent;
+import communications.ShortMessage;
+import communications.Subscription;
+import communications.TxException;
+
+
+/**
+ * A node of the network of a {@link Simulator}. Messages sent cross the
+ * {@link Link} to their receiver and arrive as events of the simulation, in
+ * which they are dispatched to the receive events of the receiver. Unlike
+ * other resources, this one has no threads and offers messages to its receive
+ * events in the order they were added, so that runs can be reproduced.
+ * 
+ * @author tokahuke
+ *
+ */
+public class SimulatedResource<P> implements CommunicationResource<P> {
+	
+	// Internal classes:
+	
+	/**
+	 * A receive event added to the node. Each call to
+	 * {@link SimulatedResource#addReceiveEvent(ReceiveEvent)} gets its own
+	 * registration, even if the same event is added twice.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private final class Registration implements ReceiveEvent<P>, Subscription {
+		private final ReceiveEvent<P> receiveEvent;
+		
+		public Registration(ReceiveEvent<P> receiveEvent) {
+			this.receiveEvent = receiveEvent;
+		}
+		
+		@Override public boolean receives(FullMessage<P> message)
+				throws InterruptedException {
+			return receiveEvent.receives(message);
+		}
+		
+		@Override public void cancel() {
+			events.remove(this);
+		}
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * The simulation this node belongs to.
+	 */
+	private final Simulator simulator;
+	
+	/**
+	 * The address of the node.
+	 */
+	private final String me;
+	
+	/**
+	 * The receive events added, in order.
+	 */
+	private final List<Registration> events = new ArrayList<Registration>();
+	
+	/**
+	 * Indexes the events of ongoing protocol rounds by protocol name and run
+	 * id.
+	 */
+	private final Map<String, Map<Long, ReceiveEvent<P>>> runIndex =
+			new HashMap<String, Map<Long, ReceiveEvent<P>>>();
+	
+	/**
+	 * Number of messages sent on this interface.
+	 */
+	private long numberOfTxMessages = 0;
+	
+	/**
+	 * Number of messages received on this interface.
+	 */
+	private long numberOfRxMessages = 0;
+	
+	/**
+	 * Number of messages sent on this interface and lost on the way.
+	 */
+	private long numberOfLostMessages = 0;
+	
+	
+	// Constructor:
+	
+	/**
+	 * Creates a new node in a simulation.
+	 * 
+	 * @param simulator
+	 *            the simulation.
+	 * @param me
+	 *            the address of the node. It can be any String not taken by
+	 *            another node.
+	 */
+	public SimulatedResource(Simulator simulator, String me) {
+		this.simulator = simulator;
+		this.me = me;
+		
+		simulator.register(this);
+	}
+	
+	
+	// Implementation of the CommunicationResource interface:
+	
+	@Override public Subscription addReceiveEvent(ReceiveEvent<P> receiveEvent) {
+		Registration registration = new Registration(receiveEvent);
+		events.add(registration);
+		
+		return registration;
+	}
+	
+	@Deprecated @Override public void removeReceiveEvent(
+			ReceiveEvent<P> receiveEvent) {
+		events.removeIf(registration -> registration.receiveEvent
+				== receiveEvent);
+	}
+	
+	@Override public Subscription addRunEvent(String protocol, long runId,
+			ReceiveEvent<P> receiveEvent) {
+		Map<Long, ReceiveEvent<P>> runs = runIndex.computeIfAbsent(protocol,
+				name -> new HashMap<Long, ReceiveEvent<P>>());
+		
+		runs.put(runId, receiveEvent);
+		
+		// Only remove the route if nobody took its place meanwhile:
+		return () -> runs.remove(runId, receiveEvent);
+	}
+	
+	@SuppressWarnings("unchecked") @Override public void sendMessage(
+			ShortMessage<P> msg, String to) {
+		SimulatedResource<P> peer = (SimulatedResource<P>) simulator
+				.getNode(to);
+		
+		if (peer == null) {
+			throw new TxException(); // Panic on non existent addresses.
+		}
+		
+		numberOfTxMessages++;
+		
+		long delay = simulator.getLink(me, to).delay(simulator.getRandom());
+		
+		if (delay < 0) {
+			numberOfLostMessages++;
+			return;
+		}
+		
+		FullMessage<P> fullMessage = msg.lengthen(me);
+		simulator.at(simulator.now() + delay, () -> peer.deliver(fullMessage));
+	}
+	
+	@Override public String getLocalAddress() {
+		return me;
+	}
+	
+	public long getNumberOfTxMessages() {
+		return numberOfTxMessages;
+	}
+	
+	public long getNumberOfRxMessages() {
+		return numberOfRxMessages;
+	}
+	
+	public long getNumberOfLostMessages() {
+		return numberOfLostMessages;
+	}
+	
+	
+	// Helpers:
+	
+	/**
+	 * Delivers a message to its receive event, as
+	 * {@link communications.util.DispatchingResource DispatchingResource}
+	 * does.
+	 * 
+	 * @param msg
+	 *            the arriving message.
+	 */
+	private void deliver(FullMessage<P> msg) {
+		numberOfRxMessages++;
+		
+		try {
+			Map<Long, ReceiveEvent<P>> runs = runIndex.get(msg.getProtocol());
+			
+			if (runs != null) {
+				ReceiveEvent<P> runEvent = runs.get(msg.getId());
+				
+				if (runEvent != null && runEvent.receives(msg)) {
+					return;
+				}
+			}
+			
+			// Not indexed: ask around. Events may come and go meanwhile:
+			for (Object event : events.toArray()) {
+				@SuppressWarnings("unchecked") ReceiveEvent<P> receiveEvent =
+						(ReceiveEvent<P>) event;
+				
+				if (receiveEvent.receives(msg)) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
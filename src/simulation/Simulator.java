@@ -0,0 +1,342 @@
+package simulation;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import dsl.Actor;
+import dsl.Scheduler;
+import dsl.TimingWheel;
+
+
+/**
+ * A discrete-event simulator of a network of actors. Everything that happens
+ * in the simulation, be it a message arriving, a timer going off or a round
+ * being resumed, is an event set at some point of a virtual clock, and events
+ * are run one at a time, in the order of their times, on the thread that calls
+ * {@link #run()}. Time stands still while an event runs and leaps to the next
+ * event once it is done, so that idle periods cost nothing and a run of the
+ * protocol that would take minutes takes as long as its computations do.
+ * 
+ * <p>
+ * The simulator is at the same time the {@link Scheduler} of the actors it
+ * {@link #attach(Actor) attaches} and the {@link Executor} in which they
+ * perform asynchronously, while {@link SimulatedResource SimulatedResources}
+ * carry their messages over {@link Link Links}. All randomness comes from a
+ * single seed and events at the same time run in the order they were set, so
+ * that the same seed always gives the same run.
+ * 
+ * <p>
+ * This class is not thread safe: a simulation must be set up and run by a
+ * single thread.
+ * 
+ * @author tokahuke
+ *
+ */
+public class Simulator implements Scheduler, Executor {
+	
+	// Internal classes:
+	
+	/**
+	 * Something to be run at a certain time. Events are ordered by time and,
+	 * at the same time, by the order in which they were set.
+	 * 
+	 * @author tokahuke
+	 *
+	 */
+	private static final class Event implements Comparable<Event> {
+		private final long time;
+		private final long sequence;
+		private final Runnable task;
+		
+		/**
+		 * Cancelled events stay in the agenda, but are skipped.
+		 */
+		private boolean isCancelled = false;
+		
+		public Event(long time, long sequence, Runnable task) {
+			this.time = time;
+			this.sequence = sequence;
+			this.task = task;
+		}
+		
+		@Override public int compareTo(Event other) {
+			int byTime = Long.compare(time, other.time);
+			return byTime != 0 ? byTime : Long.compare(sequence,
+					other.sequence);
+		}
+	}
+	
+	
+	// Fields:
+	
+	/**
+	 * The events yet to be run.
+	 */
+	private final PriorityQueue<Event> agenda = new PriorityQueue<Event>();
+	
+	/**
+	 * The events of the timers set.
+	 */
+	private final Map<TimingWheel.Timeout, Event> timers =
+			new IdentityHashMap<TimingWheel.Timeout, Event>();
+	
+	/**
+	 * The nodes of the network, by address.
+	 */
+	private final Map<String, SimulatedResource<?>> nodes =
+			new HashMap<String, SimulatedResource<?>>();
+	
+	/**
+	 * The links set between pairs of nodes, by sender and then by receiver.
+	 */
+	private final Map<String, Map<String, Link>> links =
+			new HashMap<String, Map<String, Link>>();
+	
+	/**
+	 * The link between nodes with no link of their own.
+	 */
+	private Link defaultLink = Link.IDEAL;
+	
+	/**
+	 * The only source of randomness of the simulation.
+	 */
+	private final Random random;
+	
+	/**
+	 * The virtual clock.
+	 */
+	private long now = 0;
+	
+	/**
+	 * Counts the events set so far, to break ties.
+	 */
+	private long sequence = 0;
+	
+	/**
+	 * Number of events run so far.
+	 */
+	private long numberOfEvents = 0;
+	
+	
+	// Constructor:
+	
+	/**
+	 * Creates a new simulator, with its clock at zero and ideal links.
+	 * 
+	 * @param seed
+	 *            the seed of all randomness in the simulation.
+	 */
+	public Simulator(long seed) {
+		this.random = new Random(seed);
+	}
+	
+	
+	// Setting things up:
+	
+	/**
+	 * Makes an Actor run by the clock and the timers of the simulation and
+	 * draw its round ids from the seed of the simulation. Actors in a
+	 * simulation must also perform in it, by
+	 * <code>actor.performAsync(simulator)</code>.
+	 * 
+	 * @param actor
+	 *            the Actor.
+	 * @return the same Actor, for convenience in Actor factories.
+	 */
+	public <A extends Actor<?>> A attach(A actor) {
+		actor.setScheduler(this);
+		actor.setRandom(new Random(random.nextLong()));
+		
+		return actor;
+	}
+	
+	/**
+	 * Sets the link between nodes with no link of their own.
+	 * 
+	 * @param link
+	 *            the new default link.
+	 */
+	public void setDefaultLink(Link link) {
+		this.defaultLink = link;
+	}
+	
+	/**
+	 * Sets the link from a node to another. Links are one-way: the link back
+	 * has to be set apart.
+	 * 
+	 * @param from
+	 *            the address of the sender.
+	 * @param to
+	 *            the address of the receiver.
+	 * @param link
+	 *            the link.
+	 */
+	public void setLink(String from, String to, Link link) {
+		links.computeIfAbsent(from, sender -> new HashMap<String, Link>()).put(
+				to, link);
+	}
+	
+	/**
+	 * Gets the link from a node to another.
+	 * 
+	 * @param from
+	 *            the address of the sender.
+	 * @param to
+	 *            the address of the receiver.
+	 * @return the link set between them or the default one.
+	 */
+	public Link getLink(String from, String to) {
+		Map<String, Link> outgoing = links.get(from);
+		Link link = outgoing != null ? outgoing.get(to) : null;
+		
+		return link != null ? link : defaultLink;
+	}
+	
+	
+	// Running things:
+	
+	/**
+	 * Runs a task at a given time.
+	 * 
+	 * @param time
+	 *            the time, as given by {@link #now()}. Times in the past mean
+	 *            now.
+	 * @param task
+	 *            the task.
+	 */
+	public void at(long time, Runnable task) {
+		agenda.add(new Event(Math.max(time, now), sequence++, task));
+	}
+	
+	/**
+	 * Runs the next event, if there is any, moving the clock to its time.
+	 * 
+	 * @return true if an event was run; false if there are no more events.
+	 */
+	public boolean step() {
+		Event event;
+		
+		// Skip the cancelled ones:
+		do {
+			event = agenda.poll();
+			
+			if (event == null) {
+				return false;
+			}
+		} while (event.isCancelled);
+		
+		now = event.time;
+		numberOfEvents++;
+		event.task.run();
+		
+		return true;
+	}
+	
+	/**
+	 * Runs events until there are no more.
+	 */
+	public void run() {
+		while (step()) {
+			continue;
+		}
+	}
+	
+	/**
+	 * Runs events up to a given time and then moves the clock to it.
+	 * 
+	 * @param time
+	 *            the time, as given by {@link #now()}.
+	 */
+	public void runUntil(long time) {
+		Event event;
+		
+		while ((event = agenda.peek()) != null && event.time <= time) {
+			step();
+		}
+		
+		now = Math.max(now, time);
+	}
+	
+	public long getNumberOfEvents() {
+		return numberOfEvents;
+	}
+	
+	
+	// Implementation of the Scheduler interface:
+	
+	/**
+	 * Gets the time of the virtual clock.
+	 * 
+	 * @return the time elapsed in the simulation, in nanoseconds.
+	 */
+	@Override public long now() {
+		return now;
+	}
+	
+	@Override public void schedule(TimingWheel.Timeout timeout, long deadline) {
+		cancel(timeout);
+		
+		Event event = new Event(Math.max(deadline, now), sequence++, () -> {
+			timers.remove(timeout);
+			timeout.run();
+		});
+		
+		timers.put(timeout, event);
+		agenda.add(event);
+	}
+	
+	@Override public boolean cancel(TimingWheel.Timeout timeout) {
+		Event event = timers.remove(timeout);
+		
+		if (event != null) {
+			event.isCancelled = true;
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	
+	// Implementation of the Executor interface:
+	
+	/**
+	 * Runs a task now, but only after the current event and all others set
+	 * for now.
+	 * 
+	 * @param task
+	 *            the task.
+	 */
+	@Override public void execute(Runnable task) {
+		at(now, task);
+	}
+	
+	
+	// Helpers:
+	
+	/**
+	 * Adds a node to the network.
+	 * 
+	 * @param node
+	 *            the node.
+	 * @throws IllegalArgumentException
+	 *             if the address of the node is already taken.
+	 */
+	/* package-private */void register(SimulatedResource<?> node) {
+		if (nodes.putIfAbsent(node.getLocalAddress(), node) != null) {
+			throw new IllegalArgumentException("Address "
+					+ node.getLocalAddress() + " is taken.");
+		}
+	}
+	
+	/* package-private */SimulatedResource<?> getNode(String address) {
+		return nodes.get(address);
+	}
+	
+	/* package-private */Random getRandom() {
+		return random;
+	}
+}